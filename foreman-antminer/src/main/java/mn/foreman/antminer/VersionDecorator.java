@@ -3,6 +3,7 @@ package mn.foreman.antminer;
 import mn.foreman.cgminer.CgMiner;
 import mn.foreman.model.Miner;
 import mn.foreman.model.MinerID;
+import mn.foreman.model.cache.DetectedTypes;
 import mn.foreman.model.error.MinerException;
 import mn.foreman.model.miners.MinerStats;
 
@@ -17,6 +18,10 @@ import java.util.concurrent.atomic.AtomicReference;
  * A miner decorator that will query the version API on cgminer periodically to
  * identify when a miner's type changes, but prevent unnecessary querying during
  * normal metrics queries.
+ *
+ * <p>Detected types are recorded in {@link DetectedTypes}, so a decorator for a
+ * miner whose type was restored after a restart skips detection until the
+ * next periodic version query.</p>
  */
 public class VersionDecorator
         implements Miner {
@@ -148,12 +153,38 @@ public class VersionDecorator
         }
     }
 
+    /**
+     * Converts a previously detected type name back to its type.
+     *
+     * @param name The name.
+     *
+     * @return The type, if it's still known.
+     */
+    private static Optional<AntminerType> toType(final String name) {
+        try {
+            return Optional.of(AntminerType.valueOf(name));
+        } catch (final IllegalArgumentException iae) {
+            return Optional.empty();
+        }
+    }
+
     /**
      * Returns whether or not the version should be queried.
      *
      * @return Whether or not the version should be queried.
      */
     private boolean shouldQueryVersion() {
+        if (this.type.get() == null) {
+            DetectedTypes
+                    .claim(getMinerID())
+                    .flatMap(VersionDecorator::toType)
+                    .ifPresent(knownType -> {
+                        if (this.type.compareAndSet(null, knownType)) {
+                            this.nextQueryTime =
+                                    System.currentTimeMillis() + VERSION_QUERY_INTERVAL;
+                        }
+                    });
+        }
         return ((this.type.get() == null) || (this.nextQueryTime <= System.currentTimeMillis()));
     }
 
@@ -174,6 +205,7 @@ public class VersionDecorator
                 })
                 .ifPresent(type -> {
                     this.type.set(type);
+                    DetectedTypes.put(getMinerID(), type.name());
                     this.nextQueryTime =
                             System.currentTimeMillis() + VERSION_QUERY_INTERVAL;
                 });
@@ -1,29 +1,30 @@
 package mn.foreman.api;
 
-import org.apache.commons.io.IOUtils;
+import mn.foreman.io.HttpClientRegistry;
+
 import org.apache.http.HttpStatus;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
 
-/** A {@link WebUtil} implementation that uses native JDK libraries. */
+/**
+ * A {@link WebUtil} implementation that sends every request through the
+ * shared, pooled {@link HttpClientRegistry#foreman() FOREMAN API client}, so
+ * connections (and TLS sessions) to the dashboard are reused between
+ * requests.
+ */
 public class JdkWebUtil
         implements WebUtil {
 
@@ -34,10 +35,6 @@ public class JdkWebUtil
     /** No request content. */
     private static final String NO_CONTENT = "";
 
-    /** How long to wait on socket operations before disconnecting. */
-    private static final int SOCKET_TIMEOUT =
-            (int) TimeUnit.SECONDS.toMillis(60);
-
     /** The API token. */
     private final String apiToken;
 
@@ -59,47 +56,19 @@ public class JdkWebUtil
 
     @Override
     public Optional<String> get(final String uri) {
-        String response = null;
-        try {
-            final URL url =
-                    new URL(
-                            String.format(
-                                    "%s%s",
-                                    this.foremanUrl,
-                                    uri));
-
-            LOG.debug("Querying {}{}", this.foremanUrl, uri);
-
-            final HttpURLConnection connection =
-                    (HttpURLConnection) url.openConnection();
-
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty(
-                    "Authorization",
-                    "Token " + this.apiToken);
-            connection.setConnectTimeout(SOCKET_TIMEOUT);
-            connection.setReadTimeout(SOCKET_TIMEOUT);
-
-            final int code = connection.getResponseCode();
-            if (code == HttpURLConnection.HTTP_OK) {
-                try (final InputStreamReader inputStreamReader =
-                             new InputStreamReader(
-                                     connection.getInputStream());
-                     final BufferedReader reader =
-                             new BufferedReader(
-                                     inputStreamReader)) {
-                    response =
-                            IOUtils.toString(reader);
-                    LOG.debug("Received response: {}", response);
-                }
-            } else {
-                LOG.warn("Failed to obtain commands: {}", code);
-            }
-        } catch (final Exception e) {
-            LOG.warn("Exception occurred during get", e);
-        }
-
-        return Optional.ofNullable(response);
+        LOG.debug("Querying {}{}", this.foremanUrl, uri);
+
+        final Optional<String> response =
+                execute(
+                        new HttpGet(
+                                String.format(
+                                        "%s%s",
+                                        this.foremanUrl,
+                                        uri)),
+                        HttpStatus.SC_OK);
+        response.ifPresent(content ->
+                LOG.debug("Received response: {}", content));
+        return response;
     }
 
     @Override
@@ -141,6 +110,52 @@ public class JdkWebUtil
                 httpPut);
     }
 
+    /**
+     * Runs the provided request.
+     *
+     * @param request      The request.
+     * @param expectedCode The status code of a successful response.
+     *
+     * @return The response content, if the request was successful.
+     */
+    private Optional<String> execute(
+            final HttpRequestBase request,
+            final int expectedCode) {
+        String response = null;
+
+        request.setHeader(
+                "Authorization",
+                "Token " + this.apiToken);
+
+        try (final CloseableHttpResponse httpResponse =
+                     HttpClientRegistry
+                             .foreman()
+                             .execute(request)) {
+            final int statusCode =
+                    httpResponse
+                            .getStatusLine()
+                            .getStatusCode();
+            if (statusCode == expectedCode) {
+                response =
+                        EntityUtils.toString(
+                                httpResponse.getEntity(),
+                                StandardCharsets.UTF_8);
+            } else {
+                LOG.warn("Received a bad response from {}: code({})",
+                        request.getURI(),
+                        statusCode);
+                // Release the connection back to the pool
+                EntityUtils.consume(httpResponse.getEntity());
+            }
+        } catch (final IOException ioe) {
+            LOG.warn("Exception occurred while querying {}",
+                    request.getURI(),
+                    ioe);
+        }
+
+        return Optional.ofNullable(response);
+    }
+
     /**
      * Runs the provided entity request.
      *
@@ -154,56 +169,17 @@ public class JdkWebUtil
             final String uri,
             final String body,
             final HttpEntityEnclosingRequestBase requestBase) {
-        String response = null;
-
-        final RequestConfig requestConfig =
-                RequestConfig.custom()
-                        .setConnectTimeout(SOCKET_TIMEOUT)
-                        .setConnectionRequestTimeout(SOCKET_TIMEOUT)
-                        .setSocketTimeout(SOCKET_TIMEOUT)
-                        .build();
-
-        try (final CloseableHttpClient httpClient =
-                     HttpClients.custom()
-                             .setDefaultRequestConfig(requestConfig)
-                             .disableAutomaticRetries()
-                             .build()) {
-
-            final StringEntity stringEntity =
-                    new StringEntity(body);
-
-            LOG.debug("Querying {}{} with {}",
-                    this.foremanUrl,
-                    uri,
-                    body);
-
-            requestBase.setEntity(stringEntity);
-            requestBase.setHeader(
-                    "Content-Type",
-                    "application/json");
-            requestBase.setHeader(
-                    "Authorization",
-                    "Token " + this.apiToken);
-
-            try (final CloseableHttpResponse httpResponse =
-                         httpClient.execute(requestBase)) {
-                final int statusCode =
-                        httpResponse
-                                .getStatusLine()
-                                .getStatusCode();
-                if (statusCode == HttpStatus.SC_OK) {
-                    response =
-                            EntityUtils.toString(
-                                    httpResponse.getEntity(),
-                                    StandardCharsets.UTF_8);
-                }
-            } catch (final IOException ioe) {
-                LOG.warn("Exception occurred while posting", ioe);
-            }
-        } catch (final IOException ioe) {
-            LOG.warn("Exception occurred while posting", ioe);
-        }
-
-        return Optional.ofNullable(response);
+        LOG.debug("Querying {}{} with {}",
+                this.foremanUrl,
+                uri,
+                body);
+
+        requestBase.setEntity(
+                new StringEntity(
+                        body,
+                        ContentType.APPLICATION_JSON));
+        return execute(
+                requestBase,
+                HttpStatus.SC_OK);
     }
 }
@@ -0,0 +1,253 @@
+package mn.foreman.api;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link JdkWebUtil}. */
+public class JdkWebUtilTest {
+
+    /** A JSON document that isn't ASCII. */
+    private static final String JSON = "{\"name\":\"caf\u00e9 \u77ff\u673a\"}";
+
+    /** The requests that were received. */
+    private final BlockingQueue<Received> received =
+            new LinkedBlockingQueue<>();
+
+    /** A stand-in for the FOREMAN API. */
+    private HttpServer server;
+
+    /** The utility under test. */
+    private JdkWebUtil webUtil;
+
+    /**
+     * Starts the stand-in API.
+     *
+     * @throws Exception on failure.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.server =
+                HttpServer.create(
+                        new InetSocketAddress(
+                                InetAddress.getLoopbackAddress(),
+                                0),
+                        0);
+        this.server.createContext("/", exchange -> {
+            final byte[] body;
+            try (final InputStream inputStream = exchange.getRequestBody()) {
+                body = ByteStreams.toByteArray(inputStream);
+            }
+            this.received.add(
+                    new Received(
+                            exchange.getRemoteAddress().getPort(),
+                            exchange.getRequestMethod(),
+                            exchange.getRequestURI().getPath(),
+                            exchange.getRequestHeaders().getFirst("Authorization"),
+                            exchange.getRequestHeaders().getFirst("Content-Type"),
+                            body));
+            final byte[] response = JSON.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set(
+                    "Content-Type",
+                    "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (final OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        this.server.start();
+        this.webUtil =
+                new JdkWebUtil(
+                        "http://127.0.0.1:" + this.server.getAddress().getPort(),
+                        "secret");
+    }
+
+    /** Stops the stand-in API. */
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    /**
+     * Tests that queries share one kept-alive connection to the API.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testConnectionsReused() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(
+                    this.webUtil.post(
+                            "/api/post",
+                            JSON).isPresent());
+            assertTrue(this.webUtil.get("/api/get").isPresent());
+        }
+
+        final Set<Integer> clientPorts = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            clientPorts.add(next().clientPort);
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    /**
+     * Tests that a GET is authorized and its response is read as UTF-8.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testGet() throws Exception {
+        assertEquals(
+                Optional.of(JSON),
+                this.webUtil.get("/api/get"));
+
+        final Received request = next();
+        assertEquals("GET", request.method);
+        assertEquals("/api/get", request.path);
+        assertEquals("Token secret", request.authorization);
+        assertEquals(0, request.body.length);
+    }
+
+    /**
+     * Tests that a POST body is sent as authorized UTF-8 JSON.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testPost() throws Exception {
+        assertEquals(
+                Optional.of(JSON),
+                this.webUtil.post(
+                        "/api/post",
+                        JSON));
+        assertJson(
+                "POST",
+                "/api/post",
+                next());
+    }
+
+    /**
+     * Tests that a PUT body is sent as authorized UTF-8 JSON.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testPut() throws Exception {
+        assertEquals(
+                Optional.of(JSON),
+                this.webUtil.put(
+                        "/api/put",
+                        JSON));
+        assertJson(
+                "PUT",
+                "/api/put",
+                next());
+    }
+
+    /**
+     * Verifies that a request carried the JSON document as UTF-8.
+     *
+     * @param method  The expected method.
+     * @param path    The expected path.
+     * @param request The request that was received.
+     */
+    private static void assertJson(
+            final String method,
+            final String path,
+            final Received request) {
+        assertEquals(method, request.method);
+        assertEquals(path, request.path);
+        assertEquals("Token secret", request.authorization);
+        assertTrue(
+                request.contentType,
+                request.contentType.startsWith("application/json"));
+        assertTrue(
+                request.contentType,
+                request.contentType.contains("UTF-8"));
+        assertEquals(
+                JSON,
+                new String(
+                        request.body,
+                        StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the next request that the stand-in received.
+     *
+     * @return The request.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private Received next() throws InterruptedException {
+        final Received request =
+                this.received.poll(
+                        10,
+                        TimeUnit.SECONDS);
+        assertTrue(request != null);
+        return request;
+    }
+
+    /** A request that the stand-in received. */
+    private static class Received {
+
+        /** The Authorization header. */
+        private final String authorization;
+
+        /** The body. */
+        private final byte[] body;
+
+        /** The port the request came from. */
+        private final int clientPort;
+
+        /** The Content-Type header. */
+        private final String contentType;
+
+        /** The method. */
+        private final String method;
+
+        /** The path. */
+        private final String path;
+
+        /**
+         * Constructor.
+         *
+         * @param clientPort    The port the request came from.
+         * @param method        The method.
+         * @param path          The path.
+         * @param authorization The Authorization header.
+         * @param contentType   The Content-Type header.
+         * @param body          The body.
+         */
+        private Received(
+                final int clientPort,
+                final String method,
+                final String path,
+                final String authorization,
+                final String contentType,
+                final byte[] body) {
+            this.clientPort = clientPort;
+            this.method = method;
+            this.path = path;
+            this.authorization = authorization;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package mn.foreman.baikal;
 
+import mn.foreman.io.JsonMapperRegistry;
 import mn.foreman.model.AbstractChangePoolsAction;
 import mn.foreman.model.Pool;
 import mn.foreman.model.error.MinerException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,7 +49,8 @@ public class BaikalChangePoolsAction
             }
 
             final String poolJson =
-                    new ObjectMapper()
+                    JsonMapperRegistry
+                            .getMapper()
                             .writeValueAsString(poolData);
             LOG.info("New pool data: {}", poolJson);
 
@@ -5,8 +5,10 @@ import mn.foreman.cgminer.request.CgMinerRequest;
 import mn.foreman.cgminer.response.CgMinerResponse;
 import mn.foreman.io.ApiRequest;
 import mn.foreman.io.ApiRequestImpl;
+import mn.foreman.io.AsyncIo;
 import mn.foreman.io.Connection;
 import mn.foreman.io.ConnectionFactory;
+import mn.foreman.io.MinerBulkhead;
 import mn.foreman.model.AbstractBuilder;
 import mn.foreman.model.AbstractMiner;
 import mn.foreman.model.MacStrategy;
@@ -14,14 +16,14 @@ import mn.foreman.model.NullMacStrategy;
 import mn.foreman.model.error.MinerException;
 import mn.foreman.model.miners.MinerStats;
 
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -40,20 +42,13 @@ import java.util.concurrent.TimeUnit;
 public class CgMiner
         extends AbstractMiner {
 
+    /** How long to wait for the miner to accept a connection. */
+    private static final int CONNECT_TIMEOUT_MILLIS = 100;
+
     /** The logger for this class. */
     private static final Logger LOG =
             LoggerFactory.getLogger(CgMiner.class);
 
-    /** The mapper. */
-    private static final ObjectMapper MAPPER;
-
-    static {
-        MAPPER = new ObjectMapper();
-        MAPPER.configure(
-                JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS,
-                true);
-    }
-
     /** The command key. */
     private final String commandKey;
 
@@ -86,193 +81,160 @@ public class CgMiner
     protected void addStats(
             final MinerStats.Builder statsBuilder)
             throws MinerException {
-        for (final Request request : this.requests) {
-            final List<CgMinerResponse> responses =
-                    query(
-                            request.request,
-                            request.patchingStrategy);
-            final ResponseStrategy strategy = request.responseStrategy;
-            for (final CgMinerResponse response : responses) {
-                strategy.processResponse(
-                        statsBuilder,
-                        response);
+        try {
+            addStatsAsync(statsBuilder).get();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new MinerException(ie);
+        } catch (final ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof MinerException) {
+                throw (MinerException) cause;
             }
+            throw new MinerException(cause);
         }
     }
 
-    /**
-     * Fixes invalid JSON formatting present in some forks of cgminer.
-     *
-     * @param json             The JSON to patch.
-     * @param patchingStrategy The strategy to use for patching the response.
-     *
-     * @return The patched JSON.
-     *
-     * @throws IOException on failure to patch JSON.
-     */
-    private static String patchJson(
-            final String json,
-            final ResponsePatchingStrategy patchingStrategy)
-            throws IOException {
-        String goodJson = json;
-
-        // Patch miners returning invalid json objects
-        final int errorObjectEnd = json.indexOf("}{");
-        if (errorObjectEnd >= 0) {
-            final int errorObjectStart =
-                    json.lastIndexOf(
-                            "{",
-                            errorObjectEnd);
-            goodJson =
-                    json.substring(0, errorObjectStart) +
-                            json.substring(
-                                    errorObjectEnd + 1);
-        }
-
-        // Patch miners returning 'nan'
-        if (goodJson.contains("nan,")) {
-            goodJson = goodJson.replace("nan,", "0,");
-        }
-
-        // Patch invalid escapes
-        if (goodJson.contains("\\'")) {
-            goodJson = goodJson.replace("\\'", "");
-        }
-        return patchingStrategy.patch(goodJson);
-    }
-
-    /**
-     * Converts the provided data to a response.
-     *
-     * @param request  The request.
-     * @param response The response.
-     * @param dest     Where to store the response.
-     */
-    @SuppressWarnings("unchecked")
-    private static void toResponse(
-            final CgMinerRequest request,
-            final Map<String, Object> response,
-            final List<CgMinerResponse> dest) {
-        final CgMinerResponse.Builder builder =
-                new CgMinerResponse.Builder()
-                        .setRequest(request);
-        final Object rawStatus = response.get("STATUS");
-        if (rawStatus instanceof List) {
-            ((List<Map<String, String>>) response.get("STATUS"))
-                    .forEach(builder::addStatus);
-            response.entrySet()
-                    .stream()
-                    .filter(entry -> !entry.getKey().equals("id"))
-                    .filter(entry -> !entry.getKey().equals("STATUS"))
-                    .forEach(
-                            entry -> {
-                                final List<Map<String, Object>> values =
-                                        (List<Map<String, Object>>) entry.getValue();
-                                values.forEach(
-                                        value ->
-                                                builder.addObjectValues(
-                                                        entry.getKey(),
-                                                        value));
-                            });
-            dest.add(builder.build());
-        } else {
-            LOG.warn("Obtained a failed response: {}", rawStatus);
-        }
-    }
-
-    /**
-     * Converts the response map to a {@link CgMinerResponse}.
-     *
-     * @param request  The request.
-     * @param response The map.
-     * @param dest     The destination.
-     */
-    @SuppressWarnings("unchecked")
-    private static void toResponses(
-            final CgMinerRequest request,
-            final Map<String, Object> response,
-            final List<CgMinerResponse> dest) {
-        if (request.isMulti()) {
-            for (final Map.Entry<String, Object> entry : response.entrySet()) {
-                if (!entry.getKey().equals("id")) {
-                    toResponse(
-                            request,
-                            ((List<Map<String, Object>>) entry.getValue()).get(0),
-                            dest);
-                }
-            }
-        } else {
-            toResponse(
-                    request,
-                    response,
-                    dest);
+    @Override
+    protected CompletableFuture<Void> addStatsAsync(
+            final MinerStats.Builder statsBuilder) {
+        // Never send more requests at once than the device has bulkhead
+        // permits for, so requests from the same poll don't queue behind
+        // each other and run out the wait.  Each lane sends its requests one
+        // after another, and the responses are processed in the order that
+        // the requests were added once they've all arrived.
+        final int lanes =
+                Math.max(
+                        1,
+                        Math.min(
+                                MinerBulkhead.getPermits(),
+                                this.requests.size()));
+        final List<CompletableFuture<List<CgMinerResponse>>> responses =
+                new ArrayList<>(this.requests.size());
+        for (int i = 0; i < this.requests.size(); i++) {
+            final Request request = this.requests.get(i);
+            final CompletableFuture<?> previous =
+                    i >= lanes
+                            ? responses.get(i - lanes)
+                            : CompletableFuture.completedFuture(null);
+            responses.add(
+                    previous.thenCompose(ignored ->
+                            queryAsync(
+                                    request.request,
+                                    request.patchingStrategy)));
         }
+        return CompletableFuture
+                .allOf(responses.toArray(new CompletableFuture[0]))
+                .thenRun(() -> {
+                    for (int i = 0; i < this.requests.size(); i++) {
+                        final ResponseStrategy strategy =
+                                this.requests.get(i).responseStrategy;
+                        for (final CgMinerResponse response :
+                                responses.get(i).join()) {
+                            try {
+                                strategy.processResponse(
+                                        statsBuilder,
+                                        response);
+                            } catch (final MinerException me) {
+                                throw new CompletionException(me);
+                            }
+                        }
+                    }
+                });
     }
 
     /**
      * Connects to the IP and port provided and sends the {@link CgMinerRequest}
      * as bytes to the interface.
      *
-     * <p>This function also waits and reads the entire response until the
-     * socket is closed.</p>
+     * <p>The exchange itself runs on the shared event loop and nothing blocks
+     * while it's in flight.  Since these commands are read-only, identical
+     * requests that overlap (e.g. the stats poller and a command waiting for
+     * a reboot) share one exchange.</p>
      *
      * @param request          The request to send.
      * @param patchingStrategy The patching strategy.
      *
-     * @return The {@link CgMinerResponse}.
-     *
-     * @throws MinerException on failure to query.
+     * @return The {@link CgMinerResponse responses}, which complete
+     * exceptionally with a {@link MinerException} on failure to query.
      */
-    private List<CgMinerResponse> query(
+    private CompletableFuture<List<CgMinerResponse>> queryAsync(
             final CgMinerRequest request,
-            final ResponsePatchingStrategy patchingStrategy)
-            throws MinerException {
-        final List<CgMinerResponse> responses = new LinkedList<>();
-
-        try {
-            final String message =
-                    "{\"" + this.commandKey + "\":\"" + request.toCommand() + "\"}";
-            LOG.debug("Sending message ({}) to {}:{}",
-                    message,
-                    this.apiIp,
-                    this.apiPort);
-
-            final ApiRequest apiRequest =
-                    new ApiRequestImpl(
-                            this.apiIp,
-                            this.apiPort,
-                            message);
-
-            final Connection connection =
-                    ConnectionFactory.createRawConnection(
-                            apiRequest,
-                            this.connectTimeout,
-                            this.connectTimeoutUnits);
-            connection.query();
-
-            if (apiRequest.waitForCompletion(
-                    this.connectTimeout,
-                    this.connectTimeoutUnits)) {
-                String responseString =
-                        apiRequest.getResponse();
-                LOG.debug("Received response: {}", responseString);
-                if (responseString != null && !responseString.isEmpty()) {
-                    responseString =
-                            patchJson(
-                                    responseString,
-                                    patchingStrategy);
-                    final Map<String, Object> responseMap =
-                            MAPPER.readValue(
-                                    responseString,
-                                    new TypeReference<Map<String, Object>>() {
-                                    });
-                    if (!responseMap.isEmpty()) {
+            final ResponsePatchingStrategy patchingStrategy) {
+        final String message =
+                "{\"" + this.commandKey + "\":\"" + request.toCommand() + "\"}";
+        LOG.debug("Sending message ({}) to {}:{}",
+                message,
+                this.apiIp,
+                this.apiPort);
+
+        final ApiRequest apiRequest =
+                new ApiRequestImpl(
+                        this.apiIp,
+                        this.apiPort,
+                        message);
+
+        final Connection connection =
+                ConnectionFactory.createRpcConnection(
+                        apiRequest,
+                        CONNECT_TIMEOUT_MILLIS,
+                        TimeUnit.MILLISECONDS,
+                        this.connectTimeout,
+                        this.connectTimeoutUnits);
+
+        return AsyncIo
+                .sendShared(
+                        connection,
+                        apiRequest,
+                        this.connectTimeout,
+                        this.connectTimeoutUnits)
+                .handle((completed, error) -> {
+                    final List<CgMinerResponse> responses = new LinkedList<>();
+                    if (completed != null) {
                         toResponses(
                                 request,
-                                responseMap,
+                                completed,
+                                patchingStrategy,
                                 responses);
                     }
-                }
+                    if (responses.isEmpty()) {
+                        throw new CompletionException(
+                                new MinerException(
+                                        String.format(
+                                                "Failed to obtain a response from %s:%d",
+                                                this.apiIp,
+                                                this.apiPort)));
+                    }
+                    return responses;
+                });
+    }
+
+    /**
+     * Decodes the response to a completed request.
+     *
+     * @param request          The request that was sent.
+     * @param apiRequest       The completed request.
+     * @param patchingStrategy The patching strategy.
+     * @param responses        Where to store the responses.
+     */
+    private void toResponses(
+            final CgMinerRequest request,
+            final ApiRequest apiRequest,
+            final ResponsePatchingStrategy patchingStrategy,
+            final List<CgMinerResponse> responses) {
+        try {
+            final byte[] response =
+                    apiRequest.getResponseBytes();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Received response: {}",
+                        apiRequest.getResponse());
+            }
+            if (response != null && response.length > 0) {
+                CgMinerResponseDecoder.decode(
+                        request,
+                        response,
+                        patchingStrategy,
+                        responses);
             }
         } catch (final IOException ioe) {
             LOG.debug("Exception occurred while querying {}:{}",
@@ -280,16 +242,6 @@ public class CgMiner
                     this.apiPort,
                     ioe);
         }
-
-        if (responses.isEmpty()) {
-            throw new MinerException(
-                    String.format(
-                            "Failed to obtain a response from %s:%d",
-                            this.apiIp,
-                            this.apiPort));
-        }
-
-        return responses;
     }
 
     /** A builder for creating new {@link CgMiner CgMiners}. */
@@ -0,0 +1,371 @@
+package mn.foreman.cgminer;
+
+import mn.foreman.cgminer.request.CgMinerRequest;
+import mn.foreman.cgminer.response.CgMinerResponse;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link CgMinerResponseDecoder} converts raw cgminer API responses into
+ * {@link CgMinerResponse responses}.
+ *
+ * <p>Responses are patched in a single pass over the raw bytes (the array is
+ * only copied if something actually needed to be fixed) and then tokenized
+ * with a streaming {@link JsonParser}, so values are placed directly into the
+ * {@link CgMinerResponse.Builder} without materializing the whole document as
+ * generic maps first.  A {@link String} is only created when a {@link
+ * ResponsePatchingStrategy} other than the {@link NullPatchingStrategy} needs
+ * to see the JSON.</p>
+ */
+public class CgMinerResponseDecoder {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CgMinerResponseDecoder.class);
+
+    /** The mapper. */
+    private static final ObjectMapper MAPPER;
+
+    /** The type of a STATUS section. */
+    private static final TypeReference<Map<String, Object>> STATUS_TYPE =
+            new TypeReference<Map<String, Object>>() {
+            };
+
+    static {
+        MAPPER = new ObjectMapper();
+        MAPPER.configure(
+                JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS,
+                true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private CgMinerResponseDecoder() {
+        // Do nothing
+    }
+
+    /**
+     * Decodes the provided response.
+     *
+     * @param request          The request that was sent.
+     * @param json             The raw response.
+     * @param patchingStrategy The strategy to use for patching the response.
+     * @param dest             Where to store the responses.
+     *
+     * @throws IOException on failure to decode.
+     */
+    public static void decode(
+            final CgMinerRequest request,
+            final byte[] json,
+            final ResponsePatchingStrategy patchingStrategy,
+            final List<CgMinerResponse> dest)
+            throws IOException {
+        final byte[] patched = patch(json);
+        final JsonParser parser;
+        if (patchingStrategy instanceof NullPatchingStrategy) {
+            parser = MAPPER.getFactory().createParser(patched);
+        } else {
+            parser =
+                    MAPPER.getFactory().createParser(
+                            patchingStrategy.patch(
+                                    new String(
+                                            patched,
+                                            StandardCharsets.UTF_8)));
+        }
+
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            if (request.isMulti()) {
+                // Each command's response is the first element of an array
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    final JsonToken token = parser.nextToken();
+                    if ("id".equals(name) || token != JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    JsonToken element = parser.nextToken();
+                    if (element == JsonToken.START_OBJECT) {
+                        toResponse(
+                                request,
+                                parser,
+                                dest);
+                        element = parser.nextToken();
+                    }
+                    while (element != JsonToken.END_ARRAY) {
+                        parser.skipChildren();
+                        element = parser.nextToken();
+                    }
+                }
+            } else {
+                toResponse(
+                        request,
+                        parser,
+                        dest);
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Fixes invalid JSON formatting present in some forks of cgminer.
+     *
+     * <p>The following are patched:</p>
+     *
+     * <ul>
+     *     <li>JSON that was split across lines.</li>
+     *     <li>An invalid object that was prepended to the response (the
+     *     first <code>}{</code>).</li>
+     *     <li><code>nan</code> values.</li>
+     *     <li>Invalid <code>\'</code> escapes.</li>
+     * </ul>
+     *
+     * <p>The prepended object and <code>nan</code> values are only patched
+     * outside of string values, so a string that happens to contain
+     * <code>}{</code> or <code>nan,</code> is left alone.</p>
+     *
+     * @param json The JSON to patch.
+     *
+     * @return The patched JSON, which is the provided array if nothing needed
+     * to be patched.
+     */
+    static byte[] patch(final byte[] json) {
+        byte[] out = null;
+        int length = 0;
+        byte previous = 0;
+        boolean removedObject = false;
+        boolean inString = false;
+        boolean escaped = false;
+        for (int i = 0; i < json.length; i++) {
+            final byte b = json[i];
+            if (b == '\n' || b == '\r') {
+                out = toWritable(json, out, length);
+                continue;
+            }
+            if (escaped) {
+                escaped = false;
+            } else if (b == '\\') {
+                final int next = skipLineBreaks(json, i + 1);
+                if (next < json.length && json[next] == '\'') {
+                    out = toWritable(json, out, length);
+                    previous = '\'';
+                    i = next;
+                    continue;
+                }
+                escaped = true;
+            } else if (b == '"') {
+                inString = !inString;
+            } else if (inString) {
+                // Nothing to patch inside a string value
+            } else if (b == '{' && previous == '}' && !removedObject) {
+                // Drop the object that was just closed
+                removedObject = true;
+                final byte[] buffer = out != null ? out : json;
+                int objectStart = length - 1;
+                while (objectStart >= 0 && buffer[objectStart] != '{') {
+                    objectStart--;
+                }
+                if (objectStart >= 0) {
+                    out = toWritable(json, out, length);
+                    length = objectStart;
+                }
+            } else if (b == ',' &&
+                    endsWithNan(out != null ? out : json, length)) {
+                out = toWritable(json, out, length);
+                length -= 2;
+                out[length - 1] = '0';
+            }
+            if (out != null) {
+                out[length] = b;
+            }
+            length++;
+            previous = b;
+        }
+
+        if (out == null) {
+            return json;
+        }
+        final byte[] patched = new byte[length];
+        System.arraycopy(out, 0, patched, 0, length);
+        return patched;
+    }
+
+    /**
+     * Checks whether the patched output so far ends with <code>nan</code>.
+     *
+     * @param buffer The buffer.
+     * @param length The length of the output.
+     *
+     * @return Whether or not the output ends with <code>nan</code>.
+     */
+    private static boolean endsWithNan(
+            final byte[] buffer,
+            final int length) {
+        return length >= 3 &&
+                buffer[length - 3] == 'n' &&
+                buffer[length - 2] == 'a' &&
+                buffer[length - 1] == 'n';
+    }
+
+    /**
+     * Reads an object whose values are flattened into strings.
+     *
+     * <p>Scalars are converted exactly like their generic, mapped
+     * counterparts would be.  Nested structures are mapped and then
+     * converted.</p>
+     *
+     * @param parser The parser, positioned at the start of the object.
+     *
+     * @return The values.
+     *
+     * @throws IOException on failure to read.
+     */
+    private static Map<String, String> readValues(final JsonParser parser)
+            throws IOException {
+        final Map<String, String> values = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            switch (token) {
+                case VALUE_STRING:
+                case VALUE_TRUE:
+                case VALUE_FALSE:
+                    values.put(key, parser.getText());
+                    break;
+                case VALUE_NUMBER_INT:
+                    values.put(key, parser.getNumberValue().toString());
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    values.put(key, Double.toString(parser.getDoubleValue()));
+                    break;
+                case START_OBJECT:
+                case START_ARRAY:
+                    values.put(key, parser.readValueAs(Object.class).toString());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads a single command response into a {@link CgMinerResponse}.
+     *
+     * @param request The request.
+     * @param parser  The parser, positioned at the start of the response
+     *                object.
+     * @param dest    Where to store the response.
+     *
+     * @throws IOException on failure to read.
+     */
+    @SuppressWarnings("unchecked")
+    private static void toResponse(
+            final CgMinerRequest request,
+            final JsonParser parser,
+            final List<CgMinerResponse> dest)
+            throws IOException {
+        final CgMinerResponse.Builder builder =
+                new CgMinerResponse.Builder()
+                        .setRequest(request);
+        boolean hasStatus = false;
+        Object rawStatus = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if ("STATUS".equals(name)) {
+                if (token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (parser.currentToken() == JsonToken.START_OBJECT) {
+                            final Map<String, ?> status =
+                                    parser.readValueAs(STATUS_TYPE);
+                            builder.addStatus((Map<String, String>) status);
+                            hasStatus = true;
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    rawStatus = parser.readValueAs(Object.class);
+                }
+            } else if ("id".equals(name) || token != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+            } else {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        builder.addValues(
+                                name,
+                                readValues(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+
+        if (hasStatus) {
+            dest.add(builder.build());
+        } else {
+            LOG.warn("Obtained a failed response: {}", rawStatus);
+        }
+    }
+
+    /**
+     * Finds the first byte at or after the provided index that isn't a line
+     * break.
+     *
+     * @param json  The JSON.
+     * @param start The index to start at.
+     *
+     * @return The index, which may be past the end of the JSON.
+     */
+    private static int skipLineBreaks(
+            final byte[] json,
+            final int start) {
+        int index = start;
+        while (index < json.length &&
+                (json[index] == '\n' || json[index] == '\r')) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns a buffer that the patched output can be written to, copying the
+     * output so far out of the original JSON the first time it's needed.
+     *
+     * @param json   The original JSON.
+     * @param out    The current output buffer, if one was created.
+     * @param length The length of the output so far.
+     *
+     * @return The output buffer.
+     */
+    private static byte[] toWritable(
+            final byte[] json,
+            final byte[] out,
+            final int length) {
+        if (out != null) {
+            return out;
+        }
+        final byte[] writable = new byte[json.length];
+        System.arraycopy(json, 0, writable, 0, length);
+        return writable;
+    }
+}
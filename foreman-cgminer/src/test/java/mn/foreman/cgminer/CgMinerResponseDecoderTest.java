@@ -0,0 +1,93 @@
+package mn.foreman.cgminer;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+/** Unit tests for {@link CgMinerResponseDecoder#patch(byte[])}. */
+public class CgMinerResponseDecoderTest {
+
+    /** Tests that invalid <code>\'</code> escapes are dropped. */
+    @Test
+    public void testEscapes() {
+        assertPatched(
+                "{\"Description\":\"its\"}",
+                "{\"Description\":\"it\\'s\"}");
+        assertPatched(
+                "{\"Description\":\"its\"}",
+                "{\"Description\":\"it\\\r\n's\"}");
+        // Valid escapes are kept, and don't end the string
+        assertPatched(
+                "{\"a\":\"\\\\\",\"b\":0,\"c\":\"\\\"}{\"}",
+                "{\"a\":\"\\\\\",\"b\":nan,\"c\":\"\\\"}{\"}");
+    }
+
+    /** Tests that JSON that was split across lines is joined back up. */
+    @Test
+    public void testLineBreaks() {
+        assertPatched(
+                "{\"STATUS\":[{\"STATUS\":\"S\"}]}",
+                "{\"STATUS\":[\r\n{\"STATUS\":\n\"S\"}]}\n");
+    }
+
+    /** Tests that <code>nan</code> values are replaced with zero. */
+    @Test
+    public void testNan() {
+        assertPatched(
+                "{\"temp\":0,\"temp2\":0,\"temp3\":nan}",
+                "{\"temp\":nan,\"temp2\":nan,\"temp3\":nan}");
+    }
+
+    /**
+     * Tests that nothing is patched inside string values, and that JSON that
+     * didn't need patching isn't copied.
+     */
+    @Test
+    public void testPatternsInStrings() {
+        final byte[] json =
+                toBytes("{\"Pool\":\"stratum+tcp://banan,pool:3333\"," +
+                        "\"Description\":\"}{\",\"Type\":\"nan,\"}");
+        assertSame(
+                json,
+                CgMinerResponseDecoder.patch(json));
+    }
+
+    /** Tests that only the first prepended object is dropped. */
+    @Test
+    public void testPrependedObject() {
+        assertPatched(
+                "{\"STATUS\":[{\"STATUS\":\"S\"}]}",
+                "{\"STATUS\":\"E\"}{\"STATUS\":[{\"STATUS\":\"S\"}]}");
+        assertPatched(
+                "{\"b\":2}{\"c\":3}",
+                "{\"a\":1}{\"b\":2}{\"c\":3}");
+    }
+
+    /**
+     * Verifies that the JSON is patched into the expected bytes.
+     *
+     * @param expected The expected JSON.
+     * @param json     The JSON to patch.
+     */
+    private static void assertPatched(
+            final String expected,
+            final String json) {
+        assertArrayEquals(
+                toBytes(expected),
+                CgMinerResponseDecoder.patch(toBytes(json)));
+    }
+
+    /**
+     * Converts JSON to bytes.
+     *
+     * @param json The JSON.
+     *
+     * @return The bytes.
+     */
+    private static byte[] toBytes(final String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
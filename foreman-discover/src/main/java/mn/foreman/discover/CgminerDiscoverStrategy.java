@@ -56,9 +56,11 @@ public class CgminerDiscoverStrategy
                                 port,
                                 query);
                 final Connection connection =
-                        ConnectionFactory.createJsonConnection(
+                        ConnectionFactory.createRpcConnection(
                                 request,
                                 1,
+                                TimeUnit.SECONDS,
+                                1,
                                 TimeUnit.SECONDS);
                 connection.query();
 
@@ -8,6 +8,7 @@ import mn.foreman.excavator.method.AlgorithmMethod;
 import mn.foreman.excavator.method.DevicesMethod;
 import mn.foreman.excavator.method.Method;
 import mn.foreman.excavator.method.SubscribeMethod;
+import mn.foreman.io.JsonMapperRegistry;
 import mn.foreman.io.Query;
 import mn.foreman.model.AbstractMiner;
 import mn.foreman.model.error.MinerException;
@@ -21,7 +22,6 @@ import mn.foreman.util.PoolUtils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
@@ -88,13 +88,13 @@ public class Excavator
             final Method method,
             final String... params)
             throws JsonProcessingException {
-        final ObjectMapper objectMapper =
-                new ObjectMapper();
-        return objectMapper.writeValueAsString(
-                new Request(
-                        1,
-                        method.toMethod(),
-                        Arrays.asList(params))) + "\n";
+        return JsonMapperRegistry
+                .getWriter(Request.class)
+                .writeValueAsString(
+                        new Request(
+                                1,
+                                method.toMethod(),
+                                Arrays.asList(params))) + "\n";
     }
 
     /**
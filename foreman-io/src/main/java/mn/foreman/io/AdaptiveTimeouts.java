@@ -0,0 +1,322 @@
+package mn.foreman.io;
+
+import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.http.client.config.RequestConfig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AdaptiveTimeouts} derives per-miner connect and read deadlines from
+ * the latency that's actually been observed for each miner, rather than using
+ * the same fixed timeout for every miner.
+ *
+ * <p>Each endpoint on a miner (an RPC command, or an HTTP path) gets its own
+ * {@link LatencyEstimator}, since a miner can answer <code>version</code> in
+ * a few milliseconds and still take seconds to produce <code>stats</code>.
+ * Once enough samples have been collected, the timeout that's used for a
+ * request is the estimator's RTO, clamped to the configured floor and
+ * ceiling.  The timeout that the caller asked for is always an upper bound:
+ * adaptive timeouts only ever shorten a deadline, so a healthy miner that
+ * answers in 40ms doesn't hold a worker for 10s when it hangs.</p>
+ *
+ * <p>Estimators are only created once an endpoint has answered, so scanning
+ * address ranges for miners doesn't grow the registry.  Defaults can be
+ * overridden with the <code>FOREMAN_TIMEOUT_*</code> system properties, and
+ * adaptive timeouts can be disabled entirely with
+ * <code>FOREMAN_TIMEOUT_ADAPTIVE=false</code>.</p>
+ */
+public class AdaptiveTimeouts {
+
+    /** The smallest connect timeout that will be used, in milliseconds. */
+    private static final long CONNECT_FLOOR_MILLIS =
+            Long.getLong(
+                    "FOREMAN_TIMEOUT_CONNECT_FLOOR_MILLIS",
+                    500L);
+
+    /** Whether or not timeouts should be adapted. */
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(
+                    System.getProperty(
+                            "FOREMAN_TIMEOUT_ADAPTIVE",
+                            "true"));
+
+    /** The estimators, by miner and then by endpoint. */
+    private static final ConcurrentMap<MinerID, ConcurrentMap<String, LatencyEstimator>> ESTIMATORS =
+            new ConcurrentHashMap<>();
+
+    /** The number of samples required before timeouts are adapted. */
+    private static final int MIN_SAMPLES =
+            Integer.getInteger(
+                    "FOREMAN_TIMEOUT_MIN_SAMPLES",
+                    3);
+
+    /** The largest read timeout that will be used, in milliseconds. */
+    private static final long READ_CEILING_MILLIS =
+            Long.getLong(
+                    "FOREMAN_TIMEOUT_READ_CEILING_MILLIS",
+                    TimeUnit.SECONDS.toMillis(60));
+
+    /** The smallest read timeout that will be used, in milliseconds. */
+    private static final long READ_FLOOR_MILLIS =
+            Long.getLong(
+                    "FOREMAN_TIMEOUT_READ_FLOOR_MILLIS",
+                    TimeUnit.SECONDS.toMillis(1));
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private AdaptiveTimeouts() {
+        // Do nothing
+    }
+
+    /**
+     * Returns the connect timeout to use for the provided endpoint.
+     *
+     * @param ip           The miner IP.
+     * @param port         The miner port.
+     * @param endpoint     The endpoint (the RPC command or HTTP path).
+     * @param timeout      The timeout the caller asked for.
+     * @param timeoutUnits The timeout (units).
+     *
+     * @return The connect timeout, in milliseconds.
+     */
+    public static int getConnectTimeoutMillis(
+            final String ip,
+            final int port,
+            final String endpoint,
+            final long timeout,
+            final TimeUnit timeoutUnits) {
+        return getTimeoutMillis(
+                ip,
+                port,
+                endpoint,
+                timeoutUnits.toMillis(timeout),
+                CONNECT_FLOOR_MILLIS,
+                Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a snapshot of every endpoint's latency estimate.
+     *
+     * @return The estimates, by miner and then by endpoint.
+     */
+    public static Map<MinerID, Map<String, LatencyEstimator.Estimate>> getEstimates() {
+        final ImmutableMap.Builder<MinerID, Map<String, LatencyEstimator.Estimate>> estimates =
+                ImmutableMap.builder();
+        ESTIMATORS.forEach(
+                (minerId, endpoints) -> {
+                    final ImmutableMap.Builder<String, LatencyEstimator.Estimate> minerEstimates =
+                            ImmutableMap.builder();
+                    endpoints.forEach(
+                            (endpoint, estimator) ->
+                                    minerEstimates.put(
+                                            endpoint,
+                                            estimator.getEstimate()));
+                    estimates.put(
+                            minerId,
+                            minerEstimates.build());
+                });
+        return estimates.build();
+    }
+
+    /**
+     * Returns the read timeout to use for the provided endpoint.
+     *
+     * @param ip           The miner IP.
+     * @param port         The miner port.
+     * @param endpoint     The endpoint (the RPC command or HTTP path).
+     * @param timeout      The timeout the caller asked for.
+     * @param timeoutUnits The timeout (units).
+     *
+     * @return The read timeout, in milliseconds.
+     */
+    public static int getReadTimeoutMillis(
+            final String ip,
+            final int port,
+            final String endpoint,
+            final long timeout,
+            final TimeUnit timeoutUnits) {
+        return getTimeoutMillis(
+                ip,
+                port,
+                endpoint,
+                timeoutUnits.toMillis(timeout),
+                READ_FLOOR_MILLIS,
+                READ_CEILING_MILLIS);
+    }
+
+    /**
+     * Records a failed request to an endpoint, which only affects the
+     * endpoint's estimate if the request timed out.
+     *
+     * @param ip       The miner IP.
+     * @param port     The miner port.
+     * @param endpoint The endpoint (the RPC command or HTTP path).
+     * @param cause    The failure.
+     */
+    public static void recordFailure(
+            final String ip,
+            final int port,
+            final String endpoint,
+            final IOException cause) {
+        // Connect and socket timeouts are both interrupted I/O
+        if (cause instanceof InterruptedIOException) {
+            recordTimeout(
+                    ip,
+                    port,
+                    endpoint);
+        }
+    }
+
+    /**
+     * Records how long a successful request to an endpoint took.
+     *
+     * @param ip            The miner IP.
+     * @param port          The miner port.
+     * @param endpoint      The endpoint (the RPC command or HTTP path).
+     * @param elapsedMillis How long the request took, in milliseconds.
+     */
+    public static void recordSample(
+            final String ip,
+            final int port,
+            final String endpoint,
+            final long elapsedMillis) {
+        ESTIMATORS
+                .computeIfAbsent(
+                        new SimpleMinerID(ip, port),
+                        minerId -> new ConcurrentHashMap<>())
+                .computeIfAbsent(
+                        endpoint,
+                        key -> new LatencyEstimator())
+                .addSample(elapsedMillis);
+    }
+
+    /**
+     * Records that a request to an endpoint timed out.
+     *
+     * @param ip       The miner IP.
+     * @param port     The miner port.
+     * @param endpoint The endpoint (the RPC command or HTTP path).
+     */
+    public static void recordTimeout(
+            final String ip,
+            final int port,
+            final String endpoint) {
+        final LatencyEstimator estimator =
+                getEstimator(
+                        ip,
+                        port,
+                        endpoint);
+        if (estimator != null) {
+            estimator.addTimeout();
+        }
+    }
+
+    /**
+     * Creates the {@link RequestConfig} to use for a single HTTP request to a
+     * miner, with timeouts derived from the endpoint's latency.
+     *
+     * @param ip                  The miner IP.
+     * @param port                The miner port.
+     * @param endpoint            The endpoint (the HTTP path).
+     * @param connectTimeout      The connect timeout the caller asked for.
+     * @param connectTimeoutUnits The connect timeout (units).
+     * @param socketTimeout       The socket timeout the caller asked for.
+     * @param socketTimeoutUnits  The socket timeout (units).
+     *
+     * @return The request configuration.
+     */
+    public static RequestConfig toRequestConfig(
+            final String ip,
+            final int port,
+            final String endpoint,
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits,
+            final int socketTimeout,
+            final TimeUnit socketTimeoutUnits) {
+        return HttpClientRegistry.toRequestConfig(
+                getConnectTimeoutMillis(
+                        ip,
+                        port,
+                        endpoint,
+                        connectTimeout,
+                        connectTimeoutUnits),
+                TimeUnit.MILLISECONDS,
+                getReadTimeoutMillis(
+                        ip,
+                        port,
+                        endpoint,
+                        socketTimeout,
+                        socketTimeoutUnits),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the estimator for an endpoint.
+     *
+     * @param ip       The miner IP.
+     * @param port     The miner port.
+     * @param endpoint The endpoint.
+     *
+     * @return The estimator, or null if the endpoint hasn't answered yet.
+     */
+    private static LatencyEstimator getEstimator(
+            final String ip,
+            final int port,
+            final String endpoint) {
+        final Map<String, LatencyEstimator> endpoints =
+                ESTIMATORS.get(new SimpleMinerID(ip, port));
+        return endpoints != null
+                ? endpoints.get(endpoint)
+                : null;
+    }
+
+    /**
+     * Derives a timeout from the endpoint's estimator.
+     *
+     * @param ip              The miner IP.
+     * @param port            The miner port.
+     * @param endpoint        The endpoint.
+     * @param requestedMillis The timeout the caller asked for.
+     * @param floorMillis     The smallest timeout to use.
+     * @param ceilingMillis   The largest timeout to use.
+     *
+     * @return The timeout, in milliseconds.
+     */
+    private static int getTimeoutMillis(
+            final String ip,
+            final int port,
+            final String endpoint,
+            final long requestedMillis,
+            final long floorMillis,
+            final long ceilingMillis) {
+        long timeoutMillis = requestedMillis;
+        if (ENABLED) {
+            final LatencyEstimator estimator =
+                    getEstimator(
+                            ip,
+                            port,
+                            endpoint);
+            if (estimator != null && estimator.getSamples() >= MIN_SAMPLES) {
+                final long adaptedMillis =
+                        Math.min(
+                                ceilingMillis,
+                                Math.max(
+                                        floorMillis,
+                                        estimator.getRtoMillis()));
+                timeoutMillis = Math.min(requestedMillis, adaptedMillis);
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, timeoutMillis);
+    }
+}
@@ -2,6 +2,7 @@ package mn.foreman.io;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,9 +18,9 @@ import java.util.concurrent.TimeUnit;
  * <p>This class is thread safe - however, it is only thread safe under the
  * condition that no getters are invoked until a successful {@link
  * #waitForCompletion(long, TimeUnit)} has completed (the response has been
- * returned).  When this happens (true return value), no other threads will be
- * updating this request (i.e.: no socket threads will still be reading
- * updates).</p>
+ * returned), or until the {@link #getCompletion() completion} has completed.
+ * When this happens, no other threads will be updating this request (i.e.: no
+ * socket threads will still be reading updates).</p>
  *
  * <p>The behavior of this class when used outside of the constraints above is
  * undefined.</p>
@@ -29,6 +30,17 @@ public interface ApiRequest {
     /** Marks the request as completed. */
     void completed();
 
+    /**
+     * Returns a future that's completed with this request once it has been
+     * {@link #completed() completed}.
+     *
+     * <p>The getters are safe to invoke from any stage that depends on the
+     * returned future.</p>
+     *
+     * @return The completion.
+     */
+    CompletableFuture<ApiRequest> getCompletion();
+
     /**
      * Returns the content.
      *
@@ -71,6 +83,15 @@ public interface ApiRequest {
      */
     String getResponse();
 
+    /**
+     * Returns the response as raw, UTF-8 encoded bytes.
+     *
+     * <p>The returned array must not be modified.</p>
+     *
+     * @return The response bytes.
+     */
+    byte[] getResponseBytes();
+
     /**
      * Sets the response to the request.
      *
@@ -78,6 +99,16 @@ public interface ApiRequest {
      */
     void setResponse(String response);
 
+    /**
+     * Sets the response to the request as raw, UTF-8 encoded bytes.
+     *
+     * <p>The response is only decoded into a {@link String} if {@link
+     * #getResponse()} is invoked.</p>
+     *
+     * @param response The response.
+     */
+    void setResponse(byte[] response);
+
     /**
      * Waits for the request to finish.
      *
@@ -2,22 +2,26 @@ package mn.foreman.io;
 
 import org.apache.commons.lang3.Validate;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * A simple {@link ApiRequest} that leverages a {@link CountDownLatch} as the
+ * A simple {@link ApiRequest} that leverages a {@link CompletableFuture} as the
  * indicator that a response has been received.
  */
 public class ApiRequestImpl
         implements ApiRequest {
 
-    /** The completion latch. */
-    private final CountDownLatch completedLatch = new CountDownLatch(1);
+    /** The completion. */
+    private final CompletableFuture<ApiRequest> completion =
+            new CompletableFuture<>();
 
     /** The content. */
     private final String content;
@@ -37,6 +41,9 @@ public class ApiRequestImpl
     /** The response. */
     private String response;
 
+    /** The response, as received. */
+    private byte[] responseBytes;
+
     /**
      * Constructor.
      *
@@ -112,7 +119,12 @@ public class ApiRequestImpl
 
     @Override
     public void completed() {
-        this.completedLatch.countDown();
+        this.completion.complete(this);
+    }
+
+    @Override
+    public CompletableFuture<ApiRequest> getCompletion() {
+        return this.completion;
     }
 
     @Override
@@ -141,14 +153,38 @@ public class ApiRequestImpl
     }
 
     @Override
-    public String getResponse() {
+    public synchronized String getResponse() {
+        if (this.response == null && this.responseBytes != null) {
+            this.response =
+                    new String(
+                            this.responseBytes,
+                            StandardCharsets.UTF_8);
+        }
         return this.response;
     }
 
     @Override
-    public void setResponse(final String response) {
+    public synchronized byte[] getResponseBytes() {
+        if (this.responseBytes == null && this.response != null) {
+            this.responseBytes =
+                    this.response.getBytes(StandardCharsets.UTF_8);
+        }
+        return this.responseBytes;
+    }
+
+    @Override
+    public synchronized void setResponse(final String response) {
         if (response != null && !response.isEmpty()) {
             this.response = response;
+            this.responseBytes = null;
+        }
+    }
+
+    @Override
+    public synchronized void setResponse(final byte[] response) {
+        if (response != null && response.length > 0) {
+            this.responseBytes = response;
+            this.response = null;
         }
     }
 
@@ -158,11 +194,13 @@ public class ApiRequestImpl
             final TimeUnit deadlineUnits) {
         boolean result = false;
         try {
-            result =
-                    this.completedLatch.await(
-                            deadline,
-                            deadlineUnits);
-        } catch (final InterruptedException ignored) {
+            this.completion.get(
+                    deadline,
+                    deadlineUnits);
+            result = true;
+        } catch (final InterruptedException |
+                ExecutionException |
+                TimeoutException ignored) {
             // Ignore
         }
         return result;
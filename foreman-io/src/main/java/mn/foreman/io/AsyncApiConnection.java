@@ -0,0 +1,190 @@
+package mn.foreman.io;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link AsyncApiConnection} provides a non-blocking, Netty-based
+ * connection to a remote miner instance.
+ *
+ * <p>Unlike {@link SimpleApiConnection}, {@link #query()} returns as soon as
+ * the connect has been initiated.  All of the socket work happens on the
+ * {@link EventLoopGroup}, so thousands of exchanges can be in flight on a
+ * handful of threads.  The {@link ApiRequest} is always marked as {@link
+ * ApiRequest#completed() completed} once the exchange finishes, whether or not
+ * it was successful.</p>
+ */
+public class AsyncApiConnection
+        implements Connection {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(AsyncApiConnection.class);
+
+    /** The connection timeout. */
+    private final int connectTimeout;
+
+    /** The connection timeout units. */
+    private final TimeUnit connectTimeoutUnits;
+
+    /** The event group. */
+    private final EventLoopGroup eventLoopGroup;
+
+    /** The channel handlers. */
+    private final List<ChannelHandler> handlers;
+
+    /** The read timeout. */
+    private final int readTimeout;
+
+    /** The read timeout units. */
+    private final TimeUnit readTimeoutUnits;
+
+    /** The request. */
+    private final ApiRequest request;
+
+    /**
+     * Constructor.
+     *
+     * @param request             The request.
+     * @param handlers            The handlers.
+     * @param eventLoopGroup      The event group.
+     * @param connectTimeout      The connection timeout.
+     * @param connectTimeoutUnits The connection timeout units.
+     * @param readTimeout         The read timeout.
+     * @param readTimeoutUnits    The read timeout units.
+     */
+    AsyncApiConnection(
+            final ApiRequest request,
+            final List<ChannelHandler> handlers,
+            final EventLoopGroup eventLoopGroup,
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits,
+            final int readTimeout,
+            final TimeUnit readTimeoutUnits) {
+        Validate.notNull(
+                request,
+                "Request cannot be null");
+        Validate.notNull(
+                handlers,
+                "Channel handlers cannot be null");
+        Validate.notNull(
+                eventLoopGroup,
+                "Event group cannot be null");
+        Validate.isTrue(
+                connectTimeout >= 0,
+                "connectTimeout must be >= 0");
+        Validate.notNull(
+                connectTimeoutUnits,
+                "connectTimeoutUnits cannot be null");
+        Validate.isTrue(
+                readTimeout >= 0,
+                "readTimeout must be >= 0");
+        Validate.notNull(
+                readTimeoutUnits,
+                "readTimeoutUnits cannot be null");
+        this.request = request;
+        this.handlers = new ArrayList<>(handlers);
+        this.eventLoopGroup = eventLoopGroup;
+        this.connectTimeout = connectTimeout;
+        this.connectTimeoutUnits = connectTimeoutUnits;
+        this.readTimeout = readTimeout;
+        this.readTimeoutUnits = readTimeoutUnits;
+    }
+
+    @Override
+    public void query() {
+        final Bootstrap bootstrap = new Bootstrap();
+        bootstrap
+                .group(this.eventLoopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                        (int) this.connectTimeoutUnits.toMillis(
+                                this.connectTimeout))
+                .handler(new ChannelInitializer<SocketChannel>() {
+
+                    @Override
+                    protected void initChannel(final SocketChannel channel) {
+                        channel.pipeline().addLast(
+                                new ReadTimeoutHandler(
+                                        AsyncApiConnection.this.readTimeout,
+                                        AsyncApiConnection.this.readTimeoutUnits));
+                        AsyncApiConnection.this.handlers
+                                .forEach((handler) ->
+                                        channel.pipeline().addLast(handler));
+                    }
+                });
+
+        // Wait for the device to be free on the calling thread - never on
+        // the event loop
+        final MinerBulkhead.Permit permit;
+        try {
+            permit = MinerBulkhead.acquire(this.request.getIp());
+        } catch (final BulkheadFullException bfe) {
+            LOG.debug("Too busy to communicate with {}:{}",
+                    this.request.getIp(),
+                    this.request.getPort(),
+                    bfe);
+            this.request.completed();
+            return;
+        }
+
+        final String message = this.request.getRequest();
+        bootstrap
+                .connect(
+                        this.request.getIp(),
+                        this.request.getPort())
+                .addListener((ChannelFutureListener) future -> {
+                    if (future.isSuccess()) {
+                        future
+                                .channel()
+                                .closeFuture()
+                                .addListener(closed -> permit.close());
+                        if (!message.isEmpty()) {
+                            future
+                                    .channel()
+                                    .writeAndFlush(message)
+                                    .addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                        }
+                    } else {
+                        // Never connected, so the handlers will never see the
+                        // channel go inactive
+                        LOG.debug("Failed to connect to {}:{}",
+                                this.request.getIp(),
+                                this.request.getPort(),
+                                future.cause());
+                        if (future.cause() instanceof ConnectTimeoutException) {
+                            AdaptiveTimeouts.recordTimeout(
+                                    this.request.getIp(),
+                                    this.request.getPort(),
+                                    message);
+                        }
+                        permit.close();
+                        this.request.completed();
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<String> queryAsync() {
+        return AsyncIo
+                .send(
+                        this,
+                        this.request,
+                        this.connectTimeoutUnits.toMillis(this.connectTimeout) +
+                                this.readTimeoutUnits.toMillis(this.readTimeout),
+                        TimeUnit.MILLISECONDS)
+                .thenApply(ApiRequest::getResponse);
+    }
+}
@@ -0,0 +1,202 @@
+package mn.foreman.io;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * {@link AsyncIo} provides the shared plumbing behind the {@link
+ * CompletableFuture}-based API.
+ *
+ * <p>Every {@link Connection} is started on a shared pool so that callers are
+ * never blocked, even by connections whose {@link Connection#query()} is
+ * blocking (or that must wait on a {@link MinerBulkhead} permit).  Responses
+ * are always handed back on the same pool, never on a Netty event loop, so
+ * dependent stages can safely decode and process them.</p>
+ *
+ * <p>Read-only requests can be {@link #sendShared(Connection, ApiRequest,
+ * long, TimeUnit) shared}: identical requests to the same endpoint that
+ * overlap are coalesced into one exchange.  A successful response can also be
+ * reused for a short window with the
+ * <code>FOREMAN_SINGLE_FLIGHT_FRESH_MILLIS</code> system property (disabled by
+ * default).</p>
+ */
+public class AsyncIo {
+
+    /**
+     * The pool that connections are started and completed on.  The pool is
+     * bounded: when every thread is busy (e.g. waiting on bulkhead permits),
+     * connections queue up rather than each getting a thread of their own.
+     */
+    private static final ExecutorService EXECUTOR =
+            Executors.newFixedThreadPool(
+                    Integer.getInteger(
+                            "FOREMAN_IO_THREADS",
+                            64),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("foreman-io-%d")
+                            .setDaemon(true)
+                            .build());
+
+    /** The shared, read-only requests. */
+    private static final SingleFlight<List<Object>, ApiRequest> FLIGHTS =
+            new SingleFlight<>(
+                    Long.getLong(
+                            "FOREMAN_SINGLE_FLIGHT_FRESH_MILLIS",
+                            0),
+                    TimeUnit.MILLISECONDS);
+
+    /** The timer used to enforce deadlines. */
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER =
+                new ScheduledThreadPoolExecutor(
+                        1,
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("foreman-io-timer-%d")
+                                .setDaemon(true)
+                                .build());
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private AsyncIo() {
+        // Do nothing
+    }
+
+    /**
+     * Returns the pool that connections are started and completed on.
+     *
+     * @return The pool.
+     */
+    public static Executor getExecutor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Returns the coalescing applied to shared requests.
+     *
+     * @return The coalescing applied to shared requests.
+     */
+    public static SingleFlight<List<Object>, ApiRequest> getFlights() {
+        return FLIGHTS;
+    }
+
+    /**
+     * Starts the provided connection without blocking the caller, bounding
+     * the exchange by a deadline.
+     *
+     * <p>The deadline starts once the connection has been started, so time
+     * spent queued behind other requests to the same device (see {@link
+     * MinerBulkhead}) doesn't count against it.  Every exchange is bounded,
+     * so a connection that never completes its request can't leave the
+     * future pending forever.</p>
+     *
+     * @param connection   The connection.
+     * @param request      The request the connection will complete.
+     * @param timeout      The deadline.
+     * @param timeoutUnits The deadline (units).
+     *
+     * @return A future that's completed with the request once it has been
+     * completed, or with a {@link TimeoutException} if the deadline passes
+     * first.
+     */
+    public static CompletableFuture<ApiRequest> send(
+            final Connection connection,
+            final ApiRequest request,
+            final long timeout,
+            final TimeUnit timeoutUnits) {
+        return CompletableFuture
+                .runAsync(
+                        connection::query,
+                        EXECUTOR)
+                .thenCompose(started ->
+                        withTimeout(
+                                request.getCompletion(),
+                                timeout,
+                                timeoutUnits))
+                .thenApplyAsync(
+                        completed -> completed,
+                        EXECUTOR);
+    }
+
+    /**
+     * Starts the provided connection without blocking the caller, unless an
+     * identical request to the same endpoint is already in flight, in which
+     * case its completed request is shared instead.
+     *
+     * <p>Only read-only requests should be shared, since a shared request is
+     * only sent once.</p>
+     *
+     * @param connection   The connection.
+     * @param request      The request the connection will complete.
+     * @param timeout      The deadline.
+     * @param timeoutUnits The deadline (units).
+     *
+     * @return A future that's completed with the (possibly shared) request
+     * once it has been completed, or with a {@link TimeoutException} if the
+     * deadline passes first.
+     */
+    public static CompletableFuture<ApiRequest> sendShared(
+            final Connection connection,
+            final ApiRequest request,
+            final long timeout,
+            final TimeUnit timeoutUnits) {
+        final List<Object> key =
+                Arrays.asList(
+                        request.getIp(),
+                        request.getPort(),
+                        request.getRequest(),
+                        request.getProperties(),
+                        request.getContent().orElse(null));
+        return FLIGHTS.execute(
+                key,
+                () -> send(
+                        connection,
+                        request,
+                        timeout,
+                        timeoutUnits));
+    }
+
+    /**
+     * Bounds the provided future by a deadline.  If the deadline passes first,
+     * the returned future completes exceptionally with a {@link
+     * TimeoutException}.
+     *
+     * @param future       The future.
+     * @param timeout      The deadline.
+     * @param timeoutUnits The deadline (units).
+     * @param <T>          The result type.
+     *
+     * @return A future that completes with the result, or a timeout.
+     */
+    public static <T> CompletableFuture<T> withTimeout(
+            final CompletableFuture<T> future,
+            final long timeout,
+            final TimeUnit timeoutUnits) {
+        final CompletableFuture<T> bounded = new CompletableFuture<>();
+        final ScheduledFuture<?> deadline =
+                TIMER.schedule(
+                        () -> bounded.completeExceptionally(
+                                new TimeoutException(
+                                        "Timed out waiting for a response")),
+                        timeout,
+                        timeoutUnits);
+        future.whenComplete((result, error) -> {
+            deadline.cancel(false);
+            if (error != null) {
+                bounded.completeExceptionally(error);
+            } else {
+                bounded.complete(result);
+            }
+        });
+        return bounded;
+    }
+}
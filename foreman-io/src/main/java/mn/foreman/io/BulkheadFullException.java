@@ -0,0 +1,21 @@
+package mn.foreman.io;
+
+import java.io.IOException;
+
+/**
+ * A {@link BulkheadFullException} provides an exception to indicate that a
+ * request to a miner was rejected because too many other requests to the same
+ * device were already in flight, and none of them finished in time.
+ */
+public class BulkheadFullException
+        extends IOException {
+
+    /**
+     * Constructor.
+     *
+     * @param message The message.
+     */
+    public BulkheadFullException(final String message) {
+        super(message);
+    }
+}
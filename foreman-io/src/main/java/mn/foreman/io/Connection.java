@@ -1,8 +1,21 @@
 package mn.foreman.io;
 
+import java.util.concurrent.CompletableFuture;
+
 /** A {@link Connection} represents a connection to a remote miner API. */
 public interface Connection {
 
     /** Queries the miner APi. */
     void query();
+
+    /**
+     * Queries the miner API without blocking the caller.
+     *
+     * <p>The returned future is completed once the exchange has finished,
+     * with the response, or with <code>null</code> if one wasn't
+     * obtained.</p>
+     *
+     * @return The response.
+     */
+    CompletableFuture<String> queryAsync();
 }
@@ -1,5 +1,8 @@
 package mn.foreman.io;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.EventLoopGroup;
@@ -16,6 +19,10 @@ import java.util.function.Consumer;
 /**
  * A {@link ConnectionFactory} provides a factory to creating {@link Connection
  * connections} to remote miner APIs.
+ *
+ * <p>Socket-based connections are timed and their timeouts are derived from
+ * each endpoint's observed latency via {@link AdaptiveTimeouts}.  The timeouts
+ * that are provided here are upper bounds.</p>
  */
 public class ConnectionFactory {
 
@@ -48,10 +55,12 @@ public class ConnectionFactory {
             final TimeUnit connectTimeoutUnits) {
         final StringBuilder stringBuilder = new StringBuilder();
         return new SimpleApiConnection(
-                request.getIp(),
-                request.getPort(),
-                request.getRequest(),
+                request,
                 Arrays.asList(
+                        new LatencyRecordingHandler(
+                                request.getIp(),
+                                request.getPort(),
+                                request.getRequest()),
                         new StringEncoder(),
                         new StringDecoder(),
                         new ChannelInboundHandlerAdapter() {
@@ -78,8 +87,13 @@ public class ConnectionFactory {
                             }
                         }),
                 DEFAULT_GROUP,
-                connectTimeout,
-                connectTimeoutUnits);
+                AdaptiveTimeouts.getReadTimeoutMillis(
+                        request.getIp(),
+                        request.getPort(),
+                        request.getRequest(),
+                        connectTimeout,
+                        connectTimeoutUnits),
+                TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -97,10 +111,12 @@ public class ConnectionFactory {
             final int connectTimeout,
             final TimeUnit connectTimeoutUnits) {
         return new SimpleApiConnection(
-                request.getIp(),
-                request.getPort(),
-                request.getRequest(),
+                request,
                 Arrays.asList(
+                        new LatencyRecordingHandler(
+                                request.getIp(),
+                                request.getPort(),
+                                request.getRequest()),
                         new StringEncoder(),
                         new JsonObjectDecoder(),
                         new StringDecoder(),
@@ -129,8 +145,13 @@ public class ConnectionFactory {
                             }
                         }),
                 DEFAULT_GROUP,
-                connectTimeout,
-                connectTimeoutUnits);
+                AdaptiveTimeouts.getReadTimeoutMillis(
+                        request.getIp(),
+                        request.getPort(),
+                        request.getRequest(),
+                        connectTimeout,
+                        connectTimeoutUnits),
+                TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -211,4 +232,89 @@ public class ConnectionFactory {
                     // Do nothing
                 });
     }
+
+    /**
+     * Creates a non-blocking {@link Connection} to a miner that accepts
+     * cgminer-style RPC calls, where the request is written and the miner
+     * responds until it closes the socket.
+     *
+     * <p>{@link Connection#query()} returns immediately.  The response is
+     * accumulated on the event loop and the {@link ApiRequest} is completed
+     * when the miner closes the connection, the read times out, or the
+     * connect fails.  The response is handed over as raw bytes so callers
+     * can decode it without an intermediate {@link String}.</p>
+     *
+     * @param request             The request.
+     * @param connectTimeout      The connection timeout.
+     * @param connectTimeoutUnits The connection timeout (units).
+     * @param readTimeout         The read timeout.
+     * @param readTimeoutUnits    The read timeout (units).
+     *
+     * @return The new {@link Connection}.
+     */
+    public static Connection createRpcConnection(
+            final ApiRequest request,
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits,
+            final int readTimeout,
+            final TimeUnit readTimeoutUnits) {
+        final ByteBuf responseBuffer = Unpooled.buffer();
+        return new AsyncApiConnection(
+                request,
+                Arrays.asList(
+                        new LatencyRecordingHandler(
+                                request.getIp(),
+                                request.getPort(),
+                                request.getRequest()),
+                        new StringEncoder(),
+                        new ChannelInboundHandlerAdapter() {
+
+                            @Override
+                            public void channelInactive(
+                                    final ChannelHandlerContext context) {
+                                try {
+                                    request.setResponse(
+                                            ByteBufUtil.getBytes(
+                                                    responseBuffer));
+                                } finally {
+                                    responseBuffer.release();
+                                    request.completed();
+                                }
+                            }
+
+                            @Override
+                            public void channelRead(
+                                    final ChannelHandlerContext context,
+                                    final Object msg) {
+                                final ByteBuf chunk = (ByteBuf) msg;
+                                try {
+                                    responseBuffer.writeBytes(chunk);
+                                } finally {
+                                    chunk.release();
+                                }
+                            }
+
+                            @Override
+                            public void exceptionCaught(
+                                    final ChannelHandlerContext context,
+                                    final Throwable cause) {
+                                context.close();
+                            }
+                        }),
+                DEFAULT_GROUP,
+                AdaptiveTimeouts.getConnectTimeoutMillis(
+                        request.getIp(),
+                        request.getPort(),
+                        request.getRequest(),
+                        connectTimeout,
+                        connectTimeoutUnits),
+                TimeUnit.MILLISECONDS,
+                AdaptiveTimeouts.getReadTimeoutMillis(
+                        request.getIp(),
+                        request.getPort(),
+                        request.getRequest(),
+                        readTimeout,
+                        readTimeoutUnits),
+                TimeUnit.MILLISECONDS);
+    }
 }
\ No newline at end of file
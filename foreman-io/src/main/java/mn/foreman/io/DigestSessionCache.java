@@ -0,0 +1,190 @@
+package mn.foreman.io;
+
+import org.apache.http.HttpHost;
+import org.apache.http.impl.auth.DigestScheme;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DigestSessionCache} remembers the digest challenge (realm, nonce,
+ * opaque and nonce-count) that was last negotiated with each host so that
+ * subsequent requests can authenticate pre-emptively instead of eating a
+ * <code>401</code> round trip first.
+ *
+ * <p>Sessions are checked out for the duration of a request and checked back
+ * in once it succeeds.  Because a {@link DigestScheme} tracks its own
+ * nonce-count, concurrent requests to the same host never share a session:
+ * whoever doesn't get it simply negotiates a new one.  Sessions are dropped
+ * once they're older than the configured max age, when the server rejects
+ * them, or when a request fails.</p>
+ */
+public class DigestSessionCache {
+
+    /** The number of requests that reused a session without a challenge. */
+    private static final AtomicLong HITS = new AtomicLong();
+
+    /**
+     * How long a session is reused before a new challenge is forced, in
+     * milliseconds.
+     */
+    static final long MAX_AGE_MILLIS =
+            Long.getLong(
+                    "FOREMAN_DIGEST_MAX_AGE_MILLIS",
+                    TimeUnit.MINUTES.toMillis(5));
+
+    /** The number of requests that required a challenge. */
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /** The cached sessions, by host. */
+    private static final ConcurrentMap<HttpHost, Session> SESSIONS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private DigestSessionCache() {
+        // Do nothing
+    }
+
+    /**
+     * Checks out the session for the provided host, if there's one that
+     * hasn't gone stale.
+     *
+     * @param host The host.
+     *
+     * @return The session, if present.
+     */
+    public static Optional<Session> checkout(final HttpHost host) {
+        return checkout(
+                host,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the number of requests that reused a session and skipped the
+     * challenge.
+     *
+     * @return The number of hits.
+     */
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    /**
+     * Returns the number of requests that had to be challenged.
+     *
+     * @return The number of misses.
+     */
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    /**
+     * Records the outcome of an authenticated request.
+     *
+     * <p>The negotiated scheme is cached for the next request to the host
+     * when the server accepted it, and discarded otherwise.</p>
+     *
+     * @param host       The host.
+     * @param previous   The session that was checked out, if any.
+     * @param negotiated The scheme that was used for the request, if any.
+     * @param accepted   Whether or not the server accepted the credentials.
+     */
+    public static void release(
+            final HttpHost host,
+            final Session previous,
+            final DigestScheme negotiated,
+            final boolean accepted) {
+        final String negotiatedNonce =
+                negotiated != null
+                        ? negotiated.getParameter("nonce")
+                        : null;
+        final boolean challenged =
+                previous == null ||
+                        !accepted ||
+                        negotiatedNonce == null ||
+                        !negotiatedNonce.equals(previous.nonce);
+        if (!challenged) {
+            HITS.incrementAndGet();
+        } else if (accepted || previous == null) {
+            // A rejected session is counted by the fresh challenge that
+            // follows it
+            MISSES.incrementAndGet();
+        }
+
+        if (accepted && negotiatedNonce != null) {
+            SESSIONS.put(
+                    host,
+                    new Session(
+                            negotiated,
+                            negotiatedNonce,
+                            challenged
+                                    ? System.currentTimeMillis()
+                                    : previous.createdMillis));
+        }
+    }
+
+    /**
+     * Checks out the session for the provided host, if there's one that
+     * hasn't gone stale as of the provided time.
+     *
+     * @param host      The host.
+     * @param nowMillis The current time, in epoch millis.
+     *
+     * @return The session, if present.
+     */
+    static Optional<Session> checkout(
+            final HttpHost host,
+            final long nowMillis) {
+        final Session session = SESSIONS.remove(host);
+        if (session != null &&
+                nowMillis - session.createdMillis < MAX_AGE_MILLIS) {
+            return Optional.of(session);
+        }
+        return Optional.empty();
+    }
+
+    /** A digest session that was negotiated with a host. */
+    public static class Session {
+
+        /** When the nonce was first issued. */
+        private final long createdMillis;
+
+        /** The nonce. */
+        private final String nonce;
+
+        /** The scheme, which carries the nonce-count. */
+        private final DigestScheme scheme;
+
+        /**
+         * Constructor.
+         *
+         * @param scheme        The scheme.
+         * @param nonce         The nonce.
+         * @param createdMillis When the nonce was first issued.
+         */
+        private Session(
+                final DigestScheme scheme,
+                final String nonce,
+                final long createdMillis) {
+            this.scheme = scheme;
+            this.nonce = nonce;
+            this.createdMillis = createdMillis;
+        }
+
+        /**
+         * Returns the scheme.
+         *
+         * @return The scheme.
+         */
+        public DigestScheme getScheme() {
+            return this.scheme;
+        }
+    }
+}
@@ -0,0 +1,708 @@
+package mn.foreman.io;
+
+import mn.foreman.model.AbstractBuilder;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link HttpClientRegistry} provides long-lived, pooled {@link
+ * CloseableHttpClient clients} that are shared across every HTTP request that
+ * is made to the same class of endpoint (ex: miners).
+ *
+ * <p>Each client is backed by a {@link PoolingHttpClientConnectionManager} so
+ * that TCP connections are kept alive and reused between requests, bounded
+ * per route and in total, and evicted once they've been idle for too long.
+ * Unless their {@link Settings} provide defaults, clients never carry
+ * timeouts of their own: callers must apply one per request via {@link
+ * #toRequestConfig(int, TimeUnit, int, TimeUnit)}.</p>
+ *
+ * <p>Each client has its own TLS context, so TLS sessions are resumed when a
+ * client has to open a new connection to a server it has talked to before.
+ * Connections, handshakes and request latency are tracked per client (see
+ * {@link #getStats(String)}).</p>
+ *
+ * <p>Clients are never closed - they live as long as the application.</p>
+ */
+public class HttpClientRegistry {
+
+    /** The name of the client that's used to talk to the FOREMAN API. */
+    public static final String FOREMAN = "foreman";
+
+    /** The name of the client that's used to talk to miners. */
+    public static final String MINERS = "miners";
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(HttpClientRegistry.class);
+
+    /**
+     * Retries a request exactly once when a pooled connection was closed by
+     * the server before it responded (ex: the miner dropped an idle
+     * keep-alive connection or restarted its web server), as long as sending
+     * it again is safe: the request is idempotent, or it was never fully
+     * sent.  A request that carries a body (ex: a reboot POST) may have been
+     * acted on, so it's never sent twice.  Every other failure is surfaced
+     * immediately.
+     */
+    private static final HttpRequestRetryHandler STALE_CONNECTION_RETRIES =
+            (exception, executionCount, context) -> {
+                if (executionCount > 1 ||
+                        !(exception instanceof NoHttpResponseException)) {
+                    return false;
+                }
+                final HttpClientContext clientContext =
+                        HttpClientContext.adapt(context);
+                return !clientContext.isRequestSent() ||
+                        !(clientContext.getRequest() instanceof HttpEntityEnclosingRequest);
+            };
+
+    /**
+     * Checks that a pooled connection is still open before a request that
+     * carries a body is sent over it.  {@link #STALE_CONNECTION_RETRIES}
+     * never sends such a request twice, so a connection that the server had
+     * already closed (ex: a miner that was just restarted) would otherwise
+     * fail it outright.  Other requests skip the check and are retried
+     * instead.
+     */
+    @SuppressWarnings("deprecation")
+    private static final HttpRequestInterceptor STALE_CONNECTION_CHECK =
+            (request, context) -> {
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    final HttpClientContext clientContext =
+                            HttpClientContext.adapt(context);
+                    clientContext.setRequestConfig(
+                            RequestConfig
+                                    .copy(clientContext.getRequestConfig())
+                                    .setStaleConnectionCheckEnabled(true)
+                                    .build());
+                }
+            };
+
+    /**
+     * Also retries idempotent requests (ex: GETs) that failed with an I/O
+     * error, up to 3 times.
+     */
+    private static final HttpRequestRetryHandler IDEMPOTENT_RETRIES =
+            (exception, executionCount, context) ->
+                    STALE_CONNECTION_RETRIES.retryRequest(
+                            exception,
+                            executionCount,
+                            context) ||
+                            DefaultHttpRequestRetryHandler.INSTANCE.retryRequest(
+                                    exception,
+                                    executionCount,
+                                    context);
+
+    /** The context attribute that holds when a request was sent. */
+    private static final String SENT_AT = "mn.foreman.io.sentAt";
+
+    /** The registered clients. */
+    private static final ConcurrentMap<String, CloseableHttpClient> CLIENTS =
+            new ConcurrentHashMap<>();
+
+    /** The usage of each registered client. */
+    private static final ConcurrentMap<String, HttpClientStats> STATS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private HttpClientRegistry() {
+        // Do nothing
+    }
+
+    /**
+     * Returns the client that's used to talk to the FOREMAN API.
+     *
+     * <p>The API is a single, distant route, so its connections are kept
+     * around for longer than the defaults, and requests get consistent
+     * default timeouts.  These can be overridden with the
+     * <code>FOREMAN_API_*</code> system properties.</p>
+     *
+     * <p>Note: unlike the per-request clients this replaced, which disabled
+     * automatic retries entirely, requests to the API are retried up to 3
+     * times on I/O errors when they're idempotent (ex: GETs) or failed
+     * before they were fully sent (ex: a POST whose connection couldn't be
+     * opened).  A POST that may have reached the API is never retried
+     * here.</p>
+     *
+     * @return The client.
+     */
+    public static CloseableHttpClient foreman() {
+        return getClient(
+                FOREMAN,
+                new Settings.Builder()
+                        .setMaxTotal(
+                                Integer.getInteger(
+                                        "FOREMAN_API_MAX_TOTAL",
+                                        32))
+                        .setMaxPerRoute(
+                                Integer.getInteger(
+                                        "FOREMAN_API_MAX_PER_ROUTE",
+                                        16))
+                        .setIdleTimeout(
+                                Long.getLong(
+                                        "FOREMAN_API_IDLE_TIMEOUT_MILLIS",
+                                        TimeUnit.SECONDS.toMillis(90)),
+                                TimeUnit.MILLISECONDS)
+                        .setKeepAlive(
+                                Long.getLong(
+                                        "FOREMAN_API_KEEP_ALIVE_MILLIS",
+                                        TimeUnit.SECONDS.toMillis(90)),
+                                TimeUnit.MILLISECONDS)
+                        .setConnectTimeout(
+                                Long.getLong(
+                                        "FOREMAN_API_CONNECT_TIMEOUT_MILLIS",
+                                        TimeUnit.SECONDS.toMillis(20)),
+                                TimeUnit.MILLISECONDS)
+                        .setSocketTimeout(
+                                Long.getLong(
+                                        "FOREMAN_API_SOCKET_TIMEOUT_MILLIS",
+                                        TimeUnit.SECONDS.toMillis(60)),
+                                TimeUnit.MILLISECONDS)
+                        .setRetryIdempotent(true)
+                        .build());
+    }
+
+    /**
+     * Returns the client with the provided name, creating it with the
+     * default {@link Settings} if it doesn't exist yet.
+     *
+     * @param name The name.
+     *
+     * @return The client.
+     */
+    public static CloseableHttpClient getClient(final String name) {
+        return getClient(
+                name,
+                new Settings.Builder().build());
+    }
+
+    /**
+     * Returns the client with the provided name, creating it with the
+     * provided {@link Settings} if it doesn't exist yet.
+     *
+     * @param name     The name.
+     * @param settings The settings to use if the client must be created.
+     *
+     * @return The client.
+     */
+    public static CloseableHttpClient getClient(
+            final String name,
+            final Settings settings) {
+        return CLIENTS.computeIfAbsent(
+                name,
+                key -> createClient(
+                        key,
+                        settings));
+    }
+
+    /**
+     * Returns the usage of the client with the provided name.
+     *
+     * @param name The name.
+     *
+     * @return The usage, if the client exists.
+     */
+    public static Optional<HttpClientStats> getStats(final String name) {
+        return Optional.ofNullable(STATS.get(name));
+    }
+
+    /**
+     * Returns the client that's used to talk to miners.
+     *
+     * @return The client.
+     */
+    public static CloseableHttpClient miners() {
+        return getClient(MINERS);
+    }
+
+    /**
+     * Creates the {@link RequestConfig} to use for a single request.
+     *
+     * <p>Note: the socket timeout also bounds how long a request will wait to
+     * lease a connection from the pool when every connection to the route is
+     * busy.</p>
+     *
+     * @param connectTimeout      The connect timeout.
+     * @param connectTimeoutUnits The connect timeout (units).
+     * @param socketTimeout       The socket timeout.
+     * @param socketTimeoutUnits  The socket timeout (units).
+     *
+     * @return The request configuration.
+     */
+    public static RequestConfig toRequestConfig(
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits,
+            final int socketTimeout,
+            final TimeUnit socketTimeoutUnits) {
+        final int socketTimeoutMillis =
+                (int) socketTimeoutUnits.toMillis(socketTimeout);
+        return RequestConfig
+                .custom()
+                .setConnectTimeout((int) connectTimeoutUnits.toMillis(connectTimeout))
+                .setConnectionRequestTimeout(socketTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .build();
+    }
+
+    /**
+     * Creates a new pooled client.
+     *
+     * @param name     The name of the client.
+     * @param settings The settings.
+     *
+     * @return The new client.
+     */
+    private static CloseableHttpClient createClient(
+            final String name,
+            final Settings settings) {
+        LOG.info("Creating pooled HTTP client {}: {}", name, settings);
+
+        final HttpClientStats stats = new HttpClientStats();
+        STATS.put(name, stats);
+
+        final PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager(
+                        RegistryBuilder.<ConnectionSocketFactory>create()
+                                .register(
+                                        "http",
+                                        new CountingPlainSocketFactory(stats))
+                                .register(
+                                        "https",
+                                        new CountingSslSocketFactory(stats))
+                                .build());
+        connectionManager.setMaxTotal(settings.maxTotal);
+        connectionManager.setDefaultMaxPerRoute(settings.maxPerRoute);
+        connectionManager.setValidateAfterInactivity(
+                (int) settings.validateAfterInactivityMillis);
+
+        final ConnectionKeepAliveStrategy keepAliveStrategy =
+                (response, context) -> {
+                    final long keepAlive =
+                            DefaultConnectionKeepAliveStrategy.INSTANCE
+                                    .getKeepAliveDuration(
+                                            response,
+                                            context);
+                    return keepAlive > 0
+                            ? Math.min(keepAlive, settings.keepAliveMillis)
+                            : settings.keepAliveMillis;
+                };
+
+        final HttpClientBuilder builder =
+                HttpClients
+                        .custom()
+                        .setConnectionManager(connectionManager)
+                        .setKeepAliveStrategy(keepAliveStrategy)
+                        .evictExpiredConnections()
+                        .evictIdleConnections(
+                                settings.idleTimeoutMillis,
+                                TimeUnit.MILLISECONDS)
+                        .setRetryHandler(
+                                settings.retryIdempotent
+                                        ? IDEMPOTENT_RETRIES
+                                        : STALE_CONNECTION_RETRIES)
+                        .addInterceptorFirst(STALE_CONNECTION_CHECK)
+                        .disableCookieManagement()
+                        .addInterceptorLast(
+                                (HttpRequestInterceptor) (request, context) ->
+                                        context.setAttribute(
+                                                SENT_AT,
+                                                System.nanoTime()))
+                        .addInterceptorFirst(
+                                (HttpResponseInterceptor) (response, context) -> {
+                                    final Object sentAt =
+                                            context.getAttribute(SENT_AT);
+                                    if (sentAt instanceof Long) {
+                                        stats.onResponse(
+                                                System.nanoTime() - (Long) sentAt);
+                                    }
+                                });
+        if (settings.connectTimeoutMillis > 0 || settings.socketTimeoutMillis > 0) {
+            builder.setDefaultRequestConfig(
+                    toRequestConfig(
+                            (int) settings.connectTimeoutMillis,
+                            TimeUnit.MILLISECONDS,
+                            (int) settings.socketTimeoutMillis,
+                            TimeUnit.MILLISECONDS));
+        }
+        return builder.build();
+    }
+
+    /** Opens plain connections, counting them. */
+    private static class CountingPlainSocketFactory
+            extends PlainConnectionSocketFactory {
+
+        /** The client usage. */
+        private final HttpClientStats stats;
+
+        /**
+         * Constructor.
+         *
+         * @param stats The client usage.
+         */
+        private CountingPlainSocketFactory(final HttpClientStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public Socket connectSocket(
+                final int connectTimeout,
+                final Socket socket,
+                final HttpHost host,
+                final InetSocketAddress remoteAddress,
+                final InetSocketAddress localAddress,
+                final HttpContext context) throws IOException {
+            this.stats.onConnection();
+            return super.connectSocket(
+                    connectTimeout,
+                    socket,
+                    host,
+                    remoteAddress,
+                    localAddress,
+                    context);
+        }
+    }
+
+    /**
+     * Opens TLS connections, counting them and their handshakes.
+     *
+     * <p>Note: every connection shares the factory's TLS context, and with it
+     * the context's session cache, which is what allows sessions to be
+     * resumed.</p>
+     */
+    private static class CountingSslSocketFactory
+            extends SSLConnectionSocketFactory {
+
+        /** The client usage. */
+        private final HttpClientStats stats;
+
+        /**
+         * Constructor.
+         *
+         * @param stats The client usage.
+         */
+        private CountingSslSocketFactory(final HttpClientStats stats) {
+            super(
+                    SSLContexts.createDefault(),
+                    getDefaultHostnameVerifier());
+            this.stats = stats;
+        }
+
+        @Override
+        public Socket connectSocket(
+                final int connectTimeout,
+                final Socket socket,
+                final HttpHost host,
+                final InetSocketAddress remoteAddress,
+                final InetSocketAddress localAddress,
+                final HttpContext context) throws IOException {
+            this.stats.onConnection();
+            return super.connectSocket(
+                    connectTimeout,
+                    socket,
+                    host,
+                    remoteAddress,
+                    localAddress,
+                    context);
+        }
+
+        @Override
+        protected void prepareSocket(final SSLSocket socket) {
+            // A resumed session was created before this connection was
+            final long preparedAt = System.currentTimeMillis();
+            socket.addHandshakeCompletedListener(event ->
+                    this.stats.onHandshake(
+                            event.getSession().getCreationTime() < preparedAt));
+        }
+    }
+
+    /** The configuration for a pooled client. */
+    public static class Settings {
+
+        /** The default connect timeout, or zero for none. */
+        private final long connectTimeoutMillis;
+
+        /**
+         * How long an idle connection can stay in the pool before it's
+         * evicted.
+         */
+        private final long idleTimeoutMillis;
+
+        /**
+         * The longest a connection will be kept alive, regardless of what the
+         * server advertises.
+         */
+        private final long keepAliveMillis;
+
+        /** The maximum number of pooled connections per route. */
+        private final int maxPerRoute;
+
+        /** The maximum number of pooled connections. */
+        private final int maxTotal;
+
+        /** Whether or not idempotent requests are retried on I/O errors. */
+        private final boolean retryIdempotent;
+
+        /** The default socket timeout, or zero for none. */
+        private final long socketTimeoutMillis;
+
+        /**
+         * How long a connection can be idle before it's re-validated prior to
+         * being leased.
+         */
+        private final long validateAfterInactivityMillis;
+
+        /**
+         * Constructor.
+         *
+         * @param builder The builder.
+         */
+        private Settings(final Builder builder) {
+            Validate.isTrue(
+                    builder.maxTotal > 0,
+                    "maxTotal must be > 0");
+            Validate.isTrue(
+                    builder.maxPerRoute > 0,
+                    "maxPerRoute must be > 0");
+            this.maxTotal = builder.maxTotal;
+            this.maxPerRoute = builder.maxPerRoute;
+            this.idleTimeoutMillis = builder.idleTimeoutMillis;
+            this.keepAliveMillis = builder.keepAliveMillis;
+            this.connectTimeoutMillis = builder.connectTimeoutMillis;
+            this.socketTimeoutMillis = builder.socketTimeoutMillis;
+            this.retryIdempotent = builder.retryIdempotent;
+            this.validateAfterInactivityMillis =
+                    builder.validateAfterInactivityMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s [ " +
+                            "maxTotal=%d, " +
+                            "maxPerRoute=%d, " +
+                            "idleTimeoutMillis=%d, " +
+                            "keepAliveMillis=%d, " +
+                            "validateAfterInactivityMillis=%d, " +
+                            "connectTimeoutMillis=%d, " +
+                            "socketTimeoutMillis=%d, " +
+                            "retryIdempotent=%s " +
+                            "]",
+                    getClass().getSimpleName(),
+                    this.maxTotal,
+                    this.maxPerRoute,
+                    this.idleTimeoutMillis,
+                    this.keepAliveMillis,
+                    this.validateAfterInactivityMillis,
+                    this.connectTimeoutMillis,
+                    this.socketTimeoutMillis,
+                    this.retryIdempotent);
+        }
+
+        /**
+         * A builder for creating {@link Settings}.
+         *
+         * <p>Defaults can be overridden with the <code>FOREMAN_HTTP_*</code>
+         * system properties.</p>
+         */
+        public static class Builder
+                extends AbstractBuilder<Settings> {
+
+            /** The default connect timeout. */
+            private long connectTimeoutMillis;
+
+            /** The idle timeout. */
+            private long idleTimeoutMillis =
+                    Long.getLong(
+                            "FOREMAN_HTTP_IDLE_TIMEOUT_MILLIS",
+                            TimeUnit.SECONDS.toMillis(10));
+
+            /** The max keep alive. */
+            private long keepAliveMillis =
+                    Long.getLong(
+                            "FOREMAN_HTTP_KEEP_ALIVE_MILLIS",
+                            TimeUnit.SECONDS.toMillis(30));
+
+            /** The max connections per route. */
+            private int maxPerRoute =
+                    Integer.getInteger(
+                            "FOREMAN_HTTP_MAX_PER_ROUTE",
+                            2);
+
+            /** The max connections. */
+            private int maxTotal =
+                    Integer.getInteger(
+                            "FOREMAN_HTTP_MAX_TOTAL",
+                            1024);
+
+            /** Whether or not to retry idempotent requests. */
+            private boolean retryIdempotent;
+
+            /** The default socket timeout. */
+            private long socketTimeoutMillis;
+
+            /** When to re-validate idle connections. */
+            private long validateAfterInactivityMillis =
+                    Long.getLong(
+                            "FOREMAN_HTTP_VALIDATE_AFTER_MILLIS",
+                            500L);
+
+            @Override
+            public Settings build() {
+                return new Settings(this);
+            }
+
+            /**
+             * Sets the default connect timeout.
+             *
+             * @param connectTimeout      The connect timeout.
+             * @param connectTimeoutUnits The connect timeout (units).
+             *
+             * @return This builder instance.
+             */
+            public Builder setConnectTimeout(
+                    final long connectTimeout,
+                    final TimeUnit connectTimeoutUnits) {
+                this.connectTimeoutMillis =
+                        connectTimeoutUnits.toMillis(connectTimeout);
+                return this;
+            }
+
+            /**
+             * Sets the idle timeout.
+             *
+             * @param idleTimeout      The idle timeout.
+             * @param idleTimeoutUnits The idle timeout (units).
+             *
+             * @return This builder instance.
+             */
+            public Builder setIdleTimeout(
+                    final long idleTimeout,
+                    final TimeUnit idleTimeoutUnits) {
+                this.idleTimeoutMillis = idleTimeoutUnits.toMillis(idleTimeout);
+                return this;
+            }
+
+            /**
+             * Sets the max keep alive.
+             *
+             * @param keepAlive      The max keep alive.
+             * @param keepAliveUnits The max keep alive (units).
+             *
+             * @return This builder instance.
+             */
+            public Builder setKeepAlive(
+                    final long keepAlive,
+                    final TimeUnit keepAliveUnits) {
+                this.keepAliveMillis = keepAliveUnits.toMillis(keepAlive);
+                return this;
+            }
+
+            /**
+             * Sets the max connections per route.
+             *
+             * @param maxPerRoute The max connections per route.
+             *
+             * @return This builder instance.
+             */
+            public Builder setMaxPerRoute(final int maxPerRoute) {
+                this.maxPerRoute = maxPerRoute;
+                return this;
+            }
+
+            /**
+             * Sets the max connections.
+             *
+             * @param maxTotal The max connections.
+             *
+             * @return This builder instance.
+             */
+            public Builder setMaxTotal(final int maxTotal) {
+                this.maxTotal = maxTotal;
+                return this;
+            }
+
+            /**
+             * Sets whether or not idempotent requests (ex: GETs) are retried
+             * when they fail with an I/O error.  Otherwise, requests are only
+             * retried when a pooled connection turned out to be stale.
+             *
+             * @param retryIdempotent Whether or not to retry idempotent
+             *                        requests.
+             *
+             * @return This builder instance.
+             */
+            public Builder setRetryIdempotent(final boolean retryIdempotent) {
+                this.retryIdempotent = retryIdempotent;
+                return this;
+            }
+
+            /**
+             * Sets the default socket timeout.
+             *
+             * @param socketTimeout      The socket timeout.
+             * @param socketTimeoutUnits The socket timeout (units).
+             *
+             * @return This builder instance.
+             */
+            public Builder setSocketTimeout(
+                    final long socketTimeout,
+                    final TimeUnit socketTimeoutUnits) {
+                this.socketTimeoutMillis =
+                        socketTimeoutUnits.toMillis(socketTimeout);
+                return this;
+            }
+
+            /**
+             * Sets when idle connections are re-validated before use.
+             *
+             * @param validateAfter      The inactivity period.
+             * @param validateAfterUnits The inactivity period (units).
+             *
+             * @return This builder instance.
+             */
+            public Builder setValidateAfterInactivity(
+                    final long validateAfter,
+                    final TimeUnit validateAfterUnits) {
+                this.validateAfterInactivityMillis =
+                        validateAfterUnits.toMillis(validateAfter);
+                return this;
+            }
+        }
+    }
+}
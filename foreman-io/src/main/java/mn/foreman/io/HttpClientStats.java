@@ -0,0 +1,133 @@
+package mn.foreman.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link HttpClientStats} tracks how a pooled client from the {@link
+ * HttpClientRegistry} is being used: how many connections it had to open, how
+ * many TLS handshakes those took (and how many of them resumed an earlier
+ * session), and how long requests took to be answered.
+ *
+ * <p>Latency is measured from when a request is sent until its response
+ * headers arrive.</p>
+ */
+public class HttpClientStats {
+
+    /** The number of connections that were opened. */
+    private final AtomicLong connections = new AtomicLong();
+
+    /** The number of TLS handshakes. */
+    private final AtomicLong handshakes = new AtomicLong();
+
+    /** The total request latency, in nanoseconds. */
+    private final AtomicLong latencyNanos = new AtomicLong();
+
+    /** The worst request latency, in nanoseconds. */
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /** The number of requests that were answered. */
+    private final AtomicLong requests = new AtomicLong();
+
+    /** The number of TLS handshakes that resumed an earlier session. */
+    private final AtomicLong resumed = new AtomicLong();
+
+    /**
+     * Returns the average request latency.
+     *
+     * @return The average latency, in milliseconds.
+     */
+    public long getAverageLatencyMillis() {
+        final long answered = this.requests.get();
+        if (answered == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(this.latencyNanos.get() / answered);
+    }
+
+    /**
+     * Returns the number of connections that were opened.
+     *
+     * @return The number of connections.
+     */
+    public long getConnections() {
+        return this.connections.get();
+    }
+
+    /**
+     * Returns the number of TLS handshakes.
+     *
+     * @return The number of handshakes.
+     */
+    public long getHandshakes() {
+        return this.handshakes.get();
+    }
+
+    /**
+     * Returns the worst request latency.
+     *
+     * @return The worst latency, in milliseconds.
+     */
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxLatencyNanos.get());
+    }
+
+    /**
+     * Returns the number of requests that were answered.
+     *
+     * @return The number of requests.
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    /**
+     * Returns the number of TLS handshakes that resumed an earlier session.
+     *
+     * @return The number of resumed handshakes.
+     */
+    public long getResumed() {
+        return this.resumed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d requests (%dms avg, %dms max), %d connections, " +
+                        "%d TLS handshakes (%d resumed)",
+                getRequests(),
+                getAverageLatencyMillis(),
+                getMaxLatencyMillis(),
+                getConnections(),
+                getHandshakes(),
+                getResumed());
+    }
+
+    /** Records that a connection was opened. */
+    void onConnection() {
+        this.connections.incrementAndGet();
+    }
+
+    /**
+     * Records a completed TLS handshake.
+     *
+     * @param resumed Whether or not an earlier session was resumed.
+     */
+    void onHandshake(final boolean resumed) {
+        this.handshakes.incrementAndGet();
+        if (resumed) {
+            this.resumed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a request was answered.
+     *
+     * @param nanos How long it took.
+     */
+    void onResponse(final long nanos) {
+        this.requests.incrementAndGet();
+        this.latencyNanos.addAndGet(nanos);
+        this.maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+    }
+}
@@ -0,0 +1,107 @@
+package mn.foreman.io;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link JsonMapperRegistry} provides a single, shared {@link ObjectMapper}
+ * along with cached {@link ObjectReader readers} and {@link ObjectWriter
+ * writers} for every type that's (de)serialized.
+ *
+ * <p>Creating an {@link ObjectMapper} is expensive, and a new mapper starts
+ * with empty serializer and deserializer caches, so mappers should never be
+ * created per request.  Readers and writers are immutable and thread-safe, and
+ * a cached one has already resolved the (de)serializers for its type.</p>
+ *
+ * <p>The shared mapper understands <code>java.time</code> types.  It must not
+ * be reconfigured by callers.</p>
+ */
+public class JsonMapperRegistry {
+
+    /** The shared mapper. */
+    private static final ObjectMapper MAPPER =
+            new ObjectMapper()
+                    .registerModule(new JavaTimeModule());
+
+    /** The cached readers, by type. */
+    private static final ConcurrentMap<JavaType, ObjectReader> READERS =
+            new ConcurrentHashMap<>();
+
+    /** The cached writers, by type. */
+    private static final ConcurrentMap<JavaType, ObjectWriter> WRITERS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private JsonMapperRegistry() {
+        // Do nothing
+    }
+
+    /**
+     * Returns the shared mapper.
+     *
+     * @return The shared mapper.
+     */
+    public static ObjectMapper getMapper() {
+        return MAPPER;
+    }
+
+    /**
+     * Returns a reader for the provided type.
+     *
+     * @param type The type.
+     *
+     * @return The reader.
+     */
+    public static ObjectReader getReader(final Class<?> type) {
+        return getReader(MAPPER.constructType(type));
+    }
+
+    /**
+     * Returns a reader for the provided type.
+     *
+     * @param type The type.
+     *
+     * @return The reader.
+     */
+    public static ObjectReader getReader(final TypeReference<?> type) {
+        return getReader(
+                MAPPER.getTypeFactory().constructType(type));
+    }
+
+    /**
+     * Returns a writer for the provided type.
+     *
+     * @param type The type.
+     *
+     * @return The writer.
+     */
+    public static ObjectWriter getWriter(final Class<?> type) {
+        return WRITERS.computeIfAbsent(
+                MAPPER.constructType(type),
+                MAPPER::writerFor);
+    }
+
+    /**
+     * Returns a reader for the provided type.
+     *
+     * @param type The type.
+     *
+     * @return The reader.
+     */
+    private static ObjectReader getReader(final JavaType type) {
+        return READERS.computeIfAbsent(
+                type,
+                MAPPER::readerFor);
+    }
+}
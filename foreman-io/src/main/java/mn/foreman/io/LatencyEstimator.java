@@ -0,0 +1,229 @@
+package mn.foreman.io;
+
+/**
+ * A {@link LatencyEstimator} tracks the smoothed round-trip time (SRTT) and
+ * round-trip time variation (RTTVAR) of a single remote endpoint, the same way
+ * TCP does (RFC 6298), and derives a retransmission-style timeout (RTO) from
+ * them.
+ *
+ * <p>Each timeout doubles the RTO (up to a limit) until the next successful
+ * sample arrives, so an endpoint that suddenly slows down isn't repeatedly cut
+ * off by a deadline that was learned while it was healthy.</p>
+ */
+public class LatencyEstimator {
+
+    /** The gain that's applied to new SRTT samples. */
+    private static final double ALPHA = 1.0 / 8;
+
+    /** The gain that's applied to new RTTVAR samples. */
+    private static final double BETA = 1.0 / 4;
+
+    /** The smallest variance term that's added to the SRTT. */
+    private static final long GRANULARITY_MILLIS = 10;
+
+    /** The largest multiplier that timeouts can back the RTO off to. */
+    private static final int MAX_BACKOFF = 64;
+
+    /** The current RTO multiplier. */
+    private int backoff = 1;
+
+    /** The round-trip time variation, in milliseconds. */
+    private double rttvarMillis;
+
+    /** The number of samples that have been observed. */
+    private long samples;
+
+    /** The smoothed round-trip time, in milliseconds. */
+    private double srttMillis;
+
+    /** The number of timeouts that have been observed. */
+    private long timeouts;
+
+    /**
+     * Adds a new round-trip time sample.
+     *
+     * @param elapsedMillis The round-trip time, in milliseconds.
+     */
+    public synchronized void addSample(final long elapsedMillis) {
+        final double sample = Math.max(0, elapsedMillis);
+        if (this.samples == 0) {
+            this.srttMillis = sample;
+            this.rttvarMillis = sample / 2;
+        } else {
+            this.rttvarMillis =
+                    (1 - BETA) * this.rttvarMillis +
+                            BETA * Math.abs(this.srttMillis - sample);
+            this.srttMillis =
+                    (1 - ALPHA) * this.srttMillis +
+                            ALPHA * sample;
+        }
+        this.samples++;
+        this.backoff = 1;
+    }
+
+    /** Records that a request timed out. */
+    public synchronized void addTimeout() {
+        this.timeouts++;
+        this.backoff = Math.min(MAX_BACKOFF, this.backoff * 2);
+    }
+
+    /**
+     * Returns a point-in-time view of this estimator.
+     *
+     * @return The current estimate.
+     */
+    public synchronized Estimate getEstimate() {
+        return new Estimate(
+                Math.round(this.srttMillis),
+                Math.round(this.rttvarMillis),
+                getRtoMillis(),
+                this.samples,
+                this.timeouts,
+                this.backoff);
+    }
+
+    /**
+     * Returns the current timeout: <code>(SRTT + max(G, 4 * RTTVAR)) *
+     * backoff</code>.
+     *
+     * @return The timeout, in milliseconds.
+     */
+    public synchronized long getRtoMillis() {
+        final double rto =
+                this.srttMillis +
+                        Math.max(
+                                GRANULARITY_MILLIS,
+                                4 * this.rttvarMillis);
+        return Math.round(rto) * this.backoff;
+    }
+
+    /**
+     * Returns the number of samples that have been observed.
+     *
+     * @return The number of samples.
+     */
+    public synchronized long getSamples() {
+        return this.samples;
+    }
+
+    /** An immutable snapshot of a {@link LatencyEstimator}. */
+    public static class Estimate {
+
+        /** The RTO multiplier. */
+        private final int backoff;
+
+        /** The timeout, in milliseconds. */
+        private final long rtoMillis;
+
+        /** The round-trip time variation, in milliseconds. */
+        private final long rttvarMillis;
+
+        /** The number of samples. */
+        private final long samples;
+
+        /** The smoothed round-trip time, in milliseconds. */
+        private final long srttMillis;
+
+        /** The number of timeouts. */
+        private final long timeouts;
+
+        /**
+         * Constructor.
+         *
+         * @param srttMillis   The smoothed round-trip time.
+         * @param rttvarMillis The round-trip time variation.
+         * @param rtoMillis    The timeout.
+         * @param samples      The number of samples.
+         * @param timeouts     The number of timeouts.
+         * @param backoff      The RTO multiplier.
+         */
+        private Estimate(
+                final long srttMillis,
+                final long rttvarMillis,
+                final long rtoMillis,
+                final long samples,
+                final long timeouts,
+                final int backoff) {
+            this.srttMillis = srttMillis;
+            this.rttvarMillis = rttvarMillis;
+            this.rtoMillis = rtoMillis;
+            this.samples = samples;
+            this.timeouts = timeouts;
+            this.backoff = backoff;
+        }
+
+        /**
+         * Returns the RTO multiplier.
+         *
+         * @return The RTO multiplier.
+         */
+        public int getBackoff() {
+            return this.backoff;
+        }
+
+        /**
+         * Returns the timeout.
+         *
+         * @return The timeout, in milliseconds.
+         */
+        public long getRtoMillis() {
+            return this.rtoMillis;
+        }
+
+        /**
+         * Returns the round-trip time variation.
+         *
+         * @return The round-trip time variation, in milliseconds.
+         */
+        public long getRttvarMillis() {
+            return this.rttvarMillis;
+        }
+
+        /**
+         * Returns the number of samples.
+         *
+         * @return The number of samples.
+         */
+        public long getSamples() {
+            return this.samples;
+        }
+
+        /**
+         * Returns the smoothed round-trip time.
+         *
+         * @return The smoothed round-trip time, in milliseconds.
+         */
+        public long getSrttMillis() {
+            return this.srttMillis;
+        }
+
+        /**
+         * Returns the number of timeouts.
+         *
+         * @return The number of timeouts.
+         */
+        public long getTimeouts() {
+            return this.timeouts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s [ " +
+                            "srttMillis=%d, " +
+                            "rttvarMillis=%d, " +
+                            "rtoMillis=%d, " +
+                            "samples=%d, " +
+                            "timeouts=%d, " +
+                            "backoff=%d " +
+                            "]",
+                    getClass().getSimpleName(),
+                    this.srttMillis,
+                    this.rttvarMillis,
+                    this.rtoMillis,
+                    this.samples,
+                    this.timeouts,
+                    this.backoff);
+        }
+    }
+}
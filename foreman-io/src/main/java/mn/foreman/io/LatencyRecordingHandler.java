@@ -0,0 +1,98 @@
+package mn.foreman.io;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.ReadTimeoutException;
+
+/**
+ * A {@link LatencyRecordingHandler} times a single request/response exchange
+ * with a miner and feeds the result into {@link AdaptiveTimeouts}.
+ *
+ * <p>The exchange is timed from when the channel becomes active until it goes
+ * inactive.  Only exchanges where the miner actually responded are sampled;
+ * read timeouts are recorded as timeouts.  Every event is passed through
+ * unchanged, so this must be the first handler after the {@link
+ * io.netty.handler.timeout.ReadTimeoutHandler}.</p>
+ */
+class LatencyRecordingHandler
+        extends ChannelInboundHandlerAdapter {
+
+    /** The endpoint (the RPC command). */
+    private final String endpoint;
+
+    /** The miner IP. */
+    private final String ip;
+
+    /** The miner port. */
+    private final int port;
+
+    /** Whether or not the miner sent anything back. */
+    private boolean responded;
+
+    /** When the channel became active. */
+    private long startNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param ip       The miner IP.
+     * @param port     The miner port.
+     * @param endpoint The endpoint (the RPC command).
+     */
+    LatencyRecordingHandler(
+            final String ip,
+            final int port,
+            final String endpoint) {
+        this.ip = ip;
+        this.port = port;
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext context)
+            throws Exception {
+        this.startNanos = System.nanoTime();
+        super.channelActive(context);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext context)
+            throws Exception {
+        if (this.responded) {
+            AdaptiveTimeouts.recordSample(
+                    this.ip,
+                    this.port,
+                    this.endpoint,
+                    (System.nanoTime() - this.startNanos) / 1_000_000);
+        }
+        super.channelInactive(context);
+    }
+
+    @Override
+    public void channelRead(
+            final ChannelHandlerContext context,
+            final Object msg)
+            throws Exception {
+        if (msg instanceof ByteBuf && ((ByteBuf) msg).isReadable()) {
+            this.responded = true;
+        }
+        super.channelRead(context, msg);
+    }
+
+    @Override
+    public void exceptionCaught(
+            final ChannelHandlerContext context,
+            final Throwable cause)
+            throws Exception {
+        if (cause instanceof ReadTimeoutException) {
+            // Don't let a partial response count as a sample
+            this.responded = false;
+            AdaptiveTimeouts.recordTimeout(
+                    this.ip,
+                    this.port,
+                    this.endpoint);
+        }
+        super.exceptionCaught(context, cause);
+    }
+}
@@ -0,0 +1,243 @@
+package mn.foreman.io;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MinerBulkhead} limits how many requests can be in flight to a
+ * single device at once, regardless of which port, protocol or part of the
+ * application they came from.
+ *
+ * <p>Cheap ASIC controllers drop connections when stats polling, MAC
+ * querying and commands all hit them at the same time.  Every request must
+ * first obtain a {@link Permit} for the device's IP.  Permits are handed out
+ * from a fair queue, so overlapping requests wait their turn briefly instead
+ * of piling onto the device.  A request that can't get a permit in time is
+ * rejected with a {@link BulkheadFullException}.</p>
+ *
+ * <p>The permit count and the max wait can be changed with the
+ * <code>FOREMAN_BULKHEAD_PERMITS</code> and
+ * <code>FOREMAN_BULKHEAD_WAIT_MILLIS</code> system properties.  Devices
+ * without requests in flight are forgotten.</p>
+ *
+ * <p>Note: permits are per IP, not per port, and there's only one by default.
+ * Several miners that share an IP on different ports (e.g. several miner
+ * processes on one rig, or miners behind a port-forwarding router) share that
+ * one permit, so they're queried one at a time and can run out the wait.
+ * <code>FOREMAN_BULKHEAD_PERMITS</code> should be raised to at least the
+ * number of miners behind a single IP for those setups.</p>
+ */
+public class MinerBulkhead {
+
+    /** The number of permits that were obtained. */
+    private static final AtomicLong ACQUIRED = new AtomicLong();
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MinerBulkhead.class);
+
+    /** The longest any request had to wait, in nanoseconds. */
+    private static final AtomicLong MAX_WAIT_NANOS = new AtomicLong();
+
+    /** How many requests can be in flight to one device. */
+    private static final int PERMITS =
+            Integer.getInteger(
+                    "FOREMAN_BULKHEAD_PERMITS",
+                    1);
+
+    /** The number of requests that were rejected. */
+    private static final AtomicLong REJECTED = new AtomicLong();
+
+    /**
+     * The permits, by IP.  Values are weak so that a device's queue is
+     * dropped once nothing is holding or waiting on it.
+     */
+    private static final LoadingCache<String, Semaphore> SEMAPHORES =
+            CacheBuilder
+                    .newBuilder()
+                    .weakValues()
+                    .build(CacheLoader.from(ip -> new Semaphore(PERMITS, true)));
+
+    /** The number of requests that had to wait for a permit. */
+    private static final AtomicLong WAITED = new AtomicLong();
+
+    /** How long a request will wait for a permit, in milliseconds. */
+    private static final long WAIT_MILLIS =
+            Long.getLong(
+                    "FOREMAN_BULKHEAD_WAIT_MILLIS",
+                    TimeUnit.SECONDS.toMillis(5));
+
+    /** The total time spent waiting for permits, in nanoseconds. */
+    private static final AtomicLong WAIT_NANOS = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private MinerBulkhead() {
+        // Do nothing
+    }
+
+    /**
+     * Obtains a permit to send a request to the provided device, waiting up
+     * to the configured max wait if the device is busy.
+     *
+     * @param ip The device IP.
+     *
+     * @return The permit, which must be {@link Permit#close() closed} once the
+     * exchange with the device is finished.
+     *
+     * @throws BulkheadFullException if a permit couldn't be obtained in time.
+     */
+    public static Permit acquire(final String ip)
+            throws BulkheadFullException {
+        return acquire(
+                ip,
+                WAIT_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of permits that were obtained.
+     *
+     * @return The number of permits that were obtained.
+     */
+    public static long getAcquired() {
+        return ACQUIRED.get();
+    }
+
+    /**
+     * Returns the longest any request had to wait for a permit.
+     *
+     * @return The longest wait, in milliseconds.
+     */
+    public static long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(MAX_WAIT_NANOS.get());
+    }
+
+    /**
+     * Returns how many requests can be in flight to one device.
+     *
+     * @return The number of permits per device.
+     */
+    public static int getPermits() {
+        return PERMITS;
+    }
+
+    /**
+     * Returns the number of requests that were rejected.
+     *
+     * @return The number of rejections.
+     */
+    public static long getRejected() {
+        return REJECTED.get();
+    }
+
+    /**
+     * Returns the total time requests spent waiting for permits.
+     *
+     * @return The total wait, in milliseconds.
+     */
+    public static long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(WAIT_NANOS.get());
+    }
+
+    /**
+     * Returns the number of requests that had to wait for a permit.
+     *
+     * @return The number of requests that waited.
+     */
+    public static long getWaited() {
+        return WAITED.get();
+    }
+
+    /**
+     * Obtains a permit to send a request to the provided device, waiting up
+     * to the provided max wait if the device is busy.
+     *
+     * @param ip        The device IP.
+     * @param wait      How long to wait for a permit.
+     * @param waitUnits The units of the wait.
+     *
+     * @return The permit, which must be {@link Permit#close() closed} once the
+     * exchange with the device is finished.
+     *
+     * @throws BulkheadFullException if a permit couldn't be obtained in time.
+     */
+    static Permit acquire(
+            final String ip,
+            final long wait,
+            final TimeUnit waitUnits)
+            throws BulkheadFullException {
+        final Semaphore semaphore = SEMAPHORES.getUnchecked(ip);
+        boolean acquired = false;
+        try {
+            // Unlike tryAcquire(), a timed acquire never barges ahead of
+            // requests that are already queued
+            acquired = semaphore.tryAcquire(0, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                final long start = System.nanoTime();
+                try {
+                    acquired =
+                            semaphore.tryAcquire(
+                                    wait,
+                                    waitUnits);
+                } finally {
+                    final long waited = System.nanoTime() - start;
+                    WAITED.incrementAndGet();
+                    WAIT_NANOS.addAndGet(waited);
+                    MAX_WAIT_NANOS.accumulateAndGet(waited, Math::max);
+                }
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            REJECTED.incrementAndGet();
+            LOG.debug("Rejected request to busy device {}", ip);
+            throw new BulkheadFullException(
+                    String.format(
+                            "Too many requests in flight to %s",
+                            ip));
+        }
+        ACQUIRED.incrementAndGet();
+        return new Permit(semaphore);
+    }
+
+    /** A permit to communicate with a device. */
+    public static class Permit
+            implements AutoCloseable {
+
+        /** Whether or not the permit was returned. */
+        private boolean closed;
+
+        /** The semaphore the permit came from. */
+        private final Semaphore semaphore;
+
+        /**
+         * Constructor.
+         *
+         * @param semaphore The semaphore the permit came from.
+         */
+        private Permit(final Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        /** Returns the permit.  Closing a permit more than once is a no-op. */
+        @Override
+        public synchronized void close() {
+            if (!this.closed) {
+                this.closed = true;
+                this.semaphore.release();
+            }
+        }
+    }
+}
@@ -3,27 +3,24 @@ package mn.foreman.io;
 import mn.foreman.model.error.MinerException;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.google.common.collect.ImmutableMap;
 import org.apache.http.*;
+import org.apache.http.auth.AuthScheme;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.AuthCache;
 import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.auth.DigestScheme;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
@@ -34,9 +31,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /** Provides utility methods for querying APIs. */
 public class Query {
@@ -123,6 +124,46 @@ public class Query {
         return response;
     }
 
+    /**
+     * Utility method to perform a query against a delimiter-based API without
+     * blocking.
+     *
+     * @param apiIp               The API IP.
+     * @param apiPort             The API port.
+     * @param command             The command.
+     * @param connectTimeout      The connection timeout.
+     * @param connectTimeoutUnits The connection timeout units.
+     *
+     * @return The response, which completes exceptionally with a {@link
+     * MinerException} on failure to query.
+     */
+    public static CompletableFuture<String> delimiterQueryAsync(
+            final String apiIp,
+            final int apiPort,
+            final String command,
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits) {
+        final ApiRequest request =
+                new ApiRequestImpl(
+                        apiIp,
+                        apiPort,
+                        command);
+        final Connection connection =
+                ConnectionFactory.createDelimiterConnection(
+                        request,
+                        connectTimeout,
+                        connectTimeoutUnits);
+        return toResponse(
+                AsyncIo
+                        .send(
+                                connection,
+                                request,
+                                connectTimeout,
+                                connectTimeoutUnits)
+                        .thenApply(ApiRequest::getResponse),
+                Function.identity());
+    }
+
     /**
      * Performs an HTTP GET operation against an API that requires digest auth.
      *
@@ -273,6 +314,51 @@ public class Query {
                 });
     }
 
+    /**
+     * Utility method to perform a query against a JSON RPC API without
+     * blocking.
+     *
+     * @param apiIp               The API IP.
+     * @param apiPort             The API port.
+     * @param command             The command.
+     * @param type                The response class.
+     * @param connectTimeout      The connection timeout.
+     * @param connectTimeoutUnits The connection timeout units.
+     * @param <T>                 The response type.
+     *
+     * @return The response, which completes exceptionally with a {@link
+     * MinerException} on failure to query.
+     */
+    public static <T> CompletableFuture<T> jsonQueryAsync(
+            final String apiIp,
+            final int apiPort,
+            final String command,
+            final TypeReference<T> type,
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits) {
+        final ApiRequest request =
+                new ApiRequestImpl(
+                        apiIp,
+                        apiPort,
+                        command);
+        final Connection connection =
+                ConnectionFactory.createJsonConnection(
+                        request,
+                        connectTimeout,
+                        connectTimeoutUnits);
+        return toResponse(
+                AsyncIo
+                        .send(
+                                connection,
+                                request,
+                                connectTimeout,
+                                connectTimeoutUnits)
+                        .thenApply(ApiRequest::getResponse),
+                type,
+                s -> {
+                });
+    }
+
     /**
      * Performs a POST with content.
      *
@@ -499,6 +585,15 @@ public class Query {
                         command,
                         connectTimeout,
                         connectTimeoutUnits);
+        if ("GET".equals(command)) {
+            return queryShared(
+                    connection,
+                    request,
+                    type,
+                    connectTimeout,
+                    connectTimeoutUnits,
+                    rawCallback);
+        }
         connection.query();
 
         return query(
@@ -611,6 +706,15 @@ public class Query {
                         command,
                         connectTimeout,
                         connectTimeoutUnits);
+        if ("GET".equals(command)) {
+            return queryShared(
+                    connection,
+                    request,
+                    type,
+                    connectTimeout,
+                    connectTimeoutUnits,
+                    callback);
+        }
         connection.query();
 
         return query(
@@ -654,6 +758,83 @@ public class Query {
                 responseProcessor);
     }
 
+    /**
+     * Utility method to perform a GET against a REST API without blocking.
+     *
+     * @param apiIp   The API IP.
+     * @param apiPort The API port.
+     * @param uri     The URI.
+     * @param type    The response class.
+     * @param <T>     The response type.
+     *
+     * @return The response, which completes exceptionally with a {@link
+     * MinerException} on failure to query.
+     */
+    public static <T> CompletableFuture<T> restQueryAsync(
+            final String apiIp,
+            final int apiPort,
+            final String uri,
+            final TypeReference<T> type) {
+        return restQueryAsync(
+                apiIp,
+                apiPort,
+                uri,
+                "GET",
+                type,
+                2,
+                TimeUnit.SECONDS,
+                s -> {
+                });
+    }
+
+    /**
+     * Utility method to perform a query against a REST API without blocking.
+     *
+     * @param apiIp               The API IP.
+     * @param apiPort             The API port.
+     * @param uri                 The URI.
+     * @param command             The command.
+     * @param type                The response class.
+     * @param connectTimeout      The connection timeout.
+     * @param connectTimeoutUnits The connection timeout units.
+     * @param callback            The callback.
+     * @param <T>                 The response type.
+     *
+     * @return The response, which completes exceptionally with a {@link
+     * MinerException} on failure to query.
+     */
+    public static <T> CompletableFuture<T> restQueryAsync(
+            final String apiIp,
+            final int apiPort,
+            final String uri,
+            final String command,
+            final TypeReference<T> type,
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits,
+            final Consumer<String> callback) {
+        final ApiRequest request =
+                new ApiRequestImpl(
+                        apiIp,
+                        apiPort,
+                        uri);
+        final Connection connection =
+                ConnectionFactory.createRestConnection(
+                        request,
+                        command,
+                        connectTimeout,
+                        connectTimeoutUnits);
+        return toResponse(
+                send(
+                        connection,
+                        request,
+                        command,
+                        connectTimeout,
+                        connectTimeoutUnits)
+                        .thenApply(ApiRequest::getResponse),
+                type,
+                callback);
+    }
+
     /**
      * Utility method to perform a query against a REST API.
      *
@@ -743,106 +924,110 @@ public class Query {
                         url.getPort(),
                         url.getProtocol());
 
-        CloseableHttpClient httpClient = null;
-        try {
-            final HttpClientContext context = HttpClientContext.create();
-
-            if (realm != null && username != null) {
-                final CredentialsProvider credsProvider =
-                        new BasicCredentialsProvider();
-                credsProvider.setCredentials(
-                        AuthScope.ANY,
-                        new UsernamePasswordCredentials(
-                                username,
-                                password));
-                final AuthCache authCache = new BasicAuthCache();
-                final DigestScheme digestScheme = new DigestScheme();
-                digestScheme.overrideParamter(
-                        "realm",
-                        realm);
-                digestScheme.overrideParamter(
-                        "nonce",
-                        UUID
-                                .randomUUID()
-                                .toString()
-                                .replace("-", ""));
-                authCache.put(targetHost, digestScheme);
-
-                httpClient =
-                        HttpClients
-                                .custom()
-                                .setDefaultCredentialsProvider(credsProvider)
-                                .disableAutomaticRetries()
-                                .setDefaultRequestConfig(
-                                        RequestConfig
-                                                .custom()
-                                                .setConnectTimeout((int) TimeUnit.MILLISECONDS.toMillis(50))
-                                                .setSocketTimeout((int) socketTimeoutUnits.toMillis(socketTimeout))
-                                                .build())
-                                .build();
-                context.setAuthCache(authCache);
-            } else {
-                httpClient =
-                        HttpClients
-                                .custom()
-                                .disableAutomaticRetries()
-                                .setDefaultRequestConfig(
-                                        RequestConfig
-                                                .custom()
-                                                .setConnectTimeout((int) TimeUnit.MILLISECONDS.toMillis(50))
-                                                .setSocketTimeout((int) socketTimeoutUnits.toMillis(socketTimeout))
-                                                .build())
-                                .build();
-            }
+        CredentialsProvider credsProvider = null;
+        if (realm != null && username != null) {
+            credsProvider = new BasicCredentialsProvider();
+            credsProvider.setCredentials(
+                    AuthScope.ANY,
+                    new UsernamePasswordCredentials(
+                            username,
+                            password));
+        }
 
-            final HttpRequest httpRequest;
-            if (!isPost) {
-                httpRequest = new HttpGet(url.getPath());
-            } else {
-                final HttpPost httpPost = new HttpPost(url.getPath());
-                if (content != null) {
-                    final List<NameValuePair> params = new ArrayList<>();
-                    content.forEach(entry ->
-                            params.add(
-                                    new BasicNameValuePair(
-                                            entry.get("key").toString(),
-                                            entry.get("value").toString())));
-                    LOG.debug("Params for POST: {}", params);
-
-                    final HttpEntity entity =
-                            new UrlEncodedFormEntity(
-                                    params,
-                                    "UTF-8");
-                    LOG.debug("Entity: {}", entity);
-                    httpPost.setEntity(entity);
-                } else if (payload != null) {
-                    httpPost.setEntity(new StringEntity(payload));
-                    httpPost.setHeader("Accept", "application/json");
-                    httpPost.setHeader("Content-type", "application/json");
-                }
-                httpRequest = httpPost;
+        final HttpRequestBase httpRequest;
+        if (!isPost) {
+            httpRequest = new HttpGet(url.getPath());
+        } else {
+            final HttpPost httpPost = new HttpPost(url.getPath());
+            if (content != null) {
+                final List<NameValuePair> params = new ArrayList<>();
+                content.forEach(entry ->
+                        params.add(
+                                new BasicNameValuePair(
+                                        entry.get("key").toString(),
+                                        entry.get("value").toString())));
+                LOG.debug("Params for POST: {}", params);
+
+                final HttpEntity entity =
+                        new UrlEncodedFormEntity(
+                                params,
+                                "UTF-8");
+                LOG.debug("Entity: {}", entity);
+                httpPost.setEntity(entity);
+            } else if (payload != null) {
+                httpPost.setEntity(new StringEntity(payload));
+                httpPost.setHeader("Accept", "application/json");
+                httpPost.setHeader("Content-type", "application/json");
             }
+            httpRequest = httpPost;
+        }
+        if (!isPost) {
+            httpRequest.setConfig(
+                    AdaptiveTimeouts.toRequestConfig(
+                            host,
+                            port,
+                            httpRequest.getURI().getPath(),
+                            50,
+                            TimeUnit.MILLISECONDS,
+                            socketTimeout,
+                            socketTimeoutUnits));
+        } else {
+            httpRequest.setConfig(
+                    HttpClientRegistry.toRequestConfig(
+                            50,
+                            TimeUnit.MILLISECONDS,
+                            socketTimeout,
+                            socketTimeoutUnits));
+        }
 
-            LOG.debug("Sending request: {}", httpRequest);
+        // Reuse the last negotiated nonce if we have one.  If the server no
+        // longer accepts it, fall back to a fresh challenge.
+        final DigestSessionCache.Session session =
+                credsProvider != null
+                        ? DigestSessionCache.checkout(targetHost).orElse(null)
+                        : null;
+        if (!runDigestQuery(
+                targetHost,
+                httpRequest,
+                realm,
+                credsProvider,
+                session,
+                responseProcessor)) {
+            runDigestQuery(
+                    targetHost,
+                    httpRequest,
+                    realm,
+                    credsProvider,
+                    null,
+                    responseProcessor);
+        }
+    }
 
-            try (final CloseableHttpResponse response =
-                         httpClient.execute(
-                                 targetHost,
-                                 httpRequest,
-                                 context)) {
-                final StatusLine statusLine =
-                        response.getStatusLine();
-                final String responseBody =
-                        EntityUtils.toString(response.getEntity());
-                LOG.debug("Received digest API response: {}", responseBody);
-                responseProcessor.accept(
-                        statusLine.getStatusCode(),
-                        responseBody);
-            }
-        } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+    /**
+     * Parses a JSON response.
+     *
+     * @param responseJson The response.
+     * @param type         The response class.
+     * @param rawCallback  The raw callback.
+     * @param <T>          The response type.
+     *
+     * @return The response.
+     *
+     * @throws MinerException on failure to parse.
+     */
+    private static <T> T parse(
+            final String responseJson,
+            final TypeReference<T> type,
+            final Consumer<String> rawCallback)
+            throws MinerException {
+        try {
+            rawCallback.accept(responseJson);
+            LOG.debug("Received API response: {}", responseJson);
+            return JsonMapperRegistry
+                    .getReader(type)
+                    .readValue(responseJson);
+        } catch (final Exception e) {
+            throw new MinerException(e);
         }
     }
 
@@ -867,28 +1052,196 @@ public class Query {
             final TimeUnit connectTimeoutUnits,
             final Consumer<String> rawCallback)
             throws MinerException {
-        T response;
         if (request.waitForCompletion(
                 connectTimeout,
                 connectTimeoutUnits)) {
-            final ObjectMapper objectMapper =
-                    new ObjectMapper()
-                            .registerModule(new JavaTimeModule());
-            try {
-                final String responseJson = request.getResponse();
-                rawCallback.accept(responseJson);
-                LOG.debug("Received API response: {}", responseJson);
-                response =
-                        objectMapper.readValue(
-                                request.getResponse(),
-                                type);
-            } catch (final Exception e) {
-                throw new MinerException(e);
+            return parse(
+                    request.getResponse(),
+                    type,
+                    rawCallback);
+        }
+        throw new MinerException("Failed to obtain a response");
+    }
+
+    /**
+     * Runs a read-only query, sharing the exchange with any identical query
+     * that's already in flight.
+     *
+     * @param connection          The connection.
+     * @param request             The request.
+     * @param type                The response class.
+     * @param connectTimeout      The connection timeout.
+     * @param connectTimeoutUnits The connection timeout units.
+     * @param rawCallback         The raw callback.
+     * @param <T>                 The response type.
+     *
+     * @return The response.
+     *
+     * @throws MinerException on failure to query.
+     */
+    private static <T> T queryShared(
+            final Connection connection,
+            final ApiRequest request,
+            final TypeReference<T> type,
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits,
+            final Consumer<String> rawCallback)
+            throws MinerException {
+        final ApiRequest completed;
+        try {
+            completed =
+                    AsyncIo
+                            .sendShared(
+                                    connection,
+                                    request,
+                                    connectTimeout,
+                                    connectTimeoutUnits)
+                            .get();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new MinerException(
+                    "Interrupted while waiting for a response",
+                    ie);
+        } catch (final ExecutionException ee) {
+            throw new MinerException(
+                    "Failed to obtain a response",
+                    ee.getCause());
+        }
+        return parse(
+                completed.getResponse(),
+                type,
+                rawCallback);
+    }
+
+    /**
+     * Records how long a request to the provided host took.
+     *
+     * @param targetHost  The host.
+     * @param httpRequest The request.
+     * @param startNanos  When the request was sent.
+     */
+    private static void recordSample(
+            final HttpHost targetHost,
+            final HttpRequestBase httpRequest,
+            final long startNanos) {
+        AdaptiveTimeouts.recordSample(
+                targetHost.getHostName(),
+                targetHost.getPort(),
+                httpRequest.getURI().getPath(),
+                TimeUnit.NANOSECONDS.toMillis(
+                        System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Sends a request that may require digest auth.
+     *
+     * @param targetHost        The host.
+     * @param httpRequest       The request.
+     * @param realm             The realm.
+     * @param credsProvider     The credentials, if auth is required.
+     * @param session           The cached digest session, if present.
+     * @param responseProcessor What to do with the response.
+     *
+     * @return <code>false</code> if the cached session was rejected and the
+     * response wasn't processed; <code>true</code> otherwise.
+     *
+     * @throws IOException on failure to communicate.
+     */
+    private static boolean runDigestQuery(
+            final HttpHost targetHost,
+            final HttpRequestBase httpRequest,
+            final String realm,
+            final CredentialsProvider credsProvider,
+            final DigestSessionCache.Session session,
+            final BiConsumer<Integer, String> responseProcessor)
+            throws IOException {
+        final HttpClientContext context = HttpClientContext.create();
+        if (credsProvider != null) {
+            final DigestScheme digestScheme;
+            if (session != null) {
+                digestScheme = session.getScheme();
+            } else {
+                // Make up a nonce to force the server to send its challenge
+                digestScheme = new DigestScheme();
+                digestScheme.overrideParamter(
+                        "realm",
+                        realm);
+                digestScheme.overrideParamter(
+                        "nonce",
+                        UUID
+                                .randomUUID()
+                                .toString()
+                                .replace("-", ""));
             }
-        } else {
-            throw new MinerException("Failed to obtain a response");
+            final AuthCache authCache = new BasicAuthCache();
+            authCache.put(targetHost, digestScheme);
+            context.setCredentialsProvider(credsProvider);
+            context.setAuthCache(authCache);
         }
-        return response;
+
+        LOG.debug("Sending request: {}", httpRequest);
+
+        final boolean isGet = httpRequest instanceof HttpGet;
+        final int statusCode;
+        final String responseBody;
+        try (final MinerBulkhead.Permit permit =
+                     MinerBulkhead.acquire(targetHost.getHostName())) {
+            final long startNanos = System.nanoTime();
+            try (final CloseableHttpResponse response =
+                         HttpClientRegistry
+                                 .miners()
+                                 .execute(
+                                         targetHost,
+                                         httpRequest,
+                                         context)) {
+                if (isGet) {
+                    recordSample(
+                            targetHost,
+                            httpRequest,
+                            startNanos);
+                }
+                statusCode = response.getStatusLine().getStatusCode();
+                final boolean accepted =
+                        statusCode != HttpStatus.SC_UNAUTHORIZED;
+                if (credsProvider != null) {
+                    // The target auth state holds the scheme that actually
+                    // signed the request, including its updated nonce-count
+                    final AuthScheme negotiated =
+                            context.getTargetAuthState().getAuthScheme();
+                    DigestSessionCache.release(
+                            targetHost,
+                            session,
+                            negotiated instanceof DigestScheme
+                                    ? (DigestScheme) negotiated
+                                    : null,
+                            accepted);
+                }
+                if (!accepted && session != null) {
+                    LOG.debug("Cached digest session for {} was rejected",
+                            targetHost);
+                    EntityUtils.consume(response.getEntity());
+                    return false;
+                }
+                responseBody = EntityUtils.toString(response.getEntity());
+            }
+        } catch (final IOException ioe) {
+            if (isGet) {
+                AdaptiveTimeouts.recordFailure(
+                        targetHost.getHostName(),
+                        targetHost.getPort(),
+                        httpRequest.getURI().getPath(),
+                        ioe);
+            }
+            throw ioe;
+        }
+
+        // The device is released before the response is processed in case
+        // processing it requires another request
+        LOG.debug("Received digest API response: {}", responseBody);
+        responseProcessor.accept(
+                statusCode,
+                responseBody);
+        return true;
     }
 
     /**
@@ -948,19 +1301,7 @@ public class Query {
         context.setCredentialsProvider(provider);
         context.setAuthCache(authCache);
 
-        final CloseableHttpClient httpClient =
-                HttpClients
-                        .custom()
-                        .disableAutomaticRetries()
-                        .setDefaultRequestConfig(
-                                RequestConfig
-                                        .custom()
-                                        .setConnectTimeout((int) TimeUnit.MILLISECONDS.toMillis(50))
-                                        .setSocketTimeout((int) TimeUnit.SECONDS.toMillis(20))
-                                        .build())
-                        .build();
-
-        final HttpRequest httpRequest;
+        final HttpRequestBase httpRequest;
         if (!isGet) {
             final HttpPost post = new HttpPost(url.getPath());
             final List<NameValuePair> params = new ArrayList<>();
@@ -974,16 +1315,141 @@ public class Query {
         } else {
             httpRequest = new HttpGet(url.getPath());
         }
+        if (isGet) {
+            httpRequest.setConfig(
+                    AdaptiveTimeouts.toRequestConfig(
+                            host,
+                            port,
+                            httpRequest.getURI().getPath(),
+                            50,
+                            TimeUnit.MILLISECONDS,
+                            20,
+                            TimeUnit.SECONDS));
+        } else {
+            httpRequest.setConfig(
+                    HttpClientRegistry.toRequestConfig(
+                            50,
+                            TimeUnit.MILLISECONDS,
+                            20,
+                            TimeUnit.SECONDS));
+        }
+
+        final String responseBody;
+        try (final MinerBulkhead.Permit permit =
+                     MinerBulkhead.acquire(host)) {
+            final long startNanos = System.nanoTime();
+            try (final CloseableHttpResponse response =
+                         HttpClientRegistry
+                                 .miners()
+                                 .execute(
+                                         targetHost,
+                                         httpRequest,
+                                         context)) {
+                if (isGet) {
+                    recordSample(
+                            targetHost,
+                            httpRequest,
+                            startNanos);
+                }
+                responseBody = EntityUtils.toString(response.getEntity());
+            }
+        } catch (final IOException ioe) {
+            if (isGet) {
+                AdaptiveTimeouts.recordFailure(
+                        host,
+                        port,
+                        httpRequest.getURI().getPath(),
+                        ioe);
+            }
+            throw ioe;
+        }
 
-        try (final CloseableHttpResponse response =
-                     httpClient.execute(
-                             targetHost,
-                             httpRequest,
-                             context)) {
-            final String responseBody =
-                    EntityUtils.toString(response.getEntity());
-            LOG.debug("Received API response: {}", responseBody);
-            responseProcessor.accept(responseBody);
+        LOG.debug("Received API response: {}", responseBody);
+        responseProcessor.accept(responseBody);
+    }
+
+    /**
+     * Sends a REST request without blocking.  GETs are read-only, so they're
+     * shared with any identical GET that's already in flight.
+     *
+     * @param connection          The connection.
+     * @param request             The request.
+     * @param command             The command.
+     * @param connectTimeout      The connection timeout.
+     * @param connectTimeoutUnits The connection timeout units.
+     *
+     * @return The completed request.
+     */
+    private static CompletableFuture<ApiRequest> send(
+            final Connection connection,
+            final ApiRequest request,
+            final String command,
+            final int connectTimeout,
+            final TimeUnit connectTimeoutUnits) {
+        if ("GET".equals(command)) {
+            return AsyncIo.sendShared(
+                    connection,
+                    request,
+                    connectTimeout,
+                    connectTimeoutUnits);
         }
+        return AsyncIo.send(
+                connection,
+                request,
+                connectTimeout,
+                connectTimeoutUnits);
+    }
+
+    /**
+     * Parses an asynchronous response.
+     *
+     * @param response    The response.
+     * @param type        The response class.
+     * @param rawCallback The raw callback.
+     * @param <T>         The response type.
+     *
+     * @return The parsed response.
+     */
+    private static <T> CompletableFuture<T> toResponse(
+            final CompletableFuture<String> response,
+            final TypeReference<T> type,
+            final Consumer<String> rawCallback) {
+        return toResponse(
+                response,
+                responseJson -> {
+                    try {
+                        return parse(
+                                responseJson,
+                                type,
+                                rawCallback);
+                    } catch (final MinerException me) {
+                        throw new CompletionException(me);
+                    }
+                });
+    }
+
+    /**
+     * Converts an asynchronous response.
+     *
+     * @param response  The response.
+     * @param converter Converts the response, throwing a {@link
+     *                  CompletionException} on failure.
+     * @param <T>       The converted type.
+     *
+     * @return The converted response.
+     */
+    private static <T> CompletableFuture<T> toResponse(
+            final CompletableFuture<String> response,
+            final Function<String, T> converter) {
+        return response
+                .handle((responseJson, error) -> {
+                    if (error != null || responseJson == null) {
+                        throw new CompletionException(
+                                new MinerException(
+                                        "Failed to obtain a response",
+                                        error));
+                    }
+                    return converter.apply(responseJson);
+                });
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,14 @@
 package mn.foreman.io;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.http.Header;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,16 +16,20 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.URI;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
  * A {@link RestConnection} provides a connection to a remote miner instance.
  *
- * <p>{@link #query()} will block until the response has been fully received
- * and the connection is terminated.</p>
+ * <p>{@link #query()} will block until the response has been fully received.
+ * Requests are sent through the shared {@link HttpClientRegistry#miners()
+ * miner client}, so connections are pooled and kept alive between
+ * queries.</p>
  *
  * @see HttpURLConnection
  */
@@ -98,23 +100,30 @@ public class RestConnection
 
     @Override
     public void query() {
-        final int socketTimeout =
-                (int) this.connectionTimeoutUnits.toMillis(
-                        this.connectionTimeout);
-        final RequestConfig requestConfig =
-                RequestConfig.custom()
-                        .setConnectTimeout(socketTimeout)
-                        .setConnectionRequestTimeout(socketTimeout)
-                        .setSocketTimeout(socketTimeout)
-                        .build();
-
-        try (final CloseableHttpClient httpClient =
-                     HttpClients.custom()
-                             .setDefaultRequestConfig(requestConfig)
-                             .disableAutomaticRetries()
-                             .build()) {
+        try {
             final HttpRequestBase httpRequest =
                     toRequest();
+            // Only reads are timed: writes can legitimately take much longer
+            // than the miner's usual response time
+            final boolean isGet = httpRequest instanceof HttpGet;
+            if (isGet) {
+                httpRequest.setConfig(
+                        AdaptiveTimeouts.toRequestConfig(
+                                this.request.getIp(),
+                                this.request.getPort(),
+                                getEndpoint(),
+                                this.connectionTimeout,
+                                this.connectionTimeoutUnits,
+                                this.connectionTimeout,
+                                this.connectionTimeoutUnits));
+            } else {
+                httpRequest.setConfig(
+                        HttpClientRegistry.toRequestConfig(
+                                this.connectionTimeout,
+                                this.connectionTimeoutUnits,
+                                this.connectionTimeout,
+                                this.connectionTimeoutUnits));
+            }
 
             for (final Map.Entry<String, String> property :
                     this.request.getProperties().entrySet()) {
@@ -123,33 +132,90 @@ public class RestConnection
                         property.getValue());
             }
 
-            try (final CloseableHttpResponse httpResponse =
-                         httpClient.execute(httpRequest)) {
-                final int statusCode =
-                        httpResponse
-                                .getStatusLine()
-                                .getStatusCode();
-                if (statusCode == HttpStatus.SC_OK) {
-                    this.headerCallback.accept(
-                            httpResponse.getAllHeaders());
-                    this.request.setResponse(
-                            EntityUtils.toString(
-                                    httpResponse.getEntity()));
-                } else {
-                    LOG.warn("Received a bad response from {}: code({})",
-                            this.url,
-                            statusCode);
-                }
-            } catch (final IOException ioe) {
-                LOG.warn("Exception occurred while querying", ioe);
+            try (final MinerBulkhead.Permit permit =
+                         MinerBulkhead.acquire(this.request.getIp())) {
+                execute(
+                        httpRequest,
+                        isGet);
             }
         } catch (final IOException ioe) {
+            AdaptiveTimeouts.recordFailure(
+                    this.request.getIp(),
+                    this.request.getPort(),
+                    getEndpoint(),
+                    ioe);
             LOG.warn("Exception occurred while querying", ioe);
         }
 
         this.request.completed();
     }
 
+    @Override
+    public CompletableFuture<String> queryAsync() {
+        // The connection timeout is also the socket timeout
+        return AsyncIo
+                .send(
+                        this,
+                        this.request,
+                        2 * this.connectionTimeoutUnits.toMillis(this.connectionTimeout),
+                        TimeUnit.MILLISECONDS)
+                .thenApply(ApiRequest::getResponse);
+    }
+
+    /**
+     * Sends the request and stores the response.
+     *
+     * @param httpRequest The request.
+     * @param isGet       Whether or not the request is a GET.
+     *
+     * @throws IOException on failure to communicate.
+     */
+    private void execute(
+            final HttpRequestBase httpRequest,
+            final boolean isGet)
+            throws IOException {
+        final long startNanos = System.nanoTime();
+        try (final CloseableHttpResponse httpResponse =
+                     HttpClientRegistry
+                             .miners()
+                             .execute(httpRequest)) {
+            if (isGet) {
+                AdaptiveTimeouts.recordSample(
+                        this.request.getIp(),
+                        this.request.getPort(),
+                        getEndpoint(),
+                        TimeUnit.NANOSECONDS.toMillis(
+                                System.nanoTime() - startNanos));
+            }
+            final int statusCode =
+                    httpResponse
+                            .getStatusLine()
+                            .getStatusCode();
+            if (statusCode == HttpStatus.SC_OK) {
+                this.headerCallback.accept(
+                        httpResponse.getAllHeaders());
+                this.request.setResponse(
+                        EntityUtils.toString(
+                                httpResponse.getEntity()));
+            } else {
+                LOG.warn("Received a bad response from {}: code({})",
+                        this.url,
+                        statusCode);
+                EntityUtils.consume(httpResponse.getEntity());
+            }
+        }
+    }
+
+    /**
+     * Returns the path that's being queried, which is the endpoint that
+     * {@link AdaptiveTimeouts} tracks.
+     *
+     * @return The path.
+     */
+    private String getEndpoint() {
+        return StringUtils.defaultString(URI.create(this.url).getPath());
+    }
+
     /**
      * Creates a request with the desired configuration based on the {@link
      * #method}.
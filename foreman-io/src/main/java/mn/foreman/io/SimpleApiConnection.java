@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -39,20 +40,12 @@ public class SimpleApiConnection
     /** The channel handlers. */
     private final List<ChannelHandler> handlers;
 
-    /** The ip. */
-    private final String ip;
-
-    /** The port. */
-    private final int port;
-
     /** The request. */
-    private final String request;
+    private final ApiRequest request;
 
     /**
      * Constructor.
      *
-     * @param ip                  The IP.
-     * @param port                The port.
      * @param request             The request to send.
      * @param handlers            The handlers.
      * @param eventLoopGroup      The event group.
@@ -60,22 +53,11 @@ public class SimpleApiConnection
      * @param connectTimeoutUnits The connection timeout units.
      */
     SimpleApiConnection(
-            final String ip,
-            final int port,
-            final String request,
+            final ApiRequest request,
             final List<ChannelHandler> handlers,
             final EventLoopGroup eventLoopGroup,
             final int connectTimeout,
             final TimeUnit connectTimeoutUnits) {
-        Validate.notNull(
-                ip,
-                "IP cannot be null");
-        Validate.notEmpty(
-                ip,
-                "IP cannot be empty");
-        Validate.isTrue(
-                port > 0,
-                "Port must be > 0");
         Validate.notNull(
                 request,
                 "Request cannot be null");
@@ -91,8 +73,6 @@ public class SimpleApiConnection
         Validate.notNull(
                 connectTimeoutUnits,
                 "connectTimeoutUnits cannot be null");
-        this.ip = ip;
-        this.port = port;
         this.request = request;
         this.handlers = new ArrayList<>(handlers);
         this.eventLoopGroup = eventLoopGroup;
@@ -125,25 +105,45 @@ public class SimpleApiConnection
                     }
                 });
 
-        try {
+        try (final MinerBulkhead.Permit permit =
+                     MinerBulkhead.acquire(this.request.getIp())) {
             final Channel channel =
                     bootstrap.connect(
-                            this.ip,
-                            this.port).sync().channel();
+                            this.request.getIp(),
+                            this.request.getPort()).sync().channel();
 
             // Send the request
-            if (!this.request.isEmpty()) {
-                channel.writeAndFlush(this.request).sync();
+            final String message = this.request.getRequest();
+            if (!message.isEmpty()) {
+                channel.writeAndFlush(message).sync();
             }
 
             // Wait until the connection is closed - should be closed
             // immediately
             channel.closeFuture().sync();
+        } catch (final BulkheadFullException bfe) {
+            LOG.debug("Too busy to communicate with {}:{}",
+                    this.request.getIp(),
+                    this.request.getPort(),
+                    bfe);
+            this.request.completed();
         } catch (final InterruptedException ie) {
             LOG.debug("Exception occurred while communicating with {}:{}",
-                    this.ip,
-                    this.port,
+                    this.request.getIp(),
+                    this.request.getPort(),
                     ie);
         }
     }
+
+    @Override
+    public CompletableFuture<String> queryAsync() {
+        // The connect timeout is also the read timeout
+        return AsyncIo
+                .send(
+                        this,
+                        this.request,
+                        2 * this.connectTimeoutUnits.toMillis(this.connectTimeout),
+                        TimeUnit.MILLISECONDS)
+                .thenApply(ApiRequest::getResponse);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+package mn.foreman.io;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A {@link SingleFlight} coalesces concurrent, identical operations so that
+ * only one of them is actually performed and every caller shares its result.
+ *
+ * <p>Optionally, a successful result stays fresh for a short window after it
+ * completes, during which identical operations are answered from it without
+ * being performed at all.  Failures are never shared beyond the callers that
+ * were already waiting on them.</p>
+ *
+ * <p>Completed results are dropped lazily, the next time their key is
+ * used.</p>
+ *
+ * @param <K> The key type, which identifies identical operations.
+ * @param <V> The result type.
+ */
+public class SingleFlight<K, V> {
+
+    /** The number of operations that joined one that was in flight. */
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /** The number of operations that were actually performed. */
+    private final AtomicLong executed = new AtomicLong();
+
+    /** The in-flight and fresh operations, by key. */
+    private final ConcurrentMap<K, Flight<V>> flights =
+            new ConcurrentHashMap<>();
+
+    /** The number of operations answered from a fresh result. */
+    private final AtomicLong fresh = new AtomicLong();
+
+    /** How long a successful result stays fresh, in nanoseconds. */
+    private final long freshNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param freshness      How long a successful result stays fresh (0 to
+     *                       only coalesce operations that are in flight).
+     * @param freshnessUnits The freshness (units).
+     */
+    public SingleFlight(
+            final long freshness,
+            final TimeUnit freshnessUnits) {
+        this.freshNanos = freshnessUnits.toNanos(freshness);
+    }
+
+    /**
+     * Performs the operation, unless an identical one is already in flight or
+     * has a fresh result, in which case that result is shared.
+     *
+     * @param key       The key that identifies the operation.
+     * @param operation Starts the operation.
+     *
+     * @return The result.
+     */
+    public CompletableFuture<V> execute(
+            final K key,
+            final Supplier<CompletableFuture<V>> operation) {
+        while (true) {
+            final Flight<V> existing = this.flights.get(key);
+            if (existing != null) {
+                if (!existing.isExpired(this.freshNanos)) {
+                    if (existing.result.isDone()) {
+                        this.fresh.incrementAndGet();
+                    } else {
+                        this.coalesced.incrementAndGet();
+                    }
+                    return share(existing);
+                }
+                this.flights.remove(key, existing);
+                continue;
+            }
+
+            final Flight<V> flight = new Flight<>();
+            if (this.flights.putIfAbsent(key, flight) != null) {
+                // Someone else got there first - join them
+                continue;
+            }
+
+            this.executed.incrementAndGet();
+            CompletableFuture<V> result;
+            try {
+                result = operation.get();
+            } catch (final RuntimeException re) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(re);
+            }
+            result.whenComplete((value, error) -> {
+                if (error != null || this.freshNanos <= 0) {
+                    this.flights.remove(key, flight);
+                } else {
+                    flight.completedNanos = System.nanoTime();
+                }
+                if (error != null) {
+                    flight.result.completeExceptionally(error);
+                } else {
+                    flight.result.complete(value);
+                }
+            });
+            return share(flight);
+        }
+    }
+
+    /**
+     * Returns the number of operations that joined one that was in flight.
+     *
+     * @return The number of coalesced operations.
+     */
+    public long getCoalesced() {
+        return this.coalesced.get();
+    }
+
+    /**
+     * Returns the number of operations that were actually performed.
+     *
+     * @return The number of performed operations.
+     */
+    public long getExecuted() {
+        return this.executed.get();
+    }
+
+    /**
+     * Returns the number of operations that were answered from a fresh
+     * result.
+     *
+     * @return The number of fresh operations.
+     */
+    public long getFresh() {
+        return this.fresh.get();
+    }
+
+    /**
+     * Gives a caller its own view of the shared result so that nothing it
+     * does to its future affects anyone else's.
+     *
+     * @param flight The flight.
+     * @param <V>    The result type.
+     *
+     * @return The caller's view of the result.
+     */
+    private static <V> CompletableFuture<V> share(final Flight<V> flight) {
+        return flight.result.thenApply(Function.identity());
+    }
+
+    /**
+     * An operation that's in flight, or that has completed.
+     *
+     * @param <V> The result type.
+     */
+    private static class Flight<V> {
+
+        /** The shared result. */
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+
+        /** When the operation completed successfully, if it has. */
+        private volatile long completedNanos;
+
+        /**
+         * Checks whether or not this flight can no longer be shared.
+         *
+         * @param freshNanos How long a successful result stays fresh.
+         *
+         * @return Whether or not this flight has expired.
+         */
+        private boolean isExpired(final long freshNanos) {
+            if (!this.result.isDone()) {
+                return false;
+            }
+            return this.result.isCompletedExceptionally() ||
+                    System.nanoTime() - this.completedNanos >= freshNanos;
+        }
+    }
+}
@@ -9,12 +9,16 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /** A raw, java socket connection. */
 public class SocketApiConnection
         implements Connection {
 
+    /** The connect timeout, in milliseconds. */
+    private static final int CONNECT_TIMEOUT_MILLIS = 100;
+
     /** The logger for this class. */
     private static final Logger LOG =
             LoggerFactory.getLogger(SocketApiConnection.class);
@@ -43,7 +47,9 @@ public class SocketApiConnection
     @SuppressWarnings("UnstableApiUsage")
     @Override
     public void query() {
-        try (final Socket socket = new Socket()) {
+        try (final MinerBulkhead.Permit permit =
+                     MinerBulkhead.acquire(this.apiRequest.getIp());
+             final Socket socket = new Socket()) {
             final InetSocketAddress socketAddress =
                     new InetSocketAddress(
                             InetAddresses.forString(
@@ -51,7 +57,9 @@ public class SocketApiConnection
                             this.apiRequest.getPort());
             socket.setTcpNoDelay(true);
             socket.setSoTimeout(this.socketTimeout);
-            socket.connect(socketAddress, 100);
+            socket.connect(
+                    socketAddress,
+                    CONNECT_TIMEOUT_MILLIS);
 
             try (final PrintWriter printWriter =
                          new PrintWriter(
@@ -82,4 +90,15 @@ public class SocketApiConnection
         }
         this.apiRequest.completed();
     }
+
+    @Override
+    public CompletableFuture<String> queryAsync() {
+        return AsyncIo
+                .send(
+                        this,
+                        this.apiRequest,
+                        CONNECT_TIMEOUT_MILLIS + this.socketTimeout,
+                        TimeUnit.MILLISECONDS)
+                .thenApply(ApiRequest::getResponse);
+    }
 }
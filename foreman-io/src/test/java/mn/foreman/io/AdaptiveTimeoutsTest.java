@@ -0,0 +1,81 @@
+package mn.foreman.io;
+
+import mn.foreman.model.SimpleMinerID;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link AdaptiveTimeouts}. */
+public class AdaptiveTimeoutsTest {
+
+    /** The device IP, which isn't used by any other test. */
+    private static final String IP = "127.0.0.31";
+
+    /** The device port. */
+    private static final int PORT = 4028;
+
+    /** A cheap command. */
+    private static final String SUMMARY = "{\"command\":\"summary\"}";
+
+    /** An expensive command. */
+    private static final String STATS = "{\"command\":\"stats\"}";
+
+    /**
+     * Tests that a fast endpoint can't shorten the timeout of a slower
+     * endpoint on the same port.
+     */
+    @Test
+    public void testEndpointsIndependent() {
+        for (int i = 0; i < 10; i++) {
+            AdaptiveTimeouts.recordSample(
+                    IP,
+                    PORT,
+                    SUMMARY,
+                    10);
+        }
+        assertEquals(
+                1000,
+                getReadTimeoutMillis(SUMMARY));
+        assertEquals(
+                10_000,
+                getReadTimeoutMillis(STATS));
+
+        for (int i = 0; i < 10; i++) {
+            AdaptiveTimeouts.recordSample(
+                    IP,
+                    PORT,
+                    STATS,
+                    4_000);
+        }
+        assertTrue(getReadTimeoutMillis(STATS) >= 4_000);
+        assertEquals(
+                1000,
+                getReadTimeoutMillis(SUMMARY));
+        assertEquals(
+                2,
+                AdaptiveTimeouts
+                        .getEstimates()
+                        .get(new SimpleMinerID(IP, PORT))
+                        .size());
+    }
+
+    /**
+     * Returns the read timeout for an endpoint when 10s is requested.
+     *
+     * @param endpoint The endpoint.
+     *
+     * @return The read timeout, in milliseconds.
+     */
+    private static int getReadTimeoutMillis(final String endpoint) {
+        return AdaptiveTimeouts.getReadTimeoutMillis(
+                IP,
+                PORT,
+                endpoint,
+                10,
+                TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,379 @@
+package mn.foreman.io;
+
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/** Unit tests for {@link DigestSessionCache}. */
+public class DigestSessionCacheTest {
+
+    /** The number of requests that the device accepted. */
+    private static final AtomicInteger ACCEPTED = new AtomicInteger();
+
+    /** The number of challenges that the device sent. */
+    private static final AtomicInteger CHALLENGES = new AtomicInteger();
+
+    /** The device IP, which isn't used by any other test. */
+    private static final String IP = "127.0.0.41";
+
+    /** The nonces that the device currently accepts. */
+    private static final Set<String> NONCES = ConcurrentHashMap.newKeySet();
+
+    /** A parameter in an Authorization header. */
+    private static final Pattern PARAMETER =
+            Pattern.compile("(\\w+)=(?:\"([^\"]*)\"|([^,\\s]*))");
+
+    /** The password. */
+    private static final String PASSWORD = "root";
+
+    /** The path. */
+    private static final String PATH = "/cgi-bin/stats.cgi";
+
+    /** The realm. */
+    private static final String REALM = "antMiner Configuration";
+
+    /** The nonces that the device revoked without flagging them stale. */
+    private static final Set<String> REVOKED = ConcurrentHashMap.newKeySet();
+
+    /** The username. */
+    private static final String USERNAME = "root";
+
+    /**
+     * A stand-in for a device that requires digest auth, which is shared by
+     * every test so that pooled connections to it stay valid.
+     */
+    private static HttpServer server;
+
+    /**
+     * Starts the stand-in device.
+     *
+     * @throws Exception on failure.
+     */
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server =
+                HttpServer.create(
+                        new InetSocketAddress(
+                                InetAddress.getByName(IP),
+                                0),
+                        0);
+        server.createContext(
+                PATH,
+                DigestSessionCacheTest::handle);
+        server.start();
+    }
+
+    /** Stops the stand-in device. */
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    /** Resets the stand-in device and forgets its session. */
+    @Before
+    public void setUp() {
+        ACCEPTED.set(0);
+        CHALLENGES.set(0);
+        NONCES.clear();
+        REVOKED.clear();
+        DigestSessionCache.checkout(toHost());
+    }
+
+    /**
+     * Tests that a session is only reused until it's older than the max age.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testExpired() throws Exception {
+        query();
+        assertEquals(1, CHALLENGES.get());
+
+        // The session is still cached, but it's too old to use
+        assertFalse(
+                DigestSessionCache.checkout(
+                        toHost(),
+                        System.currentTimeMillis() +
+                                DigestSessionCache.MAX_AGE_MILLIS).isPresent());
+
+        final long misses = DigestSessionCache.getMisses();
+        query();
+        assertEquals(2, CHALLENGES.get());
+        assertEquals(misses + 1, DigestSessionCache.getMisses());
+    }
+
+    /**
+     * Tests that a session that the device rejects outright is replaced by a
+     * fresh challenge, and that the request still succeeds.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testRejected() throws Exception {
+        query();
+        REVOKED.addAll(NONCES);
+        NONCES.clear();
+
+        final long hits = DigestSessionCache.getHits();
+        final long misses = DigestSessionCache.getMisses();
+        query();
+        assertEquals(2, ACCEPTED.get());
+        // One for the rejected session and one for the fresh challenge
+        assertEquals(3, CHALLENGES.get());
+        assertEquals(hits, DigestSessionCache.getHits());
+        assertEquals(misses + 1, DigestSessionCache.getMisses());
+
+        // The fresh session is cached
+        query();
+        assertEquals(3, CHALLENGES.get());
+        assertEquals(hits + 1, DigestSessionCache.getHits());
+    }
+
+    /**
+     * Tests that a session is reused without being challenged again, and
+     * that the hits and misses are counted.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testReused() throws Exception {
+        final long hits = DigestSessionCache.getHits();
+        final long misses = DigestSessionCache.getMisses();
+
+        query();
+        assertEquals(1, CHALLENGES.get());
+        assertEquals(hits, DigestSessionCache.getHits());
+        assertEquals(misses + 1, DigestSessionCache.getMisses());
+
+        for (int i = 0; i < 3; i++) {
+            query();
+        }
+        assertEquals(4, ACCEPTED.get());
+        assertEquals(1, CHALLENGES.get());
+        assertEquals(hits + 3, DigestSessionCache.getHits());
+        assertEquals(misses + 1, DigestSessionCache.getMisses());
+    }
+
+    /**
+     * Tests that a session whose nonce the device flags as stale is replaced
+     * by the new nonce, and that the request still succeeds.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testStale() throws Exception {
+        query();
+        NONCES.clear();
+
+        final long hits = DigestSessionCache.getHits();
+        final long misses = DigestSessionCache.getMisses();
+        query();
+        assertEquals(2, ACCEPTED.get());
+        assertEquals(2, CHALLENGES.get());
+        assertEquals(hits, DigestSessionCache.getHits());
+        assertEquals(misses + 1, DigestSessionCache.getMisses());
+
+        // The new session is cached
+        query();
+        assertEquals(2, CHALLENGES.get());
+        assertEquals(hits + 1, DigestSessionCache.getHits());
+    }
+
+    /**
+     * Challenges a request with a new nonce.
+     *
+     * @param exchange The exchange.
+     * @param stale    Whether or not the nonce that was used is stale.
+     *
+     * @throws IOException on failure to answer.
+     */
+    private static void challenge(
+            final HttpExchange exchange,
+            final boolean stale) throws IOException {
+        CHALLENGES.incrementAndGet();
+        final String nonce = UUID.randomUUID().toString().replace("-", "");
+        NONCES.add(nonce);
+        exchange.getResponseHeaders().set(
+                "WWW-Authenticate",
+                String.format(
+                        "Digest realm=\"%s\", qop=\"auth\", nonce=\"%s\"%s",
+                        REALM,
+                        nonce,
+                        stale
+                                ? ", stale=true"
+                                : ""));
+        respond(
+                exchange,
+                401,
+                "Unauthorized");
+    }
+
+    /**
+     * Answers a request, challenging it unless it was signed with a valid
+     * nonce and the right credentials.
+     *
+     * <p>Like a real device, a request that was signed correctly but with a
+     * nonce that the device doesn't know is challenged with
+     * <code>stale=true</code>, which makes the client retry with the new
+     * nonce on its own.  A revoked nonce is challenged without it.</p>
+     *
+     * @param exchange The exchange.
+     *
+     * @throws IOException on failure to answer.
+     */
+    private static void handle(final HttpExchange exchange) throws IOException {
+        final String authorization =
+                exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Digest ")) {
+            challenge(
+                    exchange,
+                    false);
+            return;
+        }
+
+        final Map<String, String> parameters = parse(authorization);
+        final String nonce = parameters.get("nonce");
+        final String ha1 = md5(USERNAME + ":" + REALM + ":" + PASSWORD);
+        final String ha2 =
+                md5(exchange.getRequestMethod() + ":" + parameters.get("uri"));
+        final String expected =
+                parameters.containsKey("qop")
+                        ? md5(String.join(
+                        ":",
+                        ha1,
+                        nonce,
+                        parameters.get("nc"),
+                        parameters.get("cnonce"),
+                        parameters.get("qop"),
+                        ha2))
+                        : md5(String.join(
+                        ":",
+                        ha1,
+                        nonce,
+                        ha2));
+        if (!expected.equals(parameters.get("response"))) {
+            challenge(
+                    exchange,
+                    false);
+        } else if (!NONCES.contains(nonce)) {
+            challenge(
+                    exchange,
+                    !REVOKED.contains(nonce));
+        } else {
+            ACCEPTED.incrementAndGet();
+            respond(
+                    exchange,
+                    200,
+                    "{}");
+        }
+    }
+
+    /**
+     * Hashes a value.
+     *
+     * @param value The value.
+     *
+     * @return The MD5, in hex.
+     */
+    @SuppressWarnings("deprecation")
+    private static String md5(final String value) {
+        return Hashing
+                .md5()
+                .hashString(
+                        value,
+                        StandardCharsets.UTF_8)
+                .toString();
+    }
+
+    /**
+     * Parses a digest Authorization header.
+     *
+     * @param authorization The header.
+     *
+     * @return The parameters.
+     */
+    private static Map<String, String> parse(final String authorization) {
+        final Map<String, String> parameters = new HashMap<>();
+        final Matcher matcher = PARAMETER.matcher(authorization);
+        while (matcher.find()) {
+            parameters.put(
+                    matcher.group(1),
+                    matcher.group(2) != null
+                            ? matcher.group(2)
+                            : matcher.group(3));
+        }
+        return parameters;
+    }
+
+    /**
+     * Queries the stand-in device, which must succeed.
+     *
+     * @throws Exception on failure.
+     */
+    private static void query() throws Exception {
+        final AtomicInteger statusCode = new AtomicInteger();
+        Query.digestGet(
+                IP,
+                server.getAddress().getPort(),
+                REALM,
+                PATH,
+                USERNAME,
+                PASSWORD,
+                (code, body) -> statusCode.set(code));
+        assertEquals(200, statusCode.get());
+    }
+
+    /**
+     * Sends a response.
+     *
+     * @param exchange   The exchange.
+     * @param statusCode The status code.
+     * @param body       The body.
+     *
+     * @throws IOException on failure to respond.
+     */
+    private static void respond(
+            final HttpExchange exchange,
+            final int statusCode,
+            final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (final OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    /**
+     * Returns the stand-in device.
+     *
+     * @return The host.
+     */
+    private static HttpHost toHost() {
+        return new HttpHost(
+                IP,
+                server.getAddress().getPort(),
+                "http");
+    }
+}
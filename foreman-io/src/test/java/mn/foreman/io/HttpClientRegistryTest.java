@@ -0,0 +1,276 @@
+package mn.foreman.io;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/** Unit tests for {@link HttpClientRegistry}. */
+public class HttpClientRegistryTest {
+
+    /**
+     * Tests that a POST isn't sent over a pooled connection that the server
+     * has since closed, which would drop it, even when the connection was
+     * only idle for a moment.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testClosedConnectionNotUsedForPost() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        try (final ServerSocket serverSocket =
+                     new ServerSocket(
+                             0,
+                             0,
+                             InetAddress.getLoopbackAddress())) {
+            final Thread server = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try (final Socket socket = serverSocket.accept()) {
+                        readRequest(socket);
+                        received.incrementAndGet();
+                        final OutputStream outputStream =
+                                socket.getOutputStream();
+                        outputStream.write(
+                                "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}"
+                                        .getBytes(StandardCharsets.UTF_8));
+                        outputStream.flush();
+                    } catch (final Exception e) {
+                        // Closed
+                    }
+                }
+            });
+            server.start();
+
+            final CloseableHttpClient client =
+                    HttpClientRegistry.getClient("test-closed-post");
+            final HttpGet httpGet =
+                    new HttpGet(toUrl(serverSocket.getLocalPort()));
+            httpGet.setConfig(toRequestConfig());
+            try (final CloseableHttpResponse response =
+                         client.execute(httpGet)) {
+                EntityUtils.consume(response.getEntity());
+            }
+
+            // Let the server's close arrive
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            final HttpPost httpPost =
+                    new HttpPost(toUrl(serverSocket.getLocalPort()));
+            httpPost.setConfig(toRequestConfig());
+            httpPost.setEntity(
+                    new StringEntity(
+                            "{\"command\":\"reboot\"}",
+                            ContentType.APPLICATION_JSON));
+            try (final CloseableHttpResponse response =
+                         client.execute(httpPost)) {
+                assertEquals(
+                        200,
+                        response.getStatusLine().getStatusCode());
+                EntityUtils.consume(response.getEntity());
+            }
+            assertEquals(2, received.get());
+        }
+    }
+
+    /**
+     * Tests that queries to the same server share one kept-alive
+     * connection.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testConnectionsReused() throws Exception {
+        final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+        final HttpServer server =
+                HttpServer.create(
+                        new InetSocketAddress(
+                                InetAddress.getLoopbackAddress(),
+                                0),
+                        0);
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            final byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+        try {
+            final CloseableHttpClient client =
+                    HttpClientRegistry.getClient("test-reuse");
+            for (int i = 0; i < 5; i++) {
+                final HttpGet httpGet =
+                        new HttpGet(toUrl(server.getAddress().getPort()));
+                httpGet.setConfig(toRequestConfig());
+                try (final CloseableHttpResponse response =
+                             client.execute(httpGet)) {
+                    EntityUtils.consume(response.getEntity());
+                }
+            }
+            assertEquals(1, clientPorts.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that a GET is retried once when the server drops the connection
+     * without answering.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testDroppedGetRetried() throws Exception {
+        assertEquals(
+                2,
+                countDropped(
+                        "test-dropped-get",
+                        new HttpGet()));
+    }
+
+    /**
+     * Tests that a POST that was fully sent is never sent again when the
+     * server drops the connection without answering, since the server may
+     * have acted on it (ex: a miner that rebooted).
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testDroppedPostNotRetried() throws Exception {
+        final HttpPost httpPost = new HttpPost();
+        httpPost.setEntity(
+                new StringEntity(
+                        "{\"command\":\"reboot\"}",
+                        ContentType.APPLICATION_JSON));
+        assertEquals(
+                1,
+                countDropped(
+                        "test-dropped-post",
+                        httpPost));
+    }
+
+    /**
+     * Sends a request to a server that reads every request in full and then
+     * closes the connection without answering.
+     *
+     * @param clientName The name of the client to send the request with.
+     * @param request    The request.
+     *
+     * @return The number of times the request arrived.
+     *
+     * @throws Exception on failure.
+     */
+    private static int countDropped(
+            final String clientName,
+            final HttpRequestBase request) throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        try (final ServerSocket serverSocket =
+                     new ServerSocket(
+                             0,
+                             0,
+                             InetAddress.getLoopbackAddress())) {
+            final Thread server = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try (final Socket socket = serverSocket.accept()) {
+                        readRequest(socket);
+                        received.incrementAndGet();
+                    } catch (final Exception e) {
+                        // Closed
+                    }
+                }
+            });
+            server.start();
+
+            request.setURI(
+                    new URI(toUrl(serverSocket.getLocalPort())));
+            request.setConfig(toRequestConfig());
+            try (final CloseableHttpResponse ignored =
+                         HttpClientRegistry
+                                 .getClient(clientName)
+                                 .execute(request)) {
+                fail("The server never answers");
+            } catch (final NoHttpResponseException nhre) {
+                // Expected
+            }
+        }
+        return received.get();
+    }
+
+    /**
+     * Reads a request, including its body.
+     *
+     * @param socket The connection to read from.
+     *
+     * @throws Exception on failure to read.
+     */
+    private static void readRequest(final Socket socket) throws Exception {
+        final BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(
+                                socket.getInputStream(),
+                                StandardCharsets.UTF_8));
+        int contentLength = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength =
+                        Integer.parseInt(
+                                line.substring("content-length:".length())
+                                        .trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            reader.read();
+        }
+    }
+
+    /**
+     * Creates the timeouts for a test request.
+     *
+     * @return The request configuration.
+     */
+    private static RequestConfig toRequestConfig() {
+        return HttpClientRegistry.toRequestConfig(
+                5,
+                TimeUnit.SECONDS,
+                5,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates the URL of a local server.
+     *
+     * @param port The server port.
+     *
+     * @return The URL.
+     */
+    private static String toUrl(final int port) {
+        return "http://127.0.0.1:" + port + "/";
+    }
+}
@@ -0,0 +1,141 @@
+package mn.foreman.io;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.util.Map;
+
+/**
+ * A micro-benchmark that compares deserializing a typical miner response
+ * with a new {@link ObjectMapper} per call (what {@link Query} used to do)
+ * against a cached reader from the {@link JsonMapperRegistry}.
+ *
+ * <p>This isn't run as part of the build.  Run it manually with:</p>
+ *
+ * <pre>
+ * mvn -pl foreman-io test-compile exec:java \
+ *     -Dexec.mainClass=mn.foreman.io.JsonMapperRegistryBenchmark \
+ *     -Dexec.classpathScope=test
+ * </pre>
+ */
+public class JsonMapperRegistryBenchmark {
+
+    /** The number of iterations to time. */
+    private static final int ITERATIONS = 20_000;
+
+    /** A response shaped like a cgminer/REST stats response. */
+    private static final String JSON =
+            "{\"STATUS\":[{\"STATUS\":\"S\",\"When\":1599523437,\"Code\":70," +
+                    "\"Msg\":\"CGMiner stats\",\"Description\":\"cgminer " +
+                    "4.9.0\"}],\"STATS\":[{\"BMMiner\":\"2.0.0\"," +
+                    "\"Miner\":\"16.8.1.3\",\"CompileTime\":\"Fri Nov 17 " +
+                    "17:57:49 CST 2017\",\"Type\":\"Antminer S9\"},{" +
+                    "\"STATS\":0,\"ID\":\"BC50\",\"Elapsed\":2475," +
+                    "\"GHS 5s\":\"13944.70\",\"GHS av\":13886.61," +
+                    "\"miner_count\":3,\"frequency\":\"650\",\"fan_num\":2," +
+                    "\"fan1\":0,\"fan2\":0,\"fan3\":5880,\"fan6\":4320," +
+                    "\"temp_num\":3,\"temp6\":58,\"temp7\":59,\"temp8\":57," +
+                    "\"temp2_6\":73,\"temp2_7\":75,\"temp2_8\":72," +
+                    "\"temp_max\":59,\"Device Hardware%\":0.0001," +
+                    "\"no_matching_work\":1,\"chain_acn6\":63," +
+                    "\"chain_acn7\":63,\"chain_acn8\":63," +
+                    "\"chain_acs6\":\" oooooooo oooooooo oooooooo oooooooo " +
+                    "oooooooo oooooooo oooooooo ooooooo\",\"chain_acs7\":\" " +
+                    "oooooooo oooooooo oooooooo oooooooo oooooooo oooooooo " +
+                    "oooooooo ooooooo\",\"chain_acs8\":\" oooooooo oooooooo " +
+                    "oooooooo oooooooo oooooooo oooooooo oooooooo " +
+                    "ooooooo\",\"chain_hw6\":0,\"chain_hw7\":1," +
+                    "\"chain_hw8\":0,\"chain_rate6\":\"4684.14\"," +
+                    "\"chain_rate7\":\"4622.04\",\"chain_rate8\":\"4638.52\"}]," +
+                    "\"id\":1}";
+
+    /** The type being read. */
+    private static final TypeReference<Map<String, Object>> TYPE =
+            new TypeReference<Map<String, Object>>() {
+            };
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Ignored.
+     *
+     * @throws Exception on failure to deserialize.
+     */
+    public static void main(final String[] args)
+            throws Exception {
+        for (int round = 0; round < 3; round++) {
+            final long perCall = runPerCallMapper();
+            final long registry = runRegistryReader();
+            System.out.printf(
+                    "round %d: new mapper per call: %,d ns/op, " +
+                            "registry reader: %,d ns/op (%.1fx)%n",
+                    round,
+                    perCall,
+                    registry,
+                    (double) perCall / registry);
+        }
+    }
+
+    /**
+     * Deserializes with a new mapper per call.
+     *
+     * @return The average time per call, in nanoseconds.
+     *
+     * @throws Exception on failure to deserialize.
+     */
+    private static long runPerCallMapper()
+            throws Exception {
+        final long start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final Map<String, Object> response =
+                    new ObjectMapper()
+                            .registerModule(new JavaTimeModule())
+                            .readValue(
+                                    JSON,
+                                    TYPE);
+            sink += response.size();
+        }
+        return toNanosPerOp(start, sink);
+    }
+
+    /**
+     * Deserializes with a cached reader.
+     *
+     * @return The average time per call, in nanoseconds.
+     *
+     * @throws Exception on failure to deserialize.
+     */
+    private static long runRegistryReader()
+            throws Exception {
+        final long start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final Map<String, Object> response =
+                    JsonMapperRegistry
+                            .getReader(TYPE)
+                            .readValue(JSON);
+            sink += response.size();
+        }
+        return toNanosPerOp(start, sink);
+    }
+
+    /**
+     * Computes the average time per operation.
+     *
+     * @param start When the run started.
+     * @param sink  The result of the run, so it isn't optimized away.
+     *
+     * @return The average time per operation, in nanoseconds.
+     */
+    private static long toNanosPerOp(
+            final long start,
+            final long sink) {
+        final long elapsed = System.nanoTime() - start;
+        if (sink == 0) {
+            throw new IllegalStateException("Nothing was deserialized");
+        }
+        return elapsed / ITERATIONS;
+    }
+}
@@ -0,0 +1,54 @@
+package mn.foreman.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for {@link LatencyEstimator}. */
+public class LatencyEstimatorTest {
+
+    /** Tests that the first sample seeds the SRTT and RTTVAR. */
+    @Test
+    public void testFirstSample() {
+        final LatencyEstimator estimator = new LatencyEstimator();
+        estimator.addSample(40);
+
+        final LatencyEstimator.Estimate estimate = estimator.getEstimate();
+        assertEquals(40, estimate.getSrttMillis());
+        assertEquals(20, estimate.getRttvarMillis());
+        assertEquals(120, estimate.getRtoMillis());
+        assertEquals(1, estimate.getSamples());
+    }
+
+    /** Tests that a steady miner converges to its SRTT plus the granularity. */
+    @Test
+    public void testSteadySamples() {
+        final LatencyEstimator estimator = new LatencyEstimator();
+        for (int i = 0; i < 100; i++) {
+            estimator.addSample(40);
+        }
+        assertEquals(50, estimator.getRtoMillis());
+    }
+
+    /** Tests that timeouts back off until the next sample. */
+    @Test
+    public void testTimeoutBackoff() {
+        final LatencyEstimator estimator = new LatencyEstimator();
+        estimator.addSample(40);
+        estimator.addSample(40);
+        assertEquals(100, estimator.getRtoMillis());
+
+        estimator.addTimeout();
+        estimator.addTimeout();
+        assertEquals(400, estimator.getRtoMillis());
+        assertEquals(2, estimator.getEstimate().getTimeouts());
+
+        for (int i = 0; i < 10; i++) {
+            estimator.addTimeout();
+        }
+        assertEquals(64, estimator.getEstimate().getBackoff());
+
+        estimator.addSample(40);
+        assertEquals(1, estimator.getEstimate().getBackoff());
+    }
+}
@@ -0,0 +1,204 @@
+package mn.foreman.io;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link MinerBulkhead}.  Every test uses its own device IP,
+ * since the permits are shared by the whole process.
+ */
+public class MinerBulkheadTest {
+
+    /**
+     * Tests that the counters track permits that were obtained, waited for
+     * and rejected, and that closing a permit twice only returns it once.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testCounters() throws Exception {
+        final String ip = "127.0.0.11";
+        final long acquired = MinerBulkhead.getAcquired();
+        final long waited = MinerBulkhead.getWaited();
+        final long rejected = MinerBulkhead.getRejected();
+
+        final List<MinerBulkhead.Permit> permits = acquireAll(ip);
+        permits.get(0).close();
+        permits.get(0).close();
+        final MinerBulkhead.Permit permit =
+                MinerBulkhead.acquire(
+                        ip,
+                        0,
+                        TimeUnit.MILLISECONDS);
+        assertRejected(ip);
+
+        assertEquals(
+                MinerBulkhead.getPermits() + 1,
+                MinerBulkhead.getAcquired() - acquired);
+        assertEquals(1, MinerBulkhead.getWaited() - waited);
+        assertEquals(1, MinerBulkhead.getRejected() - rejected);
+
+        permit.close();
+        permits.forEach(MinerBulkhead.Permit::close);
+    }
+
+    /**
+     * Tests that waiting requests are handed permits in the order they
+     * arrived.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testFair() throws Exception {
+        final String ip = "127.0.0.12";
+        final List<MinerBulkhead.Permit> permits = acquireAll(ip);
+
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final int id = i;
+            final Thread waiter =
+                    new Thread(() -> {
+                        try (final MinerBulkhead.Permit ignored =
+                                     MinerBulkhead.acquire(
+                                             ip,
+                                             10,
+                                             TimeUnit.SECONDS)) {
+                            order.add(id);
+                        } catch (final BulkheadFullException bfe) {
+                            order.add(-1);
+                        }
+                    });
+            waiter.start();
+            // Wait for it to be queued before the next one arrives
+            while (waiter.getState() != Thread.State.TIMED_WAITING) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            waiters.add(waiter);
+        }
+
+        permits.forEach(MinerBulkhead.Permit::close);
+        for (final Thread waiter : waiters) {
+            waiter.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        assertEquals(
+                order.toString(),
+                Arrays.asList(0, 1, 2, 3, 4),
+                order);
+    }
+
+    /**
+     * Tests that a permit is returned when the device can't be connected to.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testReleasedOnConnectFailure() throws Exception {
+        final String ip = "127.0.0.13";
+        final int port;
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        final EventLoopGroup group = new NioEventLoopGroup(1);
+        try {
+            for (int i = 0; i < MinerBulkhead.getPermits() + 1; i++) {
+                final ApiRequest request =
+                        new ApiRequestImpl(
+                                ip,
+                                port,
+                                "{\"command\":\"summary\"}");
+                new AsyncApiConnection(
+                        request,
+                        Collections.emptyList(),
+                        group,
+                        1,
+                        TimeUnit.SECONDS,
+                        1,
+                        TimeUnit.SECONDS).query();
+                assertTrue(request.waitForCompletion(10, TimeUnit.SECONDS));
+            }
+
+            // Every permit is back
+            acquireAll(ip).forEach(MinerBulkhead.Permit::close);
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Tests that a request that can't get a permit in time is rejected once
+     * its wait runs out, and not before.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testTimedRejection() throws Exception {
+        final String ip = "127.0.0.14";
+        final List<MinerBulkhead.Permit> permits = acquireAll(ip);
+
+        final long start = System.nanoTime();
+        assertRejected(ip);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        permits.forEach(MinerBulkhead.Permit::close);
+        MinerBulkhead
+                .acquire(
+                        ip,
+                        0,
+                        TimeUnit.MILLISECONDS)
+                .close();
+    }
+
+    /**
+     * Obtains every permit for a device.
+     *
+     * @param ip The device IP.
+     *
+     * @return The permits.
+     *
+     * @throws BulkheadFullException if a permit couldn't be obtained.
+     */
+    private static List<MinerBulkhead.Permit> acquireAll(final String ip)
+            throws BulkheadFullException {
+        final List<MinerBulkhead.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < MinerBulkhead.getPermits(); i++) {
+            permits.add(
+                    MinerBulkhead.acquire(
+                            ip,
+                            0,
+                            TimeUnit.MILLISECONDS));
+        }
+        return permits;
+    }
+
+    /**
+     * Verifies that a request to a device is rejected after waiting 100ms.
+     *
+     * @param ip The device IP.
+     */
+    private static void assertRejected(final String ip) {
+        try {
+            MinerBulkhead.acquire(
+                    ip,
+                    100,
+                    TimeUnit.MILLISECONDS);
+            fail("Request should have been rejected");
+        } catch (final BulkheadFullException bfe) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package mn.foreman.io;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link SimpleApiConnection}. */
+public class SimpleApiConnectionTest {
+
+    /** The device IP, which isn't used by any other test. */
+    private static final String IP = "127.0.0.21";
+
+    /** The event group. */
+    private final EventLoopGroup group = new NioEventLoopGroup(1);
+
+    /** The permits that saturate the device. */
+    private final List<MinerBulkhead.Permit> permits = new ArrayList<>();
+
+    /** Returns the permits and stops the event group. */
+    @After
+    public void tearDown() {
+        this.permits.forEach(MinerBulkhead.Permit::close);
+        this.group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Tests that a request that's rejected by the bulkhead is still
+     * completed, so that callers waiting on it return.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testRejectedCompletes() throws Exception {
+        saturate();
+
+        final ApiRequest request = toRequest();
+        final Thread query =
+                new Thread(() -> toConnection(request).query());
+        query.start();
+        query.join(TimeUnit.SECONDS.toMillis(30));
+
+        assertTrue(request.waitForCompletion(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that an asynchronous query that's rejected by the bulkhead still
+     * completes.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testRejectedCompletesAsync() throws Exception {
+        saturate();
+
+        // Nothing was sent, so there's no response
+        assertNull(
+                toConnection(toRequest())
+                        .queryAsync()
+                        .get(30, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Obtains every permit for the device.
+     *
+     * @throws BulkheadFullException if a permit couldn't be obtained.
+     */
+    private void saturate() throws BulkheadFullException {
+        for (int i = 0; i < MinerBulkhead.getPermits(); i++) {
+            this.permits.add(
+                    MinerBulkhead.acquire(
+                            IP,
+                            0,
+                            TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Creates a connection for the provided request.
+     *
+     * @param request The request.
+     *
+     * @return The connection.
+     */
+    private SimpleApiConnection toConnection(final ApiRequest request) {
+        return new SimpleApiConnection(
+                request,
+                Collections.emptyList(),
+                this.group,
+                1,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a request for the device.
+     *
+     * @return The request.
+     */
+    private static ApiRequest toRequest() {
+        return new ApiRequestImpl(
+                IP,
+                4028,
+                "{\"command\":\"summary\"}");
+    }
+}
@@ -0,0 +1,87 @@
+package mn.foreman.io;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link SingleFlight}. */
+public class SingleFlightTest {
+
+    /** Tests that overlapping operations share one execution. */
+    @Test
+    public void testCoalesced() {
+        final SingleFlight<String, String> flights =
+                new SingleFlight<>(0, TimeUnit.MILLISECONDS);
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CompletableFuture<String> first =
+                flights.execute("stats", () -> {
+                    calls.incrementAndGet();
+                    return pending;
+                });
+        final CompletableFuture<String> second =
+                flights.execute("stats", () -> {
+                    calls.incrementAndGet();
+                    return pending;
+                });
+        pending.complete("response");
+
+        assertEquals("response", first.join());
+        assertEquals("response", second.join());
+        assertEquals(1, calls.get());
+        assertEquals(1, flights.getExecuted());
+        assertEquals(1, flights.getCoalesced());
+
+        // Nothing is kept once the flight lands
+        flights.execute("stats", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("again");
+        });
+        assertEquals(2, calls.get());
+    }
+
+    /** Tests that failures are never served to later callers. */
+    @Test
+    public void testFailuresNotShared() {
+        final SingleFlight<String, String> flights =
+                new SingleFlight<>(1, TimeUnit.MINUTES);
+        final CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException());
+
+        assertTrue(flights
+                .execute("stats", () -> failed)
+                .isCompletedExceptionally());
+        assertEquals(
+                "response",
+                flights.execute(
+                        "stats",
+                        () -> CompletableFuture.completedFuture("response"))
+                        .join());
+        assertEquals(2, flights.getExecuted());
+    }
+
+    /** Tests that a fresh result is reused. */
+    @Test
+    public void testFresh() {
+        final SingleFlight<String, String> flights =
+                new SingleFlight<>(1, TimeUnit.MINUTES);
+        flights.execute(
+                "stats",
+                () -> CompletableFuture.completedFuture("response"));
+
+        assertEquals(
+                "response",
+                flights.execute(
+                        "stats",
+                        () -> CompletableFuture.completedFuture("other"))
+                        .join());
+        assertEquals(1, flights.getExecuted());
+        assertEquals(1, flights.getFresh());
+    }
+}
@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * An {@link AbstractMiner} provides an abstract class representing a remote
@@ -124,6 +125,19 @@ public abstract class AbstractMiner
         return builder.build();
     }
 
+    @Override
+    public CompletableFuture<MinerStats> getStatsAsync() {
+        LOG.debug("Obtaining stats from {}", this);
+
+        final MinerStats.Builder builder =
+                new MinerStats.Builder()
+                        .setApiIp(this.apiIp)
+                        .setApiPort(this.apiPort);
+
+        return addStatsAsync(builder)
+                .thenApply(added -> builder.build());
+    }
+
     @Override
     public int hashCode() {
         final HashCodeBuilder hashCodeBuilder =
@@ -155,6 +169,29 @@ public abstract class AbstractMiner
             MinerStats.Builder statsBuilder)
             throws MinerException;
 
+    /**
+     * Adds stats to the provided builder without blocking the caller.
+     *
+     * <p>By default, {@link #addStats(MinerStats.Builder)} is invoked on the
+     * calling thread.</p>
+     *
+     * @param statsBuilder The builder to update.
+     *
+     * @return A future that completes once the builder has been updated, or
+     * exceptionally with a {@link MinerException} on failure to get stats.
+     */
+    protected CompletableFuture<Void> addStatsAsync(
+            final MinerStats.Builder statsBuilder) {
+        final CompletableFuture<Void> added = new CompletableFuture<>();
+        try {
+            addStats(statsBuilder);
+            added.complete(null);
+        } catch (final MinerException me) {
+            added.completeExceptionally(me);
+        }
+        return added;
+    }
+
     /**
      * Adds to the {@link EqualsBuilder}.
      *
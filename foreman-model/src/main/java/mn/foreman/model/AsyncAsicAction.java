@@ -207,8 +207,10 @@ public class AsyncAsicAction
         if (!this.task.isCancelled()) {
             final long now = System.currentTimeMillis();
             if (now >= deadlineInMillis) {
-                // Took too long to find the miner - abort
+                // Took too long to find the miner - abort, and let normal
+                // polling decide when to try it again
                 this.task.cancel(false);
+                this.blacklist.remove(minerID);
                 doneCallback.failed("Miner never returned");
             }
         }
@@ -4,6 +4,7 @@ import mn.foreman.model.error.MinerException;
 import mn.foreman.model.miners.MinerStats;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A common interface to all {@link Miner miners} that provide the ability to
@@ -48,4 +49,24 @@ public interface Miner {
      */
     MinerStats getStats()
             throws MinerException;
+
+    /**
+     * Obtains a {@link MinerStats} without blocking the caller.
+     *
+     * <p>By default, the stats are obtained on the calling thread via {@link
+     * #getStats()}.  Miners that can query their APIs asynchronously should
+     * override this.</p>
+     *
+     * @return The {@link MinerStats}, which completes exceptionally with a
+     * {@link MinerException} on failure to get stats.
+     */
+    default CompletableFuture<MinerStats> getStatsAsync() {
+        final CompletableFuture<MinerStats> stats = new CompletableFuture<>();
+        try {
+            stats.complete(getStats());
+        } catch (final MinerException me) {
+            stats.completeExceptionally(me);
+        }
+        return stats;
+    }
 }
\ No newline at end of file
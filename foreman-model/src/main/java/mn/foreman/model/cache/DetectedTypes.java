@@ -0,0 +1,88 @@
+package mn.foreman.model.cache;
+
+import mn.foreman.model.MinerID;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link DetectedTypes} remembers the firmware or version type that was last
+ * detected for each miner, by name, so that detection doesn't have to be
+ * repeated right after the application restarts.
+ *
+ * <p>Miners that detect their type record it here, and the types can be
+ * exported and restored as a whole so that they can be persisted across
+ * restarts.  A restored type can only be claimed once, by the first miner
+ * that asks for it, and is only a starting point: the miner still re-detects
+ * its type on its usual schedule.</p>
+ */
+public class DetectedTypes {
+
+    /** The restored types that haven't been claimed yet, by miner. */
+    private static final ConcurrentMap<MinerID, String> RESTORED =
+            new ConcurrentHashMap<>();
+
+    /** The detected types, by miner. */
+    private static final ConcurrentMap<MinerID, String> TYPES =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private DetectedTypes() {
+        // Do nothing
+    }
+
+    /**
+     * Claims the type that was restored for the miner.
+     *
+     * @param minerID The miner.
+     *
+     * @return The type, if one was restored and hasn't been claimed yet.
+     */
+    public static Optional<String> claim(final MinerID minerID) {
+        return Optional.ofNullable(RESTORED.remove(minerID));
+    }
+
+    /**
+     * Returns every known type, preferring detected types over restored ones.
+     *
+     * @return The known types, by miner.
+     */
+    public static Map<MinerID, String> getAll() {
+        final Map<MinerID, String> types = new HashMap<>(RESTORED);
+        types.putAll(TYPES);
+        return types;
+    }
+
+    /**
+     * Records the type that was detected for the miner.
+     *
+     * @param minerID The miner.
+     * @param type    The type.
+     */
+    public static void put(
+            final MinerID minerID,
+            final String type) {
+        TYPES.put(minerID, type);
+    }
+
+    /**
+     * Restores previously detected types for miners whose types haven't been
+     * detected yet.
+     *
+     * @param types The types, by miner.
+     */
+    public static void restore(final Map<MinerID, String> types) {
+        types.forEach((minerID, type) -> {
+            if (!TYPES.containsKey(minerID)) {
+                RESTORED.put(minerID, type);
+            }
+        });
+    }
+}
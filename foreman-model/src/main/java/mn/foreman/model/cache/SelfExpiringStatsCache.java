@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -60,6 +61,11 @@ public class SelfExpiringStatsCache
         this.cache.put(minerID, stats);
     }
 
+    @Override
+    public Optional<MinerStats> get(final MinerID minerID) {
+        return Optional.ofNullable(this.cache.getIfPresent(minerID));
+    }
+
     @Override
     public List<MinerStats> getMetrics() {
         this.cache.cleanUp();
@@ -4,6 +4,7 @@ import mn.foreman.model.MinerID;
 import mn.foreman.model.miners.MinerStats;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * A {@link StatsCache} provides an in-memory cache that will store {@link
@@ -21,6 +22,15 @@ public interface StatsCache {
             MinerID minerID,
             MinerStats stats);
 
+    /**
+     * Returns the metrics in the cache for the ID.
+     *
+     * @param minerID The ID.
+     *
+     * @return The metrics, if present.
+     */
+    Optional<MinerStats> get(MinerID minerID);
+
     /**
      * Returns the metrics in the cache.
      *
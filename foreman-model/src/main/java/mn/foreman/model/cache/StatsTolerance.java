@@ -0,0 +1,253 @@
+package mn.foreman.model.cache;
+
+import mn.foreman.model.MinerID;
+import mn.foreman.model.miners.MinerStats;
+import mn.foreman.model.miners.asic.Asic;
+import mn.foreman.model.miners.cpu.Cpu;
+import mn.foreman.model.miners.rig.Gpu;
+import mn.foreman.model.miners.rig.Rig;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link StatsTolerance} decides whether or not two {@link MinerStats} from
+ * the same miner are close enough that nothing meaningful changed between
+ * them.
+ *
+ * <p>Stats are considered unchanged when:</p>
+ *
+ * <ul>
+ *     <li>The same number of ASICs, rigs, GPUs and CPUs were reported.</li>
+ *     <li>The total hash rate moved by no more than the hash rate tolerance
+ *     (relative).</li>
+ *     <li>The hottest temp moved by no more than the temp tolerance
+ *     (absolute).</li>
+ *     <li>The pools, their priorities and their states are the same.</li>
+ *     <li>No ASIC reports errors, and none changed power state.</li>
+ * </ul>
+ *
+ * <p>{@link #isUnchanged(MinerID, MinerStats)} compares each poll against the
+ * stats from when the miner last changed (its anchor) rather than against the
+ * previous poll, so that a slow drift that never moves far between two polls
+ * still counts as a change once it adds up.</p>
+ */
+public class StatsTolerance {
+
+    /** The stats from when each miner last changed, by miner. */
+    private final ConcurrentMap<MinerID, MinerStats> anchors =
+            new ConcurrentHashMap<>();
+
+    /** The max relative change in total hash rate. */
+    private final double hashRateTolerance;
+
+    /** The max change in the hottest temp. */
+    private final int tempTolerance;
+
+    /**
+     * Constructor.
+     *
+     * @param hashRateTolerance The max relative change in total hash rate.
+     * @param tempTolerance     The max change in the hottest temp.
+     */
+    public StatsTolerance(
+            final double hashRateTolerance,
+            final int tempTolerance) {
+        this.hashRateTolerance = hashRateTolerance;
+        this.tempTolerance = tempTolerance;
+    }
+
+    /**
+     * Forgets the anchor for a miner, so that its next stats count as a
+     * change.
+     *
+     * @param minerID The miner.
+     */
+    public void forget(final MinerID minerID) {
+        this.anchors.remove(minerID);
+    }
+
+    /**
+     * Checks whether or not the miner's stats are within tolerance of its
+     * anchor.  If they aren't, the stats become the new anchor.
+     *
+     * @param minerID The miner.
+     * @param current The current stats.
+     *
+     * @return Whether or not nothing meaningful changed since the miner last
+     * changed.
+     */
+    public boolean isUnchanged(
+            final MinerID minerID,
+            final MinerStats current) {
+        final MinerStats anchor = this.anchors.get(minerID);
+        if (anchor != null && isWithin(anchor, current)) {
+            return true;
+        }
+        this.anchors.put(
+                minerID,
+                current);
+        return false;
+    }
+
+    /**
+     * Checks whether or not the current stats are within tolerance of the
+     * previous stats.
+     *
+     * @param previous The previous stats.
+     * @param current  The current stats.
+     *
+     * @return Whether or not nothing meaningful changed.
+     */
+    public boolean isWithin(
+            final MinerStats previous,
+            final MinerStats current) {
+        final boolean hasErrors =
+                current
+                        .getAsics()
+                        .stream()
+                        .map(Asic::getHasErrors)
+                        .anyMatch(Boolean.TRUE::equals);
+        return !hasErrors &&
+                toPowerStates(previous).equals(toPowerStates(current)) &&
+                previous.getRigs().size() == current.getRigs().size() &&
+                toGpus(previous).count() == toGpus(current).count() &&
+                previous.getCpus().size() == current.getCpus().size() &&
+                toPoolStates(previous).equals(toPoolStates(current)) &&
+                isHashRateWithin(previous, current) &&
+                Math.abs(toMaxTemp(previous) - toMaxTemp(current)) <=
+                        this.tempTolerance;
+    }
+
+    /**
+     * Forgets the anchors of every miner that isn't in the provided miners.
+     *
+     * @param minerIDs The miners to keep.
+     */
+    public void retain(final Collection<MinerID> minerIDs) {
+        this.anchors.keySet().retainAll(minerIDs);
+    }
+
+    /**
+     * Returns every GPU in the stats.
+     *
+     * @param stats The stats.
+     *
+     * @return The GPUs.
+     */
+    private static Stream<Gpu> toGpus(final MinerStats stats) {
+        return stats
+                .getRigs()
+                .stream()
+                .map(Rig::getGpus)
+                .flatMap(List::stream);
+    }
+
+    /**
+     * Returns the total hash rate in the stats.
+     *
+     * @param stats The stats.
+     *
+     * @return The total hash rate.
+     */
+    private static BigDecimal toHashRate(final MinerStats stats) {
+        return Stream
+                .concat(
+                        stats.getAsics().stream().map(Asic::getHashRate),
+                        stats.getRigs().stream().map(Rig::getHashRate))
+                .filter(Objects::nonNull)
+                .reduce(
+                        BigDecimal.ZERO,
+                        BigDecimal::add);
+    }
+
+    /**
+     * Returns the hottest temp in the stats.
+     *
+     * @param stats The stats.
+     *
+     * @return The hottest temp, or 0 if none were reported.
+     */
+    private static int toMaxTemp(final MinerStats stats) {
+        return Stream
+                .of(
+                        stats
+                                .getAsics()
+                                .stream()
+                                .map(Asic::getTemps)
+                                .flatMap(List::stream),
+                        toGpus(stats).map(Gpu::getTemp),
+                        stats.getCpus().stream().map(Cpu::getTemp))
+                .flatMap(temps -> temps)
+                .filter(Objects::nonNull)
+                .mapToInt(Integer::intValue)
+                .max()
+                .orElse(0);
+    }
+
+    /**
+     * Returns the parts of each pool that describe its state, ignoring its
+     * share counts (which always change).
+     *
+     * @param stats The stats.
+     *
+     * @return The pool states.
+     */
+    private static List<List<Object>> toPoolStates(final MinerStats stats) {
+        return stats
+                .getPools()
+                .stream()
+                .map(pool -> Arrays.<Object>asList(
+                        pool.getName(),
+                        pool.getPriority(),
+                        pool.getEnabled(),
+                        pool.getStatus()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the power state of each ASIC.
+     *
+     * @param stats The stats.
+     *
+     * @return The power states.
+     */
+    private static List<String> toPowerStates(final MinerStats stats) {
+        return stats
+                .getAsics()
+                .stream()
+                .map(Asic::getPowerState)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Checks whether or not the total hash rate moved by no more than the
+     * tolerance.
+     *
+     * @param previous The previous stats.
+     * @param current  The current stats.
+     *
+     * @return Whether or not the hash rate is within tolerance.
+     */
+    private boolean isHashRateWithin(
+            final MinerStats previous,
+            final MinerStats current) {
+        final BigDecimal previousRate = toHashRate(previous);
+        final BigDecimal currentRate = toHashRate(current);
+        final BigDecimal max = previousRate.max(currentRate);
+        if (max.signum() == 0) {
+            return true;
+        }
+        return previousRate
+                .subtract(currentRate)
+                .abs()
+                .doubleValue() / max.doubleValue() <= this.hashRateTolerance;
+    }
+}
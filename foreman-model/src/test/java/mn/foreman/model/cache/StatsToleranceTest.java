@@ -0,0 +1,138 @@
+package mn.foreman.model.cache;
+
+import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+import mn.foreman.model.miners.FanInfo;
+import mn.foreman.model.miners.MinerStats;
+import mn.foreman.model.miners.Pool;
+import mn.foreman.model.miners.asic.Asic;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link StatsTolerance}. */
+public class StatsToleranceTest {
+
+    /** The tolerance under test. */
+    private final StatsTolerance tolerance =
+            new StatsTolerance(
+                    0.05,
+                    5);
+
+    /** Tests that small hash rate and temp movements are tolerated. */
+    @Test
+    public void testWithinTolerance() {
+        assertTrue(this.tolerance.isWithin(
+                toStats(100, 70, false, true),
+                toStats(97, 74, false, true)));
+    }
+
+    /** Tests that a hash rate drop is a change. */
+    @Test
+    public void testHashRateChange() {
+        assertFalse(this.tolerance.isWithin(
+                toStats(100, 70, false, true),
+                toStats(90, 70, false, true)));
+    }
+
+    /** Tests that a temp spike is a change. */
+    @Test
+    public void testTempChange() {
+        assertFalse(this.tolerance.isWithin(
+                toStats(100, 70, false, true),
+                toStats(100, 80, false, true)));
+    }
+
+    /** Tests that errors are never stable. */
+    @Test
+    public void testErrors() {
+        assertFalse(this.tolerance.isWithin(
+                toStats(100, 70, true, true),
+                toStats(100, 70, true, true)));
+    }
+
+    /** Tests that a pool going down is a change. */
+    @Test
+    public void testPoolChange() {
+        assertFalse(this.tolerance.isWithin(
+                toStats(100, 70, false, true),
+                toStats(100, 70, false, false)));
+    }
+
+    /**
+     * Tests that a slow drift, which never moves far between two polls, still
+     * counts as a change once it has moved far from the last change.
+     */
+    @Test
+    public void testSlowDrift() {
+        final MinerID minerID =
+                new SimpleMinerID(
+                        "127.0.0.1",
+                        4028);
+        assertFalse(this.tolerance.isUnchanged(
+                minerID,
+                toStats(100, 70, false, true)));
+        assertTrue(this.tolerance.isUnchanged(
+                minerID,
+                toStats(98, 71, false, true)));
+        assertTrue(this.tolerance.isUnchanged(
+                minerID,
+                toStats(96, 72, false, true)));
+        assertFalse(this.tolerance.isUnchanged(
+                minerID,
+                toStats(94, 73, false, true)));
+
+        // The last change is the new anchor
+        assertTrue(this.tolerance.isUnchanged(
+                minerID,
+                toStats(92, 74, false, true)));
+
+        this.tolerance.forget(minerID);
+        assertFalse(this.tolerance.isUnchanged(
+                minerID,
+                toStats(92, 74, false, true)));
+    }
+
+    /**
+     * Creates stats for a single-ASIC miner with one pool.
+     *
+     * @param hashRate  The hash rate.
+     * @param temp      The temp.
+     * @param hasErrors Whether or not the ASIC has errors.
+     * @param poolUp    Whether or not the pool is up.
+     *
+     * @return The stats.
+     */
+    private static MinerStats toStats(
+            final int hashRate,
+            final int temp,
+            final boolean hasErrors,
+            final boolean poolUp) {
+        return new MinerStats.Builder()
+                .setApiIp("127.0.0.1")
+                .setApiPort(4028)
+                .addAsic(
+                        new Asic.Builder()
+                                .setHashRate(new BigDecimal(hashRate))
+                                .setFanInfo(
+                                        new FanInfo.Builder()
+                                                .setCount(1)
+                                                .addSpeed(4000)
+                                                .setSpeedUnits("RPM")
+                                                .build())
+                                .addTemp(temp)
+                                .hasErrors(hasErrors)
+                                .build())
+                .addPool(
+                        new Pool.Builder()
+                                .setName("stratum+tcp://pool:3333")
+                                .setPriority(0)
+                                .setStatus(true, poolUp)
+                                .build())
+                .build();
+    }
+}
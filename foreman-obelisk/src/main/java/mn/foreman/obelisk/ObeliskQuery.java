@@ -4,9 +4,9 @@ import mn.foreman.io.ApiRequest;
 import mn.foreman.io.ApiRequestImpl;
 import mn.foreman.io.Connection;
 import mn.foreman.io.ConnectionFactory;
+import mn.foreman.io.JsonMapperRegistry;
 import mn.foreman.model.error.MinerException;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import lombok.Builder;
 import lombok.Data;
@@ -35,8 +35,6 @@ public class ObeliskQuery {
             throws Exception {
         final AtomicReference<String> sessionId =
                 new AtomicReference<>();
-        final ObjectMapper objectMapper =
-                new ObjectMapper();
         try {
             // Login first
             query(
@@ -44,12 +42,14 @@ public class ObeliskQuery {
                     "/api/login",
                     "POST",
                     true,
-                    objectMapper.writeValueAsString(
-                            ImmutableMap.of(
-                                    "username",
-                                    context.getUsername(),
-                                    "password",
-                                    context.getPassword())),
+                    JsonMapperRegistry
+                            .getMapper()
+                            .writeValueAsString(
+                                    ImmutableMap.of(
+                                            "username",
+                                            context.getUsername(),
+                                            "password",
+                                            context.getPassword())),
                     sessionId,
                     Object.class);
 
@@ -143,9 +143,6 @@ public class ObeliskQuery {
             MinerException {
         U result = null;
 
-        final ObjectMapper objectMapper =
-                new ObjectMapper();
-
         final ApiRequest apiRequest =
                 new ApiRequestImpl(
                         context.getApiIp(),
@@ -185,9 +182,9 @@ public class ObeliskQuery {
             }
             if (response != null && !response.isEmpty()) {
                 result =
-                        objectMapper.readValue(
-                                response,
-                                clazz);
+                        JsonMapperRegistry
+                                .getReader(clazz)
+                                .readValue(response);
             }
         } else {
             throw new MinerException("Failed to obtain response from obelisk");
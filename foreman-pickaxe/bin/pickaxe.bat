@@ -40,6 +40,7 @@ set "JVM_OPTS=!options! %JVM_OPTS%"
 rem # Set JVM parameters
 set JVM_PARAMS=-Dlogback.configurationFile="%PICKAXE_HOME%\etc\logback.xml"
 set JVM_PARAMS=%JVM_PARAMS% -DLOG_LOCATION="%PICKAXE_HOME%\logs"
+set JVM_PARAMS=%JVM_PARAMS% -DFOREMAN_SNAPSHOT_FILE="%PICKAXE_HOME%\data\pickaxe-snapshot.json"
 set JVM_PARAMS=%JVM_PARAMS% -Dio.netty.tryReflectionSetAccessible=false
 
 rem # Set command line arguments
@@ -25,6 +25,7 @@ setup_java() {
     # JVM parameters
     JVM_PARAMS="-Dlogback.configurationFile=$PICKAXE_HOME/etc/logback.xml"
     JVM_PARAMS+=" -DLOG_LOCATION=$PICKAXE_HOME/logs"
+    JVM_PARAMS+=" -DFOREMAN_SNAPSHOT_FILE=$PICKAXE_HOME/data/pickaxe-snapshot.json"
     JVM_PARAMS+=" -Dio.netty.tryReflectionSetAccessible=false"
     [[ ! -z "${FOREMAN_BASE_URL}" ]] && JVM_PARAMS+=" -DFOREMAN_BASE_URL=${FOREMAN_BASE_URL}"
 
@@ -2,6 +2,8 @@ package mn.foreman.pickaxe.miners.remote;
 
 import mn.foreman.chisel.ChiselMinerDecorator;
 import mn.foreman.claymore.TypeMapping;
+import mn.foreman.io.HttpClientRegistry;
+import mn.foreman.io.JsonMapperRegistry;
 import mn.foreman.model.Miner;
 import mn.foreman.model.MinerFactory;
 import mn.foreman.pickaxe.miners.MinerConfiguration;
@@ -10,30 +12,43 @@ import mn.foreman.pickaxe.util.MinerUtils;
 import mn.foreman.util.EnvUtils;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.io.IOUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * A {@link RemoteConfiguration} provides a factory that will create the list of
  * {@link Miner miners} to query based on the results of a query to FOREMAN's
  * configuration API.  This allows users to configure their pickaxe instances
  * from the dashboard.
+ *
+ * <p>Reloads are incremental: only miners whose {@link MinerConfig} is new are
+ * built.  Every miner whose configuration is unchanged keeps its existing
+ * instance, along with anything it has learned about the device (e.g.
+ * detected types and versions), so a single edit on the dashboard doesn't
+ * trigger re-detection across the whole fleet.  Miners are only all rebuilt
+ * when the shared NiceHash, autominer or claymore mappings change.</p>
+ *
+ * <p>The configuration and mappings are downloaded concurrently over a pooled
+ * client, and conditionally (see {@link RemoteResource}), so a load where the
+ * server reports that nothing changed doesn't parse anything or touch the
+ * miners at all.  A resource keeps its new value as soon as it's downloaded,
+ * so if another download fails, the change is remembered and the miners are
+ * rebuilt on the next successful load, even if the server reports that
+ * nothing changed by then.</p>
  */
 public class RemoteConfiguration
         implements MinerConfiguration {
@@ -48,24 +63,41 @@ public class RemoteConfiguration
     private static final Logger LOG =
             LoggerFactory.getLogger(RemoteConfiguration.class);
 
-    /** How long to wait on socket operations before disconnecting. */
-    private static final int SOCKET_TIMEOUT =
-            (int) TimeUnit.SECONDS.toMillis(60);
-
-    /** The autominer mapping URL. */
-    private final String amMappingUrl;
+    /** The autominer mappings. */
+    private final RemoteResource<Map<String, ApiType>> amMappings;
 
     /** The API key. */
     private final String apiKey;
 
-    /** The claymore mapping URL. */
-    private final String claymoreMappingUrl;
+    /** The miners built from each configuration on the last load. */
+    private Map<MinerConfig, List<Miner>> builtMiners = new HashMap<>();
+
+    /** The claymore multipliers. */
+    private final RemoteResource<Map<String, BigDecimal>> claymoreMultipliers;
+
+    /** The miner configurations. */
+    private final RemoteResource<List<MinerConfig>> configs;
+
+    /** The thread pool for downloading the configurations. */
+    private final ExecutorService downloadThreadPool =
+            Executors.newFixedThreadPool(
+                    4,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("foreman-config-%d")
+                            .setDaemon(true)
+                            .build());
 
-    /** The config URL. */
-    private final String configUrl;
+    /** The shared mappings the {@link #builtMiners} were built with. */
+    private List<Object> mappings = Collections.emptyList();
 
-    /** The nicehash config URL. */
-    private final String nicehashConfigUrl;
+    /** The miners from the last load. */
+    private List<Miner> miners = Collections.emptyList();
+
+    /** Whether or not a download changed since the miners were built. */
+    private boolean changed;
+
+    /** The NiceHash configuration. */
+    private final RemoteResource<List<ApiType>> niceHashConfig;
 
     /**
      * Constructor.
@@ -112,98 +144,103 @@ public class RemoteConfiguration
         Validate.notEmpty(
                 apiKey,
                 "apiKey cannot be empty");
-        this.configUrl = configUrl;
-        this.nicehashConfigUrl = nicehashConfigUrl;
-        this.amMappingUrl = amMappingUrl;
-        this.claymoreMappingUrl = claymoreMappingUrl;
+        this.configs =
+                new RemoteResource<>(
+                        toConfigUrl(configUrl),
+                        JsonMapperRegistry.getReader(
+                                new TypeReference<List<MinerConfig>>() {
+                                }),
+                        Collections.emptyList());
+        this.niceHashConfig =
+                new RemoteResource<>(
+                        nicehashConfigUrl,
+                        JsonMapperRegistry.getReader(
+                                new TypeReference<List<ApiType>>() {
+                                }),
+                        Collections.emptyList());
+        this.amMappings =
+                new RemoteResource<>(
+                        amMappingUrl,
+                        JsonMapperRegistry.getReader(
+                                new TypeReference<Map<String, ApiType>>() {
+                                }),
+                        Collections.emptyMap());
+        this.claymoreMultipliers =
+                new RemoteResource<>(
+                        claymoreMappingUrl,
+                        JsonMapperRegistry.getReader(
+                                new TypeReference<Map<String, BigDecimal>>() {
+                                }),
+                        Collections.emptyMap());
         this.apiKey = apiKey;
     }
 
     @Override
-    public List<Miner> load()
+    public synchronized List<Miner> load()
             throws Exception {
-        LOG.debug("Querying {} for miners", this.configUrl);
-
-        final ObjectMapper objectMapper = new ObjectMapper();
-
-        final List<MinerConfig> configs = new LinkedList<>();
-        getConfig(
-                String.format(
-                        "%s?hostname=%s&ip=%s",
-                        this.configUrl,
-                        URLEncoder.encode(
-                                HOSTNAME,
-                                StandardCharsets.UTF_8.name()),
-                        URLEncoder.encode(
-                                IP,
-                                StandardCharsets.UTF_8.name())),
-                response -> {
-                    try {
-                        configs.addAll(
-                                Arrays.asList(
-                                        objectMapper.readValue(
-                                                response,
-                                                MinerConfig[].class)));
-                    } catch (final IOException ioe) {
-                        LOG.warn("Failed to parse response", ioe);
-                    }
-                });
+        LOG.debug("Querying {} for miners", this.configs);
+
+        // All of the configurations are downloaded at once, and only the ones
+        // that changed since the last load come back with a body
+        final List<Future<Boolean>> downloads =
+                Stream.of(
+                        this.configs,
+                        this.niceHashConfig,
+                        this.amMappings,
+                        this.claymoreMultipliers)
+                        .map(resource ->
+                                this.downloadThreadPool.submit(() ->
+                                        resource.refresh(
+                                                HttpClientRegistry.foreman(),
+                                                this.apiKey)))
+                        .collect(Collectors.toList());
+        ExecutionException failure = null;
+        for (final Future<Boolean> download : downloads) {
+            try {
+                this.changed |= download.get();
+            } catch (final ExecutionException ee) {
+                failure = ee;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (!this.changed) {
+            LOG.debug("No configurations have changed");
+            return this.miners;
+        }
+
+        final List<MinerConfig> configs = this.configs.getValue();
         LOG.info("Downloaded configuration: {} miners", configs.size());
 
-        final List<ApiType> niceHashConfig = new LinkedList<>();
-        getConfig(
-                this.nicehashConfigUrl,
-                response -> {
-                    try {
-                        niceHashConfig.addAll(
-                                objectMapper.readValue(
-                                        response,
-                                        new TypeReference<List<ApiType>>() {
-                                        }));
-                    } catch (final IOException ioe) {
-                        LOG.warn("Failed to parse response", ioe);
-                    }
-                });
-
-        final Map<String, ApiType> amMappings = new HashMap<>();
-        getConfig(
-                this.amMappingUrl,
-                response -> {
-                    try {
-                        amMappings.putAll(
-                                objectMapper.readValue(
-                                        response,
-                                        new TypeReference<Map<String, ApiType>>() {
-                                        }));
-                    } catch (final IOException ioe) {
-                        LOG.warn("Failed to parse response", ioe);
-                    }
-                });
-
-        final Map<String, BigDecimal> claymoreMultipliers = new HashMap<>();
-        getConfig(
-                this.claymoreMappingUrl,
-                response -> {
-                    try {
-                        claymoreMultipliers.putAll(
-                                objectMapper.readValue(
-                                        response,
-                                        new TypeReference<Map<String, BigDecimal>>() {
-                                        }));
-                    } catch (final IOException ioe) {
-                        LOG.warn("Failed to parse response", ioe);
-                    }
-                });
+        final List<ApiType> niceHashConfig = this.niceHashConfig.getValue();
+        final Map<String, ApiType> amMappings = this.amMappings.getValue();
+        final Map<String, BigDecimal> claymoreMultipliers =
+                this.claymoreMultipliers.getValue();
 
         final TypeMapping.Builder typeMappingBuilder =
                 new TypeMapping.Builder();
         claymoreMultipliers.forEach(typeMappingBuilder::addMapping);
 
-        return toMiners(
-                configs,
-                niceHashConfig,
-                amMappings,
-                typeMappingBuilder.build());
+        final List<Object> newMappings =
+                Arrays.asList(
+                        niceHashConfig,
+                        amMappings,
+                        claymoreMultipliers);
+        if (!newMappings.equals(this.mappings)) {
+            LOG.info("Miner mappings changed - rebuilding all miners");
+            this.builtMiners.clear();
+            this.mappings = newMappings;
+        }
+
+        this.miners =
+                toMiners(
+                        configs,
+                        niceHashConfig,
+                        amMappings,
+                        typeMappingBuilder.build());
+        this.changed = false;
+        return this.miners;
     }
 
     /**
@@ -305,7 +342,8 @@ public class RemoteConfiguration
 
     /**
      * Creates a {@link Miner} from every miner in the {@link MinerConfig
-     * configs}.
+     * configs}, reusing the miners from the last load for every configuration
+     * that hasn't changed.
      *
      * @param configs             The configurations.
      * @param niceHashCandidates  The NiceHash configurations.
@@ -314,65 +352,73 @@ public class RemoteConfiguration
      *
      * @return The {@link Miner miners}.
      */
-    private static List<Miner> toMiners(
+    private List<Miner> toMiners(
             final List<MinerConfig> configs,
             final List<ApiType> niceHashCandidates,
             final Map<String, ApiType> amMappings,
             final TypeMapping claymoreMultipliers) {
-        return configs
-                .stream()
-                .filter(config -> config.apiType != null)
-                .map(config ->
+        final Map<MinerConfig, List<Miner>> newBuiltMiners = new HashMap<>();
+        final List<Miner> miners = new LinkedList<>();
+        int added = 0;
+        for (final MinerConfig config : configs) {
+            if (config.apiType == null) {
+                continue;
+            }
+            List<Miner> configMiners = newBuiltMiners.get(config);
+            if (configMiners == null) {
+                configMiners = this.builtMiners.get(config);
+            }
+            if (configMiners == null) {
+                configMiners =
                         toMiner(
                                 config.apiType,
                                 config.apiPort,
                                 config,
                                 niceHashCandidates,
                                 amMappings,
-                                claymoreMultipliers))
-                .flatMap(List::stream)
-                .collect(Collectors.toList());
+                                claymoreMultipliers);
+                added++;
+            }
+            newBuiltMiners.put(config, configMiners);
+            miners.addAll(configMiners);
+        }
+
+        final long removed =
+                this.builtMiners
+                        .keySet()
+                        .stream()
+                        .filter(config -> !newBuiltMiners.containsKey(config))
+                        .count();
+        LOG.info("Configuration changes: {} added, {} removed, {} unchanged",
+                added,
+                removed,
+                newBuiltMiners.size() - added);
+        this.builtMiners = newBuiltMiners;
+
+        return miners;
     }
 
     /**
-     * Downloads the configurations.
+     * Adds the pickaxe's hostname and IP, when known, to the configuration
+     * URL.
      *
      * @param configUrl The configuration URL.
      *
-     * @throws IOException on failure to download configs.
+     * @return The URL to query.
      */
-    private void getConfig(
-            final String configUrl,
-            final Consumer<String> responseStrategy)
-            throws IOException {
-        final URL url = new URL(configUrl);
-        final HttpURLConnection connection =
-                (HttpURLConnection) url.openConnection();
-
-        connection.setRequestMethod("GET");
-        connection.setRequestProperty(
-                "Authorization",
-                "Token " + this.apiKey);
-        connection.setConnectTimeout(SOCKET_TIMEOUT);
-        connection.setReadTimeout(SOCKET_TIMEOUT);
-
-        final int code = connection.getResponseCode();
-        if (code == HttpURLConnection.HTTP_OK) {
-            try (final InputStreamReader inputStreamReader =
-                         new InputStreamReader(
-                                 connection.getInputStream());
-                 final BufferedReader reader =
-                         new BufferedReader(
-                                 inputStreamReader)) {
-                final String response =
-                        IOUtils.toString(reader);
-                LOG.debug("Received response: {}", response);
-                responseStrategy.accept(response);
-            }
-        } else {
-            LOG.warn("Failed to obtain a configuration from {}: {}",
+    private static String toConfigUrl(final String configUrl) {
+        try {
+            return String.format(
+                    "%s?hostname=%s&ip=%s",
                     configUrl,
-                    code);
+                    URLEncoder.encode(
+                            Objects.toString(HOSTNAME, ""),
+                            StandardCharsets.UTF_8.name()),
+                    URLEncoder.encode(
+                            Objects.toString(IP, ""),
+                            StandardCharsets.UTF_8.name()));
+        } catch (final UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
         }
     }
-}
\ No newline at end of file
+}
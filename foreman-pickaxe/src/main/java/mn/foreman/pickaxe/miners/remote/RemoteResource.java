@@ -0,0 +1,168 @@
+package mn.foreman.pickaxe.miners.remote;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.commons.lang3.Validate;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link RemoteResource} is a JSON document on the FOREMAN API that is
+ * periodically re-downloaded, along with the last value that was parsed from
+ * it.
+ *
+ * <p>Downloads are conditional: the <code>ETag</code> and
+ * <code>Last-Modified</code> validators from the last successful download are
+ * sent back as <code>If-None-Match</code> and <code>If-Modified-Since</code>,
+ * so the server can answer with a <code>304</code> and no body when nothing
+ * changed.  In that case, and on any other failure to obtain a new value, the
+ * previously parsed value is kept.</p>
+ *
+ * @param <T> The type of the parsed value.
+ */
+public class RemoteResource<T> {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(RemoteResource.class);
+
+    /** The reader for parsing responses. */
+    private final ObjectReader reader;
+
+    /** The URL. */
+    private final String url;
+
+    /** The <code>ETag</code> from the last download. */
+    private String etag;
+
+    /** The <code>Last-Modified</code> from the last download. */
+    private String lastModified;
+
+    /** The last parsed value. */
+    private T value;
+
+    /**
+     * Constructor.
+     *
+     * @param url          The URL.
+     * @param reader       The reader for parsing responses.
+     * @param initialValue The value to use until one has been downloaded.
+     */
+    public RemoteResource(
+            final String url,
+            final ObjectReader reader,
+            final T initialValue) {
+        Validate.notEmpty(
+                url,
+                "url cannot be empty");
+        Validate.notNull(
+                reader,
+                "reader cannot be null");
+        Validate.notNull(
+                initialValue,
+                "initialValue cannot be null");
+        this.url = url;
+        this.reader = reader;
+        this.value = initialValue;
+    }
+
+    /**
+     * Returns the last parsed value.
+     *
+     * @return The value.
+     */
+    public T getValue() {
+        return this.value;
+    }
+
+    /**
+     * Downloads the resource if it changed since the last download.
+     *
+     * @param httpClient The client to use.
+     * @param apiKey     The API key.
+     *
+     * @return Whether or not a new value was obtained.
+     *
+     * @throws IOException on failure to reach the server.
+     */
+    public boolean refresh(
+            final CloseableHttpClient httpClient,
+            final String apiKey)
+            throws IOException {
+        final HttpGet httpGet = new HttpGet(this.url);
+        httpGet.setHeader(
+                HttpHeaders.AUTHORIZATION,
+                "Token " + apiKey);
+        if (this.etag != null) {
+            httpGet.setHeader(
+                    HttpHeaders.IF_NONE_MATCH,
+                    this.etag);
+        }
+        if (this.lastModified != null) {
+            httpGet.setHeader(
+                    HttpHeaders.IF_MODIFIED_SINCE,
+                    this.lastModified);
+        }
+
+        try (final CloseableHttpResponse response =
+                     httpClient.execute(httpGet)) {
+            final int code = response.getStatusLine().getStatusCode();
+            final HttpEntity entity = response.getEntity();
+            if (code == HttpStatus.SC_NOT_MODIFIED) {
+                LOG.debug("{} hasn't changed", this.url);
+                EntityUtils.consume(entity);
+                return false;
+            }
+            if (code != HttpStatus.SC_OK || entity == null) {
+                LOG.warn("Failed to obtain a configuration from {}: {}",
+                        this.url,
+                        code);
+                EntityUtils.consume(entity);
+                return false;
+            }
+
+            try (final InputStream inputStream = entity.getContent()) {
+                this.value = this.reader.readValue(inputStream);
+            } catch (final IOException ioe) {
+                LOG.warn("Failed to parse response from {}", this.url, ioe);
+                return false;
+            }
+            this.etag = toValue(response.getFirstHeader(HttpHeaders.ETAG));
+            this.lastModified =
+                    toValue(response.getFirstHeader(HttpHeaders.LAST_MODIFIED));
+            LOG.debug("Downloaded a new {}", this.url);
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s [ url=%s, etag=%s, lastModified=%s ]",
+                getClass().getSimpleName(),
+                this.url,
+                this.etag,
+                this.lastModified);
+    }
+
+    /**
+     * Returns the value of the provided header.
+     *
+     * @param header The header.
+     *
+     * @return The value, or <code>null</code> if the header wasn't present.
+     */
+    private static String toValue(final Header header) {
+        return header != null ? header.getValue() : null;
+    }
+}
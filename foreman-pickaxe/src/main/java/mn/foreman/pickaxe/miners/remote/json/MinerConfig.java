@@ -5,12 +5,18 @@ import mn.foreman.pickaxe.miners.remote.ApiType;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import java.util.List;
 
 /**
  * A {@link MinerConfig} provides a model object representation of a FOREMAN
  * dashboard miner configuration.
+ *
+ * <p>Two configurations are equal when they would produce the same miner, so
+ * configurations can be used to tell which miners changed between
+ * reloads.</p>
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -36,6 +42,38 @@ public class MinerConfig {
     @JsonProperty("params")
     public List<Param> params;
 
+    @Override
+    public boolean equals(final Object other) {
+        final boolean isEqual;
+        if (other == null) {
+            isEqual = false;
+        } else if (getClass() != other.getClass()) {
+            isEqual = false;
+        } else {
+            final MinerConfig config = (MinerConfig) other;
+            isEqual =
+                    new EqualsBuilder()
+                            .append(this.apiIp, config.apiIp)
+                            .append(this.apiPort, config.apiPort)
+                            .append(this.apiType, config.apiType)
+                            .append(this.chisel, config.chisel)
+                            .append(this.params, config.params)
+                            .isEquals();
+        }
+        return isEqual;
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder()
+                .append(this.apiIp)
+                .append(this.apiPort)
+                .append(this.apiType)
+                .append(this.chisel)
+                .append(this.params)
+                .hashCode();
+    }
+
     @Override
     public String toString() {
         return String.format(
@@ -62,6 +100,26 @@ public class MinerConfig {
         @JsonProperty("apiPort")
         public int apiPort;
 
+        @Override
+        public boolean equals(final Object other) {
+            final boolean isEqual;
+            if (other == null) {
+                isEqual = false;
+            } else if (getClass() != other.getClass()) {
+                isEqual = false;
+            } else {
+                isEqual = this.apiPort == ((ChiselConfig) other).apiPort;
+            }
+            return isEqual;
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder()
+                    .append(this.apiPort)
+                    .hashCode();
+        }
+
         @Override
         public String toString() {
             return String.format("%s [ apiPort=%d ]",
@@ -81,6 +139,32 @@ public class MinerConfig {
         @JsonProperty("value")
         public Object value;
 
+        @Override
+        public boolean equals(final Object other) {
+            final boolean isEqual;
+            if (other == null) {
+                isEqual = false;
+            } else if (getClass() != other.getClass()) {
+                isEqual = false;
+            } else {
+                final Param param = (Param) other;
+                isEqual =
+                        new EqualsBuilder()
+                                .append(this.key, param.key)
+                                .append(this.value, param.value)
+                                .isEquals();
+            }
+            return isEqual;
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder()
+                    .append(this.key)
+                    .append(this.value)
+                    .hashCode();
+        }
+
         @Override
         public String toString() {
             return String.format("%s [ key=%s, value=%s ]",
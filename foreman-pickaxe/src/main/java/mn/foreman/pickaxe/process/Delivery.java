@@ -0,0 +1,25 @@
+package mn.foreman.pickaxe.process;
+
+import mn.foreman.model.MetricsReport;
+
+/**
+ * A {@link Delivery} is the outcome of handing a {@link MetricsReport} to a
+ * {@link MetricsProcessingStrategy}.
+ */
+public enum Delivery {
+
+    /** The report was delivered. */
+    DELIVERED,
+
+    /**
+     * The report wasn't delivered, but may be if it's sent again (e.g. an I/O
+     * error or a 5xx from FOREMAN).
+     */
+    FAILED,
+
+    /**
+     * FOREMAN rejected the report (e.g. a 400 or a 413), so sending it again
+     * won't help.
+     */
+    REJECTED
+}
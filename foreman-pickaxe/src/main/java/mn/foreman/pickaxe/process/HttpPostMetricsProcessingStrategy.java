@@ -1,28 +1,43 @@
 package mn.foreman.pickaxe.process;
 
+import mn.foreman.io.HttpClientRegistry;
+import mn.foreman.io.JsonMapperRegistry;
 import mn.foreman.model.MetricsReport;
+import mn.foreman.pickaxe.process.delta.DeltaEncoder;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * An {@link HttpPostMetricsProcessingStrategy} provides a mechanism for
  * uploading {@link MetricsReport metrics} to FOREMAN through the FOREMAN API.
+ *
+ * <p>Reports are never rendered into memory: the JSON is generated straight
+ * into the chunked request body, optionally gzip-compressed on the way out,
+ * so the memory needed for an upload doesn't grow with the size of the
+ * report.  Uploads go through the shared {@link HttpClientRegistry#foreman()
+ * FOREMAN API client}, so connections to the dashboard are reused.</p>
+ *
+ * <p>Optionally, reports can be uploaded as {@link DeltaEncoder deltas}
+ * against what FOREMAN last accepted for each miner, with a full keyframe for
+ * each miner every so often.  Reports that are {@link
+ * #replay(MetricsReport) replayed} are always sent in full, so that old
+ * stats never become the base for the deltas of newer ones.</p>
  */
 public class HttpPostMetricsProcessingStrategy
         implements MetricsProcessingStrategy {
@@ -31,25 +46,33 @@ public class HttpPostMetricsProcessingStrategy
     private static final Logger LOG =
             LoggerFactory.getLogger(HttpPostMetricsProcessingStrategy.class);
 
-    /** The socket timeout. */
-    private static final int SOCKET_TIMEOUT =
-            (int) TimeUnit.SECONDS.toMillis(20);
-
     /** The API key. */
     private final String apiKey;
 
+    /** Encodes delta uploads, or null to upload full reports. */
+    private final DeltaEncoder deltaEncoder;
+
+    /** Whether or not to gzip the request body. */
+    private final boolean gzip;
+
     /** The URL. */
     private final String url;
 
     /**
      * Constructor.
      *
-     * @param url    The URL.
-     * @param apiKey The API key.
+     * @param url              The URL.
+     * @param apiKey           The API key.
+     * @param gzip             Whether or not to gzip the request body.
+     * @param keyframeInterval The number of uploads between keyframes when
+     *                         uploading deltas, or zero to always upload
+     *                         full reports.
      */
     public HttpPostMetricsProcessingStrategy(
             final String url,
-            final String apiKey) {
+            final String apiKey,
+            final boolean gzip,
+            final int keyframeInterval) {
         Validate.notEmpty(
                 url,
                 "url cannot be empty");
@@ -58,65 +81,156 @@ public class HttpPostMetricsProcessingStrategy
                 "apiKey cannot be empty");
         this.apiKey = apiKey;
         this.url = url;
+        this.gzip = gzip;
+        this.deltaEncoder =
+                keyframeInterval > 0
+                        ? new DeltaEncoder(keyframeInterval)
+                        : null;
     }
 
     @Override
-    public void process(final MetricsReport metricsReport) {
-        final RequestConfig requestConfig =
-                RequestConfig.custom()
-                        .setConnectTimeout(SOCKET_TIMEOUT)
-                        .setConnectionRequestTimeout(SOCKET_TIMEOUT)
-                        .setSocketTimeout((int) TimeUnit.MINUTES.toMillis(1))
-                        .build();
-
-        try (final CloseableHttpClient httpClient =
-                     HttpClients.custom()
-                             .setDefaultRequestConfig(requestConfig)
-                             .disableAutomaticRetries()
-                             .build()) {
-            final ObjectMapper objectMapper =
-                    new ObjectMapper()
-                            .registerModule(new JavaTimeModule());
-            final String json =
-                    objectMapper.writeValueAsString(metricsReport);
-            LOG.debug("{} generated {}", metricsReport, json);
-
-            final StringEntity stringEntity =
-                    new StringEntity(json);
-
-            final HttpPut httpPut =
-                    new HttpPut(this.url);
-            httpPut.setEntity(stringEntity);
-            httpPut.setHeader(
-                    "Content-Type",
-                    "application/json");
-            httpPut.setHeader(
-                    "Authorization",
-                    "Token " + this.apiKey);
-
-            try (final CloseableHttpResponse httpResponse =
-                         httpClient.execute(httpPut)) {
-                final int statusCode =
-                        httpResponse
-                                .getStatusLine()
-                                .getStatusCode();
-                if (statusCode != HttpStatus.SC_CREATED) {
-                    LOG.warn("Received a bad response from {}: code({})",
-                            this.url,
-                            statusCode);
-                }
-                LOG.debug("Metrics response content: {}",
-                        EntityUtils.toString(httpResponse.getEntity()));
-            } catch (final IOException ioe) {
-                LOG.warn("Exception occurred while uploading metrics", ioe);
-            }
-        } catch (final IOException ioe) {
-            LOG.warn("Exception occurred while uploading metrics", ioe);
-        }
+    public Delivery process(final MetricsReport metricsReport) {
+        return upload(
+                metricsReport,
+                false);
     }
 
     @Override
     public void processAll(final List<MetricsReport> metricsReports) {
         metricsReports.forEach(this::process);
     }
+
+    @Override
+    public Delivery replay(final MetricsReport metricsReport) {
+        return upload(
+                metricsReport,
+                true);
+    }
+
+    /**
+     * Determines the outcome of an upload from the status FOREMAN returned.
+     * Client errors mean that FOREMAN will never accept the report, with the
+     * exception of timeouts, throttling and conflicts (a delta against stats
+     * that FOREMAN no longer has, which will be sent as a keyframe next
+     * time).
+     *
+     * @param statusCode The status code.
+     *
+     * @return The outcome.
+     */
+    private static Delivery toDelivery(final int statusCode) {
+        if (statusCode == HttpStatus.SC_CREATED) {
+            return Delivery.DELIVERED;
+        }
+        if (statusCode >= HttpStatus.SC_BAD_REQUEST &&
+                statusCode < HttpStatus.SC_INTERNAL_SERVER_ERROR &&
+                statusCode != HttpStatus.SC_REQUEST_TIMEOUT &&
+                statusCode != HttpStatus.SC_CONFLICT &&
+                statusCode != 429) {
+            return Delivery.REJECTED;
+        }
+        return Delivery.FAILED;
+    }
+
+    /**
+     * Creates a request body that generates the JSON as it's sent.
+     *
+     * @param producer    Writes the JSON.  The entity owns the stream, so
+     *                    the producer must leave it open.
+     * @param contentType The content type.
+     *
+     * @return The request body.
+     */
+    private HttpEntity toEntity(
+            final ContentProducer producer,
+            final ContentType contentType) {
+        final EntityTemplate entity = new EntityTemplate(producer);
+        entity.setContentType(contentType.toString());
+        entity.setChunked(true);
+        return this.gzip
+                ? new GzipCompressingEntity(entity)
+                : entity;
+    }
+
+    /**
+     * Uploads a report.
+     *
+     * @param metricsReport The report.
+     * @param replay        Whether or not the report is being sent late.
+     *
+     * @return The outcome.
+     */
+    private Delivery upload(
+            final MetricsReport metricsReport,
+            final boolean replay) {
+        LOG.debug("Uploading {}", metricsReport);
+
+        final HttpPut httpPut =
+                new HttpPut(this.url);
+        final DeltaEncoder.Upload upload;
+        if (this.deltaEncoder != null) {
+            upload =
+                    replay
+                            ? this.deltaEncoder.encodeReplay(metricsReport)
+                            : this.deltaEncoder.encode(metricsReport);
+            httpPut.setEntity(
+                    toEntity(
+                            outputStream ->
+                                    JsonMapperRegistry
+                                            .getMapper()
+                                            .writer()
+                                            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                                            .writeValue(
+                                                    outputStream,
+                                                    upload.getBody()),
+                            ContentType.create(
+                                    DeltaEncoder.CONTENT_TYPE,
+                                    StandardCharsets.UTF_8)));
+        } else {
+            upload = null;
+            // The stats were already serialized when they were batched
+            httpPut.setEntity(
+                    toEntity(
+                            outputStream ->
+                                    SerializedStats.writeReport(
+                                            metricsReport,
+                                            outputStream),
+                            ContentType.APPLICATION_JSON));
+        }
+        httpPut.setHeader(
+                "Authorization",
+                "Token " + this.apiKey);
+
+        try (final CloseableHttpResponse httpResponse =
+                     HttpClientRegistry
+                             .foreman()
+                             .execute(httpPut)) {
+            final int statusCode =
+                    httpResponse
+                            .getStatusLine()
+                            .getStatusCode();
+            if (statusCode != HttpStatus.SC_CREATED) {
+                LOG.warn("Received a bad response from {}: code({})",
+                        this.url,
+                        statusCode);
+            }
+            if (upload != null) {
+                if (statusCode == HttpStatus.SC_CREATED) {
+                    this.deltaEncoder.acknowledge(upload);
+                } else {
+                    this.deltaEncoder.reject(upload);
+                }
+            }
+            LOG.debug("Metrics response content: {}",
+                    EntityUtils.toString(httpResponse.getEntity()));
+            return toDelivery(statusCode);
+        } catch (final IOException ioe) {
+            LOG.warn("Exception occurred while uploading metrics", ioe);
+            if (upload != null) {
+                // Whether or not FOREMAN applied it is unknown
+                this.deltaEncoder.reject(upload);
+            }
+        }
+        return Delivery.FAILED;
+    }
 }
\ No newline at end of file
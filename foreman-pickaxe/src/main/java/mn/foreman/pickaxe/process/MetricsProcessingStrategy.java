@@ -14,8 +14,22 @@ public interface MetricsProcessingStrategy {
      * Processes the provided {@link MetricsReport}.
      *
      * @param metricsReport The report to process.
+     *
+     * @return Whether the report was delivered, failed, or was rejected.
+     */
+    Delivery process(MetricsReport metricsReport);
+
+    /**
+     * Processes a {@link MetricsReport} that's being sent late (e.g. from a
+     * spool), after newer reports may already have been processed.
+     *
+     * @param metricsReport The report to process.
+     *
+     * @return Whether the report was delivered, failed, or was rejected.
      */
-    void process(MetricsReport metricsReport);
+    default Delivery replay(final MetricsReport metricsReport) {
+        return process(metricsReport);
+    }
 
     /**
      * Processes all of the provided {@link MetricsReport reports}.
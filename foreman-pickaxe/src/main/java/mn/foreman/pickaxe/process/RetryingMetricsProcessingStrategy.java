@@ -0,0 +1,164 @@
+package mn.foreman.pickaxe.process;
+
+import mn.foreman.model.MetricsReport;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A {@link RetryingMetricsProcessingStrategy} retries {@link MetricsReport
+ * reports} that weren't delivered, backing off between attempts.  Reports that
+ * were {@link Delivery#REJECTED rejected} aren't retried.
+ *
+ * <p>The backoff doubles after every attempt, and the actual delay is picked
+ * at random between zero and the backoff ("full jitter") so that batches
+ * that failed together, e.g. when FOREMAN was briefly overloaded, don't all
+ * come back at the same moment.</p>
+ */
+public class RetryingMetricsProcessingStrategy
+        implements MetricsProcessingStrategy {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(RetryingMetricsProcessingStrategy.class);
+
+    /** The backoff before the first retry, in millis. */
+    private final long backoffMillis;
+
+    /** The strategy that delivers reports. */
+    private final MetricsProcessingStrategy delegate;
+
+    /** The number of reports that failed every attempt. */
+    private final AtomicLong exhausted = new AtomicLong();
+
+    /** The longest backoff, in millis. */
+    private final long maxBackoffMillis;
+
+    /** The number of retries for each report. */
+    private final int retries;
+
+    /** The number of retries that were attempted. */
+    private final AtomicLong retried = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param delegate     The strategy that delivers reports.
+     * @param retries      The number of retries for each report.
+     * @param backoff      The backoff before the first retry.
+     * @param maxBackoff   The longest backoff.
+     * @param backoffUnits The units of the backoffs.
+     */
+    public RetryingMetricsProcessingStrategy(
+            final MetricsProcessingStrategy delegate,
+            final int retries,
+            final long backoff,
+            final long maxBackoff,
+            final TimeUnit backoffUnits) {
+        Validate.notNull(
+                delegate,
+                "delegate cannot be null");
+        Validate.isTrue(
+                retries >= 0,
+                "retries cannot be negative");
+        Validate.isTrue(
+                backoff > 0,
+                "backoff must be positive");
+        Validate.isTrue(
+                maxBackoff >= backoff,
+                "maxBackoff must be at least backoff");
+        this.delegate = delegate;
+        this.retries = retries;
+        this.backoffMillis = backoffUnits.toMillis(backoff);
+        this.maxBackoffMillis = backoffUnits.toMillis(maxBackoff);
+    }
+
+    /**
+     * Returns the number of reports that failed every attempt.
+     *
+     * @return The number of exhausted reports.
+     */
+    public long getExhausted() {
+        return this.exhausted.get();
+    }
+
+    /**
+     * Returns the number of retries that were attempted.
+     *
+     * @return The number of retries.
+     */
+    public long getRetried() {
+        return this.retried.get();
+    }
+
+    @Override
+    public Delivery process(final MetricsReport metricsReport) {
+        return deliver(
+                metricsReport,
+                this.delegate::process);
+    }
+
+    @Override
+    public void processAll(final List<MetricsReport> metricsReports) {
+        metricsReports.forEach(this::process);
+    }
+
+    @Override
+    public Delivery replay(final MetricsReport metricsReport) {
+        return deliver(
+                metricsReport,
+                this.delegate::replay);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s [ retried=%d, exhausted=%d ]",
+                getClass().getSimpleName(),
+                getRetried(),
+                getExhausted());
+    }
+
+    /**
+     * Delivers a report, retrying it until it's delivered, rejected, or out
+     * of attempts.
+     *
+     * @param metricsReport The report.
+     * @param sender        Makes a single attempt.
+     *
+     * @return The outcome of the last attempt.
+     */
+    private Delivery deliver(
+            final MetricsReport metricsReport,
+            final Function<MetricsReport, Delivery> sender) {
+        long backoff = this.backoffMillis;
+        for (int attempt = 0; attempt <= this.retries; attempt++) {
+            if (attempt > 0) {
+                final long delay =
+                        ThreadLocalRandom.current().nextLong(backoff + 1);
+                LOG.debug("Retrying upload in {}ms", delay);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                backoff = Math.min(backoff * 2, this.maxBackoffMillis);
+                this.retried.incrementAndGet();
+            }
+            final Delivery delivery = sender.apply(metricsReport);
+            if (delivery != Delivery.FAILED) {
+                return delivery;
+            }
+        }
+        this.exhausted.incrementAndGet();
+        return Delivery.FAILED;
+    }
+}
@@ -0,0 +1,111 @@
+package mn.foreman.pickaxe.process;
+
+import mn.foreman.io.JsonMapperRegistry;
+import mn.foreman.model.MetricsReport;
+import mn.foreman.model.metadata.Metadata;
+import mn.foreman.model.miners.MinerStats;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * {@link SerializedStats} caches the JSON for {@link MinerStats} so that
+ * stats are only serialized once on their way to FOREMAN, even though they're
+ * sized when they're batched and written again when they're uploaded.
+ *
+ * <p>The cache is keyed by identity and holds its keys weakly, so the JSON
+ * for stats is dropped once nothing references the stats anymore.  Stats are
+ * immutable, so cached JSON never goes stale.  Stats for stable miners that
+ * are uploaded from the cache interval after interval are only ever
+ * serialized once.</p>
+ */
+public class SerializedStats {
+
+    /** The prefix of a report, before the metadata. */
+    private static final byte[] METADATA =
+            "{\"metadata\":".getBytes(StandardCharsets.UTF_8);
+
+    /** Separates the metadata from the stats. */
+    private static final byte[] MINERS =
+            ",\"miners\":[".getBytes(StandardCharsets.UTF_8);
+
+    /** The suffix of a report, after the stats. */
+    private static final byte[] END =
+            "]}".getBytes(StandardCharsets.UTF_8);
+
+    /** The JSON for each {@link MinerStats}, by identity. */
+    private static final Cache<MinerStats, byte[]> JSON =
+            CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .build();
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private SerializedStats() {
+        // Do nothing
+    }
+
+    /**
+     * Returns the JSON for the provided stats, serializing them if they
+     * haven't been serialized already.
+     *
+     * @param stats The stats.
+     *
+     * @return The JSON.
+     *
+     * @throws IOException on failure to serialize the stats.
+     */
+    public static byte[] toJson(final MinerStats stats) throws IOException {
+        byte[] json = JSON.getIfPresent(stats);
+        if (json == null) {
+            // Racing threads serialize the same (immutable) stats
+            json =
+                    JsonMapperRegistry
+                            .getWriter(MinerStats.class)
+                            .writeValueAsBytes(stats);
+            JSON.put(
+                    stats,
+                    json);
+        }
+        return json;
+    }
+
+    /**
+     * Writes a report as JSON, using the cached JSON for its stats.  The
+     * stream is left open.
+     *
+     * @param metricsReport The report.
+     * @param outputStream  The stream to write to.
+     *
+     * @throws IOException on failure to write the report.
+     */
+    public static void writeReport(
+            final MetricsReport metricsReport,
+            final OutputStream outputStream) throws IOException {
+        outputStream.write(METADATA);
+        JsonMapperRegistry
+                .getWriter(Metadata.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValue(
+                        outputStream,
+                        metricsReport.getMetadata());
+        outputStream.write(MINERS);
+        final List<MinerStats> miners = metricsReport.getMiners();
+        for (int i = 0; i < miners.size(); i++) {
+            if (i > 0) {
+                outputStream.write(',');
+            }
+            outputStream.write(toJson(miners.get(i)));
+        }
+        outputStream.write(END);
+    }
+}
@@ -0,0 +1,209 @@
+package mn.foreman.pickaxe.process;
+
+import mn.foreman.io.JsonMapperRegistry;
+import mn.foreman.model.MetricsReport;
+import mn.foreman.pickaxe.spool.MetricsSpool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link SpoolingMetricsProcessingStrategy} keeps {@link MetricsReport
+ * reports} that couldn't be delivered in a {@link MetricsSpool} and replays
+ * them once they can be.
+ *
+ * <p>Every report is first handed to the delegate as usual, so live metrics
+ * are never held up behind the backlog.  A report that {@link Delivery#FAILED
+ * failed} is appended to the spool on the calling (upload) thread; one that
+ * was {@link Delivery#REJECTED rejected} is not, since sending it again won't
+ * help.  A single replay thread then works through the spool in order, one
+ * report per replay interval.  When a replay fails, the replay thread backs
+ * off exponentially, but a live report being delivered is taken as a sign
+ * that FOREMAN is back and replay resumes right away.  A spooled report that
+ * FOREMAN rejects is discarded so that it can't hold up the rest of the
+ * spool.</p>
+ */
+public class SpoolingMetricsProcessingStrategy
+        implements MetricsProcessingStrategy {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SpoolingMetricsProcessingStrategy.class);
+
+    /** The longest the replay thread will back off, in millis. */
+    private static final long MAX_BACKOFF_MILLIS =
+            TimeUnit.MINUTES.toMillis(5);
+
+    /** The strategy that delivers reports. */
+    private final MetricsProcessingStrategy delegate;
+
+    /** The number of spooled reports that were rejected on replay. */
+    private final AtomicLong discarded = new AtomicLong();
+
+    /** The number of reports that were replayed. */
+    private final AtomicLong replayed = new AtomicLong();
+
+    /** The time between replays, in millis. */
+    private final long replayIntervalMillis;
+
+    /** The thread that replays the spool. */
+    private final ScheduledExecutorService replayThread =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("foreman-spool-replay-%d")
+                            .setDaemon(true)
+                            .build());
+
+    /** The spool. */
+    private final MetricsSpool spool;
+
+    /** The number of reports that were spooled. */
+    private final AtomicLong spooled = new AtomicLong();
+
+    /** The current replay backoff, in millis. */
+    private long backoffMillis;
+
+    /** When the next replay can be attempted. */
+    private volatile long nextReplayMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate       The strategy that delivers reports.
+     * @param spool          The spool.
+     * @param replayInterval The time between replays.
+     * @param replayUnits    The units of the replay interval.
+     */
+    public SpoolingMetricsProcessingStrategy(
+            final MetricsProcessingStrategy delegate,
+            final MetricsSpool spool,
+            final long replayInterval,
+            final TimeUnit replayUnits) {
+        Validate.notNull(
+                delegate,
+                "delegate cannot be null");
+        Validate.notNull(
+                spool,
+                "spool cannot be null");
+        Validate.isTrue(
+                replayInterval > 0,
+                "replayInterval must be positive");
+        this.delegate = delegate;
+        this.spool = spool;
+        this.replayIntervalMillis = replayUnits.toMillis(replayInterval);
+    }
+
+    @Override
+    public Delivery process(final MetricsReport metricsReport) {
+        final Delivery delivery = this.delegate.process(metricsReport);
+        if (delivery == Delivery.DELIVERED) {
+            this.nextReplayMillis = 0;
+            return delivery;
+        }
+        if (delivery == Delivery.REJECTED) {
+            return delivery;
+        }
+
+        try {
+            final ByteArrayOutputStream json = new ByteArrayOutputStream();
+            SerializedStats.writeReport(
+                    metricsReport,
+                    json);
+            this.spool.append(json.toByteArray());
+            this.spooled.incrementAndGet();
+        } catch (final IOException ioe) {
+            LOG.warn("Failed to spool metrics", ioe);
+        }
+        return delivery;
+    }
+
+    @Override
+    public void processAll(final List<MetricsReport> metricsReports) {
+        metricsReports.forEach(this::process);
+    }
+
+    /** Starts replaying the spool. */
+    public void start() {
+        this.replayThread.scheduleWithFixedDelay(
+                this::replay,
+                this.replayIntervalMillis,
+                this.replayIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s [ spooled=%d, replayed=%d, discarded=%d, backoff=%dms, " +
+                        "spool=%s ]",
+                getClass().getSimpleName(),
+                this.spooled.get(),
+                this.replayed.get(),
+                this.discarded.get(),
+                this.nextReplayMillis != 0
+                        ? this.backoffMillis
+                        : 0,
+                this.spool);
+    }
+
+    /** Replays the oldest spooled report, if it's time to. */
+    private void replay() {
+        final long now = System.currentTimeMillis();
+        if (now < this.nextReplayMillis) {
+            return;
+        }
+
+        try {
+            final Optional<MetricsSpool.Entry> entry = this.spool.peek();
+            if (!entry.isPresent()) {
+                return;
+            }
+
+            final MetricsReport metricsReport;
+            try {
+                metricsReport =
+                        JsonMapperRegistry
+                                .getReader(MetricsReport.class)
+                                .readValue(entry.get().getPayload());
+            } catch (final IOException ioe) {
+                // Will never be readable, so don't let it block the spool
+                LOG.warn("Discarding unreadable spooled metrics", ioe);
+                this.spool.consume(entry.get());
+                return;
+            }
+
+            final Delivery delivery = this.delegate.replay(metricsReport);
+            if (delivery == Delivery.DELIVERED) {
+                this.spool.consume(entry.get());
+                this.replayed.incrementAndGet();
+                this.backoffMillis = 0;
+            } else if (delivery == Delivery.REJECTED) {
+                // Will never be accepted, so don't let it block the spool
+                LOG.warn("Discarding spooled metrics that FOREMAN rejected");
+                this.spool.consume(entry.get());
+                this.discarded.incrementAndGet();
+            } else {
+                this.backoffMillis =
+                        Math.min(
+                                Math.max(
+                                        this.backoffMillis * 2,
+                                        this.replayIntervalMillis),
+                                MAX_BACKOFF_MILLIS);
+                this.nextReplayMillis = now + this.backoffMillis;
+            }
+        } catch (final Exception e) {
+            LOG.warn("Exception occurred while replaying spooled metrics", e);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package mn.foreman.pickaxe.process.delta;
+
+import mn.foreman.io.JsonMapperRegistry;
+import mn.foreman.model.MetricsReport;
+import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+import mn.foreman.model.miners.MinerStats;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DeltaEncoder} turns {@link MetricsReport reports} into delta
+ * uploads: each miner's stats are sent as a {@link JsonPatches patch} against
+ * the last stats that FOREMAN acknowledged for that miner, with a full
+ * keyframe every so often.
+ *
+ * <p>Each upload looks like:</p>
+ *
+ * <pre>
+ *   {
+ *     "metadata": { ... },
+ *     "miners": [
+ *       {
+ *         "apiIp": "192.168.1.1",
+ *         "apiPort": 4028,
+ *         "keyframe": true,
+ *         "checksum": "1c291ca3",
+ *         "stats": { ... }
+ *       },
+ *       {
+ *         "apiIp": "192.168.1.2",
+ *         "apiPort": 4028,
+ *         "keyframe": false,
+ *         "base": "5e0b6a2f",
+ *         "checksum": "77d2c01e",
+ *         "patch": [ ... ]
+ *       }
+ *     ]
+ *   }
+ * </pre>
+ *
+ * <p>A delta only applies to the stats whose {@link JsonPatches#checksum
+ * checksum} is <code>base</code>, and the patched stats must have the
+ * <code>checksum</code>, so the receiver can always tell whether its
+ * reconstruction is exact.  Stats only become the base for the next delta
+ * once the upload that carried them has been {@link #acknowledge(Upload)
+ * acknowledged}.  If an upload is {@link #reject(Upload) rejected} (or its
+ * outcome is unknown), its miners are sent as keyframes next time.</p>
+ *
+ * <p>A report that's sent late, e.g. replayed from a spool while live
+ * uploads carry on, holds older stats than the bases here.  Such reports are
+ * {@link #encodeReplay(MetricsReport) encoded} as keyframes marked
+ * <code>"replay": true</code>, which the receiver must not keep as a base,
+ * and acknowledging them doesn't change the bases here, so the live deltas
+ * keep applying.</p>
+ *
+ * <p>Keyframes are staggered across miners so that they don't all land in
+ * the same upload.</p>
+ */
+public class DeltaEncoder {
+
+    /** The content type of a delta upload. */
+    public static final String CONTENT_TYPE =
+            "application/vnd.foreman.delta+json";
+
+    /** The acknowledged stats, by miner. */
+    private final Cache<MinerID, Base> acknowledged =
+            CacheBuilder.newBuilder()
+                    .expireAfterWrite(30, TimeUnit.MINUTES)
+                    .build();
+
+    /** The number of deltas that were encoded. */
+    private final AtomicLong deltas = new AtomicLong();
+
+    /** The number of uploads between keyframes for each miner. */
+    private final int keyframeInterval;
+
+    /** The number of keyframes that were encoded. */
+    private final AtomicLong keyframes = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param keyframeInterval The number of uploads between keyframes for
+     *                         each miner.
+     */
+    public DeltaEncoder(final int keyframeInterval) {
+        Validate.isTrue(
+                keyframeInterval > 0,
+                "keyframeInterval must be positive");
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Makes the stats in an upload the base for future deltas.  This must be
+     * called once FOREMAN has accepted the upload.
+     *
+     * @param upload The upload.
+     */
+    public void acknowledge(final Upload upload) {
+        this.acknowledged.putAll(upload.pending);
+    }
+
+    /**
+     * Encodes a report.
+     *
+     * @param metricsReport The report.
+     *
+     * @return The upload.
+     */
+    public Upload encode(final MetricsReport metricsReport) {
+        return encode(
+                metricsReport,
+                false);
+    }
+
+    /**
+     * Encodes a report that's being sent late, after newer reports may have
+     * been acknowledged.  Every miner is sent as a keyframe that the receiver
+     * won't keep as a base, and the upload doesn't change any bases when
+     * it's acknowledged or rejected.
+     *
+     * @param metricsReport The report.
+     *
+     * @return The upload.
+     */
+    public Upload encodeReplay(final MetricsReport metricsReport) {
+        return encode(
+                metricsReport,
+                true);
+    }
+
+    /**
+     * Returns the number of deltas that were encoded.
+     *
+     * @return The number of deltas.
+     */
+    public long getDeltas() {
+        return this.deltas.get();
+    }
+
+    /**
+     * Returns the number of keyframes that were encoded.
+     *
+     * @return The number of keyframes.
+     */
+    public long getKeyframes() {
+        return this.keyframes.get();
+    }
+
+    /**
+     * Forgets the bases for the miners in an upload that FOREMAN didn't
+     * accept, so that they're sent as keyframes next time.
+     *
+     * @param upload The upload.
+     */
+    public void reject(final Upload upload) {
+        this.acknowledged.invalidateAll(upload.pending.keySet());
+    }
+
+    /**
+     * Encodes a report.
+     *
+     * @param metricsReport The report.
+     * @param replay        Whether or not the report is being sent late.
+     *
+     * @return The upload.
+     */
+    private Upload encode(
+            final MetricsReport metricsReport,
+            final boolean replay) {
+        final ObjectMapper mapper = JsonMapperRegistry.getMapper();
+
+        final ObjectNode body = mapper.createObjectNode();
+        body.set(
+                "metadata",
+                mapper.valueToTree(metricsReport.getMetadata()));
+        final ArrayNode miners = body.putArray("miners");
+
+        final Map<MinerID, Base> pending = new HashMap<>();
+        for (final MinerStats stats : metricsReport.getMiners()) {
+            final MinerID minerID =
+                    new SimpleMinerID(
+                            stats.getApiIp(),
+                            stats.getApiPort());
+            final JsonNode tree = mapper.valueToTree(stats);
+            final String checksum = JsonPatches.checksum(tree);
+
+            final ObjectNode miner =
+                    miners.addObject()
+                            .put("apiIp", stats.getApiIp())
+                            .put("apiPort", stats.getApiPort());
+
+            if (replay) {
+                miner.put("keyframe", true);
+                miner.put("replay", true);
+                miner.put("checksum", checksum);
+                miner.set("stats", tree);
+                this.keyframes.incrementAndGet();
+                continue;
+            }
+
+            final Base base = this.acknowledged.getIfPresent(minerID);
+            final int untilKeyframe;
+            if (base == null || base.untilKeyframe <= 0) {
+                miner.put("keyframe", true);
+                miner.put("checksum", checksum);
+                miner.set("stats", tree);
+                // Spread the first keyframes out
+                untilKeyframe =
+                        base != null
+                                ? this.keyframeInterval
+                                : 1 + Math.floorMod(
+                                minerID.hashCode(),
+                                this.keyframeInterval);
+                this.keyframes.incrementAndGet();
+            } else {
+                miner.put("keyframe", false);
+                miner.put("base", base.checksum);
+                miner.put("checksum", checksum);
+                miner.set(
+                        "patch",
+                        JsonPatches.diff(
+                                base.stats,
+                                tree));
+                untilKeyframe = base.untilKeyframe - 1;
+                this.deltas.incrementAndGet();
+            }
+            pending.put(
+                    minerID,
+                    new Base(
+                            tree,
+                            checksum,
+                            untilKeyframe));
+        }
+
+        return new Upload(
+                body,
+                pending);
+    }
+
+    /** An encoded upload. */
+    public static class Upload {
+
+        /** The upload body. */
+        private final ObjectNode body;
+
+        /** The stats that become the bases once acknowledged. */
+        private final Map<MinerID, Base> pending;
+
+        /**
+         * Constructor.
+         *
+         * @param body    The upload body.
+         * @param pending The stats that become the bases once acknowledged.
+         */
+        private Upload(
+                final ObjectNode body,
+                final Map<MinerID, Base> pending) {
+            this.body = body;
+            this.pending = Collections.unmodifiableMap(pending);
+        }
+
+        /**
+         * Returns the upload body.
+         *
+         * @return The upload body.
+         */
+        public ObjectNode getBody() {
+            return this.body;
+        }
+    }
+
+    /** The stats that deltas for a miner are computed against. */
+    private static class Base {
+
+        /** The checksum of the stats. */
+        private final String checksum;
+
+        /** The stats. */
+        private final JsonNode stats;
+
+        /** The number of deltas before the next keyframe. */
+        private final int untilKeyframe;
+
+        /**
+         * Constructor.
+         *
+         * @param stats         The stats.
+         * @param checksum      The checksum of the stats.
+         * @param untilKeyframe The number of deltas before the next
+         *                      keyframe.
+         */
+        private Base(
+                final JsonNode stats,
+                final String checksum,
+                final int untilKeyframe) {
+            this.stats = stats;
+            this.checksum = checksum;
+            this.untilKeyframe = untilKeyframe;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package mn.foreman.pickaxe.process.delta;
+
+import mn.foreman.io.JsonMapperRegistry;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * {@link JsonPatches} computes and applies the differences between two JSON
+ * documents as <a href="https://tools.ietf.org/html/rfc6902">JSON Patch</a>
+ * operations, and checksums documents so that a reconstruction can be
+ * verified.
+ *
+ * <p>Only the <code>add</code>, <code>remove</code> and <code>replace</code>
+ * operations are produced.  Objects are compared field by field, and arrays
+ * of the same length element by element; anything else that changed
+ * (including arrays that grew or shrank) is replaced outright.  Since arrays
+ * are never resized by a patch, applying the operations in order is
+ * deterministic.</p>
+ *
+ * <p>The checksum is the CRC-32 of the document's canonical form: the compact
+ * JSON with every object's fields sorted by name, and every value written
+ * exactly as it appears on the wire.</p>
+ */
+public class JsonPatches {
+
+    /**
+     * Constructor.
+     *
+     * <p>Note: intentionally hidden.</p>
+     */
+    private JsonPatches() {
+        // Do nothing
+    }
+
+    /**
+     * Applies a patch to a document.
+     *
+     * @param base  The document.
+     * @param patch The patch.
+     *
+     * @return A patched copy of the document.
+     */
+    public static JsonNode apply(
+            final JsonNode base,
+            final ArrayNode patch) {
+        JsonNode document = base.deepCopy();
+        for (final JsonNode operation : patch) {
+            final String op = operation.get("op").asText();
+            final List<String> path = toTokens(operation.get("path").asText());
+            final JsonNode value = operation.get("value");
+            if (path.isEmpty()) {
+                document = value.deepCopy();
+                continue;
+            }
+
+            JsonNode parent = document;
+            for (final String token : path.subList(0, path.size() - 1)) {
+                parent =
+                        parent.isArray()
+                                ? parent.get(Integer.parseInt(token))
+                                : parent.get(token);
+            }
+            final String last = path.get(path.size() - 1);
+            if (parent.isArray()) {
+                ((ArrayNode) parent).set(
+                        Integer.parseInt(last),
+                        value.deepCopy());
+            } else if ("remove".equals(op)) {
+                ((ObjectNode) parent).remove(last);
+            } else {
+                ((ObjectNode) parent).set(
+                        last,
+                        value.deepCopy());
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Computes the checksum of a document.
+     *
+     * @param document The document.
+     *
+     * @return The checksum, in hex.
+     */
+    public static String checksum(final JsonNode document) {
+        final CRC32 crc = new CRC32();
+        try (final JsonGenerator generator =
+                     JsonMapperRegistry
+                             .getMapper()
+                             .getFactory()
+                             .createGenerator(
+                                     new CheckedOutputStream(
+                                             ByteStreams.nullOutputStream(),
+                                             crc))) {
+            writeCanonical(
+                    document,
+                    generator);
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Computes the patch that turns one document into another.
+     *
+     * @param base   The original document.
+     * @param target The new document.
+     *
+     * @return The patch, which is empty if the documents are equal.
+     */
+    public static ArrayNode diff(
+            final JsonNode base,
+            final JsonNode target) {
+        final ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+        diff(
+                "",
+                base,
+                target,
+                patch);
+        return patch;
+    }
+
+    /**
+     * Adds the operations that turn one value into another.
+     *
+     * @param path   The path to the value.
+     * @param base   The original value.
+     * @param target The new value.
+     * @param patch  The patch to add to.
+     */
+    private static void diff(
+            final String path,
+            final JsonNode base,
+            final JsonNode target,
+            final ArrayNode patch) {
+        if (base.equals(target)) {
+            return;
+        }
+        if (base.isObject() && target.isObject()) {
+            final Iterator<String> baseFields = base.fieldNames();
+            while (baseFields.hasNext()) {
+                final String field = baseFields.next();
+                final String fieldPath = path + "/" + toToken(field);
+                if (target.has(field)) {
+                    diff(
+                            fieldPath,
+                            base.get(field),
+                            target.get(field),
+                            patch);
+                } else {
+                    patch.addObject()
+                            .put("op", "remove")
+                            .put("path", fieldPath);
+                }
+            }
+            final Iterator<String> targetFields = target.fieldNames();
+            while (targetFields.hasNext()) {
+                final String field = targetFields.next();
+                if (!base.has(field)) {
+                    patch.addObject()
+                            .put("op", "add")
+                            .put("path", path + "/" + toToken(field))
+                            .set("value", target.get(field));
+                }
+            }
+        } else if (base.isArray() &&
+                target.isArray() &&
+                base.size() == target.size()) {
+            for (int i = 0; i < base.size(); i++) {
+                diff(
+                        path + "/" + i,
+                        base.get(i),
+                        target.get(i),
+                        patch);
+            }
+        } else {
+            patch.addObject()
+                    .put("op", "replace")
+                    .put("path", path)
+                    .set("value", target);
+        }
+    }
+
+    /**
+     * Escapes a field name for use in a JSON pointer.
+     *
+     * @param field The field name.
+     *
+     * @return The escaped field name.
+     */
+    private static String toToken(final String field) {
+        return field
+                .replace("~", "~0")
+                .replace("/", "~1");
+    }
+
+    /**
+     * Splits a JSON pointer into unescaped tokens.
+     *
+     * @param pointer The pointer.
+     *
+     * @return The tokens.
+     */
+    private static List<String> toTokens(final String pointer) {
+        final List<String> tokens = new ArrayList<>();
+        if (!pointer.isEmpty()) {
+            for (final String token : pointer.substring(1).split("/", -1)) {
+                tokens.add(
+                        token
+                                .replace("~1", "/")
+                                .replace("~0", "~"));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Writes a value in its canonical form.
+     *
+     * @param value     The value.
+     * @param generator The generator to write to.
+     *
+     * @throws IOException on failure to write.
+     */
+    private static void writeCanonical(
+            final JsonNode value,
+            final JsonGenerator generator) throws IOException {
+        if (value.isObject()) {
+            final List<String> fields = new ArrayList<>();
+            value.fieldNames().forEachRemaining(fields::add);
+            fields.sort(String::compareTo);
+            generator.writeStartObject();
+            for (final String field : fields) {
+                generator.writeFieldName(field);
+                writeCanonical(
+                        value.get(field),
+                        generator);
+            }
+            generator.writeEndObject();
+        } else if (value.isArray()) {
+            generator.writeStartArray();
+            for (final JsonNode element : value) {
+                writeCanonical(
+                        element,
+                        generator);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeTree(value);
+        }
+    }
+}
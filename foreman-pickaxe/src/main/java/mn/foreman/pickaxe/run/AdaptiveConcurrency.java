@@ -0,0 +1,150 @@
+package mn.foreman.pickaxe.run;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link AdaptiveConcurrency} is a limit on the number of uploads in
+ * flight that adapts to how FOREMAN is coping, using additive increase,
+ * multiplicative decrease (AIMD).
+ *
+ * <p>Every upload that succeeds within the target latency grows the limit by
+ * <code>1 / limit</code>, so the limit grows by about one for every full
+ * round of uploads.  An upload that fails or is slower than the target halves
+ * the limit, but only once per round: uploads that were already in flight
+ * when the limit was last cut saw the old load, so they don't cut it
+ * again.</p>
+ */
+public class AdaptiveConcurrency {
+
+    /** The highest the limit can go. */
+    private final int maxLimit;
+
+    /** The slowest an upload can be without cutting the limit, in nanos. */
+    private final long targetLatencyNanos;
+
+    /** The number of times the limit was cut. */
+    private long decreases;
+
+    /** The number of uploads in flight. */
+    private int inFlight;
+
+    /** When the limit was last cut (or when the limit was created). */
+    private long lastDecreaseNanos;
+
+    /** The current limit. */
+    private double limit;
+
+    /**
+     * Constructor.
+     *
+     * @param maxLimit      The highest the limit can go.
+     * @param targetLatency The slowest an upload can be without cutting the
+     *                      limit.
+     * @param units         The units of the target latency.
+     */
+    public AdaptiveConcurrency(
+            final int maxLimit,
+            final long targetLatency,
+            final TimeUnit units) {
+        Validate.isTrue(
+                maxLimit > 0,
+                "maxLimit must be positive");
+        Validate.isTrue(
+                targetLatency > 0,
+                "targetLatency must be positive");
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = units.toNanos(targetLatency);
+        this.limit = Math.max(1, maxLimit / 2);
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until an upload can start.
+     *
+     * @return When the upload started, to be given back to {@link
+     * #release(long, boolean)}.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (this.inFlight >= (int) this.limit) {
+            wait();
+        }
+        this.inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Blocks until nothing is in flight.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (this.inFlight > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Returns the number of times the limit was cut.
+     *
+     * @return The number of decreases.
+     */
+    public synchronized long getDecreases() {
+        return this.decreases;
+    }
+
+    /**
+     * Returns the number of uploads in flight.
+     *
+     * @return The number of uploads in flight.
+     */
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return The number of uploads that can be in flight at once.
+     */
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    /**
+     * Finishes an upload and adjusts the limit.
+     *
+     * @param startNanos When the upload started.
+     * @param success    Whether or not the upload succeeded.
+     */
+    public synchronized void release(
+            final long startNanos,
+            final boolean success) {
+        this.inFlight--;
+        final long now = System.nanoTime();
+        if (success && now - startNanos <= this.targetLatencyNanos) {
+            this.limit =
+                    Math.min(
+                            this.limit + 1 / this.limit,
+                            this.maxLimit);
+        } else if (startNanos - this.lastDecreaseNanos >= 0) {
+            this.limit = Math.max(this.limit / 2, 1);
+            this.lastDecreaseNanos = now;
+            this.decreases++;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "%d/%d uploads in flight (max %d, %d decreases)",
+                this.inFlight,
+                getLimit(),
+                this.maxLimit,
+                this.decreases);
+    }
+}
@@ -0,0 +1,170 @@
+package mn.foreman.pickaxe.run;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link ConnectionRamp} is a token bucket on connection starts that brings
+ * miners into rotation gradually, rather than connecting to the whole fleet
+ * at once (e.g. at startup).
+ *
+ * <p>The bucket holds a single token, so connections are paced evenly at the
+ * configured rate and never burst.  A connection that's already due later
+ * than the next free token keeps its own time and doesn't hold a token back,
+ * so the fleet reaches full coverage as soon as the rate allows: after the
+ * poll interval or after the fleet size divided by the rate, whichever is
+ * longer.</p>
+ *
+ * <p>A rate of zero (or less) disables the ramp.</p>
+ */
+public class ConnectionRamp {
+
+    /** The clock. */
+    private final LongSupplier nanoTime;
+
+    /** The reserved start times that haven't come due yet, oldest first. */
+    private final Deque<Long> pending = new ArrayDeque<>();
+
+    /** The time between tokens, in nanoseconds. */
+    private final long spacingNanos;
+
+    /** The number of connections that have been let through. */
+    private long admitted;
+
+    /** When the next token is free. */
+    private long nextFreeNanos = Long.MIN_VALUE;
+
+    /**
+     * Constructor.
+     *
+     * @param ratePerSecond The max number of connections started per second.
+     */
+    public ConnectionRamp(final double ratePerSecond) {
+        this(
+                ratePerSecond,
+                System::nanoTime);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ratePerSecond The max number of connections started per second.
+     * @param nanoTime      The clock.
+     */
+    ConnectionRamp(
+            final double ratePerSecond,
+            final LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        this.spacingNanos =
+                ratePerSecond > 0
+                        ? Math.max(
+                        (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond),
+                        1)
+                        : 0;
+    }
+
+    /**
+     * Blocks until a connection can be started.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        final long now = this.nanoTime.getAsLong();
+        final long start = reserve(now);
+        if (start > now) {
+            TimeUnit.NANOSECONDS.sleep(start - now);
+        }
+    }
+
+    /**
+     * Returns the number of connections that have been let through.
+     *
+     * @return The number of admitted connections.
+     */
+    public synchronized long getAdmitted() {
+        expire(this.nanoTime.getAsLong());
+        return this.admitted;
+    }
+
+    /**
+     * Returns how long until every waiting connection has been let through.
+     *
+     * @return The time to full coverage, in milliseconds.
+     */
+    public synchronized long getRemainingMillis() {
+        final long now = this.nanoTime.getAsLong();
+        expire(now);
+        final Long last = this.pending.peekLast();
+        return last != null
+                ? TimeUnit.NANOSECONDS.toMillis(last - now)
+                : 0;
+    }
+
+    /**
+     * Returns the number of connections waiting for their tokens.
+     *
+     * @return The number of waiting connections.
+     */
+    public synchronized int getWaiting() {
+        expire(this.nanoTime.getAsLong());
+        return this.pending.size();
+    }
+
+    /**
+     * Returns whether or not connections are being paced.
+     *
+     * @return Whether or not the ramp is enabled.
+     */
+    public boolean isEnabled() {
+        return this.spacingNanos > 0;
+    }
+
+    /**
+     * Reserves a token for a connection that would like to start at the
+     * provided time.
+     *
+     * @param desiredNanos When the connection would like to start, as
+     *                     {@link System#nanoTime()}.
+     *
+     * @return When the connection may start, as {@link System#nanoTime()}.
+     */
+    public synchronized long reserve(final long desiredNanos) {
+        if (!isEnabled()) {
+            return desiredNanos;
+        }
+        expire(this.nanoTime.getAsLong());
+        final long start =
+                Math.max(
+                        desiredNanos,
+                        this.nextFreeNanos);
+        this.nextFreeNanos = start + this.spacingNanos;
+        this.pending.addLast(start);
+        return start;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d admitted, %d waiting, %dms to full coverage",
+                getAdmitted(),
+                getWaiting(),
+                getRemainingMillis());
+    }
+
+    /**
+     * Counts the reservations that have come due.
+     *
+     * <p>Note: reservations are handed out in increasing order, so the
+     * pending start times are always sorted.</p>
+     *
+     * @param now The current time.
+     */
+    private void expire(final long now) {
+        while (!this.pending.isEmpty() && this.pending.peekFirst() <= now) {
+            this.pending.pollFirst();
+            this.admitted++;
+        }
+    }
+}
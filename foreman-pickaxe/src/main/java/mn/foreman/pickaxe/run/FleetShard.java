@@ -0,0 +1,284 @@
+package mn.foreman.pickaxe.run;
+
+import mn.foreman.model.Miner;
+import mn.foreman.model.MinerID;
+import mn.foreman.util.EnvUtils;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A {@link FleetShard} splits one fleet across multiple pickaxe instances,
+ * deciding which of the configured miners this instance owns.
+ *
+ * <p>Every instance downloads the same configuration, and each miner is owned
+ * by exactly one member of the shard: the member with the highest rendezvous
+ * hash of the member and the miner's {@link MinerID}.  Adding or removing a
+ * member only moves the miners that member gains or loses - everything else
+ * stays where it was.</p>
+ *
+ * <p>Members can either be numbered, by setting
+ * <code>FOREMAN_SHARD_COUNT</code> and this instance's
+ * <code>FOREMAN_SHARD_INDEX</code>, or named in a membership file (one member
+ * per line) on a shared path, by setting <code>FOREMAN_SHARD_FILE</code> and
+ * this instance's <code>FOREMAN_SHARD_ID</code> (the hostname by default).
+ * The membership file is re-read every time miners are assigned.  If it
+ * can't be read (e.g. a network filesystem hiccup, or the file being
+ * rewritten), the last members that were read are kept.</p>
+ *
+ * <p>An instance that isn't a member owns nothing: miners and commands are
+ * never picked up by an instance that the rest of the shard doesn't know
+ * about, since every member would otherwise poll the whole fleet and run
+ * every command.</p>
+ */
+public class FleetShard {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(FleetShard.class);
+
+    /** The members of the shard, if they could be read. */
+    private final Supplier<Optional<List<String>>> members;
+
+    /** This instance's member name. */
+    private final String self;
+
+    /** The members when miners were last assigned. */
+    private volatile List<String> currentMembers;
+
+    /** The number of miners owned when miners were last assigned. */
+    private volatile int owned;
+
+    /** The number of miners configured when miners were last assigned. */
+    private volatile int total;
+
+    /**
+     * Constructor.
+     *
+     * <p>The shard is configured from the <code>FOREMAN_SHARD_*</code> system
+     * properties.  By default, there's only one member, which owns every
+     * miner.</p>
+     */
+    public FleetShard() {
+        final String file = System.getProperty("FOREMAN_SHARD_FILE");
+        if (file != null) {
+            this.self =
+                    System.getProperty(
+                            "FOREMAN_SHARD_ID",
+                            Objects.toString(EnvUtils.getHostname(), ""));
+            this.members = () -> readMembers(file);
+        } else {
+            final int count = Integer.getInteger("FOREMAN_SHARD_COUNT", 1);
+            final int index = Integer.getInteger("FOREMAN_SHARD_INDEX", 0);
+            Validate.isTrue(
+                    count > 0,
+                    "FOREMAN_SHARD_COUNT must be positive");
+            Validate.isTrue(
+                    index >= 0 && index < count,
+                    "FOREMAN_SHARD_INDEX must be within FOREMAN_SHARD_COUNT");
+            final List<String> numbered =
+                    IntStream
+                            .range(0, count)
+                            .mapToObj(Integer::toString)
+                            .collect(Collectors.toList());
+            this.self = Integer.toString(index);
+            this.members = () -> Optional.of(numbered);
+        }
+        this.currentMembers =
+                this.members
+                        .get()
+                        .orElse(Collections.emptyList());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param self    This instance's member name.
+     * @param members The members of the shard, if they could be read.
+     */
+    FleetShard(
+            final String self,
+            final Supplier<Optional<List<String>>> members) {
+        this.self = self;
+        this.members = members;
+        this.currentMembers =
+                members
+                        .get()
+                        .orElse(Collections.emptyList());
+    }
+
+    /**
+     * Refreshes the members and returns the miners owned by this instance.
+     *
+     * @param miners The configured miners.
+     *
+     * @return The owned miners.
+     */
+    public List<Miner> assign(final List<Miner> miners) {
+        final List<String> newMembers =
+                this.members
+                        .get()
+                        .orElse(this.currentMembers);
+        if (!newMembers.equals(this.currentMembers)) {
+            LOG.info("Shard members changed to {} (this instance is {})",
+                    newMembers,
+                    this.self);
+            this.currentMembers = newMembers;
+        }
+        if (!newMembers.contains(this.self)) {
+            LOG.error("This instance ({}) isn't a member of the shard {} - " +
+                            "no miners will be polled",
+                    this.self,
+                    newMembers);
+        }
+
+        final List<Miner> ownedMiners =
+                miners
+                        .stream()
+                        .filter(miner -> owns(miner.getMinerID()))
+                        .collect(Collectors.toList());
+        this.owned = ownedMiners.size();
+        this.total = miners.size();
+        LOG.debug("Shard {}: owning {} of {} miners across {} members",
+                this.self,
+                this.owned,
+                this.total,
+                newMembers.size());
+        return ownedMiners;
+    }
+
+    /**
+     * Returns the number of members in the shard.
+     *
+     * @return The number of members.
+     */
+    public int getMembers() {
+        return this.currentMembers.size();
+    }
+
+    /**
+     * Returns the number of miners owned by this instance.
+     *
+     * @return The number of owned miners.
+     */
+    public int getOwned() {
+        return this.owned;
+    }
+
+    /**
+     * Returns this instance's member name.
+     *
+     * @return This instance's member name.
+     */
+    public String getSelf() {
+        return this.self;
+    }
+
+    /**
+     * Returns the number of configured miners.
+     *
+     * @return The number of configured miners.
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * Checks whether or not this instance owns the provided key (e.g. a
+     * command that doesn't target a miner).
+     *
+     * @param key The key.
+     *
+     * @return Whether or not this instance owns the key.
+     */
+    public boolean owns(final String key) {
+        return isOwner(hasher -> hasher.putString(key, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks whether or not this instance owns the miner.
+     *
+     * @param minerID The miner.
+     *
+     * @return Whether or not this instance owns the miner.
+     */
+    public boolean owns(final MinerID minerID) {
+        return isOwner(hasher ->
+                hasher
+                        .putString(minerID.getApiIp(), StandardCharsets.UTF_8)
+                        .putInt(minerID.getApiPort()));
+    }
+
+    /**
+     * Reads the members from a membership file, skipping blank lines and
+     * <code>#</code> comments.
+     *
+     * @param file The membership file.
+     *
+     * @return The members, or empty if the file couldn't be read.
+     */
+    private static Optional<List<String>> readMembers(final String file) {
+        try {
+            return Optional.of(
+                    Files
+                            .readAllLines(Paths.get(file), StandardCharsets.UTF_8)
+                            .stream()
+                            .map(String::trim)
+                            .filter(line -> !line.isEmpty())
+                            .filter(line -> !line.startsWith("#"))
+                            .distinct()
+                            .collect(Collectors.toList()));
+        } catch (final IOException ioe) {
+            LOG.warn("Failed to read shard members from {} - keeping the " +
+                    "last known members", file, ioe);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Checks whether or not this instance has the highest rendezvous hash for
+     * a key.
+     *
+     * @param key Adds the key to a hash.
+     *
+     * @return Whether or not this instance owns the key.
+     */
+    private boolean isOwner(final Consumer<Hasher> key) {
+        final List<String> members = this.currentMembers;
+        if (!members.contains(this.self)) {
+            return false;
+        }
+        return members
+                .stream()
+                .max(Comparator
+                        .<String>comparingLong(member -> {
+                            final Hasher hasher =
+                                    Hashing.murmur3_128().newHasher();
+                            hasher
+                                    .putString(member, StandardCharsets.UTF_8)
+                                    .putByte((byte) 0);
+                            key.accept(hasher);
+                            return hasher.hash().asLong();
+                        })
+                        .thenComparing(Comparator.naturalOrder()))
+                .map(this.self::equals)
+                .orElse(false);
+    }
+}
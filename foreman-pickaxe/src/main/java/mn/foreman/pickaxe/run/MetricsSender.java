@@ -13,8 +13,10 @@ public interface MetricsSender {
      *
      * @param publishTime The publish time.
      * @param stats       The metrics to send.
+     *
+     * @return Whether or not the metrics were delivered.
      */
-    void sendMetrics(
+    boolean sendMetrics(
             ZonedDateTime publishTime,
             List<MinerStats> stats);
 }
@@ -4,6 +4,7 @@ import mn.foreman.model.MetricsReport;
 import mn.foreman.model.metadata.ApiVersion;
 import mn.foreman.model.metadata.Metadata;
 import mn.foreman.model.miners.MinerStats;
+import mn.foreman.pickaxe.process.Delivery;
 import mn.foreman.pickaxe.process.MetricsProcessingStrategy;
 
 import org.slf4j.Logger;
@@ -36,7 +37,7 @@ public class MetricsSenderImpl
     }
 
     @Override
-    public void sendMetrics(
+    public boolean sendMetrics(
             final ZonedDateTime publishTime,
             final List<MinerStats> stats) {
         final MetricsReport.Builder builder =
@@ -55,12 +56,14 @@ public class MetricsSenderImpl
 
                 LOG.debug("Generated report: {}", metricsReport);
 
-                this.strategy.process(metricsReport);
+                return this.strategy.process(metricsReport) ==
+                        Delivery.DELIVERED;
             } catch (final Exception e) {
                 LOG.warn("Exception occurred while generating report", e);
+                return false;
             }
-        } else {
-            LOG.info("No miner stats to report");
         }
+        LOG.info("No miner stats to report");
+        return true;
     }
 }
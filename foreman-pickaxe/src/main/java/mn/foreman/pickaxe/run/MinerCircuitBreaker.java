@@ -0,0 +1,410 @@
+package mn.foreman.pickaxe.run;
+
+import mn.foreman.model.MinerID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A {@link MinerCircuitBreaker} decides, per {@link MinerID}, whether or not a
+ * miner should be queried right now.
+ *
+ * <p>A miner starts out closed and is queried normally.  Once it has failed
+ * enough times in a row, its circuit opens and it's left alone for a backoff
+ * that doubles every time it opens again, up to a max, with jitter so that
+ * miners that went down together don't all come back to be retried at the
+ * same moment.  After the backoff, the circuit is half-open: a single probe
+ * is let through at a time, and the circuit only closes again after enough
+ * probes in a row succeed.  A failed probe re-opens it with the next
+ * backoff.</p>
+ *
+ * <p>The thresholds and backoff can be changed with the
+ * <code>FOREMAN_BREAKER_FAILURE_THRESHOLD</code>,
+ * <code>FOREMAN_BREAKER_SUCCESS_THRESHOLD</code>,
+ * <code>FOREMAN_BREAKER_BASE_MILLIS</code> and
+ * <code>FOREMAN_BREAKER_MAX_MILLIS</code> system properties.</p>
+ */
+public class MinerCircuitBreaker {
+
+    /** The first backoff, in milliseconds. */
+    private static final long BASE_MILLIS =
+            Long.getLong(
+                    "FOREMAN_BREAKER_BASE_MILLIS",
+                    TimeUnit.SECONDS.toMillis(30));
+
+    /** How many failures in a row open a circuit. */
+    private static final int FAILURE_THRESHOLD =
+            Integer.getInteger(
+                    "FOREMAN_BREAKER_FAILURE_THRESHOLD",
+                    1);
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MinerCircuitBreaker.class);
+
+    /** The longest backoff, in milliseconds. */
+    private static final long MAX_MILLIS =
+            Long.getLong(
+                    "FOREMAN_BREAKER_MAX_MILLIS",
+                    TimeUnit.MINUTES.toMillis(10));
+
+    /** How many successful probes in a row close a circuit. */
+    private static final int SUCCESS_THRESHOLD =
+            Integer.getInteger(
+                    "FOREMAN_BREAKER_SUCCESS_THRESHOLD",
+                    2);
+
+    /** The first backoff, in nanoseconds. */
+    private final long baseNanos;
+
+    /** How many failures in a row open a circuit. */
+    private final int failureThreshold;
+
+    /** Applies jitter to a backoff. */
+    private final LongUnaryOperator jitter;
+
+    /** The longest backoff, in nanoseconds. */
+    private final long maxNanos;
+
+    /** The clock. */
+    private final LongSupplier nanoTime;
+
+    /** The circuits for miners that have failed, by miner. */
+    private final ConcurrentMap<MinerID, Circuit> circuits =
+            new ConcurrentHashMap<>();
+
+    /** How many successful probes in a row close a circuit. */
+    private final int successThreshold;
+
+    /** Constructor. */
+    public MinerCircuitBreaker() {
+        this(
+                FAILURE_THRESHOLD,
+                SUCCESS_THRESHOLD,
+                BASE_MILLIS,
+                MAX_MILLIS,
+                TimeUnit.MILLISECONDS,
+                System::nanoTime,
+                MinerCircuitBreaker::equalJitter);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param failureThreshold How many failures in a row open a circuit.
+     * @param successThreshold How many successful probes in a row close a
+     *                         circuit.
+     * @param base             The first backoff.
+     * @param max              The longest backoff.
+     * @param units            The backoff (units).
+     * @param nanoTime         The clock.
+     * @param jitter           Applies jitter to a backoff.
+     */
+    MinerCircuitBreaker(
+            final int failureThreshold,
+            final int successThreshold,
+            final long base,
+            final long max,
+            final TimeUnit units,
+            final LongSupplier nanoTime,
+            final LongUnaryOperator jitter) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.successThreshold = Math.max(successThreshold, 1);
+        this.baseNanos = units.toNanos(base);
+        this.maxNanos = units.toNanos(max);
+        this.nanoTime = nanoTime;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Checks whether or not the miner should be queried right now.  If this
+     * returns <code>true</code>, the outcome must be reported with {@link
+     * #onSuccess(MinerID)} or {@link #onFailure(MinerID)}.
+     *
+     * @param minerID The miner.
+     *
+     * @return Whether or not the miner should be queried.
+     */
+    public boolean allowRequest(final MinerID minerID) {
+        final Circuit circuit = this.circuits.get(minerID);
+        if (circuit == null) {
+            return true;
+        }
+        synchronized (circuit) {
+            switch (circuit.state) {
+                case OPEN:
+                    if (this.nanoTime.getAsLong() - circuit.retryAt < 0) {
+                        return false;
+                    }
+                    LOG.debug("Probing {}", minerID);
+                    circuit.state = State.HALF_OPEN;
+                    circuit.successes = 0;
+                    circuit.probing = true;
+                    return true;
+                case HALF_OPEN:
+                    if (circuit.probing) {
+                        return false;
+                    }
+                    circuit.probing = true;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the backoff of every miner whose circuit isn't closed, so that
+     * it can be restored later with {@link #restore(MinerID, Backoff)}.
+     *
+     * @return The backoffs, by miner.
+     */
+    public Map<MinerID, Backoff> getBackoffs() {
+        final long now = this.nanoTime.getAsLong();
+        final Map<MinerID, Backoff> backoffs = new HashMap<>();
+        this.circuits.forEach((minerID, circuit) -> {
+            synchronized (circuit) {
+                if (circuit.state == State.OPEN) {
+                    backoffs.put(
+                            minerID,
+                            new Backoff(
+                                    circuit.opens,
+                                    TimeUnit.NANOSECONDS.toMillis(
+                                            Math.max(circuit.retryAt - now, 0))));
+                } else if (circuit.state == State.HALF_OPEN) {
+                    backoffs.put(
+                            minerID,
+                            new Backoff(
+                                    circuit.opens,
+                                    0));
+                }
+            }
+        });
+        return backoffs;
+    }
+
+    /**
+     * Returns the number of miners whose circuits aren't closed.
+     *
+     * @return The number of miners being backed off.
+     */
+    public int getOpen() {
+        return (int) this.circuits
+                .values()
+                .stream()
+                .filter(circuit -> circuit.state != State.CLOSED)
+                .count();
+    }
+
+    /**
+     * Checks whether or not the miner's circuit is closed, without letting a
+     * probe through.  Nothing needs to be reported afterwards, so this is
+     * for queries that shouldn't count towards the miner's health.
+     *
+     * @param minerID The miner.
+     *
+     * @return Whether or not the miner is being queried normally.
+     */
+    public boolean isClosed(final MinerID minerID) {
+        final Circuit circuit = this.circuits.get(minerID);
+        return circuit == null || circuit.state == State.CLOSED;
+    }
+
+    /**
+     * Reports that a query to the miner failed.
+     *
+     * @param minerID The miner.
+     */
+    public void onFailure(final MinerID minerID) {
+        final Circuit circuit =
+                this.circuits.computeIfAbsent(
+                        minerID,
+                        id -> new Circuit());
+        synchronized (circuit) {
+            circuit.probing = false;
+            circuit.successes = 0;
+            if (circuit.state == State.CLOSED &&
+                    ++circuit.failures < this.failureThreshold) {
+                return;
+            }
+
+            final long backoff =
+                    this.jitter.applyAsLong(
+                            toBackoff(circuit.opens++));
+            circuit.state = State.OPEN;
+            circuit.retryAt = this.nanoTime.getAsLong() + backoff;
+            LOG.info("Backing off {} for {}ms",
+                    minerID,
+                    TimeUnit.NANOSECONDS.toMillis(backoff));
+        }
+    }
+
+    /**
+     * Reports that a query to the miner succeeded.
+     *
+     * @param minerID The miner.
+     */
+    public void onSuccess(final MinerID minerID) {
+        final Circuit circuit = this.circuits.get(minerID);
+        if (circuit == null) {
+            return;
+        }
+        synchronized (circuit) {
+            circuit.probing = false;
+            if (circuit.state == State.HALF_OPEN &&
+                    ++circuit.successes < this.successThreshold) {
+                return;
+            }
+            if (circuit.state != State.OPEN) {
+                if (circuit.state == State.HALF_OPEN) {
+                    LOG.info("{} has recovered", minerID);
+                }
+                this.circuits.remove(minerID, circuit);
+            }
+        }
+    }
+
+    /**
+     * Re-opens the circuit for a miner that was backed off before, unless the
+     * miner already has history.
+     *
+     * @param minerID The miner.
+     * @param backoff The backoff.
+     */
+    public void restore(
+            final MinerID minerID,
+            final Backoff backoff) {
+        final Circuit circuit = new Circuit();
+        circuit.opens = backoff.getOpens();
+        circuit.retryAt =
+                this.nanoTime.getAsLong() +
+                        TimeUnit.MILLISECONDS.toNanos(backoff.getRemainingMillis());
+        circuit.state = State.OPEN;
+        this.circuits.putIfAbsent(minerID, circuit);
+    }
+
+    /**
+     * Forgets the history of every miner that isn't in the provided miners,
+     * keeping the circuits of the miners that are.
+     *
+     * @param minerIDs The miners to keep.
+     */
+    public void retain(final Collection<MinerID> minerIDs) {
+        this.circuits.keySet().retainAll(minerIDs);
+    }
+
+    /**
+     * Spreads a backoff across its upper half.
+     *
+     * @param backoff The backoff.
+     *
+     * @return The jittered backoff.
+     */
+    private static long equalJitter(final long backoff) {
+        final long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Determines the backoff for a circuit that has already opened the
+     * provided number of times.
+     *
+     * @param opens The number of times the circuit has opened.
+     *
+     * @return The backoff, in nanoseconds.
+     */
+    private long toBackoff(final int opens) {
+        final long factor = 1L << Math.min(opens, 30);
+        if (this.baseNanos > this.maxNanos / factor) {
+            return this.maxNanos;
+        }
+        return this.baseNanos * factor;
+    }
+
+    /** The backoff of a miner whose circuit is open. */
+    public static class Backoff {
+
+        /** The number of times the circuit has opened. */
+        private final int opens;
+
+        /** How long until the next probe may be sent, in milliseconds. */
+        private final long remainingMillis;
+
+        /**
+         * Constructor.
+         *
+         * @param opens           The number of times the circuit has opened.
+         * @param remainingMillis How long until the next probe may be sent,
+         *                        in milliseconds.
+         */
+        public Backoff(
+                final int opens,
+                final long remainingMillis) {
+            this.opens = opens;
+            this.remainingMillis = remainingMillis;
+        }
+
+        /**
+         * Returns the number of times the circuit has opened.
+         *
+         * @return The number of times the circuit has opened.
+         */
+        public int getOpens() {
+            return this.opens;
+        }
+
+        /**
+         * Returns how long until the next probe may be sent, in milliseconds.
+         *
+         * @return How long until the next probe may be sent.
+         */
+        public long getRemainingMillis() {
+            return this.remainingMillis;
+        }
+    }
+
+    /** The possible states of a circuit. */
+    private enum State {
+
+        /** The miner is queried normally. */
+        CLOSED,
+
+        /** The miner is left alone until its backoff passes. */
+        OPEN,
+
+        /** The miner is being probed to see if it has recovered. */
+        HALF_OPEN
+    }
+
+    /** The history of a miner that has failed. */
+    private static class Circuit {
+
+        /** The failures in a row while closed. */
+        private int failures;
+
+        /** The number of times the circuit has opened. */
+        private int opens;
+
+        /** Whether or not a probe is in flight. */
+        private boolean probing;
+
+        /** When the next probe may be sent. */
+        private long retryAt;
+
+        /** The state. */
+        private volatile State state = State.CLOSED;
+
+        /** The successful probes in a row. */
+        private int successes;
+    }
+}
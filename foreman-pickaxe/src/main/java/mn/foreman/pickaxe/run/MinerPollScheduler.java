@@ -0,0 +1,571 @@
+package mn.foreman.pickaxe.run;
+
+import mn.foreman.model.Miner;
+import mn.foreman.model.MinerID;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * A {@link MinerPollScheduler} gives every {@link Miner} its own slot within
+ * the poll interval, rather than polling the whole fleet in one burst.
+ *
+ * <p>Slots are spread evenly across the interval, with jitter inside each
+ * slot, and are driven by a hashed timing wheel so that thousands of them
+ * cost next to nothing to keep.  When a slot comes due, the poll is handed to
+ * the provided {@link ExecutorService}, and the miner's next slot is only
+ * scheduled once that poll has finished.  A slow miner therefore only ever
+ * delays itself: if it overruns its slot, it skips to the next one that
+ * hasn't passed yet.</p>
+ *
+ * <p>Every poll also has a hard budget, measured from its slot.  A poll
+ * that's still running when the budget runs out is cancelled (interrupted),
+ * and one that never got a thread in time is deferred to the miner's next
+ * slot.  Either way, the rest of the fleet's results are unaffected, since
+ * each miner's results are handled as soon as they arrive.</p>
+ *
+ * <p>Each miner's cadence adapts to how stable it is.  Every time a poll
+ * reports that nothing meaningful changed, the miner's interval doubles (in
+ * multiples of the base interval, so it keeps its slot), up to a max.  As soon
+ * as a poll reports a change or fails, or a miner is {@link
+ * #pollSoon(MinerID) asked for}, it drops back to the base interval.</p>
+ *
+ * <p>A miner's first poll can be held back by a {@link ConnectionRamp}, so
+ * that a large fleet (e.g. at startup) is brought into rotation gradually.
+ * The miner then keeps the slot that its first poll landed in.</p>
+ *
+ * <p>Scheduling lag (how late polls start), queue depth, per-slot load,
+ * budget overruns and the slowest miners are exposed for logging.</p>
+ */
+public class MinerPollScheduler {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MinerPollScheduler.class);
+
+    /** How long a poll may take, measured from its slot, in nanoseconds. */
+    private final long budgetNanos;
+
+    /** The number of polls that never started within their budget. */
+    private final AtomicLong deferred = new AtomicLong();
+
+    /** The pool that polls run on. */
+    private final ExecutorService executor;
+
+    /** The number of polls currently running. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** The base poll interval, in nanoseconds. */
+    private final long intervalNanos;
+
+    /** Picks an offset within a slot of the provided width. */
+    private final LongUnaryOperator jitter;
+
+    /** The total scheduling lag, in nanoseconds. */
+    private final AtomicLong lagNanos = new AtomicLong();
+
+    /** The longest poll interval, in nanoseconds. */
+    private final long maxIntervalNanos;
+
+    /** The worst scheduling lag, in nanoseconds. */
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /** The clock. */
+    private final LongSupplier nanoTime;
+
+    /** The number of polls that were cancelled for running over budget. */
+    private final AtomicLong overruns = new AtomicLong();
+
+    /** Polls a miner, returning whether or not its stats were unchanged. */
+    private final Predicate<Miner> poller;
+
+    /** The scheduled polls, by miner. */
+    private final ConcurrentMap<Miner, Poll> polls =
+            new ConcurrentHashMap<>();
+
+    /** The number of polls that have started. */
+    private final AtomicLong pollsStarted = new AtomicLong();
+
+    /** The number of polls that are due but waiting for a thread. */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /** Paces the first poll of every new miner. */
+    private final ConnectionRamp ramp;
+
+    /** When the scheduler was created, which anchors the slots. */
+    private final long startNanos;
+
+    /** The timing wheel. */
+    private final Timer wheel;
+
+    /**
+     * Constructor.
+     *
+     * @param interval      The base poll interval.
+     * @param maxInterval   The longest poll interval for stable miners.
+     * @param budget        How long a poll may take, measured from its slot.
+     * @param intervalUnits The poll intervals and budget (units).
+     * @param executor      The pool that polls run on.
+     * @param poller        Polls a miner, returning whether or not its stats
+     *                      were unchanged.
+     * @param ramp          Paces the first poll of every new miner.
+     */
+    public MinerPollScheduler(
+            final long interval,
+            final long maxInterval,
+            final long budget,
+            final TimeUnit intervalUnits,
+            final ExecutorService executor,
+            final Predicate<Miner> poller,
+            final ConnectionRamp ramp) {
+        this(
+                interval,
+                maxInterval,
+                budget,
+                intervalUnits,
+                executor,
+                poller,
+                ramp,
+                System::nanoTime,
+                new HashedWheelTimer(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("foreman-poll-wheel-%d")
+                                .setDaemon(true)
+                                .build(),
+                        100,
+                        TimeUnit.MILLISECONDS,
+                        512),
+                slotNanos -> ThreadLocalRandom.current().nextLong(slotNanos));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param interval      The base poll interval.
+     * @param maxInterval   The longest poll interval for stable miners.
+     * @param budget        How long a poll may take, measured from its slot.
+     * @param intervalUnits The poll intervals and budget (units).
+     * @param executor      The pool that polls run on.
+     * @param poller        Polls a miner, returning whether or not its stats
+     *                      were unchanged.
+     * @param ramp          Paces the first poll of every new miner.
+     * @param nanoTime      The clock.
+     * @param wheel         The timing wheel.
+     * @param jitter        Picks an offset within a slot of the provided
+     *                      width.
+     */
+    MinerPollScheduler(
+            final long interval,
+            final long maxInterval,
+            final long budget,
+            final TimeUnit intervalUnits,
+            final ExecutorService executor,
+            final Predicate<Miner> poller,
+            final ConnectionRamp ramp,
+            final LongSupplier nanoTime,
+            final Timer wheel,
+            final LongUnaryOperator jitter) {
+        this.intervalNanos = intervalUnits.toNanos(interval);
+        // Whole multiples of the base interval, so miners keep their slots
+        this.maxIntervalNanos =
+                Math.max(
+                        intervalUnits.toNanos(maxInterval) /
+                                this.intervalNanos * this.intervalNanos,
+                        this.intervalNanos);
+        this.budgetNanos = intervalUnits.toNanos(budget);
+        this.executor = executor;
+        this.poller = poller;
+        this.ramp = ramp;
+        this.nanoTime = nanoTime;
+        this.wheel = wheel;
+        this.jitter = jitter;
+        this.startNanos = nanoTime.getAsLong();
+    }
+
+    /**
+     * Returns the average scheduling lag: how late polls started compared to
+     * their slots.
+     *
+     * @return The average lag, in milliseconds.
+     */
+    public long getAverageLagMillis() {
+        final long started = this.pollsStarted.get();
+        if (started == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(this.lagNanos.get() / started);
+    }
+
+    /**
+     * Returns the number of polls that never started within their budget and
+     * were deferred to the next slot.
+     *
+     * @return The number of deferred polls.
+     */
+    public long getDeferred() {
+        return this.deferred.get();
+    }
+
+    /**
+     * Returns the number of polls currently running.
+     *
+     * @return The number of running polls.
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Returns the worst scheduling lag seen.
+     *
+     * @return The worst lag, in milliseconds.
+     */
+    public long getMaxLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxLagNanos.get());
+    }
+
+    /**
+     * Returns the number of polls that were cancelled for running over
+     * budget.
+     *
+     * @return The number of overruns.
+     */
+    public long getOverruns() {
+        return this.overruns.get();
+    }
+
+    /**
+     * Returns the number of polls that are due but still waiting for a
+     * thread.
+     *
+     * @return The queue depth.
+     */
+    public int getQueued() {
+        return this.queued.get();
+    }
+
+    /**
+     * Returns how many miners are due in each part of the interval.
+     *
+     * @param slots The number of parts to split the interval into.
+     *
+     * @return The number of miners due in each part.
+     */
+    public List<Integer> getSlotLoad(final int slots) {
+        final int[] load = new int[slots];
+        for (final Poll poll : this.polls.values()) {
+            final long phase =
+                    Math.floorMod(
+                            poll.dueNanos - this.startNanos,
+                            this.intervalNanos);
+            load[(int) (phase * slots / this.intervalNanos)]++;
+        }
+        final List<Integer> loads = new ArrayList<>(slots);
+        for (final int count : load) {
+            loads.add(count);
+        }
+        return loads;
+    }
+
+    /**
+     * Returns the miners whose last polls took the longest.
+     *
+     * @param count The max number of miners to return.
+     *
+     * @return How long each miner's last poll took, in milliseconds, slowest
+     * first.
+     */
+    public Map<MinerID, Long> getSlowest(final int count) {
+        final Map<MinerID, Long> slowest = new LinkedHashMap<>();
+        this.polls
+                .values()
+                .stream()
+                .sorted(Comparator.comparingLong((Poll poll) -> poll.lastNanos).reversed())
+                .limit(count)
+                .forEach(poll ->
+                        slowest.put(
+                                poll.miner.getMinerID(),
+                                TimeUnit.NANOSECONDS.toMillis(poll.lastNanos)));
+        return slowest;
+    }
+
+    /**
+     * Returns the number of miners being polled less often than the base
+     * interval because they've been stable.
+     *
+     * @return The number of stretched miners.
+     */
+    public long getStretched() {
+        return this.polls
+                .values()
+                .stream()
+                .filter(poll -> poll.currentIntervalNanos > this.intervalNanos)
+                .count();
+    }
+
+    /**
+     * Drops a miner back to the base interval, moving its next poll up to its
+     * next slot.  This should be used whenever something is expected to
+     * change on the miner (e.g. a command targets it).
+     *
+     * @param minerID The miner.
+     */
+    public void pollSoon(final MinerID minerID) {
+        this.polls
+                .values()
+                .stream()
+                .filter(poll -> minerID.equals(poll.miner.getMinerID()))
+                .forEach(Poll::hurry);
+    }
+
+    /**
+     * Replaces the miners being polled.  Miners that are still present keep
+     * their slots, miners that are gone stop being polled, and new miners are
+     * given slots spread across the interval.
+     *
+     * @param miners The miners to poll.
+     */
+    public void update(final List<Miner> miners) {
+        final Set<Miner> current = new HashSet<>(miners);
+        this.polls
+                .entrySet()
+                .removeIf(entry -> {
+                    if (!current.contains(entry.getKey())) {
+                        entry.getValue().cancel();
+                        return true;
+                    }
+                    return false;
+                });
+
+        final long slotNanos = this.intervalNanos / Math.max(miners.size(), 1);
+        final long now = this.nanoTime.getAsLong();
+        for (int i = 0; i < miners.size(); i++) {
+            final Miner miner = miners.get(i);
+            if (!this.polls.containsKey(miner)) {
+                final long offset =
+                        i * slotNanos +
+                                this.jitter.applyAsLong(
+                                        Math.max(slotNanos, 1));
+                final Poll poll = new Poll(miner);
+                this.polls.put(miner, poll);
+                poll.schedule(
+                        this.ramp.reserve(now + offset),
+                        now);
+            }
+        }
+        LOG.debug("Polling {} miners", this.polls.size());
+    }
+
+    /** A miner's recurring poll. */
+    private class Poll
+            implements TimerTask {
+
+        /** The miner. */
+        private final Miner miner;
+
+        /** The pending budget for the running poll. */
+        private volatile Timeout budget;
+
+        /** Whether or not the miner is no longer being polled. */
+        private volatile boolean cancelled;
+
+        /** The miner's current interval. */
+        private volatile long currentIntervalNanos = intervalNanos;
+
+        /** When the poll is due. */
+        private volatile long dueNanos;
+
+        /** How long the last poll took. */
+        private volatile long lastNanos;
+
+        /** The pending wheel entry. */
+        private volatile Timeout timeout;
+
+        /**
+         * Constructor.
+         *
+         * @param miner The miner.
+         */
+        private Poll(final Miner miner) {
+            this.miner = miner;
+        }
+
+        @Override
+        public void run(final Timeout timeout) {
+            if (this.cancelled) {
+                return;
+            }
+            // Whichever of the poll and its budget gets here first decides
+            // whether the poll runs at all
+            final AtomicBoolean started = new AtomicBoolean();
+            queued.incrementAndGet();
+            final Future<?> running;
+            try {
+                running = executor.submit(() -> poll(started));
+            } catch (final RejectedExecutionException ree) {
+                queued.decrementAndGet();
+                LOG.warn("Failed to poll {}", this.miner, ree);
+                scheduleNext();
+                return;
+            }
+            this.budget =
+                    wheel.newTimeout(
+                            expired -> expire(
+                                    started,
+                                    running),
+                            Math.max(
+                                    this.dueNanos + budgetNanos - nanoTime.getAsLong(),
+                                    0),
+                            TimeUnit.NANOSECONDS);
+        }
+
+        /** Stops polling the miner. */
+        private void cancel() {
+            this.cancelled = true;
+            final Timeout pending = this.timeout;
+            if (pending != null) {
+                pending.cancel();
+            }
+        }
+
+        /**
+         * Enforces the budget for a poll: a poll that never started is
+         * deferred to the next slot, and one that's still running is
+         * cancelled.
+         *
+         * @param started Whether or not the poll started.
+         * @param running The poll.
+         */
+        private void expire(
+                final AtomicBoolean started,
+                final Future<?> running) {
+            if (started.compareAndSet(false, true)) {
+                queued.decrementAndGet();
+                deferred.incrementAndGet();
+                running.cancel(false);
+                LOG.debug("Deferring {} to its next slot", this.miner);
+                scheduleNext();
+            } else if (!running.isDone()) {
+                overruns.incrementAndGet();
+                LOG.info("Cancelling poll of {} - over budget", this.miner);
+                running.cancel(true);
+            }
+        }
+
+        /**
+         * Drops back to the base interval, moving the next poll up to the
+         * next slot if it's waiting in the wheel.
+         */
+        private void hurry() {
+            this.currentIntervalNanos = intervalNanos;
+            final Timeout pending = this.timeout;
+            if (pending != null && pending.cancel()) {
+                final long now = nanoTime.getAsLong();
+                final long ahead = Math.max(this.dueNanos - now, 0);
+                schedule(
+                        this.dueNanos - ahead / intervalNanos * intervalNanos,
+                        now);
+            }
+        }
+
+        /**
+         * Polls the miner, then schedules its next slot.
+         *
+         * @param started Whether or not the poll started.
+         */
+        private void poll(final AtomicBoolean started) {
+            if (!started.compareAndSet(false, true)) {
+                // Deferred
+                return;
+            }
+            queued.decrementAndGet();
+            final long start = nanoTime.getAsLong();
+            final long lag = start - this.dueNanos;
+            pollsStarted.incrementAndGet();
+            lagNanos.addAndGet(lag);
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+
+            inFlight.incrementAndGet();
+            boolean unchanged = false;
+            try {
+                if (!this.cancelled) {
+                    unchanged = poller.test(this.miner);
+                }
+            } catch (final Exception e) {
+                LOG.warn("Exception occurred while polling {}",
+                        this.miner,
+                        e);
+            } finally {
+                inFlight.decrementAndGet();
+                this.lastNanos = nanoTime.getAsLong() - start;
+                this.currentIntervalNanos =
+                        unchanged
+                                ? Math.min(
+                                this.currentIntervalNanos * 2,
+                                maxIntervalNanos)
+                                : intervalNanos;
+                final Timeout pending = this.budget;
+                if (pending != null) {
+                    pending.cancel();
+                }
+                scheduleNext();
+            }
+        }
+
+        /**
+         * Schedules the poll.
+         *
+         * @param due When the poll is due.
+         * @param now The current time.
+         */
+        private void schedule(
+                final long due,
+                final long now) {
+            this.dueNanos = due;
+            this.timeout =
+                    wheel.newTimeout(
+                            this,
+                            Math.max(due - now, 0),
+                            TimeUnit.NANOSECONDS);
+            if (this.cancelled) {
+                this.timeout.cancel();
+            }
+        }
+
+        /**
+         * Schedules the next slot that hasn't already passed, keeping the
+         * miner's place within the base interval.
+         */
+        private void scheduleNext() {
+            if (this.cancelled) {
+                return;
+            }
+            final long now = nanoTime.getAsLong();
+            long next = this.dueNanos + this.currentIntervalNanos;
+            if (next <= now) {
+                next += ((now - next) / intervalNanos + 1) * intervalNanos;
+            }
+            schedule(next, now);
+        }
+    }
+}
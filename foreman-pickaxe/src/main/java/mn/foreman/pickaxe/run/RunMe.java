@@ -3,12 +3,23 @@ package mn.foreman.pickaxe.run;
 import mn.foreman.api.ForemanApi;
 import mn.foreman.api.ForemanApiImpl;
 import mn.foreman.api.JdkWebUtil;
+import mn.foreman.io.AdaptiveTimeouts;
+import mn.foreman.io.AsyncIo;
+import mn.foreman.io.DigestSessionCache;
+import mn.foreman.io.HttpClientRegistry;
+import mn.foreman.io.MinerBulkhead;
+import mn.foreman.io.SingleFlight;
 import mn.foreman.model.Miner;
 import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+import mn.foreman.model.cache.DetectedTypes;
 import mn.foreman.model.cache.SelfExpiringStatsCache;
 import mn.foreman.model.cache.StatsCache;
+import mn.foreman.model.cache.StatsTolerance;
+import mn.foreman.model.command.CommandStart;
 import mn.foreman.model.command.Commands;
 import mn.foreman.model.error.MinerException;
+import mn.foreman.model.miners.MinerStats;
 import mn.foreman.pickaxe.command.CommandProcessor;
 import mn.foreman.pickaxe.command.CommandProcessorImpl;
 import mn.foreman.pickaxe.command.asic.AsicStrategyFactory;
@@ -18,27 +29,51 @@ import mn.foreman.pickaxe.miners.MinerConfiguration;
 import mn.foreman.pickaxe.miners.remote.RemoteConfiguration;
 import mn.foreman.pickaxe.process.HttpPostMetricsProcessingStrategy;
 import mn.foreman.pickaxe.process.MetricsProcessingStrategy;
+import mn.foreman.pickaxe.process.RetryingMetricsProcessingStrategy;
+import mn.foreman.pickaxe.process.SpoolingMetricsProcessingStrategy;
+import mn.foreman.pickaxe.snapshot.SnapshotFile;
+import mn.foreman.pickaxe.snapshot.json.Snapshot;
+import mn.foreman.pickaxe.spool.MetricsSpool;
 import mn.foreman.util.VersionUtils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 /** {@link RunMe} provides the application context for PICKAXE. */
 public class RunMe {
 
+    /** The number of commands that can run at once. */
+    private static final int COMMAND_THREADS =
+            Integer.getInteger(
+                    "FOREMAN_COMMAND_THREADS",
+                    4);
+
+    /**
+     * The number of uploads between full keyframes for each miner when
+     * uploading deltas, or zero to always upload full stats.
+     */
+    private static final int DELTA_KEYFRAME_INTERVAL =
+            Integer.getInteger(
+                    "FOREMAN_DELTA_KEYFRAME_INTERVAL",
+                    0);
+
     /** The Foreman base URL. */
     private static final String FOREMAN_BASE_URL;
 
@@ -46,6 +81,161 @@ public class RunMe {
     private final static Logger LOG =
             LoggerFactory.getLogger(RunMe.class);
 
+    /** How long a MAC address is cached, in millis. */
+    private static final long MAC_EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    /** The most stats that can be waiting to be uploaded. */
+    private static final int PIPELINE_CAPACITY =
+            Integer.getInteger(
+                    "FOREMAN_PIPELINE_CAPACITY",
+                    20000);
+
+    /** What to do with newer stats for a miner that's already queued. */
+    private static final StatsPipeline.OverflowPolicy PIPELINE_POLICY =
+            StatsPipeline.OverflowPolicy.valueOf(
+                    System.getProperty(
+                            "FOREMAN_PIPELINE_POLICY",
+                            StatsPipeline.OverflowPolicy.COALESCE.name()));
+
+    /** How long a miner poll may take before it's cancelled, in millis. */
+    private static final long POLL_BUDGET_MILLIS =
+            Long.getLong(
+                    "FOREMAN_POLL_BUDGET_MILLIS",
+                    TimeUnit.SECONDS.toMillis(20));
+
+    /** The longest a stable miner can go between polls, in millis. */
+    private static final long POLL_MAX_INTERVAL_MILLIS =
+            Long.getLong(
+                    "FOREMAN_POLL_MAX_INTERVAL_MILLIS",
+                    TimeUnit.MINUTES.toMillis(2));
+
+    /** The number of miners that can be polled at once. */
+    private static final int POLL_THREADS =
+            Integer.getInteger(
+                    "FOREMAN_POLL_THREADS",
+                    32);
+
+    /**
+     * The max number of miner connections started per second while miners
+     * are brought into rotation (e.g. at startup), or zero to connect to
+     * every miner as soon as its slot comes up.
+     */
+    private static final double RAMP_UP_RATE =
+            Double.parseDouble(
+                    System.getProperty(
+                            "FOREMAN_RAMP_UP_RATE",
+                            "0"));
+
+    /** The number of threads watching miners come back after a command. */
+    private static final int REBOOT_THREADS =
+            Integer.getInteger(
+                    "FOREMAN_REBOOT_THREADS",
+                    Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Where the warm restart snapshot is kept.  The launch scripts keep it
+     * in the install's data directory, regardless of the working directory.
+     */
+    private static final String SNAPSHOT_FILE =
+            System.getProperty(
+                    "FOREMAN_SNAPSHOT_FILE",
+                    "pickaxe-snapshot.json");
+
+    /** How often the warm restart snapshot is written, in millis. */
+    private static final long SNAPSHOT_INTERVAL_MILLIS =
+            Long.getLong(
+                    "FOREMAN_SNAPSHOT_INTERVAL_MILLIS",
+                    TimeUnit.MINUTES.toMillis(1));
+
+    /**
+     * Where metrics that couldn't be uploaded are spooled until FOREMAN can
+     * be reached, or empty to drop them.
+     */
+    private static final String SPOOL_DIR =
+            System.getProperty(
+                    "FOREMAN_SPOOL_DIR",
+                    "");
+
+    /** How long spooled metrics are kept before they're dropped, in millis. */
+    private static final long SPOOL_MAX_AGE_MILLIS =
+            Long.getLong(
+                    "FOREMAN_SPOOL_MAX_AGE_MILLIS",
+                    TimeUnit.HOURS.toMillis(24));
+
+    /** The most disk space the spool can use, in bytes. */
+    private static final long SPOOL_MAX_BYTES =
+            Long.getLong(
+                    "FOREMAN_SPOOL_MAX_BYTES",
+                    256L * 1024 * 1024);
+
+    /** The time between replays of spooled metrics, in millis. */
+    private static final long SPOOL_REPLAY_INTERVAL_MILLIS =
+            Long.getLong(
+                    "FOREMAN_SPOOL_REPLAY_INTERVAL_MILLIS",
+                    TimeUnit.SECONDS.toMillis(2));
+
+    /** The max relative hash rate change for a miner to be stable. */
+    private static final double STABLE_HASH_RATE_TOLERANCE =
+            Double.parseDouble(
+                    System.getProperty(
+                            "FOREMAN_STABLE_HASH_RATE_TOLERANCE",
+                            "0.05"));
+
+    /** The max hottest-temp change for a miner to be stable. */
+    private static final int STABLE_TEMP_TOLERANCE =
+            Integer.getInteger(
+                    "FOREMAN_STABLE_TEMP_TOLERANCE",
+                    5);
+
+    /**
+     * How long stats are kept without a new poll, in millis.  Stats must
+     * outlive the longest interval between polls of a stable miner.
+     */
+    private static final long STATS_EXPIRY_MILLIS =
+            Math.max(
+                    TimeUnit.SECONDS.toMillis(120),
+                    POLL_MAX_INTERVAL_MILLIS * 2);
+
+    /** The most serialized stats in each metrics upload, in bytes. */
+    private static final int UPLOAD_BATCH_BYTES =
+            Integer.getInteger(
+                    "FOREMAN_UPLOAD_BATCH_BYTES",
+                    1024 * 1024);
+
+    /** Whether or not metrics uploads are gzip-compressed. */
+    private static final boolean UPLOAD_GZIP =
+            Boolean.parseBoolean(
+                    System.getProperty(
+                            "FOREMAN_UPLOAD_GZIP",
+                            "true"));
+
+    /** The backoff before a failed metrics upload is retried, in millis. */
+    private static final long UPLOAD_RETRY_BACKOFF_MILLIS =
+            Long.getLong(
+                    "FOREMAN_UPLOAD_RETRY_BACKOFF_MILLIS",
+                    TimeUnit.SECONDS.toMillis(1));
+
+    /** The number of times a failed metrics upload is retried. */
+    private static final int UPLOAD_RETRIES =
+            Integer.getInteger(
+                    "FOREMAN_UPLOAD_RETRIES",
+                    2);
+
+    /**
+     * The slowest a metrics upload can be, in millis, before fewer uploads
+     * are allowed in flight.
+     */
+    private static final long UPLOAD_TARGET_LATENCY_MILLIS =
+            Long.getLong(
+                    "FOREMAN_UPLOAD_TARGET_LATENCY_MILLIS",
+                    TimeUnit.SECONDS.toMillis(10));
+
+    /** The max number of metrics uploads that can be in flight at once. */
+    private static final int UPLOAD_THREADS =
+            Integer.getInteger(
+                    "FOREMAN_UPLOAD_THREADS",
+                    4);
+
     static {
         FOREMAN_BASE_URL =
                 System.getProperty(
@@ -53,44 +243,126 @@ public class RunMe {
                         "https://dashboard.foreman.mn");
     }
 
-    /** The blacklisted miners. */
-    private final Set<MinerID> blacklistedMiners =
-            Sets.newConcurrentHashSet();
+    /** Decides which failing miners are left alone, and for how long. */
+    private final MinerCircuitBreaker circuitBreaker =
+            new MinerCircuitBreaker();
+
+    /**
+     * The thread pool for polling and running commands.  Commands are
+     * user-initiated, so they get threads of their own that a polling or MAC
+     * backlog can't hold up.
+     */
+    private final WorkloadExecutor commandThreadPool =
+            new WorkloadExecutor(
+                    "command",
+                    Math.max(COMMAND_THREADS, 2),
+                    Thread.NORM_PRIORITY + 2,
+                    256);
 
     /** The {@link Configuration}. */
     private final Configuration configuration;
 
+    /** Brings miners into rotation gradually. */
+    private final ConnectionRamp connectionRamp =
+            new ConnectionRamp(RAMP_UP_RATE);
+
+    /** Decides which of the configured miners this instance owns. */
+    private final FleetShard fleetShard = new FleetShard();
+
     /** The {@link ForemanApi}. */
     private final ForemanApi foremanApi;
 
+    /** The thread pool for configuration querying and snapshotting. */
+    private final WorkloadExecutor housekeepingThreadPool =
+            new WorkloadExecutor(
+                    "housekeeping",
+                    2,
+                    Thread.NORM_PRIORITY,
+                    16);
+
+    /**
+     * The thread pool for harvesting MAC addresses, which is background work
+     * that gets a single thread of its own.
+     */
+    private final WorkloadExecutor macThreadPool =
+            new WorkloadExecutor(
+                    "mac",
+                    1,
+                    Thread.MIN_PRIORITY,
+                    16);
+
     /** Cache MAC addresses for 6 hours. */
     private final Cache<MinerID, String> macCache =
             CacheBuilder
                     .newBuilder()
-                    .expireAfterWrite(6, TimeUnit.HOURS)
+                    .expireAfterWrite(MAC_EXPIRY_MILLIS, TimeUnit.MILLISECONDS)
                     .build();
 
     /** The factory for creating all of the {@link Miner miners}. */
     private final MinerConfiguration minerConfiguration;
 
-    /** A cache of all of the miners. */
+    /** A cache of all of the miners owned by this instance. */
     private final AtomicReference<List<Miner>> miners =
             new AtomicReference<>(new LinkedList<>());
 
+    /** The thread pool that miners are polled on. */
+    private final ExecutorService pollThreadPool =
+            Executors.newFixedThreadPool(
+                    POLL_THREADS,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("foreman-poll-%d")
+                            .build());
+
+    /** Gives each miner its own slot within the stats interval. */
+    private final MinerPollScheduler pollScheduler =
+            new MinerPollScheduler(
+                    TimeUnit.SECONDS.toMillis(30),
+                    POLL_MAX_INTERVAL_MILLIS,
+                    POLL_BUDGET_MILLIS,
+                    TimeUnit.MILLISECONDS,
+                    this.pollThreadPool,
+                    this::updateMiner,
+                    this.connectionRamp);
+
+    /**
+     * The thread pool for watching miners come back after a command (e.g. a
+     * reboot).
+     */
+    private final WorkloadExecutor rebootThreadPool =
+            new WorkloadExecutor(
+                    "reboot",
+                    REBOOT_THREADS,
+                    Thread.NORM_PRIORITY + 1,
+                    1024);
+
+    /** The miners that are held back while waiting for them to reboot. */
+    private final Set<MinerID> rebootingMiners =
+            Sets.newConcurrentHashSet();
+
+    /** Persists detection and cache state for warm restarts. */
+    private final SnapshotFile snapshotFile =
+            new SnapshotFile(Paths.get(SNAPSHOT_FILE));
+
+    /** Spools and replays metrics that couldn't be uploaded, or null. */
+    private final SpoolingMetricsProcessingStrategy spoolingStrategy;
+
     /** An in-memory cache for holding all of the active stats. */
     private final StatsCache statsCache =
             new SelfExpiringStatsCache(
-                    120,
-                    TimeUnit.SECONDS);
+                    (int) STATS_EXPIRY_MILLIS,
+                    TimeUnit.MILLISECONDS);
 
-    /** The thread pool for running tasks. */
-    private final ForkJoinPool statsThreadPool =
-            new ForkJoinPool();
+    /** The bounded hand-off between the pollers and the uploader. */
+    private final StatsPipeline statsPipeline;
 
-    /** The thread pool for running tasks. */
-    private final ScheduledExecutorService threadPool =
-            Executors.newScheduledThreadPool(
-                    Runtime.getRuntime().availableProcessors());
+    /** Decides whether or not a miner's stats changed since they last did. */
+    private final StatsTolerance statsTolerance =
+            new StatsTolerance(
+                    STABLE_HASH_RATE_TOLERANCE,
+                    STABLE_TEMP_TOLERANCE);
+
+    /** Uploads metrics to FOREMAN, retrying failed uploads. */
+    private final RetryingMetricsProcessingStrategy uploadStrategy;
 
     /**
      * Constructor.
@@ -116,6 +388,38 @@ public class RunMe {
                         toFullUrl(
                                 "api/claymore"),
                         configuration.getApiKey());
+        this.uploadStrategy =
+                new RetryingMetricsProcessingStrategy(
+                        new HttpPostMetricsProcessingStrategy(
+                                String.format(
+                                        "%s/%s/%s/%s",
+                                        FOREMAN_BASE_URL,
+                                        "api/metrics",
+                                        configuration.getClientId(),
+                                        configuration.getPickaxeId()),
+                                configuration.getApiKey(),
+                                UPLOAD_GZIP,
+                                DELTA_KEYFRAME_INTERVAL),
+                        UPLOAD_RETRIES,
+                        UPLOAD_RETRY_BACKOFF_MILLIS,
+                        TimeUnit.SECONDS.toMillis(30),
+                        TimeUnit.MILLISECONDS);
+        this.spoolingStrategy = toSpooling(this.uploadStrategy);
+        this.statsPipeline =
+                new StatsPipeline(
+                        PIPELINE_CAPACITY,
+                        PIPELINE_POLICY,
+                        200,
+                        UPLOAD_BATCH_BYTES,
+                        new AdaptiveConcurrency(
+                                UPLOAD_THREADS,
+                                UPLOAD_TARGET_LATENCY_MILLIS,
+                                TimeUnit.MILLISECONDS),
+                        new MetricsSenderImpl(
+                                this.spoolingStrategy != null
+                                        ? this.spoolingStrategy
+                                        : this.uploadStrategy),
+                        this.statsCache::getMetrics);
         this.foremanApi =
                 new ForemanApiImpl(
                         configuration.getClientId(),
@@ -132,24 +436,16 @@ public class RunMe {
      * <p>Note: this is the main processing function for PICKAXE.</p>
      */
     public void run() {
-        final MetricsProcessingStrategy metricsProcessingStrategy =
-                new HttpPostMetricsProcessingStrategy(
-                        String.format(
-                                "%s/%s/%s/%s",
-                                FOREMAN_BASE_URL,
-                                "api/metrics",
-                                this.configuration.getClientId(),
-                                this.configuration.getPickaxeId()),
-                        this.configuration.getApiKey());
-
-        final MetricsSender metricsSender =
-                new MetricsSenderImpl(
-                        metricsProcessingStrategy);
-
+        restoreSnapshot();
+        this.statsPipeline.start(
+                1,
+                TimeUnit.MINUTES);
+        if (this.spoolingStrategy != null) {
+            this.spoolingStrategy.start();
+        }
         startConfigQuerying();
-        startUpdateMiners();
-        startBlacklistFlush();
         startMacQuerying();
+        startSnapshotting();
 
         // Only query for commands if pickaxe is running for command and control
         if (this.configuration.isControl()) {
@@ -160,16 +456,73 @@ public class RunMe {
         while (true) {
             final long deadline =
                     System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
-            final List<StatsBatch> batches =
-                    StatsBatch.toBatches(
-                            this.statsCache.getMetrics(),
-                            200);
-            batches
-                    .parallelStream()
-                    .forEach(batch ->
-                            metricsSender.sendMetrics(
-                                    batch.getBatchTime(),
-                                    batch.getBatch()));
+            LOG.info("Upload pipeline {}",
+                    this.statsPipeline);
+            LOG.info("Upload retries: {} retried, {} gave up",
+                    this.uploadStrategy.getRetried(),
+                    this.uploadStrategy.getExhausted());
+            if (this.spoolingStrategy != null) {
+                LOG.info("Upload spool {}",
+                        this.spoolingStrategy);
+            }
+            LOG.info("Digest sessions: {} reused, {} challenged",
+                    DigestSessionCache.getHits(),
+                    DigestSessionCache.getMisses());
+            LOG.info("Miner bulkhead: {} acquired, {} waited ({}ms total, " +
+                            "{}ms max), {} rejected",
+                    MinerBulkhead.getAcquired(),
+                    MinerBulkhead.getWaited(),
+                    MinerBulkhead.getWaitMillis(),
+                    MinerBulkhead.getMaxWaitMillis(),
+                    MinerBulkhead.getRejected());
+            final SingleFlight<?, ?> flights = AsyncIo.getFlights();
+            LOG.info("Shared requests: {} sent, {} coalesced, {} fresh",
+                    flights.getExecuted(),
+                    flights.getCoalesced(),
+                    flights.getFresh());
+            Arrays.asList(
+                    HttpClientRegistry.FOREMAN,
+                    HttpClientRegistry.MINERS)
+                    .forEach(name ->
+                            HttpClientRegistry
+                                    .getStats(name)
+                                    .ifPresent(stats ->
+                                            LOG.info("HTTP client {}: {}",
+                                                    name,
+                                                    stats)));
+            LOG.info("Miner polls: {} running, {} queued, {}ms avg lag, " +
+                            "{}ms max lag, slot load {}",
+                    this.pollScheduler.getInFlight(),
+                    this.pollScheduler.getQueued(),
+                    this.pollScheduler.getAverageLagMillis(),
+                    this.pollScheduler.getMaxLagMillis(),
+                    this.pollScheduler.getSlotLoad(10));
+            LOG.info("Miner poll budget: {} cancelled, {} deferred, " +
+                            "slowest {}",
+                    this.pollScheduler.getOverruns(),
+                    this.pollScheduler.getDeferred(),
+                    this.pollScheduler.getSlowest(5));
+            LOG.info("Miners polled less often while stable: {}",
+                    this.pollScheduler.getStretched());
+            if (this.connectionRamp.isEnabled()) {
+                LOG.info("Miner ramp-up: {}",
+                        this.connectionRamp);
+            }
+            LOG.info("Miners backed off: {}",
+                    this.circuitBreaker.getOpen());
+            Arrays.asList(
+                    this.commandThreadPool,
+                    this.rebootThreadPool,
+                    this.housekeepingThreadPool,
+                    this.macThreadPool)
+                    .forEach(executor -> LOG.info("Executor {}", executor));
+            LOG.info("Shard {}: owning {} of {} miners across {} members",
+                    this.fleetShard.getSelf(),
+                    this.fleetShard.getOwned(),
+                    this.fleetShard.getTotal(),
+                    this.fleetShard.getMembers());
+            LOG.debug("Miner latency estimates: {}",
+                    AdaptiveTimeouts.getEstimates());
             final long now = System.currentTimeMillis();
             if (now < deadline) {
                 try {
@@ -177,8 +530,6 @@ public class RunMe {
                 } catch (final InterruptedException ie) {
                     // Ignore
                 }
-            } else {
-                LOG.info("Took too long to send metrics - going again");
             }
         }
     }
@@ -198,16 +549,176 @@ public class RunMe {
                 uri);
     }
 
-    /** Clears the {@link #blacklistedMiners} periodically. */
-    private void startBlacklistFlush() {
-        this.threadPool.scheduleWithFixedDelay(
-                () -> {
-                    LOG.info("Flushing blacklist");
-                    this.blacklistedMiners.clear();
-                },
-                0,
-                5,
-                TimeUnit.MINUTES);
+    /**
+     * Determines which miner a command targets, if any.
+     *
+     * @param command The command.
+     *
+     * @return The targeted miner.
+     */
+    private static Optional<MinerID> toMinerID(final CommandStart command) {
+        final Map<String, Object> args = command.args;
+        if (args == null) {
+            return Optional.empty();
+        }
+        final Object ip = args.getOrDefault("apiIp", args.get("ip"));
+        final Object port = args.get("apiPort");
+        if (ip == null || port == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(
+                    new SimpleMinerID(
+                            ip.toString(),
+                            Integer.parseInt(port.toString())));
+        } catch (final NumberFormatException nfe) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Creates a snapshot value for a miner.
+     *
+     * @param minerID The miner.
+     * @param value   The value.
+     *
+     * @return The snapshot value.
+     */
+    private static Snapshot.MinerValue toMinerValue(
+            final MinerID minerID,
+            final String value) {
+        final Snapshot.MinerValue minerValue = new Snapshot.MinerValue();
+        minerValue.apiIp = minerID.getApiIp();
+        minerValue.apiPort = minerID.getApiPort();
+        minerValue.value = value;
+        return minerValue;
+    }
+
+    /**
+     * Wraps the upload strategy so that metrics that couldn't be uploaded are
+     * spooled to disk and replayed later, if spooling is configured.
+     *
+     * @param uploadStrategy The upload strategy.
+     *
+     * @return The spooling strategy, or null if spooling isn't configured or
+     * the spool couldn't be opened.
+     */
+    private static SpoolingMetricsProcessingStrategy toSpooling(
+            final MetricsProcessingStrategy uploadStrategy) {
+        if (SPOOL_DIR.isEmpty()) {
+            return null;
+        }
+        try {
+            return new SpoolingMetricsProcessingStrategy(
+                    uploadStrategy,
+                    new MetricsSpool(
+                            Paths.get(SPOOL_DIR),
+                            SPOOL_MAX_BYTES,
+                            SPOOL_MAX_AGE_MILLIS,
+                            TimeUnit.MILLISECONDS,
+                            (int) Math.min(
+                                    MetricsSpool.DEFAULT_SEGMENT_SIZE,
+                                    SPOOL_MAX_BYTES)),
+                    SPOOL_REPLAY_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        } catch (final IOException ioe) {
+            LOG.warn("Failed to open the metrics spool in {} - metrics " +
+                            "that can't be uploaded will be dropped",
+                    SPOOL_DIR,
+                    ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether or not this instance should run a command.  Commands that
+     * target a miner are left for the instance that owns it, and the rest are
+     * spread across the shard by command ID.  Skipped commands are never
+     * started, so they stay pending for their owner.
+     *
+     * @param command The command.
+     *
+     * @return Whether or not this instance owns the command.
+     */
+    private boolean isOwned(final CommandStart command) {
+        final Optional<MinerID> minerID = toMinerID(command);
+        if (minerID.isPresent()) {
+            return this.fleetShard.owns(minerID.get());
+        }
+        return command.id == null || this.fleetShard.owns(command.id);
+    }
+
+    /**
+     * Restores the state from the last snapshot, if it's recent enough, so the
+     * first cycles after a restart don't start cold: known MACs and firmware
+     * types aren't queried again, failing miners stay backed off, and the
+     * first upload contains the last stats rather than nothing.
+     */
+    private void restoreSnapshot() {
+        final Optional<Snapshot> snapshotOptional = this.snapshotFile.read();
+        if (!snapshotOptional.isPresent()) {
+            LOG.info("No snapshot found - starting cold");
+            return;
+        }
+
+        final Snapshot snapshot = snapshotOptional.get();
+        final long age = System.currentTimeMillis() - snapshot.timestamp;
+        if (age < 0 || age >= MAC_EXPIRY_MILLIS) {
+            LOG.info("Snapshot is too old ({}ms) - starting cold", age);
+            return;
+        }
+
+        snapshot.macs.forEach(mac ->
+                this.macCache.put(
+                        new SimpleMinerID(
+                                mac.apiIp,
+                                mac.apiPort),
+                        mac.value));
+        DetectedTypes.restore(
+                snapshot.types
+                        .stream()
+                        .collect(Collectors.toMap(
+                                type -> new SimpleMinerID(
+                                        type.apiIp,
+                                        type.apiPort),
+                                type -> type.value,
+                                (type1, type2) -> type2)));
+        snapshot.backoffs.forEach(backoff ->
+                this.circuitBreaker.restore(
+                        new SimpleMinerID(
+                                backoff.apiIp,
+                                backoff.apiPort),
+                        new MinerCircuitBreaker.Backoff(
+                                backoff.opens,
+                                Math.max(backoff.remainingMillis - age, 0))));
+        if (age < STATS_EXPIRY_MILLIS) {
+            snapshot.stats.forEach(stats ->
+                    this.statsCache.add(
+                            new SimpleMinerID(
+                                    stats.getApiIp(),
+                                    stats.getApiPort()),
+                            stats));
+        }
+        LOG.info("Restored {} from {}ms ago", snapshot, age);
+    }
+
+    /**
+     * Runs a command.
+     *
+     * @param commandProcessor The processor for running commands.
+     * @param command          The command.
+     */
+    private void runCommand(
+            final CommandProcessor commandProcessor,
+            final CommandStart command) {
+        // The miner is about to change
+        toMinerID(command)
+                .ifPresent(this.pollScheduler::pollSoon);
+        try {
+            commandProcessor.runCommand(command);
+        } catch (final MinerException me) {
+            LOG.warn("Exception while running command", me);
+        }
     }
 
     /** Schedules command and control querying. */
@@ -217,10 +728,10 @@ public class RunMe {
                         this.foremanApi,
                         new AsicStrategyFactory(
                                 new NullPostProcessor(),
-                                this.threadPool,
-                                this.blacklistedMiners,
+                                this.rebootThreadPool,
+                                this.rebootingMiners,
                                 this.statsCache));
-        this.threadPool.scheduleWithFixedDelay(
+        this.commandThreadPool.scheduleWithFixedDelay(
                 () -> {
                     try {
                         final Optional<Commands> commands =
@@ -228,17 +739,30 @@ public class RunMe {
                                         .pickaxe()
                                         .getCommands();
                         if (commands.isPresent()) {
+                            final List<Future<?>> running = new LinkedList<>();
                             commands
                                     .get()
                                     .commands
-                                    .parallelStream()
+                                    .stream()
+                                    .filter(this::isOwned)
                                     .forEach(command -> {
                                         try {
-                                            commandProcessor.runCommand(command);
-                                        } catch (final MinerException me) {
-                                            LOG.warn("Exception while running command", me);
+                                            running.add(
+                                                    this.commandThreadPool.submit(() ->
+                                                            runCommand(
+                                                                    commandProcessor,
+                                                                    command)));
+                                        } catch (final RejectedExecutionException ree) {
+                                            // Never started, so it's retried later
+                                            LOG.warn("Deferring command: {}",
+                                                    ree.getMessage());
                                         }
                                     });
+                            // Don't query again until these have finished, so
+                            // a command is never picked up twice
+                            for (final Future<?> future : running) {
+                                future.get();
+                            }
                         } else {
                             LOG.warn("Failed to obtain commands");
                         }
@@ -255,19 +779,28 @@ public class RunMe {
      * Starts the thread that will continuously query for new configurations.
      */
     private void startConfigQuerying() {
-        this.threadPool.scheduleWithFixedDelay(
+        this.housekeepingThreadPool.scheduleWithFixedDelay(
                 () -> {
                     try {
                         final List<Miner> currentMiners =
                                 this.miners.get();
                         final List<Miner> newMiners =
-                                this.minerConfiguration.load();
+                                this.fleetShard.assign(
+                                        this.minerConfiguration.load());
                         if (!CollectionUtils.isEqualCollection(
                                 currentMiners,
                                 newMiners)) {
                             LOG.debug("A new configuration has been obtained");
                             this.miners.set(newMiners);
-                            this.blacklistedMiners.clear();
+                            this.pollScheduler.update(newMiners);
+                            final Set<MinerID> newMinerIds =
+                                    newMiners
+                                            .stream()
+                                            .map(Miner::getMinerID)
+                                            .collect(Collectors.toSet());
+                            this.circuitBreaker.retain(newMinerIds);
+                            this.statsTolerance.retain(newMinerIds);
+                            this.rebootingMiners.retainAll(newMinerIds);
                         } else {
                             LOG.debug("No configuration changes were observed");
                         }
@@ -282,7 +815,7 @@ public class RunMe {
 
     /** Starts the thread that will periodically query for MAC addresses. */
     private void startMacQuerying() {
-        this.threadPool.scheduleWithFixedDelay(
+        this.macThreadPool.scheduleWithFixedDelay(
                 () -> {
                     LOG.info("Starting MAC querying...");
                     try {
@@ -290,12 +823,16 @@ public class RunMe {
                         this.miners
                                 .get()
                                 .stream()
-                                .filter(miner -> !this.blacklistedMiners.contains(miner.getMinerID()))
+                                .filter(miner -> !this.rebootingMiners.contains(miner.getMinerID()))
                                 .filter(miner -> this.macCache.getIfPresent(miner.getMinerID()) == null)
+                                // MACs don't count towards a miner's health
+                                // and mustn't use up its probes
+                                .filter(miner -> this.circuitBreaker.isClosed(miner.getMinerID()))
                                 .forEach(miner -> {
+                                    final MinerID minerID = miner.getMinerID();
                                     try {
+                                        this.connectionRamp.acquire();
                                         LOG.info("Attempting to obtain MAC for {}", miner);
-                                        final MinerID minerID = miner.getMinerID();
                                         miner
                                                 .getMacAddress()
                                                 .map(String::toLowerCase)
@@ -325,57 +862,93 @@ public class RunMe {
                 TimeUnit.MINUTES);
     }
 
-    /** Schedules the job to begin automatically updating miner stats. */
-    private void startUpdateMiners() {
-        this.threadPool.scheduleWithFixedDelay(
+    /** Starts the thread that will periodically write the snapshot. */
+    private void startSnapshotting() {
+        this.housekeepingThreadPool.scheduleWithFixedDelay(
                 () -> {
                     try {
-                        LOG.debug("Updating miner stats cache");
-                        final List<Miner> miners = this.miners.get();
-                        final List<List<Miner>> partitionedMiners =
-                                Lists.partition(
-                                        miners,
-                                        25);
-                        this.statsThreadPool
-                                .submit(() ->
-                                        partitionedMiners
-                                                .parallelStream()
-                                                .forEach(this::updateMiners))
-                                .get();
+                        final Snapshot snapshot = toSnapshot();
+                        this.snapshotFile.write(snapshot);
+                        LOG.debug("Wrote {}", snapshot);
                     } catch (final Exception e) {
-                        LOG.warn("Exception occurred while updating", e);
+                        LOG.warn("Exception occurred while writing snapshot", e);
                     }
                 },
-                0,
-                30,
-                TimeUnit.SECONDS);
+                SNAPSHOT_INTERVAL_MILLIS,
+                SNAPSHOT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Fires a job for each miner that will query and update the cached stats
-     * for it.
+     * Captures the state that's worth keeping across a restart.
      *
-     * @param miners The miners.
+     * @return The snapshot.
      */
-    private void updateMiners(
-            final List<Miner> miners) {
-        miners
-                .stream()
-                .filter(miner -> !this.blacklistedMiners.contains(miner.getMinerID()))
-                .forEach(miner -> {
-                    final MinerID minerID = miner.getMinerID();
-                    try {
-                        this.statsCache.add(
-                                minerID,
-                                miner.getStats());
-                        LOG.debug("Cached metrics for {}", miner);
-                    } catch (final Exception e) {
-                        LOG.info("Failed to obtain metrics for {}",
-                                miner,
-                                e);
-                        this.blacklistedMiners.add(minerID);
-                        this.statsCache.invalidate(minerID);
-                    }
+    private Snapshot toSnapshot() {
+        final Snapshot snapshot = new Snapshot();
+        snapshot.timestamp = System.currentTimeMillis();
+        this.macCache
+                .asMap()
+                .forEach((minerID, mac) ->
+                        snapshot.macs.add(toMinerValue(minerID, mac)));
+        DetectedTypes
+                .getAll()
+                .forEach((minerID, type) ->
+                        snapshot.types.add(toMinerValue(minerID, type)));
+        this.circuitBreaker
+                .getBackoffs()
+                .forEach((minerID, backoff) -> {
+                    final Snapshot.MinerBackoff minerBackoff =
+                            new Snapshot.MinerBackoff();
+                    minerBackoff.apiIp = minerID.getApiIp();
+                    minerBackoff.apiPort = minerID.getApiPort();
+                    minerBackoff.opens = backoff.getOpens();
+                    minerBackoff.remainingMillis = backoff.getRemainingMillis();
+                    snapshot.backoffs.add(minerBackoff);
                 });
+        snapshot.stats.addAll(this.statsCache.getMetrics());
+        return snapshot;
+    }
+
+    /**
+     * Queries and updates the cached stats for a miner, unless it's being
+     * held back or backed off.
+     *
+     * @param miner The miner.
+     *
+     * @return Whether or not the miner's stats were unchanged since they last
+     * changed.
+     */
+    private boolean updateMiner(final Miner miner) {
+        final MinerID minerID = miner.getMinerID();
+        if (this.rebootingMiners.contains(minerID) ||
+                !this.circuitBreaker.allowRequest(minerID)) {
+            return false;
+        }
+        try {
+            final MinerStats stats = miner.getStats();
+            final boolean unchanged =
+                    this.statsTolerance.isUnchanged(
+                            minerID,
+                            stats);
+            this.statsCache.add(
+                    minerID,
+                    stats);
+            this.statsPipeline.offer(
+                    minerID,
+                    stats);
+            this.circuitBreaker.onSuccess(minerID);
+            LOG.debug("Cached metrics for {}", miner);
+            return unchanged;
+        } catch (final Exception e) {
+            LOG.info("Failed to obtain metrics for {}",
+                    miner,
+                    e);
+            this.circuitBreaker.onFailure(minerID);
+            this.statsTolerance.forget(minerID);
+            this.statsCache.invalidate(minerID);
+            this.statsPipeline.remove(minerID);
+        }
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,502 @@
+package mn.foreman.pickaxe.run;
+
+import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+import mn.foreman.model.miners.MinerStats;
+import mn.foreman.pickaxe.process.SerializedStats;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A {@link StatsPipeline} is the bounded hand-off between the miner pollers
+ * and the uploader.
+ *
+ * <p>Pollers {@link #offer(MinerID, MinerStats) offer} stats as soon as they
+ * have them.  Once per upload interval, the uploader tops the queue up with
+ * the cached stats of any miner that wasn't polled during the interval (e.g.
+ * stable miners that are polled less often), then drains it in batches that
+ * are serialized and uploaded.  Batches are bounded by their serialized size
+ * as well as by count, since the stats for a miner with a lot of raw stats
+ * can be many times larger than for a GPU rig.  Draining waits for an {@link
+ * AdaptiveConcurrency upload slot}, so a slow endpoint leaves stats in the
+ * queue rather than piling up requests, and the number of slots shrinks when
+ * uploads fail or slow down.</p>
+ *
+ * <p>The queue never grows past its capacity.  With {@link
+ * OverflowPolicy#COALESCE}, newer stats for a miner that's already queued
+ * replace the queued stats in place, so the queue holds at most one entry per
+ * miner.  With {@link OverflowPolicy#DROP_OLDEST}, every poll is kept.  Either
+ * way, when the queue is full the oldest entry is dropped to make room.</p>
+ */
+public class StatsPipeline {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(StatsPipeline.class);
+
+    /** The most serialized bytes in each upload. */
+    private final int batchBytes;
+
+    /** The number of stats in each upload. */
+    private final int batchSize;
+
+    /** The number of batches that were uploaded. */
+    private final AtomicLong batches = new AtomicLong();
+
+    /** The serialized size of the stats that were uploaded. */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** Supplies the cached stats for topping up the queue. */
+    private final Supplier<List<MinerStats>> cachedStats;
+
+    /** The most entries that can be queued. */
+    private final int capacity;
+
+    /** The number of stats that replaced queued stats. */
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /** Limits the number of uploads in flight. */
+    private final AdaptiveConcurrency concurrency;
+
+    /** The number of stats that were dropped to make room. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** The queued entries, oldest first. */
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    /** The number of batches that weren't delivered. */
+    private final AtomicLong failed = new AtomicLong();
+
+    /** The total time spent uploading batches, in millis. */
+    private final AtomicLong latencyMillis = new AtomicLong();
+
+    /** The most recently queued entry for each miner. */
+    private final Map<MinerID, Entry> latest = new HashMap<>();
+
+    /** What to do when stats arrive for a miner that's already queued. */
+    private final OverflowPolicy policy;
+
+    /** The sender for uploading metrics. */
+    private final MetricsSender sender;
+
+    /** The number of stats that were handed to the sender. */
+    private final AtomicLong sent = new AtomicLong();
+
+    /** Runs the uploads. */
+    private final ExecutorService uploadThreadPool =
+            Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("foreman-upload-%d")
+                            .build());
+
+    /** Drains the queue once per interval. */
+    private final ScheduledExecutorService uploader =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("foreman-upload-drain-%d")
+                            .build());
+
+    /**
+     * Constructor.
+     *
+     * @param capacity      The most entries that can be queued.
+     * @param policy        What to do when stats arrive for a miner that's
+     *                      already queued.
+     * @param batchSize     The number of stats in each upload.
+     * @param batchBytes    The most serialized bytes in each upload.
+     * @param concurrency   Limits the number of uploads in flight.
+     * @param sender        The sender for uploading metrics.
+     * @param cachedStats   Supplies the cached stats for topping up the
+     *                      queue.
+     */
+    public StatsPipeline(
+            final int capacity,
+            final OverflowPolicy policy,
+            final int batchSize,
+            final int batchBytes,
+            final AdaptiveConcurrency concurrency,
+            final MetricsSender sender,
+            final Supplier<List<MinerStats>> cachedStats) {
+        Validate.isTrue(
+                capacity > 0,
+                "capacity must be positive");
+        Validate.notNull(
+                policy,
+                "policy cannot be null");
+        Validate.isTrue(
+                batchSize > 0,
+                "batchSize must be positive");
+        Validate.isTrue(
+                batchBytes > 0,
+                "batchBytes must be positive");
+        Validate.notNull(
+                concurrency,
+                "concurrency cannot be null");
+        this.capacity = capacity;
+        this.policy = policy;
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.concurrency = concurrency;
+        this.sender = sender;
+        this.cachedStats = cachedStats;
+    }
+
+    /**
+     * Returns the number of batches that were uploaded.
+     *
+     * @return The number of batches.
+     */
+    public long getBatches() {
+        return this.batches.get();
+    }
+
+    /**
+     * Returns the serialized size of the stats that were uploaded.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytes() {
+        return this.bytes.get();
+    }
+
+    /**
+     * Returns the number of stats that replaced queued stats.
+     *
+     * @return The number of coalesced stats.
+     */
+    public long getCoalesced() {
+        return this.coalesced.get();
+    }
+
+    /**
+     * Returns the number of queued entries.
+     *
+     * @return The queue depth.
+     */
+    public synchronized int getDepth() {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the number of stats that were dropped to make room.
+     *
+     * @return The number of dropped stats.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Returns the number of batches that weren't delivered.
+     *
+     * @return The number of failed batches.
+     */
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    /**
+     * Returns how long the oldest queued entry has been waiting.
+     *
+     * @return The lag, in milliseconds.
+     */
+    public synchronized long getLagMillis() {
+        final Entry oldest = this.entries.peekFirst();
+        return oldest != null
+                ? System.currentTimeMillis() - oldest.queuedAt
+                : 0;
+    }
+
+    /**
+     * Returns the average time spent uploading a batch.
+     *
+     * @return The average latency, in milliseconds.
+     */
+    public long getLatencyMillis() {
+        final long batches = this.batches.get();
+        return batches > 0
+                ? this.latencyMillis.get() / batches
+                : 0;
+    }
+
+    /**
+     * Returns the number of stats that were handed to the sender.
+     *
+     * @return The number of sent stats.
+     */
+    public long getSent() {
+        return this.sent.get();
+    }
+
+    /**
+     * Queues new stats for a miner.
+     *
+     * @param minerID The miner.
+     * @param stats   The stats.
+     */
+    public synchronized void offer(
+            final MinerID minerID,
+            final MinerStats stats) {
+        final Entry queued = this.latest.get(minerID);
+        if (queued != null && this.policy == OverflowPolicy.COALESCE) {
+            queued.stats = stats;
+            this.coalesced.incrementAndGet();
+        } else {
+            enqueue(minerID, stats);
+        }
+    }
+
+    /**
+     * Drops anything queued for a miner (e.g. because it stopped responding).
+     *
+     * @param minerID The miner.
+     */
+    public synchronized void remove(final MinerID minerID) {
+        if (this.latest.remove(minerID) != null) {
+            this.entries.removeIf(entry -> entry.minerID.equals(minerID));
+        }
+    }
+
+    /**
+     * Starts uploading.
+     *
+     * @param interval The time between uploads.
+     * @param units    The interval (units).
+     */
+    public void start(
+            final long interval,
+            final TimeUnit units) {
+        this.uploader.scheduleAtFixedRate(
+                () -> {
+                    try {
+                        upload();
+                    } catch (final Exception e) {
+                        LOG.warn("Exception occurred while uploading", e);
+                    }
+                },
+                interval,
+                interval,
+                units);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s: %d/%d queued (%dms lag), %d sent, %d coalesced, " +
+                        "%d dropped, %d batches (%d bytes, %dms avg, " +
+                        "%d failed), %s",
+                this.policy,
+                getDepth(),
+                this.capacity,
+                getLagMillis(),
+                getSent(),
+                getCoalesced(),
+                getDropped(),
+                getBatches(),
+                getBytes(),
+                getLatencyMillis(),
+                getFailed(),
+                this.concurrency);
+    }
+
+    /**
+     * Returns the serialized size of a miner's stats.
+     *
+     * <p>Note: the JSON is {@link SerializedStats cached}, and the upload
+     * sends the same bytes rather than serializing the stats again.</p>
+     *
+     * @param stats The stats.
+     *
+     * @return The size, in bytes.
+     */
+    private static long toBytes(final MinerStats stats) {
+        try {
+            return SerializedStats.toJson(stats).length;
+        } catch (final IOException ioe) {
+            LOG.warn("Failed to size stats for {}", stats.getApiIp(), ioe);
+            return 0;
+        }
+    }
+
+    /**
+     * Removes up to a batch of the oldest entries.
+     *
+     * @return The stats.
+     */
+    private synchronized List<MinerStats> drain() {
+        final List<MinerStats> batch = new ArrayList<>(this.batchSize);
+        while (batch.size() < this.batchSize && !this.entries.isEmpty()) {
+            final Entry entry = this.entries.pollFirst();
+            this.latest.remove(entry.minerID, entry);
+            batch.add(entry.stats);
+        }
+        return batch;
+    }
+
+    /**
+     * Adds an entry, dropping the oldest entry if the queue is full.
+     *
+     * @param minerID The miner.
+     * @param stats   The stats.
+     */
+    private void enqueue(
+            final MinerID minerID,
+            final MinerStats stats) {
+        if (this.entries.size() >= this.capacity) {
+            final Entry oldest = this.entries.pollFirst();
+            this.latest.remove(oldest.minerID, oldest);
+            this.dropped.incrementAndGet();
+        }
+        final Entry entry = new Entry(minerID, stats);
+        this.entries.addLast(entry);
+        this.latest.put(minerID, entry);
+    }
+
+    /**
+     * Uploads a batch once there's a free upload slot.
+     *
+     * @param batchTime  The publish time of the batch.
+     * @param batch      The stats.
+     * @param batchBytes The serialized size of the stats.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void send(
+            final ZonedDateTime batchTime,
+            final List<MinerStats> batch,
+            final long batchBytes) throws InterruptedException {
+        final long startNanos = this.concurrency.acquire();
+        this.uploadThreadPool.execute(() -> {
+            boolean delivered = false;
+            try {
+                delivered =
+                        this.sender.sendMetrics(
+                                batchTime,
+                                batch);
+                this.sent.addAndGet(batch.size());
+            } finally {
+                this.concurrency.release(
+                        startNanos,
+                        delivered);
+                this.batches.incrementAndGet();
+                this.bytes.addAndGet(batchBytes);
+                this.latencyMillis.addAndGet(
+                        TimeUnit.NANOSECONDS.toMillis(
+                                System.nanoTime() - startNanos));
+                if (!delivered) {
+                    this.failed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the cached stats of every miner that has nothing queued.
+     */
+    private synchronized void topUp() {
+        for (final MinerStats stats : this.cachedStats.get()) {
+            final MinerID minerID =
+                    new SimpleMinerID(
+                            stats.getApiIp(),
+                            stats.getApiPort());
+            if (!this.latest.containsKey(minerID)) {
+                enqueue(minerID, stats);
+            }
+        }
+    }
+
+    /**
+     * Drains the queue into uploads, waiting for a free upload slot before
+     * each one, and then waits for the uploads to finish.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void upload() throws InterruptedException {
+        topUp();
+
+        final ZonedDateTime uploadTime = ZonedDateTime.now();
+        int batches = 0;
+        List<MinerStats> drained;
+        while (!(drained = drain()).isEmpty()) {
+            // Sized outside of the lock so pollers are never held up
+            List<MinerStats> batch = new ArrayList<>();
+            long batchBytes = 0;
+            for (final MinerStats stats : drained) {
+                final long statsBytes = toBytes(stats);
+                if (!batch.isEmpty() &&
+                        batchBytes + statsBytes > this.batchBytes) {
+                    send(
+                            uploadTime.plusSeconds(batches++),
+                            batch,
+                            batchBytes);
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(stats);
+                batchBytes += statsBytes;
+            }
+            send(
+                    uploadTime.plusSeconds(batches++),
+                    batch,
+                    batchBytes);
+        }
+
+        // Let the uploads finish before the next interval begins
+        this.concurrency.awaitIdle();
+        LOG.debug("Uploaded {} batches", batches);
+    }
+
+    /** What to do with stats for a miner that's already queued. */
+    public enum OverflowPolicy {
+
+        /** Replace the queued stats with the newer stats. */
+        COALESCE,
+
+        /** Queue the newer stats too, dropping the oldest when full. */
+        DROP_OLDEST
+    }
+
+    /** Stats waiting to be uploaded. */
+    private static class Entry {
+
+        /** The miner. */
+        private final MinerID minerID;
+
+        /** When the entry was queued. */
+        private final long queuedAt = System.currentTimeMillis();
+
+        /** The stats. */
+        private MinerStats stats;
+
+        /**
+         * Constructor.
+         *
+         * @param minerID The miner.
+         * @param stats   The stats.
+         */
+        private Entry(
+                final MinerID minerID,
+                final MinerStats stats) {
+            this.minerID = minerID;
+            this.stats = stats;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package mn.foreman.pickaxe.run;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A {@link WorkloadExecutor} is an isolated, named executor for one kind of
+ * work (e.g. commands, reboot watching or MAC harvesting), so that a backlog
+ * in one workload can't starve the others.
+ *
+ * <p>Threads are named after the workload.  The queue is bounded: once it's
+ * full, new tasks are rejected (and counted) instead of piling up behind work
+ * that's already late.  Periodic tasks hold a slot in the queue for as long as
+ * they're scheduled.</p>
+ *
+ * <p>Note: threads are also given the workload's priority, but that's only a
+ * hint - the JVM ignores thread priorities on Linux by default.  What a
+ * workload can count on is isolation (its own threads and queue), not
+ * priority over the others.</p>
+ */
+public class WorkloadExecutor
+        extends ScheduledThreadPoolExecutor {
+
+    /** The most tasks that can be waiting. */
+    private final int capacity;
+
+    /** The most tasks that were waiting at once. */
+    private final AtomicLong maxQueued = new AtomicLong();
+
+    /** The workload name. */
+    private final String name;
+
+    /** The number of rejected tasks. */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param name     The workload name.
+     * @param threads  The number of threads.
+     * @param priority The thread priority (a hint only).
+     * @param capacity The most tasks that can be waiting.
+     */
+    public WorkloadExecutor(
+            final String name,
+            final int threads,
+            final int priority,
+            final int capacity) {
+        super(
+                threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("foreman-" + name + "-%d")
+                        .setPriority(priority)
+                        .build());
+        this.name = name;
+        this.capacity = capacity;
+        setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns the most tasks that were waiting at once.
+     *
+     * @return The most tasks that were waiting at once.
+     */
+    public long getMaxQueued() {
+        return this.maxQueued.get();
+    }
+
+    /**
+     * Returns the number of rejected tasks.
+     *
+     * @return The number of rejected tasks.
+     */
+    public long getRejected() {
+        return this.rejected.get();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(
+            final Runnable command,
+            final long delay,
+            final TimeUnit unit) {
+        return reserve(() ->
+                super.schedule(
+                        command,
+                        delay,
+                        unit));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(
+            final Callable<V> callable,
+            final long delay,
+            final TimeUnit unit) {
+        return reserve(() ->
+                super.schedule(
+                        callable,
+                        delay,
+                        unit));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(
+            final Runnable command,
+            final long initialDelay,
+            final long period,
+            final TimeUnit unit) {
+        return reserve(() ->
+                super.scheduleAtFixedRate(
+                        command,
+                        initialDelay,
+                        period,
+                        unit));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(
+            final Runnable command,
+            final long initialDelay,
+            final long delay,
+            final TimeUnit unit) {
+        return reserve(() ->
+                super.scheduleWithFixedDelay(
+                        command,
+                        initialDelay,
+                        delay,
+                        unit));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s: %d/%d active, %d/%d queued (%d max), %d done, %d rejected",
+                this.name,
+                getActiveCount(),
+                getCorePoolSize(),
+                getQueue().size(),
+                this.capacity,
+                getMaxQueued(),
+                getCompletedTaskCount(),
+                getRejected());
+    }
+
+    /**
+     * Schedules a task if there's room in the queue for it.  Checking for
+     * room and queueing the task happen under one lock, so that concurrent
+     * submissions can't both see the last free slot.
+     *
+     * <p>Note: every other way of submitting a task goes through one of the
+     * schedule methods.</p>
+     *
+     * @param schedule Queues the task.
+     * @param <T>      The type of the scheduled task.
+     *
+     * @return The scheduled task.
+     */
+    private synchronized <T> T reserve(final Supplier<T> schedule) {
+        final int queued = getQueue().size();
+        if (queued >= this.capacity) {
+            this.rejected.incrementAndGet();
+            throw new RejectedExecutionException(
+                    String.format(
+                            "The %s queue is full (%d tasks)",
+                            this.name,
+                            queued));
+        }
+        this.maxQueued.accumulateAndGet(
+                queued + 1,
+                Math::max);
+        return schedule.get();
+    }
+}
@@ -0,0 +1,114 @@
+package mn.foreman.pickaxe.snapshot;
+
+import mn.foreman.io.JsonMapperRegistry;
+import mn.foreman.pickaxe.snapshot.json.Snapshot;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * A {@link SnapshotFile} reads and writes a {@link Snapshot} on the local
+ * disk.
+ *
+ * <p>Writes are crash-safe: the snapshot is written to a temporary file next
+ * to the target, flushed to disk, and then renamed over the target, so a
+ * reader only ever sees the previous snapshot or the new one - never a
+ * partially written one.</p>
+ */
+public class SnapshotFile {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SnapshotFile.class);
+
+    /** The snapshot file. */
+    private final Path path;
+
+    /**
+     * Constructor.
+     *
+     * @param path The snapshot file.
+     */
+    public SnapshotFile(final Path path) {
+        Validate.notNull(
+                path,
+                "path cannot be null");
+        this.path = path.toAbsolutePath();
+    }
+
+    /**
+     * Reads the snapshot.
+     *
+     * @return The snapshot, if one was written and could be read.
+     */
+    public Optional<Snapshot> read() {
+        if (!Files.exists(this.path)) {
+            return Optional.empty();
+        }
+        try (final InputStream inputStream =
+                     Files.newInputStream(this.path)) {
+            return Optional.of(
+                    JsonMapperRegistry
+                            .getReader(Snapshot.class)
+                            .readValue(inputStream));
+        } catch (final IOException ioe) {
+            LOG.warn("Failed to read snapshot from {}", this.path, ioe);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Replaces the snapshot, creating its directory if needed.
+     *
+     * @param snapshot The new snapshot.
+     *
+     * @throws IOException on failure to write the snapshot.
+     */
+    public void write(final Snapshot snapshot) throws IOException {
+        Files.createDirectories(this.path.getParent());
+        final Path temp =
+                this.path.resolveSibling(
+                        this.path.getFileName() + ".tmp");
+        try (final FileChannel channel =
+                     FileChannel.open(
+                             temp,
+                             StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING,
+                             StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer =
+                    ByteBuffer.wrap(
+                            JsonMapperRegistry
+                                    .getWriter(Snapshot.class)
+                                    .writeValueAsBytes(snapshot));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        try {
+            Files.move(
+                    temp,
+                    this.path,
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException amnse) {
+            Files.move(
+                    temp,
+                    this.path,
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package mn.foreman.pickaxe.snapshot.json;
+
+import mn.foreman.model.miners.MinerStats;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A {@link Snapshot} provides a model object representation of the state that
+ * pickaxe persists to disk so that it can start warm after a restart.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Snapshot {
+
+    /** The miners that were backed off. */
+    @JsonProperty("backoffs")
+    public List<MinerBackoff> backoffs = new LinkedList<>();
+
+    /** The MAC addresses. */
+    @JsonProperty("macs")
+    public List<MinerValue> macs = new LinkedList<>();
+
+    /** The last stats obtained from each miner. */
+    @JsonProperty("stats")
+    public List<MinerStats> stats = new LinkedList<>();
+
+    /** When the snapshot was taken, in epoch millis. */
+    @JsonProperty("timestamp")
+    public long timestamp;
+
+    /** The detected firmware and version types. */
+    @JsonProperty("types")
+    public List<MinerValue> types = new LinkedList<>();
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s [ " +
+                        "timestamp=%d, " +
+                        "macs=%d, " +
+                        "types=%d, " +
+                        "backoffs=%d, " +
+                        "stats=%d " +
+                        "]",
+                getClass().getSimpleName(),
+                this.timestamp,
+                this.macs.size(),
+                this.types.size(),
+                this.backoffs.size(),
+                this.stats.size());
+    }
+
+    /** The backoff of a miner that was failing. */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class MinerBackoff {
+
+        /** The API IP. */
+        @JsonProperty("apiIp")
+        public String apiIp;
+
+        /** The API port. */
+        @JsonProperty("apiPort")
+        public int apiPort;
+
+        /** The number of times the miner's circuit had opened. */
+        @JsonProperty("opens")
+        public int opens;
+
+        /** How long until the miner could be probed, in milliseconds. */
+        @JsonProperty("remainingMillis")
+        public long remainingMillis;
+    }
+
+    /** A value that was obtained from a miner. */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class MinerValue {
+
+        /** The API IP. */
+        @JsonProperty("apiIp")
+        public String apiIp;
+
+        /** The API port. */
+        @JsonProperty("apiPort")
+        public int apiPort;
+
+        /** The value. */
+        @JsonProperty("value")
+        public String value;
+    }
+}
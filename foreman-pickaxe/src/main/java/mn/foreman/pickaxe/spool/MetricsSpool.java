@@ -0,0 +1,418 @@
+package mn.foreman.pickaxe.spool;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link MetricsSpool} is a durable, on-disk, first-in-first-out log of
+ * payloads that couldn't be delivered yet.
+ *
+ * <p>Payloads are appended to {@link SpoolSegment segments}: pre-allocated
+ * files in the spool directory that are named by sequence number.  Appending
+ * is a positional write followed by a flush, so it never waits on anything
+ * but the local disk.  On startup, every segment in
+ * the directory is reopened and any record that wasn't completely written
+ * before a crash is discarded.</p>
+ *
+ * <p>The spool is bounded both by size and by age.  When a new segment
+ * wouldn't fit, the oldest segments are dropped (along with their pending
+ * records).  Records older than the maximum age are skipped when they reach
+ * the head of the spool.  Segments are deleted once every record in them has
+ * been consumed.  A segment that can't be deleted (ex: a virus scanner has
+ * it open) still counts against the size, and deleting it is retried every
+ * time the spool is compacted.</p>
+ */
+public class MetricsSpool {
+
+    /** The default size of a segment. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MetricsSpool.class);
+
+    /** The suffix of a segment file. */
+    private static final String SUFFIX = ".spool";
+
+    /** The directory where segments are stored. */
+    private final Path directory;
+
+    /** The maximum age of a record, in millis. */
+    private final long maxAgeMillis;
+
+    /** The maximum size of all of the segments. */
+    private final long maxBytes;
+
+    /** The size of a new segment. */
+    private final int segmentSize;
+
+    /** The segments, oldest first. */
+    private final Deque<SpoolSegment> segments = new ArrayDeque<>();
+
+    /** The segments that were removed but couldn't be deleted yet. */
+    private final List<SpoolSegment> undeleted = new ArrayList<>();
+
+    /** The number of records that were appended. */
+    private long appended;
+
+    /** The number of pending records that were dropped to stay in bounds. */
+    private long dropped;
+
+    /** The number of records that expired before they were consumed. */
+    private long expired;
+
+    /** The sequence number of the next segment. */
+    private long nextSequence;
+
+    /** The number of records that haven't been consumed. */
+    private long pending;
+
+    /**
+     * Constructor.
+     *
+     * @param directory    The directory where segments are stored.
+     * @param maxBytes     The maximum size of all of the segments.
+     * @param maxAge       The maximum age of a record.
+     * @param maxAgeUnits  The units of the maximum age.
+     * @param segmentSize  The size of a new segment.
+     *
+     * @throws IOException on failure to open the spool.
+     */
+    public MetricsSpool(
+            final Path directory,
+            final long maxBytes,
+            final long maxAge,
+            final TimeUnit maxAgeUnits,
+            final int segmentSize) throws IOException {
+        Validate.notNull(
+                directory,
+                "directory cannot be null");
+        Validate.isTrue(
+                maxBytes >= segmentSize,
+                "maxBytes must be at least segmentSize");
+        Validate.isTrue(
+                maxAge > 0,
+                "maxAge must be positive");
+        Validate.isTrue(
+                segmentSize > SpoolSegment.HEADER_SIZE,
+                "segmentSize is too small");
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeUnits.toMillis(maxAge);
+        this.segmentSize = segmentSize;
+        recover();
+    }
+
+    /**
+     * Appends a payload to the end of the spool.
+     *
+     * @param payload The payload.
+     *
+     * @throws IOException on failure to write the payload.
+     */
+    public synchronized void append(final byte[] payload) throws IOException {
+        final long now = System.currentTimeMillis();
+        final SpoolSegment active = this.segments.peekLast();
+        if (active == null || !active.append(now, payload)) {
+            final SpoolSegment segment =
+                    newSegment(
+                            Math.max(
+                                    this.segmentSize,
+                                    SpoolSegment.HEADER_SIZE + payload.length));
+            segment.append(now, payload);
+        }
+        this.appended++;
+        this.pending++;
+    }
+
+    /**
+     * Marks an entry, which must be the oldest pending entry, as consumed.
+     * Entries whose segment was dropped while they were out (ex: being
+     * replayed) were already accounted for, and are ignored.
+     *
+     * @param entry The entry.
+     *
+     * @throws IOException on failure to mark the entry.
+     */
+    public synchronized void consume(final Entry entry) throws IOException {
+        final SpoolSegment segment = entry.record.getSegment();
+        if (this.segments.contains(segment) &&
+                segment.getPending().peekFirst() == entry.record) {
+            segment.consume();
+            this.pending--;
+            compact();
+        }
+    }
+
+    /**
+     * Returns the number of pending records that were dropped to keep the
+     * spool within its size.
+     *
+     * @return The number of dropped records.
+     */
+    public synchronized long getDropped() {
+        return this.dropped;
+    }
+
+    /**
+     * Returns the number of records that expired before they were consumed.
+     *
+     * @return The number of expired records.
+     */
+    public synchronized long getExpired() {
+        return this.expired;
+    }
+
+    /**
+     * Returns the number of records that haven't been consumed.
+     *
+     * @return The number of pending records.
+     */
+    public synchronized long getPending() {
+        return this.pending;
+    }
+
+    /**
+     * Returns the oldest pending entry, skipping any that have expired.
+     *
+     * @return The oldest pending entry, if there is one.
+     *
+     * @throws IOException on failure to read the spool.
+     */
+    public synchronized Optional<Entry> peek() throws IOException {
+        final long expiredBefore =
+                System.currentTimeMillis() - this.maxAgeMillis;
+        for (final SpoolSegment segment : new ArrayList<>(this.segments)) {
+            while (!segment.getPending().isEmpty()) {
+                final SpoolSegment.Record record =
+                        segment.getPending().peekFirst();
+                if (record.getTimestamp() >= expiredBefore) {
+                    return Optional.of(
+                            new Entry(
+                                    record,
+                                    segment.read(record)));
+                }
+                segment.consume();
+                this.pending--;
+                this.expired++;
+            }
+        }
+        compact();
+        return Optional.empty();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "%s [ segments=%d, bytes=%d, appended=%d, pending=%d, dropped=%d, expired=%d ]",
+                getClass().getSimpleName(),
+                this.segments.size(),
+                getBytes(),
+                this.appended,
+                this.pending,
+                this.dropped,
+                this.expired);
+    }
+
+    /**
+     * Deletes a segment's file.
+     *
+     * @param segment The segment.
+     *
+     * @return Whether or not the file was deleted.
+     */
+    private static boolean delete(final SpoolSegment segment) {
+        try {
+            segment.delete();
+            return true;
+        } catch (final IOException ioe) {
+            LOG.warn("Failed to delete {} - will retry",
+                    segment.getPath(),
+                    ioe);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes every segment, other than the active one, that has nothing
+     * left to consume, and retries any deletes that failed before.
+     */
+    private void compact() {
+        this.undeleted.removeIf(MetricsSpool::delete);
+        while (this.segments.size() > 1 &&
+                this.segments.peekFirst().getPending().isEmpty()) {
+            remove(this.segments.pollFirst());
+        }
+    }
+
+    /**
+     * Returns the size of every segment file, including the ones that
+     * couldn't be deleted yet.
+     *
+     * @return The size, in bytes.
+     */
+    private long getBytes() {
+        long bytes = 0;
+        for (final SpoolSegment segment : this.segments) {
+            bytes += segment.getCapacity();
+        }
+        for (final SpoolSegment segment : this.undeleted) {
+            bytes += segment.getCapacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates a new segment, dropping the oldest segments if it wouldn't
+     * otherwise fit.
+     *
+     * @param capacity The size of the segment.
+     *
+     * @return The new segment.
+     *
+     * @throws IOException on failure to create the segment.
+     */
+    private SpoolSegment newSegment(final int capacity) throws IOException {
+        while (capacity + getBytes() > this.maxBytes &&
+                !this.segments.isEmpty()) {
+            final SpoolSegment oldest = this.segments.pollFirst();
+            final int lost = oldest.getPending().size();
+            this.pending -= lost;
+            this.dropped += lost;
+            remove(oldest);
+            LOG.warn("Spool is full - dropped {} pending records from {}",
+                    lost,
+                    oldest.getPath());
+        }
+
+        final long sequence = this.nextSequence++;
+        final SpoolSegment segment =
+                new SpoolSegment(
+                        this.directory.resolve(
+                                String.format(
+                                        "%020d%s",
+                                        sequence,
+                                        SUFFIX)),
+                        sequence,
+                        capacity);
+        this.segments.addLast(segment);
+        return segment;
+    }
+
+    /**
+     * Reopens every segment in the spool directory.
+     *
+     * @throws IOException on failure to read the directory.
+     */
+    private void recover() throws IOException {
+        Files.createDirectories(this.directory);
+
+        final List<SpoolSegment> recovered = new ArrayList<>();
+        try (final DirectoryStream<Path> files =
+                     Files.newDirectoryStream(
+                             this.directory,
+                             "*" + SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                final long sequence;
+                try {
+                    sequence =
+                            Long.parseLong(
+                                    name.substring(
+                                            0,
+                                            name.length() - SUFFIX.length()));
+                } catch (final NumberFormatException nfe) {
+                    LOG.warn("Ignoring unexpected file in spool: {}", file);
+                    continue;
+                }
+                recovered.add(
+                        new SpoolSegment(
+                                file,
+                                sequence,
+                                this.segmentSize));
+            }
+        }
+        recovered.sort((first, second) ->
+                Long.compare(
+                        first.getSequence(),
+                        second.getSequence()));
+
+        for (final SpoolSegment segment : recovered) {
+            this.segments.addLast(segment);
+            this.pending += segment.getPending().size();
+            this.nextSequence = segment.getSequence() + 1;
+        }
+        compact();
+
+        if (this.pending > 0) {
+            LOG.info("Recovered {} pending records from {}",
+                    this.pending,
+                    this.directory);
+        }
+    }
+
+    /**
+     * Deletes a segment that was removed from the spool, remembering it if it
+     * couldn't be deleted so that it's retried later.
+     *
+     * @param segment The segment.
+     */
+    private void remove(final SpoolSegment segment) {
+        if (!delete(segment)) {
+            this.undeleted.add(segment);
+        }
+    }
+
+    /** A record that's waiting to be consumed. */
+    public static class Entry {
+
+        /** The payload. */
+        private final byte[] payload;
+
+        /** The record. */
+        private final SpoolSegment.Record record;
+
+        /**
+         * Constructor.
+         *
+         * @param record  The record.
+         * @param payload The payload.
+         */
+        private Entry(
+                final SpoolSegment.Record record,
+                final byte[] payload) {
+            this.record = record;
+            this.payload = payload;
+        }
+
+        /**
+         * Returns the payload.
+         *
+         * @return The payload.
+         */
+        public byte[] getPayload() {
+            return this.payload;
+        }
+
+        /**
+         * Returns when the record was appended.
+         *
+         * @return The timestamp, in epoch millis.
+         */
+        public long getTimestamp() {
+            return this.record.getTimestamp();
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package mn.foreman.pickaxe.spool;
+
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link SpoolSegment} is a single, fixed-size, pre-allocated file that
+ * records are appended to.
+ *
+ * <p>Each record is laid out as:</p>
+ *
+ * <pre>
+ *   int  length     (of the payload; zero marks the end of the segment)
+ *   int  crc        (CRC-32 of the timestamp and the payload)
+ *   long timestamp  (when the record was appended, in epoch millis)
+ *   byte consumed   (1 once the record has been replayed)
+ *   ...  payload
+ * </pre>
+ *
+ * <p>The length is written last, so a record only exists once it has been
+ * completely written.  When a segment is reopened, records are read up to
+ * the first one that's missing or whose CRC doesn't match (i.e. one that was
+ * torn by a crash), and appending resumes from there.</p>
+ *
+ * <p>Records are written with positional writes through a {@link
+ * FileChannel} rather than through a mapping.  A mapped file can't be deleted
+ * on Windows until the mapping is garbage collected, whereas the channel is
+ * closed as soon as the segment is deleted.</p>
+ */
+class SpoolSegment {
+
+    /** The size of a record header. */
+    static final int HEADER_SIZE = 17;
+
+    /** The size of the file. */
+    private final int capacity;
+
+    /** The open file. */
+    private final FileChannel channel;
+
+    /** The file. */
+    private final Path path;
+
+    /** The records that haven't been consumed yet, oldest first. */
+    private final Deque<Record> pending = new ArrayDeque<>();
+
+    /** The sequence number of the segment. */
+    private final long sequence;
+
+    /** Where the next record goes. */
+    private int writePosition;
+
+    /**
+     * Constructor.
+     *
+     * @param path     The file.
+     * @param sequence The sequence number of the segment.
+     * @param capacity The size of the file, if it must be created.
+     *
+     * @throws IOException on failure to open the file.
+     */
+    SpoolSegment(
+            final Path path,
+            final long sequence,
+            final int capacity) throws IOException {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel =
+                FileChannel.open(
+                        path,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        try {
+            final long size = this.channel.size();
+            if (size < capacity) {
+                // Pre-allocate
+                write(
+                        ByteBuffer.allocate(1),
+                        capacity - 1);
+            }
+            this.capacity = (int) Math.max(size, capacity);
+            recover();
+        } catch (final IOException ioe) {
+            this.channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Appends a record, if there's room for it.
+     *
+     * @param timestamp When the record was created.
+     * @param payload   The payload.
+     *
+     * @return Whether or not the record fit.
+     *
+     * @throws IOException on failure to write the record.
+     */
+    boolean append(
+            final long timestamp,
+            final byte[] payload) throws IOException {
+        final int position = this.writePosition;
+        final int end = position + HEADER_SIZE + payload.length;
+        if (end > this.capacity) {
+            return false;
+        }
+
+        final ByteBuffer record =
+                ByteBuffer.allocate(
+                        HEADER_SIZE + payload.length + (end + 4 <= this.capacity
+                                ? 4
+                                : 0));
+        record.position(4);
+        record.putInt(toCrc(timestamp, payload));
+        record.putLong(timestamp);
+        record.put((byte) 0);
+        record.put(payload);
+        // Nothing after the record is valid, even after a torn write
+        if (record.hasRemaining()) {
+            record.putInt(0);
+        }
+        record.flip();
+        write(
+                record,
+                position);
+        this.channel.force(false);
+        // Commit
+        write(
+                (ByteBuffer) ByteBuffer
+                        .allocate(4)
+                        .putInt(payload.length)
+                        .flip(),
+                position);
+        this.channel.force(false);
+
+        this.pending.addLast(
+                new Record(
+                        this,
+                        position,
+                        payload.length,
+                        timestamp));
+        this.writePosition = end;
+        return true;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException on failure to close the file.
+     */
+    void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Marks the oldest pending record as consumed.
+     *
+     * @return The record.
+     *
+     * @throws IOException on failure to mark the record.
+     */
+    Record consume() throws IOException {
+        final Record record = this.pending.pollFirst();
+        write(
+                ByteBuffer.wrap(new byte[]{1}),
+                record.position + 16);
+        this.channel.force(false);
+        return record;
+    }
+
+    /**
+     * Closes and deletes the file.
+     *
+     * @throws IOException on failure to delete.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(this.path);
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return The size, in bytes.
+     */
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the file.
+     *
+     * @return The file.
+     */
+    Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Returns the records that haven't been consumed yet.
+     *
+     * @return The pending records, oldest first.
+     */
+    Deque<Record> getPending() {
+        return this.pending;
+    }
+
+    /**
+     * Returns the sequence number of the segment.
+     *
+     * @return The sequence number.
+     */
+    long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Reads a record's payload.
+     *
+     * @param record The record.
+     *
+     * @return The payload.
+     *
+     * @throws IOException on failure to read the payload.
+     */
+    byte[] read(final Record record) throws IOException {
+        final ByteBuffer payload = ByteBuffer.allocate(record.length);
+        read(
+                payload,
+                record.position + HEADER_SIZE);
+        return payload.array();
+    }
+
+    /**
+     * Computes the CRC of a record.
+     *
+     * @param timestamp The record timestamp.
+     * @param payload   The record payload.
+     *
+     * @return The CRC.
+     */
+    private static int toCrc(
+            final long timestamp,
+            final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(
+                ByteBuffer
+                        .allocate(8)
+                        .putLong(0, timestamp));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Fills a buffer from the file.
+     *
+     * @param destination The buffer to fill.
+     * @param position    Where to start reading.
+     *
+     * @throws IOException on failure to read.
+     */
+    private void read(
+            final ByteBuffer destination,
+            final long position) throws IOException {
+        while (destination.hasRemaining()) {
+            if (this.channel.read(
+                    destination,
+                    position + destination.position()) < 0) {
+                throw new EOFException(this.path.toString());
+            }
+        }
+    }
+
+    /**
+     * Reads back every complete record, stopping at the first torn one.
+     *
+     * @throws IOException on failure to read the file.
+     */
+    private void recover() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        int position = 0;
+        while (position + HEADER_SIZE <= this.capacity) {
+            header.clear();
+            read(
+                    header,
+                    position);
+            final int length = header.getInt(0);
+            if (length <= 0 ||
+                    position + HEADER_SIZE + length > this.capacity) {
+                break;
+            }
+            final long timestamp = header.getLong(8);
+            final Record record =
+                    new Record(
+                            this,
+                            position,
+                            length,
+                            timestamp);
+            if (toCrc(timestamp, read(record)) != header.getInt(4)) {
+                break;
+            }
+            if (header.get(16) == 0) {
+                this.pending.addLast(record);
+            }
+            position += HEADER_SIZE + length;
+        }
+        this.writePosition = position;
+    }
+
+    /**
+     * Writes a buffer to the file.
+     *
+     * @param source   The buffer to write.
+     * @param position Where to start writing.
+     *
+     * @throws IOException on failure to write.
+     */
+    private void write(
+            final ByteBuffer source,
+            final long position) throws IOException {
+        final int start = source.position();
+        while (source.hasRemaining()) {
+            this.channel.write(
+                    source,
+                    position + source.position() - start);
+        }
+    }
+
+    /** A record in a segment. */
+    static class Record {
+
+        /** The payload length. */
+        private final int length;
+
+        /** Where the record starts. */
+        private final int position;
+
+        /** The segment that holds the record. */
+        private final SpoolSegment segment;
+
+        /** When the record was appended. */
+        private final long timestamp;
+
+        /**
+         * Constructor.
+         *
+         * @param segment   The segment that holds the record.
+         * @param position  Where the record starts.
+         * @param length    The payload length.
+         * @param timestamp When the record was appended.
+         */
+        private Record(
+                final SpoolSegment segment,
+                final int position,
+                final int length,
+                final long timestamp) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Returns the payload length.
+         *
+         * @return The payload length.
+         */
+        int getLength() {
+            return this.length;
+        }
+
+        /**
+         * Returns the segment that holds the record.
+         *
+         * @return The segment.
+         */
+        SpoolSegment getSegment() {
+            return this.segment;
+        }
+
+        /**
+         * Returns when the record was appended.
+         *
+         * @return The timestamp, in epoch millis.
+         */
+        long getTimestamp() {
+            return this.timestamp;
+        }
+    }
+}
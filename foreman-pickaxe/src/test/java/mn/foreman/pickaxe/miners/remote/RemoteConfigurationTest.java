@@ -0,0 +1,194 @@
+package mn.foreman.pickaxe.miners.remote;
+
+import mn.foreman.model.Miner;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link RemoteConfiguration} against a local stand-in for the
+ * FOREMAN configuration API.
+ */
+public class RemoteConfigurationTest {
+
+    /** A miner configuration. */
+    private static final String MINER_A =
+            "{\"apiIp\":\"127.0.0.1\",\"apiPort\":4028,\"apiType\":1,\"params\":[]}";
+
+    /** Another miner configuration. */
+    private static final String MINER_B =
+            "{\"apiIp\":\"127.0.0.2\",\"apiPort\":4028,\"apiType\":1,\"params\":[]}";
+
+    /** The body served at each path. */
+    private final Map<String, String> bodies = new ConcurrentHashMap<>();
+
+    /** The number of full responses. */
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    /** The path that's failing, if any. */
+    private volatile String failing;
+
+    /** The number of not modified responses. */
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    /** The configuration under test. */
+    private RemoteConfiguration configuration;
+
+    /** The stand-in server. */
+    private HttpServer server;
+
+    /**
+     * Starts the stand-in server.
+     *
+     * @throws IOException on failure to start.
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.bodies.put("/config/", "[" + MINER_A + "]");
+        this.bodies.put("/nicehash", "[]");
+        this.bodies.put("/autominer", "{}");
+        this.bodies.put("/claymore", "{}");
+
+        this.server =
+                HttpServer.create(
+                        new InetSocketAddress("127.0.0.1", 0),
+                        0);
+        this.bodies.keySet().forEach(path ->
+                this.server.createContext(
+                        path,
+                        exchange -> respond(path, exchange)));
+        this.server.start();
+
+        final String baseUrl =
+                "http://127.0.0.1:" + this.server.getAddress().getPort();
+        this.configuration =
+                new RemoteConfiguration(
+                        baseUrl + "/config/",
+                        baseUrl + "/nicehash",
+                        baseUrl + "/autominer",
+                        baseUrl + "/claymore",
+                        "apiKey");
+    }
+
+    /** Stops the stand-in server. */
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    /**
+     * Tests that only the changed configuration is downloaded, and that
+     * unchanged miners are kept.
+     *
+     * @throws Exception on failure to load.
+     */
+    @Test
+    public void testChanged() throws Exception {
+        final List<Miner> first = this.configuration.load();
+        assertEquals(1, first.size());
+
+        this.bodies.put("/config/", "[" + MINER_A + "," + MINER_B + "]");
+        final List<Miner> second = this.configuration.load();
+        assertEquals(2, second.size());
+        assertSame(first.get(0), second.get(0));
+        assertEquals(5, this.downloads.get());
+        assertEquals(3, this.notModified.get());
+    }
+
+    /**
+     * Tests that a change that was downloaded during a load that failed is
+     * still applied once the failing download recovers.
+     *
+     * @throws Exception on failure to load.
+     */
+    @Test
+    public void testFailedLoad() throws Exception {
+        assertEquals(1, this.configuration.load().size());
+
+        this.bodies.put("/config/", "[" + MINER_A + "," + MINER_B + "]");
+        this.failing = "/nicehash";
+        try {
+            this.configuration.load();
+            fail("Load should have failed");
+        } catch (final ExecutionException ee) {
+            // Expected
+        }
+
+        this.failing = null;
+        assertEquals(2, this.configuration.load().size());
+        assertEquals(2, this.configuration.load().size());
+    }
+
+    /**
+     * Tests that nothing is rebuilt when the server reports that nothing
+     * changed.
+     *
+     * @throws Exception on failure to load.
+     */
+    @Test
+    public void testNotModified() throws Exception {
+        final List<Miner> first = this.configuration.load();
+        assertEquals(1, first.size());
+        assertEquals(4, this.downloads.get());
+
+        assertSame(first, this.configuration.load());
+        assertEquals(4, this.downloads.get());
+        assertEquals(4, this.notModified.get());
+    }
+
+    /**
+     * Responds with the body for the path, or a 304 if the client already has
+     * it.
+     *
+     * <p>Requests for the failing path are dropped without a response.  No
+     * connection is kept alive, so that a dropped request can't leave a stale
+     * connection behind for the next load.</p>
+     *
+     * @param path     The path.
+     * @param exchange The exchange.
+     *
+     * @throws IOException on failure to respond.
+     */
+    private void respond(
+            final String path,
+            final HttpExchange exchange) throws IOException {
+        if (path.equals(this.failing)) {
+            // Drop the connection without a response
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Connection", "close");
+        final String body = this.bodies.get(path);
+        final String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            this.notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            this.downloads.incrementAndGet();
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (final OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,87 @@
+package mn.foreman.pickaxe.process;
+
+import mn.foreman.io.JsonMapperRegistry;
+import mn.foreman.model.MetricsReport;
+import mn.foreman.model.metadata.ApiVersion;
+import mn.foreman.model.metadata.Metadata;
+import mn.foreman.model.miners.MinerStats;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/** Unit tests for {@link SerializedStats}. */
+public class SerializedStatsTest {
+
+    /**
+     * Tests that stats are serialized once per instance.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testCached() throws Exception {
+        final MinerStats stats = toStats("127.0.0.1");
+        final byte[] json = SerializedStats.toJson(stats);
+        assertSame(
+                json,
+                SerializedStats.toJson(stats));
+        assertNotSame(
+                json,
+                SerializedStats.toJson(toStats("127.0.0.1")));
+    }
+
+    /**
+     * Tests that a report written from the cached JSON reads back as the
+     * original report.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testWriteReport() throws Exception {
+        final MetricsReport metricsReport =
+                new MetricsReport.Builder()
+                        .setMetadata(
+                                new Metadata.Builder()
+                                        .setApiVersion(ApiVersion.V1_0_0)
+                                        .setTimestamp(ZonedDateTime.now())
+                                        .build())
+                        .addMinerStats(toStats("127.0.0.1"))
+                        .addMinerStats(toStats("127.0.0.2"))
+                        .build();
+
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        SerializedStats.writeReport(
+                metricsReport,
+                json);
+
+        assertEquals(
+                JsonMapperRegistry
+                        .getMapper()
+                        .readTree(
+                                JsonMapperRegistry
+                                        .getWriter(MetricsReport.class)
+                                        .writeValueAsBytes(metricsReport)),
+                JsonMapperRegistry
+                        .getMapper()
+                        .readTree(json.toByteArray()));
+    }
+
+    /**
+     * Creates stats.
+     *
+     * @param ip The miner IP.
+     *
+     * @return The stats.
+     */
+    private static MinerStats toStats(final String ip) {
+        return new MinerStats.Builder()
+                .setApiIp(ip)
+                .setApiPort(4028)
+                .build();
+    }
+}
@@ -0,0 +1,132 @@
+package mn.foreman.pickaxe.process;
+
+import mn.foreman.model.MetricsReport;
+import mn.foreman.model.miners.MinerStats;
+import mn.foreman.pickaxe.spool.MetricsSpool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for {@link SpoolingMetricsProcessingStrategy}. */
+public class SpoolingMetricsProcessingStrategyTest {
+
+    /** A folder for the spool. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that only reports that failed are spooled, and that a spooled
+     * report that's rejected on replay is discarded rather than holding up
+     * the reports behind it.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testRejected() throws Exception {
+        final Map<String, Delivery> outcomes = new ConcurrentHashMap<>();
+        final List<String> delivered = new CopyOnWriteArrayList<>();
+        final MetricsProcessingStrategy delegate =
+                new MetricsProcessingStrategy() {
+                    @Override
+                    public Delivery process(final MetricsReport metricsReport) {
+                        final String ip =
+                                metricsReport
+                                        .getMiners()
+                                        .get(0)
+                                        .getApiIp();
+                        final Delivery delivery =
+                                outcomes.getOrDefault(
+                                        ip,
+                                        Delivery.DELIVERED);
+                        if (delivery == Delivery.DELIVERED) {
+                            delivered.add(ip);
+                        }
+                        return delivery;
+                    }
+
+                    @Override
+                    public void processAll(final List<MetricsReport> metricsReports) {
+                        metricsReports.forEach(this::process);
+                    }
+                };
+
+        final MetricsSpool spool = newSpool();
+        final SpoolingMetricsProcessingStrategy strategy =
+                new SpoolingMetricsProcessingStrategy(
+                        delegate,
+                        spool,
+                        10,
+                        TimeUnit.MILLISECONDS);
+
+        outcomes.put("poison", Delivery.FAILED);
+        outcomes.put("later", Delivery.FAILED);
+        outcomes.put("bad", Delivery.REJECTED);
+        assertEquals(
+                Delivery.FAILED,
+                strategy.process(toReport("poison")));
+        assertEquals(
+                Delivery.REJECTED,
+                strategy.process(toReport("bad")));
+        assertEquals(
+                Delivery.FAILED,
+                strategy.process(toReport("later")));
+        assertEquals(2, spool.getPending());
+
+        // FOREMAN comes back, but will never accept the head of the spool
+        outcomes.put("poison", Delivery.REJECTED);
+        outcomes.remove("later");
+        strategy.start();
+
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (spool.getPending() > 0 &&
+                System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(0, spool.getPending());
+        assertEquals(1, delivered.size());
+        assertEquals("later", delivered.get(0));
+    }
+
+    /**
+     * Opens a spool with room for everything the test appends.
+     *
+     * @return The spool.
+     *
+     * @throws IOException on failure to open the spool.
+     */
+    private MetricsSpool newSpool() throws IOException {
+        return new MetricsSpool(
+                this.folder.getRoot().toPath(),
+                1024 * 1024,
+                1,
+                TimeUnit.HOURS,
+                4096);
+    }
+
+    /**
+     * Creates a report for one miner.
+     *
+     * @param ip The miner IP, used to tell reports apart.
+     *
+     * @return The report.
+     */
+    private static MetricsReport toReport(final String ip) {
+        return new MetricsReport.Builder()
+                .addMinerStats(
+                        new MinerStats.Builder()
+                                .setApiIp(ip)
+                                .setApiPort(4028)
+                                .build())
+                .build();
+    }
+}
@@ -0,0 +1,351 @@
+package mn.foreman.pickaxe.process.delta;
+
+import mn.foreman.io.JsonMapperRegistry;
+import mn.foreman.model.MetricsReport;
+import mn.foreman.model.miners.FanInfo;
+import mn.foreman.model.miners.MinerStats;
+import mn.foreman.model.miners.Pool;
+import mn.foreman.model.miners.asic.Asic;
+import mn.foreman.pickaxe.process.HttpPostMetricsProcessingStrategy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link DeltaEncoder} against a local stand-in for the
+ * FOREMAN metrics API that reconstructs the full stats from each upload.
+ */
+public class DeltaEncoderTest {
+
+    /** The number of miners in the fleet. */
+    private static final int MINERS = 20;
+
+    /** The bytes received. */
+    private final AtomicLong received = new AtomicLong();
+
+    /** The stats the stand-in reconstructed, by miner. */
+    private final Map<String, JsonNode> reconstructed =
+            new ConcurrentHashMap<>();
+
+    /** The number of uploads the stand-in rejected. */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /** The stand-in server. */
+    private HttpServer server;
+
+    /** The uploader under test. */
+    private HttpPostMetricsProcessingStrategy strategy;
+
+    /**
+     * Starts the stand-in server.
+     *
+     * @throws IOException on failure to start.
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.server =
+                HttpServer.create(
+                        new InetSocketAddress("127.0.0.1", 0),
+                        0);
+        this.server.createContext(
+                "/api/metrics",
+                this::receive);
+        this.server.start();
+
+        this.strategy =
+                new HttpPostMetricsProcessingStrategy(
+                        "http://127.0.0.1:" + this.server.getAddress().getPort() + "/api/metrics",
+                        "apiKey",
+                        false,
+                        5);
+    }
+
+    /** Stops the stand-in server. */
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    /**
+     * Tests that a receiver that loses its state gets keyframes after
+     * rejecting a delta.
+     */
+    @Test
+    public void testRejected() {
+        final Random random = new Random(1);
+        List<MinerStats> fleet = toFleet(random);
+        upload(fleet);
+
+        this.reconstructed.clear();
+        fleet = mutate(fleet, random);
+        upload(fleet);
+        assertEquals(1, this.rejected.get());
+        assertTrue(this.reconstructed.isEmpty());
+
+        upload(fleet);
+        assertEquals(1, this.rejected.get());
+        assertReconstructed(fleet);
+    }
+
+    /**
+     * Tests that a report replayed late doesn't become the base for the live
+     * deltas on either side.
+     */
+    @Test
+    public void testReplay() {
+        final Random random = new Random(2);
+        final List<MinerStats> old = toFleet(random);
+        upload(old);
+
+        final List<MinerStats> fleet = mutate(old, random);
+        upload(fleet);
+        assertReconstructed(fleet);
+
+        this.strategy.replay(toReport(old));
+        assertReconstructed(fleet);
+
+        final List<MinerStats> next = mutate(fleet, random);
+        upload(next);
+        assertEquals(0, this.rejected.get());
+        assertReconstructed(next);
+    }
+
+    /**
+     * Tests that every upload is reconstructed exactly, and that deltas are
+     * much smaller than full uploads.
+     */
+    @Test
+    public void testRoundTrip() {
+        final Random random = new Random(0);
+        List<MinerStats> fleet = toFleet(random);
+
+        long fullBytes = 0;
+        for (int i = 0; i < 12; i++) {
+            fullBytes += toFullBytes(fleet);
+            upload(fleet);
+            assertReconstructed(fleet);
+            fleet = mutate(fleet, random);
+        }
+
+        assertEquals(0, this.rejected.get());
+        assertTrue(
+                String.format(
+                        "%d delta bytes vs %d full bytes",
+                        this.received.get(),
+                        fullBytes),
+                this.received.get() * 2 < fullBytes);
+    }
+
+    /**
+     * Verifies that the stand-in reconstructed the fleet's stats exactly.
+     *
+     * @param fleet The fleet.
+     */
+    private void assertReconstructed(final List<MinerStats> fleet) {
+        assertEquals(fleet.size(), this.reconstructed.size());
+        for (final MinerStats stats : fleet) {
+            assertEquals(
+                    stats,
+                    JsonMapperRegistry
+                            .getMapper()
+                            .convertValue(
+                                    this.reconstructed.get(stats.getApiIp()),
+                                    MinerStats.class));
+        }
+    }
+
+    /**
+     * Changes a few values on every miner, like a minute between polls would.
+     *
+     * @param fleet  The fleet.
+     * @param random The source of randomness.
+     *
+     * @return The new stats.
+     */
+    private static List<MinerStats> mutate(
+            final List<MinerStats> fleet,
+            final Random random) {
+        final List<MinerStats> mutated = new ArrayList<>(fleet.size());
+        for (final MinerStats stats : fleet) {
+            final Asic asic = stats.getAsics().get(0);
+            final Map<String, Object> rawStats =
+                    new LinkedHashMap<>(asic.getRawStats());
+            for (int i = 0; i < 4; i++) {
+                rawStats.put(
+                        "chain_rate" + random.nextInt(3),
+                        Integer.toString(random.nextInt(14000)));
+            }
+            mutated.add(
+                    new MinerStats.Builder()
+                            .setApiIp(stats.getApiIp())
+                            .setApiPort(stats.getApiPort())
+                            .addPools(stats.getPools())
+                            .addAsic(
+                                    new Asic.Builder()
+                                            .fromAsic(asic)
+                                            .setHashRate(new BigDecimal(random.nextInt(14000)))
+                                            .addRawStats(rawStats)
+                                            .build())
+                            .build());
+        }
+        return mutated;
+    }
+
+    /**
+     * Creates a fleet of miners with raw-stats-heavy ASICs.
+     *
+     * @param random The source of randomness.
+     *
+     * @return The fleet.
+     */
+    private static List<MinerStats> toFleet(final Random random) {
+        final List<MinerStats> fleet = new ArrayList<>(MINERS);
+        for (int i = 0; i < MINERS; i++) {
+            final Map<String, Object> rawStats = new HashMap<>();
+            for (int j = 0; j < 80; j++) {
+                rawStats.put(
+                        "stat_" + j,
+                        Integer.toString(random.nextInt(100000)));
+            }
+            fleet.add(
+                    new MinerStats.Builder()
+                            .setApiIp("192.168.1." + i)
+                            .setApiPort(4028)
+                            .addPool(
+                                    new Pool.Builder()
+                                            .setName("stratum+tcp://pool.example.com:3333")
+                                            .setPriority(0)
+                                            .setStatus(true, true)
+                                            .setCounts(100, 1, 0)
+                                            .build())
+                            .addAsic(
+                                    new Asic.Builder()
+                                            .setHashRate(new BigDecimal(13500))
+                                            .setFanInfo(
+                                                    new FanInfo.Builder()
+                                                            .setCount(2)
+                                                            .addSpeed(6000)
+                                                            .addSpeed(6120)
+                                                            .setSpeedUnits("RPM")
+                                                            .build())
+                                            .addTemp(70)
+                                            .addTemp(72)
+                                            .setPowerState("normal")
+                                            .addRawStats(rawStats)
+                                            .build())
+                            .build());
+        }
+        return fleet;
+    }
+
+    /**
+     * Returns the size of the fleet's stats as a full upload.
+     *
+     * @param fleet The fleet.
+     *
+     * @return The size, in bytes.
+     */
+    private static long toFullBytes(final List<MinerStats> fleet) {
+        try {
+            return JsonMapperRegistry
+                    .getWriter(MetricsReport.class)
+                    .writeValueAsBytes(toReport(fleet))
+                    .length;
+        } catch (final IOException ioe) {
+            throw new AssertionError(ioe);
+        }
+    }
+
+    /**
+     * Creates a report for the fleet.
+     *
+     * @param fleet The fleet.
+     *
+     * @return The report.
+     */
+    private static MetricsReport toReport(final List<MinerStats> fleet) {
+        final MetricsReport.Builder builder = new MetricsReport.Builder();
+        fleet.forEach(builder::addMinerStats);
+        return builder.build();
+    }
+
+    /**
+     * Receives an upload, rejecting it if any delta doesn't apply to what
+     * the stand-in has or doesn't reconstruct to the expected checksum.
+     * Replayed keyframes are checked but never kept.
+     *
+     * @param exchange The exchange.
+     *
+     * @throws IOException on failure to respond.
+     */
+    private void receive(final HttpExchange exchange) throws IOException {
+        final byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+        this.received.addAndGet(body.length);
+
+        final Map<String, JsonNode> applied = new HashMap<>();
+        boolean valid = true;
+        for (final JsonNode miner : JsonMapperRegistry.getMapper().readTree(body).get("miners")) {
+            final String apiIp = miner.get("apiIp").asText();
+            final JsonNode stats;
+            if (miner.get("keyframe").asBoolean()) {
+                stats = miner.get("stats");
+            } else {
+                final JsonNode base = this.reconstructed.get(apiIp);
+                if (base == null ||
+                        !JsonPatches.checksum(base).equals(miner.get("base").asText())) {
+                    valid = false;
+                    break;
+                }
+                stats =
+                        JsonPatches.apply(
+                                base,
+                                (ArrayNode) miner.get("patch"));
+            }
+            assertEquals(
+                    miner.get("checksum").asText(),
+                    JsonPatches.checksum(stats));
+            if (!miner.path("replay").asBoolean()) {
+                applied.put(apiIp, stats);
+            }
+        }
+
+        if (valid) {
+            this.reconstructed.putAll(applied);
+            exchange.sendResponseHeaders(201, -1);
+        } else {
+            this.rejected.incrementAndGet();
+            exchange.sendResponseHeaders(409, -1);
+        }
+        exchange.close();
+    }
+
+    /**
+     * Uploads the fleet's stats.
+     *
+     * @param fleet The fleet.
+     */
+    private void upload(final List<MinerStats> fleet) {
+        this.strategy.process(toReport(fleet));
+    }
+}
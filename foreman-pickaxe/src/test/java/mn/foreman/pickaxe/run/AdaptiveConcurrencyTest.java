@@ -0,0 +1,47 @@
+package mn.foreman.pickaxe.run;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for {@link AdaptiveConcurrency}. */
+public class AdaptiveConcurrencyTest {
+
+    /**
+     * Tests that the limit grows while uploads succeed, and is cut in half
+     * only once for failures from the same round.
+     *
+     * @throws InterruptedException if interrupted.
+     */
+    @Test
+    public void testAimd() throws InterruptedException {
+        final AdaptiveConcurrency concurrency =
+                new AdaptiveConcurrency(
+                        8,
+                        1,
+                        TimeUnit.MINUTES);
+        assertEquals(4, concurrency.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            concurrency.release(
+                    concurrency.acquire(),
+                    true);
+        }
+        assertEquals(8, concurrency.getLimit());
+
+        final long first = concurrency.acquire();
+        final long second = concurrency.acquire();
+        concurrency.release(first, false);
+        concurrency.release(second, false);
+        assertEquals(4, concurrency.getLimit());
+        assertEquals(1, concurrency.getDecreases());
+
+        concurrency.release(
+                concurrency.acquire(),
+                false);
+        assertEquals(2, concurrency.getLimit());
+        assertEquals(0, concurrency.getInFlight());
+    }
+}
@@ -0,0 +1,76 @@
+package mn.foreman.pickaxe.run;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/** Unit tests for {@link ConnectionRamp}. */
+public class ConnectionRampTest {
+
+    /** The clock. */
+    private final AtomicLong now = new AtomicLong();
+
+    /** Tests that a disabled ramp lets every connection start when it likes. */
+    @Test
+    public void testDisabled() {
+        final ConnectionRamp ramp =
+                new ConnectionRamp(
+                        0,
+                        this.now::get);
+        assertFalse(ramp.isEnabled());
+        assertEquals(0, ramp.reserve(0));
+        assertEquals(0, ramp.reserve(0));
+        assertEquals(0, ramp.getWaiting());
+    }
+
+    /**
+     * Tests that connections are spaced out at the rate, that a connection
+     * that's due later than the next token keeps its own time, and that
+     * connections are counted as they come due.
+     */
+    @Test
+    public void testSpacing() {
+        final ConnectionRamp ramp =
+                new ConnectionRamp(
+                        2,
+                        this.now::get);
+        assertEquals(0, ramp.reserve(0));
+        assertEquals(millis(500), ramp.reserve(0));
+        assertEquals(millis(1000), ramp.reserve(millis(100)));
+        assertEquals(millis(3000), ramp.reserve(millis(3000)));
+        assertEquals(millis(3500), ramp.reserve(millis(3100)));
+
+        assertEquals(1, ramp.getAdmitted());
+        assertEquals(4, ramp.getWaiting());
+        assertEquals(3500, ramp.getRemainingMillis());
+
+        this.now.set(millis(1000));
+        assertEquals(3, ramp.getAdmitted());
+        assertEquals(2, ramp.getWaiting());
+        assertEquals(2500, ramp.getRemainingMillis());
+
+        this.now.set(millis(5000));
+        assertEquals(5, ramp.getAdmitted());
+        assertEquals(0, ramp.getWaiting());
+        assertEquals(0, ramp.getRemainingMillis());
+
+        // The bucket holds a single token, so there's no burst after a lull
+        assertEquals(millis(5000), ramp.reserve(millis(5000)));
+        assertEquals(millis(5500), ramp.reserve(millis(5000)));
+    }
+
+    /**
+     * Converts millis to nanos.
+     *
+     * @param millis The millis.
+     *
+     * @return The nanos.
+     */
+    private static long millis(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,114 @@
+package mn.foreman.pickaxe.run;
+
+import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link FleetShard}. */
+public class FleetShardTest {
+
+    /** The miners. */
+    private static final List<MinerID> MINERS =
+            IntStream
+                    .range(0, 1000)
+                    .mapToObj(i ->
+                            new SimpleMinerID(
+                                    "192.168." + (i / 250) + "." + (i % 250),
+                                    4028))
+                    .collect(Collectors.toList());
+
+    /** Tests that every miner is owned by exactly one member. */
+    @Test
+    public void testDisjoint() {
+        final List<String> members = Arrays.asList("a", "b", "c");
+        final List<FleetShard> shards =
+                members
+                        .stream()
+                        .map(member -> new FleetShard(member, () -> Optional.of(members)))
+                        .collect(Collectors.toList());
+        for (final MinerID minerID : MINERS) {
+            assertEquals(
+                    1,
+                    shards
+                            .stream()
+                            .filter(shard -> shard.owns(minerID))
+                            .count());
+        }
+        for (final FleetShard shard : shards) {
+            final long owned = MINERS.stream().filter(shard::owns).count();
+            assertTrue(owned > 250 && owned < 420);
+        }
+    }
+
+    /** Tests that adding a member only moves miners to the new member. */
+    @Test
+    public void testMinimalReshuffle() {
+        final List<String> before = Arrays.asList("a", "b", "c");
+        final List<String> after = Arrays.asList("a", "b", "c", "d");
+        for (final String member : before) {
+            final FleetShard oldShard = new FleetShard(member, () -> Optional.of(before));
+            final FleetShard newShard = new FleetShard(member, () -> Optional.of(after));
+            for (final MinerID minerID : MINERS) {
+                if (newShard.owns(minerID)) {
+                    assertTrue(oldShard.owns(minerID));
+                }
+            }
+        }
+    }
+
+    /** Tests that an instance that isn't a member owns nothing. */
+    @Test
+    public void testNotMember() {
+        final FleetShard shard =
+                new FleetShard(
+                        "z",
+                        () -> Optional.of(Arrays.asList("a", "b")));
+        assertTrue(MINERS.stream().noneMatch(shard::owns));
+        assertFalse(shard.owns("command"));
+    }
+
+    /**
+     * Tests that the last known members are kept while the members can't be
+     * read.
+     */
+    @Test
+    public void testUnreadable() {
+        final List<String> members = Arrays.asList("a", "b");
+        final AtomicBoolean readable = new AtomicBoolean(true);
+        final FleetShard shard =
+                new FleetShard(
+                        "a",
+                        () -> readable.get()
+                                ? Optional.of(members)
+                                : Optional.empty());
+        final List<MinerID> owned =
+                MINERS
+                        .stream()
+                        .filter(shard::owns)
+                        .collect(Collectors.toList());
+        assertTrue(owned.size() < MINERS.size());
+
+        readable.set(false);
+        shard.assign(Collections.emptyList());
+        assertEquals(2, shard.getMembers());
+        assertEquals(
+                owned,
+                MINERS
+                        .stream()
+                        .filter(shard::owns)
+                        .collect(Collectors.toList()));
+    }
+}
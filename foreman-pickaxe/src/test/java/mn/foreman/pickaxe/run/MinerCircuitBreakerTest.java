@@ -0,0 +1,123 @@
+package mn.foreman.pickaxe.run;
+
+import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link MinerCircuitBreaker}. */
+public class MinerCircuitBreakerTest {
+
+    /** The miner. */
+    private static final MinerID MINER_ID =
+            new SimpleMinerID(
+                    "127.0.0.1",
+                    4028);
+
+    /** The clock. */
+    private final AtomicLong now = new AtomicLong();
+
+    /** The breaker, without jitter. */
+    private final MinerCircuitBreaker breaker =
+            new MinerCircuitBreaker(
+                    2,
+                    2,
+                    10,
+                    40,
+                    TimeUnit.SECONDS,
+                    this.now::get,
+                    backoff -> backoff);
+
+    /** Tests that failed probes double the backoff, up to the max. */
+    @Test
+    public void testBackoff() {
+        this.breaker.onFailure(MINER_ID);
+        this.breaker.onFailure(MINER_ID);
+        assertFalse(this.breaker.allowRequest(MINER_ID));
+
+        advance(10);
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        this.breaker.onFailure(MINER_ID);
+
+        advance(10);
+        assertFalse(this.breaker.allowRequest(MINER_ID));
+        advance(10);
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        this.breaker.onFailure(MINER_ID);
+
+        advance(39);
+        assertFalse(this.breaker.allowRequest(MINER_ID));
+        advance(1);
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        this.breaker.onFailure(MINER_ID);
+
+        advance(40);
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+    }
+
+    /** Tests that a miner stays closed until enough failures in a row. */
+    @Test
+    public void testFailureThreshold() {
+        this.breaker.onFailure(MINER_ID);
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        this.breaker.onSuccess(MINER_ID);
+
+        this.breaker.onFailure(MINER_ID);
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        assertEquals(0, this.breaker.getOpen());
+    }
+
+    /** Tests that one probe at a time is let through until enough succeed. */
+    @Test
+    public void testHalfOpen() {
+        this.breaker.onFailure(MINER_ID);
+        this.breaker.onFailure(MINER_ID);
+        assertEquals(1, this.breaker.getOpen());
+
+        advance(10);
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        assertFalse(this.breaker.allowRequest(MINER_ID));
+        this.breaker.onSuccess(MINER_ID);
+        assertEquals(1, this.breaker.getOpen());
+
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        this.breaker.onSuccess(MINER_ID);
+        assertEquals(0, this.breaker.getOpen());
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+    }
+
+    /** Tests that checking whether a circuit is closed doesn't use a probe. */
+    @Test
+    public void testIsClosed() {
+        assertTrue(this.breaker.isClosed(MINER_ID));
+        this.breaker.onFailure(MINER_ID);
+        this.breaker.onFailure(MINER_ID);
+        assertFalse(this.breaker.isClosed(MINER_ID));
+
+        advance(10);
+        assertFalse(this.breaker.isClosed(MINER_ID));
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        this.breaker.onSuccess(MINER_ID);
+        assertFalse(this.breaker.isClosed(MINER_ID));
+        assertTrue(this.breaker.allowRequest(MINER_ID));
+        this.breaker.onSuccess(MINER_ID);
+        assertTrue(this.breaker.isClosed(MINER_ID));
+    }
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param seconds The number of seconds.
+     */
+    private void advance(final long seconds) {
+        this.now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+}
@@ -0,0 +1,580 @@
+package mn.foreman.pickaxe.run;
+
+import mn.foreman.model.Miner;
+import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+import mn.foreman.model.miners.MinerStats;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link MinerPollScheduler}, driven by a manual clock, timing
+ * wheel and executor so that every slot can be checked to the second.
+ */
+public class MinerPollSchedulerTest {
+
+    /** The clock. */
+    private final AtomicLong now = new AtomicLong();
+
+    /** The executor, which runs polls on the test thread. */
+    private final ManualExecutor executor = new ManualExecutor();
+
+    /** The polls, as <code>ip@second</code>. */
+    private final List<String> polls = new CopyOnWriteArrayList<>();
+
+    /** The timing wheel. */
+    private final ManualTimer wheel = new ManualTimer();
+
+    /**
+     * Tests that a poll that's still running when its budget runs out is
+     * cancelled.
+     *
+     * @throws InterruptedException on failure to wait.
+     */
+    @Test
+    public void testBudgetCancelled() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final MinerPollScheduler scheduler =
+                newScheduler(
+                        pool,
+                        toPoller(polled -> {
+                            started.countDown();
+                            try {
+                                TimeUnit.MINUTES.sleep(1);
+                            } catch (final InterruptedException ie) {
+                                interrupted.countDown();
+                            }
+                            return false;
+                        }));
+        scheduler.update(Collections.singletonList(new TestMiner("a")));
+
+        advance(0);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getInFlight());
+
+        advance(30);
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getOverruns());
+        assertEquals(0, scheduler.getDeferred());
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    /**
+     * Tests that a poll that never got a thread within its budget is
+     * deferred to the miner's next slot, rather than running late.
+     */
+    @Test
+    public void testBudgetDeferred() {
+        final MinerPollScheduler scheduler =
+                newScheduler(toPoller(polled -> false));
+        scheduler.update(Collections.singletonList(new TestMiner("a")));
+
+        this.executor.hold();
+        advance(0);
+        assertEquals(1, scheduler.getQueued());
+
+        advance(30);
+        assertEquals(1, scheduler.getDeferred());
+        assertEquals(0, scheduler.getQueued());
+
+        // The poll finally gets a thread, but it's too late
+        this.executor.release();
+        assertTrue(this.polls.isEmpty());
+
+        advance(30);
+        assertEquals(
+                Collections.singletonList("a@60"),
+                this.polls);
+        assertEquals(0, scheduler.getOverruns());
+    }
+
+    /**
+     * Tests that a miner that overruns its slot skips to the next slot that
+     * hasn't passed yet.
+     */
+    @Test
+    public void testOverrun() {
+        final Miner miner = new TestMiner("a");
+        final MinerPollScheduler scheduler =
+                newScheduler(toPoller(polled -> {
+                    if (this.polls.size() == 1) {
+                        // Slower than the interval
+                        advanceClock(70);
+                    }
+                    return false;
+                }));
+        scheduler.update(Collections.singletonList(miner));
+
+        advance(200);
+        assertEquals(
+                Arrays.asList(
+                        "a@0",
+                        "a@120",
+                        "a@180"),
+                this.polls);
+    }
+
+    /**
+     * Tests that a stable miner that's asked for is moved up to its next slot
+     * at the base interval.
+     */
+    @Test
+    public void testPollSoon() {
+        final Miner miner = new TestMiner("a");
+        final MinerPollScheduler scheduler =
+                newScheduler(toPoller(polled -> true));
+        scheduler.update(Collections.singletonList(miner));
+
+        // Next poll at 360
+        advance(130);
+        assertEquals(1, scheduler.getStretched());
+
+        scheduler.pollSoon(miner.getMinerID());
+        assertEquals(0, scheduler.getStretched());
+
+        advance(70);
+        assertEquals(
+                Arrays.asList(
+                        "a@0",
+                        "a@120",
+                        "a@180"),
+                this.polls);
+    }
+
+    /** Tests that miners are given slots spread evenly across the interval. */
+    @Test
+    public void testSlots() {
+        final MinerPollScheduler scheduler =
+                newScheduler(toPoller(polled -> false));
+        scheduler.update(
+                Arrays.asList(
+                        new TestMiner("a"),
+                        new TestMiner("b"),
+                        new TestMiner("c"),
+                        new TestMiner("d")));
+        assertEquals(
+                Arrays.asList(1, 1, 1, 1),
+                scheduler.getSlotLoad(4));
+
+        advance(120);
+        assertEquals(
+                Arrays.asList(
+                        "a@0",
+                        "b@15",
+                        "c@30",
+                        "d@45",
+                        "a@60",
+                        "b@75",
+                        "c@90",
+                        "d@105",
+                        "a@120"),
+                this.polls);
+    }
+
+    /**
+     * Tests that a stable miner's interval doubles up to the max, and drops
+     * back to the base interval as soon as it changes.
+     */
+    @Test
+    public void testStretched() {
+        final AtomicBoolean stable = new AtomicBoolean(true);
+        final MinerPollScheduler scheduler =
+                newScheduler(toPoller(polled -> stable.get()));
+        scheduler.update(Collections.singletonList(new TestMiner("a")));
+
+        advance(600);
+        assertEquals(
+                Arrays.asList(
+                        "a@0",
+                        "a@120",
+                        "a@360",
+                        "a@600"),
+                this.polls);
+        assertEquals(1, scheduler.getStretched());
+
+        this.polls.clear();
+        stable.set(false);
+        advance(300);
+        assertEquals(
+                Arrays.asList(
+                        "a@840",
+                        "a@900"),
+                this.polls);
+        assertEquals(0, scheduler.getStretched());
+    }
+
+    /**
+     * Tests that miners keep their slots across updates, that new miners are
+     * given slots from the time of the update, and that removed miners stop
+     * being polled.
+     */
+    @Test
+    public void testUpdate() {
+        final Miner a = new TestMiner("a");
+        final Miner b = new TestMiner("b");
+        final Miner c = new TestMiner("c");
+        final MinerPollScheduler scheduler =
+                newScheduler(toPoller(polled -> false));
+        scheduler.update(Arrays.asList(a, b));
+        advance(50);
+        assertEquals(
+                Arrays.asList(
+                        "a@0",
+                        "b@30"),
+                this.polls);
+
+        this.polls.clear();
+        scheduler.update(Arrays.asList(a, c, b));
+        advance(50);
+        assertEquals(
+                Arrays.asList(
+                        "a@60",
+                        "c@70",
+                        "b@90"),
+                this.polls);
+
+        this.polls.clear();
+        scheduler.update(Arrays.asList(a, c));
+        advance(60);
+        assertEquals(
+                Arrays.asList(
+                        "a@120",
+                        "c@130"),
+                this.polls);
+    }
+
+    /**
+     * Moves the clock forward, running everything that comes due on the way.
+     *
+     * @param seconds The number of seconds.
+     */
+    private void advance(final long seconds) {
+        this.wheel.advanceTo(
+                this.now.get() + TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    /**
+     * Moves the clock forward without running anything, like a slow poll.
+     *
+     * @param seconds The number of seconds.
+     */
+    private void advanceClock(final long seconds) {
+        this.now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    /**
+     * Creates a scheduler with a 60s interval, a 240s max interval and a 30s
+     * budget, that polls at the start of every slot.
+     *
+     * @param poller Polls a miner.
+     *
+     * @return The scheduler.
+     */
+    private MinerPollScheduler newScheduler(final Predicate<Miner> poller) {
+        return newScheduler(
+                this.executor,
+                poller);
+    }
+
+    /**
+     * Creates a scheduler with a 60s interval, a 240s max interval and a 30s
+     * budget, that polls at the start of every slot.
+     *
+     * @param executor The pool that polls run on.
+     * @param poller   Polls a miner.
+     *
+     * @return The scheduler.
+     */
+    private MinerPollScheduler newScheduler(
+            final ExecutorService executor,
+            final Predicate<Miner> poller) {
+        return new MinerPollScheduler(
+                60,
+                240,
+                30,
+                TimeUnit.SECONDS,
+                executor,
+                poller,
+                new ConnectionRamp(0),
+                this.now::get,
+                this.wheel,
+                slotNanos -> 0);
+    }
+
+    /**
+     * Creates a poller that records every poll before handing it off.
+     *
+     * @param poller Polls a miner, returning whether or not its stats were
+     *               unchanged.
+     *
+     * @return The recording poller.
+     */
+    private Predicate<Miner> toPoller(final Predicate<Miner> poller) {
+        return miner -> {
+            this.polls.add(
+                    miner.getIp() + "@" +
+                            TimeUnit.NANOSECONDS.toSeconds(this.now.get()));
+            return poller.test(miner);
+        };
+    }
+
+    /**
+     * An executor that runs tasks on the calling thread, or holds them until
+     * they're released.
+     */
+    private static class ManualExecutor
+            extends AbstractExecutorService {
+
+        /** The tasks being held. */
+        private final Deque<Runnable> held = new ArrayDeque<>();
+
+        /** Whether or not tasks are being held. */
+        private boolean holding;
+
+        @Override
+        public boolean awaitTermination(
+                final long timeout,
+                final TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (this.holding) {
+                this.held.add(command);
+            } else {
+                command.run();
+            }
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        /** Starts holding tasks. */
+        void hold() {
+            this.holding = true;
+        }
+
+        /** Stops holding tasks, and runs the ones that were held. */
+        void release() {
+            this.holding = false;
+            while (!this.held.isEmpty()) {
+                this.held.poll().run();
+            }
+        }
+    }
+
+    /** A timing wheel that only moves when the test moves the clock. */
+    private class ManualTimer
+            implements Timer {
+
+        /** The pending timeouts. */
+        private final List<ManualTimeout> timeouts = new ArrayList<>();
+
+        @Override
+        public synchronized Timeout newTimeout(
+                final TimerTask task,
+                final long delay,
+                final TimeUnit unit) {
+            final ManualTimeout timeout =
+                    new ManualTimeout(
+                            task,
+                            now.get() + unit.toNanos(delay));
+            this.timeouts.add(timeout);
+            return timeout;
+        }
+
+        @Override
+        public Set<Timeout> stop() {
+            return Collections.emptySet();
+        }
+
+        /**
+         * Moves the clock forward, running the timeouts that come due in
+         * order.
+         *
+         * @param target The time to move to.
+         */
+        void advanceTo(final long target) {
+            while (true) {
+                final ManualTimeout next;
+                synchronized (this) {
+                    this.timeouts.removeIf(ManualTimeout::isCancelled);
+                    next =
+                            this.timeouts
+                                    .stream()
+                                    .filter(timeout -> timeout.deadline <= target)
+                                    .min(Comparator.comparingLong(timeout -> timeout.deadline))
+                                    .orElse(null);
+                    if (next == null) {
+                        break;
+                    }
+                    this.timeouts.remove(next);
+                    next.expired = true;
+                }
+                now.accumulateAndGet(
+                        next.deadline,
+                        Math::max);
+                try {
+                    next.task.run(next);
+                } catch (final Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+            now.accumulateAndGet(
+                    target,
+                    Math::max);
+        }
+
+        /** A pending task. */
+        private class ManualTimeout
+                implements Timeout {
+
+            /** When the task is due. */
+            private final long deadline;
+
+            /** The task. */
+            private final TimerTask task;
+
+            /** Whether or not the task was cancelled. */
+            private boolean cancelled;
+
+            /** Whether or not the task has run. */
+            private boolean expired;
+
+            /**
+             * Constructor.
+             *
+             * @param task     The task.
+             * @param deadline When the task is due.
+             */
+            private ManualTimeout(
+                    final TimerTask task,
+                    final long deadline) {
+                this.task = task;
+                this.deadline = deadline;
+            }
+
+            @Override
+            public boolean cancel() {
+                synchronized (ManualTimer.this) {
+                    if (this.cancelled || this.expired) {
+                        return false;
+                    }
+                    this.cancelled = true;
+                    return true;
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                synchronized (ManualTimer.this) {
+                    return this.cancelled;
+                }
+            }
+
+            @Override
+            public boolean isExpired() {
+                synchronized (ManualTimer.this) {
+                    return this.expired;
+                }
+            }
+
+            @Override
+            public TimerTask task() {
+                return this.task;
+            }
+
+            @Override
+            public Timer timer() {
+                return ManualTimer.this;
+            }
+        }
+    }
+
+    /** A miner that's only ever polled through the scheduler. */
+    private static class TestMiner
+            implements Miner {
+
+        /** The IP. */
+        private final String ip;
+
+        /**
+         * Constructor.
+         *
+         * @param ip The IP.
+         */
+        private TestMiner(final String ip) {
+            this.ip = ip;
+        }
+
+        @Override
+        public int getApiPort() {
+            return 4028;
+        }
+
+        @Override
+        public String getIp() {
+            return this.ip;
+        }
+
+        @Override
+        public Optional<String> getMacAddress() {
+            return Optional.empty();
+        }
+
+        @Override
+        public MinerID getMinerID() {
+            return new SimpleMinerID(
+                    this.ip,
+                    4028);
+        }
+
+        @Override
+        public MinerStats getStats() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return this.ip;
+        }
+    }
+}
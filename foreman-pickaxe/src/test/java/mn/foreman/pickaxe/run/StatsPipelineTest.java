@@ -0,0 +1,152 @@
+package mn.foreman.pickaxe.run;
+
+import mn.foreman.io.JsonMapperRegistry;
+import mn.foreman.model.MinerID;
+import mn.foreman.model.SimpleMinerID;
+import mn.foreman.model.miners.MinerStats;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link StatsPipeline}. */
+public class StatsPipelineTest {
+
+    /**
+     * Tests that uploads are split by their serialized size.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    public void testBatchBytes() throws Exception {
+        final int statsBytes =
+                JsonMapperRegistry
+                        .getWriter(MinerStats.class)
+                        .writeValueAsBytes(toStats(1))
+                        .length;
+        final List<Integer> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch uploaded = new CountDownLatch(3);
+        final StatsPipeline pipeline =
+                new StatsPipeline(
+                        10,
+                        StatsPipeline.OverflowPolicy.COALESCE,
+                        10,
+                        statsBytes * 2,
+                        new AdaptiveConcurrency(
+                                1,
+                                1,
+                                TimeUnit.SECONDS),
+                        (publishTime, stats) -> {
+                            batches.add(stats.size());
+                            uploaded.countDown();
+                            return true;
+                        },
+                        Collections::emptyList);
+        for (int i = 1; i <= 5; i++) {
+            pipeline.offer(toMinerID(i), toStats(i));
+        }
+        pipeline.start(
+                10,
+                TimeUnit.MILLISECONDS);
+
+        assertTrue(uploaded.await(10, TimeUnit.SECONDS));
+        assertEquals(
+                Arrays.asList(2, 2, 1),
+                batches);
+        while (pipeline.getBatches() < 3) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(5L * statsBytes, pipeline.getBytes());
+    }
+
+    /** Tests that newer stats replace queued stats for the same miner. */
+    @Test
+    public void testCoalesce() {
+        final StatsPipeline pipeline =
+                toPipeline(StatsPipeline.OverflowPolicy.COALESCE);
+        pipeline.offer(toMinerID(1), toStats(1));
+        pipeline.offer(toMinerID(1), toStats(1));
+        pipeline.offer(toMinerID(2), toStats(2));
+        assertEquals(2, pipeline.getDepth());
+        assertEquals(1, pipeline.getCoalesced());
+
+        pipeline.offer(toMinerID(3), toStats(3));
+        assertEquals(2, pipeline.getDepth());
+        assertEquals(1, pipeline.getDropped());
+    }
+
+    /** Tests that every poll is kept until the queue is full. */
+    @Test
+    public void testDropOldest() {
+        final StatsPipeline pipeline =
+                toPipeline(StatsPipeline.OverflowPolicy.DROP_OLDEST);
+        pipeline.offer(toMinerID(1), toStats(1));
+        pipeline.offer(toMinerID(1), toStats(1));
+        assertEquals(2, pipeline.getDepth());
+
+        pipeline.offer(toMinerID(2), toStats(2));
+        assertEquals(2, pipeline.getDepth());
+        assertEquals(1, pipeline.getDropped());
+        assertEquals(0, pipeline.getCoalesced());
+
+        pipeline.remove(toMinerID(1));
+        assertEquals(1, pipeline.getDepth());
+    }
+
+    /**
+     * Creates a pipeline that holds two entries.
+     *
+     * @param policy The policy.
+     *
+     * @return The pipeline.
+     */
+    private static StatsPipeline toPipeline(
+            final StatsPipeline.OverflowPolicy policy) {
+        return new StatsPipeline(
+                2,
+                policy,
+                10,
+                1024,
+                new AdaptiveConcurrency(
+                        1,
+                        1,
+                        TimeUnit.SECONDS),
+                (publishTime, stats) -> true,
+                Collections::emptyList);
+    }
+
+    /**
+     * Creates a miner ID.
+     *
+     * @param miner The miner number.
+     *
+     * @return The miner ID.
+     */
+    private static MinerID toMinerID(final int miner) {
+        return new SimpleMinerID(
+                "127.0.0." + miner,
+                4028);
+    }
+
+    /**
+     * Creates stats.
+     *
+     * @param miner The miner number.
+     *
+     * @return The stats.
+     */
+    private static MinerStats toStats(final int miner) {
+        return new MinerStats.Builder()
+                .setApiIp("127.0.0." + miner)
+                .setApiPort(4028)
+                .build();
+    }
+}
@@ -0,0 +1,90 @@
+package mn.foreman.pickaxe.snapshot;
+
+import mn.foreman.model.miners.FanInfo;
+import mn.foreman.model.miners.MinerStats;
+import mn.foreman.model.miners.Pool;
+import mn.foreman.model.miners.asic.Asic;
+import mn.foreman.pickaxe.snapshot.json.Snapshot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link SnapshotFile}. */
+public class SnapshotFileTest {
+
+    /** A folder for the snapshot. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Tests that nothing is read before a snapshot is written. */
+    @Test
+    public void testMissing() {
+        assertFalse(
+                new SnapshotFile(this.folder.getRoot().toPath().resolve("none"))
+                        .read()
+                        .isPresent());
+    }
+
+    /**
+     * Tests that a snapshot can be read back after it's written, and that it
+     * replaces the previous one.
+     *
+     * @throws IOException on failure to write.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Path path = this.folder.getRoot().toPath().resolve("snapshot");
+        final SnapshotFile snapshotFile = new SnapshotFile(path);
+        snapshotFile.write(new Snapshot());
+
+        final MinerStats stats =
+                new MinerStats.Builder()
+                        .setApiIp("127.0.0.1")
+                        .setApiPort(4028)
+                        .addAsic(
+                                new Asic.Builder()
+                                        .setHashRate(new BigDecimal(100))
+                                        .setFanInfo(
+                                                new FanInfo.Builder()
+                                                        .setCount(1)
+                                                        .addSpeed(4000)
+                                                        .setSpeedUnits("RPM")
+                                                        .build())
+                                        .addTemp(70)
+                                        .build())
+                        .addPool(
+                                new Pool.Builder()
+                                        .setName("stratum+tcp://pool:3333")
+                                        .setPriority(0)
+                                        .setStatus(true, true)
+                                        .build())
+                        .build();
+        final Snapshot.MinerValue mac = new Snapshot.MinerValue();
+        mac.apiIp = "127.0.0.1";
+        mac.apiPort = 4028;
+        mac.value = "aa:bb:cc:dd:ee:ff";
+        final Snapshot snapshot = new Snapshot();
+        snapshot.timestamp = 1234;
+        snapshot.macs.add(mac);
+        snapshot.stats.add(stats);
+        snapshotFile.write(snapshot);
+
+        final Snapshot read = snapshotFile.read().orElseThrow(AssertionError::new);
+        assertEquals(1234, read.timestamp);
+        assertEquals("aa:bb:cc:dd:ee:ff", read.macs.get(0).value);
+        assertEquals(Collections.singletonList(stats), read.stats);
+        assertTrue(Files.exists(path));
+        assertEquals(1, this.folder.getRoot().list().length);
+    }
+}
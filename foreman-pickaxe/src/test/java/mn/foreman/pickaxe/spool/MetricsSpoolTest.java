@@ -0,0 +1,205 @@
+package mn.foreman.pickaxe.spool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/** Unit tests for {@link MetricsSpool}. */
+public class MetricsSpoolTest {
+
+    /** A folder for the spool. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that the oldest segments are dropped once the spool is full, and
+     * that segments are deleted once they've been consumed.
+     *
+     * @throws IOException on failure to use the spool.
+     */
+    @Test
+    public void testBounded() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+        // Two records per segment, at most three segments
+        final MetricsSpool spool =
+                new MetricsSpool(
+                        directory,
+                        180,
+                        1,
+                        TimeUnit.HOURS,
+                        60);
+        for (int i = 0; i < 8; i++) {
+            spool.append(toPayload("report-" + i));
+        }
+        assertEquals(6, spool.getPending());
+        assertEquals(2, spool.getDropped());
+        assertEquals(3, countSegments(directory));
+
+        for (int i = 2; i < 8; i++) {
+            assertEquals(
+                    "report-" + i,
+                    consume(spool));
+        }
+        assertFalse(spool.peek().isPresent());
+        assertEquals(1, countSegments(directory));
+    }
+
+    /**
+     * Tests that consuming an entry whose segment was dropped while it was
+     * being replayed doesn't count it twice.
+     *
+     * @throws IOException on failure to use the spool.
+     */
+    @Test
+    public void testConsumeAfterDrop() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+        // Two records per segment, at most three segments
+        final MetricsSpool spool =
+                new MetricsSpool(
+                        directory,
+                        180,
+                        1,
+                        TimeUnit.HOURS,
+                        60);
+        for (int i = 0; i < 6; i++) {
+            spool.append(toPayload("report-" + i));
+        }
+
+        final MetricsSpool.Entry replaying = spool.peek().get();
+        spool.append(toPayload("report-6"));
+        assertEquals(5, spool.getPending());
+        assertEquals(2, spool.getDropped());
+
+        spool.consume(replaying);
+        assertEquals(5, spool.getPending());
+        for (int i = 2; i < 7; i++) {
+            assertEquals(
+                    "report-" + i,
+                    consume(spool));
+        }
+        assertEquals(0, spool.getPending());
+        assertFalse(spool.peek().isPresent());
+    }
+
+    /**
+     * Tests that pending records survive a restart, and that a record torn
+     * by a crash is discarded without losing the records before it.
+     *
+     * @throws IOException on failure to use the spool.
+     */
+    @Test
+    public void testRecovery() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+        final MetricsSpool spool = newSpool(directory);
+        spool.append(toPayload("report-0"));
+        spool.append(toPayload("report-1"));
+        spool.append(toPayload("report-2"));
+        spool.append(toPayload("report-3"));
+        assertEquals(
+                "report-0",
+                consume(spool));
+
+        // Tear the last record
+        final int recordSize =
+                SpoolSegment.HEADER_SIZE + toPayload("report-0").length;
+        try (final FileChannel channel =
+                     FileChannel.open(
+                             directory.resolve("00000000000000000000.spool"),
+                             StandardOpenOption.WRITE)) {
+            channel.write(
+                    ByteBuffer.wrap(new byte[]{'x'}),
+                    recordSize * 4 - 1);
+        }
+
+        final MetricsSpool recovered = newSpool(directory);
+        assertEquals(2, recovered.getPending());
+        assertEquals(
+                "report-1",
+                consume(recovered));
+        recovered.append(toPayload("report-4"));
+        assertEquals(
+                "report-2",
+                consume(recovered));
+
+        final MetricsSpool reopened = newSpool(directory);
+        assertEquals(
+                "report-4",
+                consume(reopened));
+        assertFalse(reopened.peek().isPresent());
+    }
+
+    /**
+     * Consumes the oldest pending record.
+     *
+     * @param spool The spool.
+     *
+     * @return The record's payload.
+     *
+     * @throws IOException on failure to use the spool.
+     */
+    private static String consume(final MetricsSpool spool) throws IOException {
+        final Optional<MetricsSpool.Entry> entry = spool.peek();
+        spool.consume(entry.get());
+        return new String(
+                entry.get().getPayload(),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Counts the segment files in a spool.
+     *
+     * @param directory The spool directory.
+     *
+     * @return The number of segments.
+     *
+     * @throws IOException on failure to list the directory.
+     */
+    private static long countSegments(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * Opens a spool with room for everything the test appends.
+     *
+     * @param directory The spool directory.
+     *
+     * @return The spool.
+     *
+     * @throws IOException on failure to open the spool.
+     */
+    private static MetricsSpool newSpool(final Path directory) throws IOException {
+        return new MetricsSpool(
+                directory,
+                1024 * 1024,
+                1,
+                TimeUnit.HOURS,
+                4096);
+    }
+
+    /**
+     * Creates a payload.
+     *
+     * @param value The payload contents.
+     *
+     * @return The payload.
+     */
+    private static byte[] toPayload(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
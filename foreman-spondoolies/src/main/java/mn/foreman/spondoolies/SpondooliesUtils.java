@@ -1,10 +1,10 @@
 package mn.foreman.spondoolies;
 
+import mn.foreman.io.JsonMapperRegistry;
 import mn.foreman.model.miners.FanInfo;
 import mn.foreman.model.miners.asic.Asic;
 import mn.foreman.spondoolies.response.JsonStats;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,9 +36,9 @@ class SpondooliesUtils {
                 .forEach(map -> {
                     try {
                         final JsonStats jsonStats =
-                                new ObjectMapper().readValue(
-                                        map.get("json-stats"),
-                                        JsonStats.class);
+                                JsonMapperRegistry
+                                        .getReader(JsonStats.class)
+                                        .readValue(map.get("json-stats"));
 
                         // Fans
                         final List<Integer> fanSpeeds = jsonStats.fanSpeeds;
@@ -1,5 +1,6 @@
 package mn.foreman.whatsminer;
 
+import mn.foreman.io.MinerBulkhead;
 import mn.foreman.model.error.MinerException;
 
 import com.google.common.collect.ImmutableMap;
@@ -263,16 +264,20 @@ public class WhatsminerQuery {
             }
 
             try {
-                try (final CloseableHttpResponse response =
+                final int statusCode;
+                final String responseBody;
+                try (final MinerBulkhead.Permit permit =
+                             MinerBulkhead.acquire(ip);
+                     final CloseableHttpResponse response =
                              client.execute(httpRequest)) {
                     final StatusLine statusLine =
                             response.getStatusLine();
-                    final String responseBody =
-                            EntityUtils.toString(response.getEntity());
-                    callback.accept(
-                            statusLine.getStatusCode(),
-                            responseBody);
+                    statusCode = statusLine.getStatusCode();
+                    responseBody = EntityUtils.toString(response.getEntity());
                 }
+                callback.accept(
+                        statusCode,
+                        responseBody);
             } catch (final SocketTimeoutException ste) {
                 if (timeout != null) {
                     timeout.accept(ste);